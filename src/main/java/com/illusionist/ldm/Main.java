@@ -1,12 +1,29 @@
 package com.illusionist.ldm;
 
+import com.illusionist.ldm.cluster.ClusterNode;
+import com.illusionist.ldm.cluster.ClusterQueue;
+import com.illusionist.ldm.cluster.NodeStatus;
+import com.illusionist.ldm.control.ControlServer;
 import com.illusionist.ldm.ui.MainWindow;
 
 import javax.swing.*;
+import java.io.IOException;
+import java.nio.file.Paths;
+
+import static com.illusionist.ldm.util.StringFormatUtil.bytesToSize;
+import static com.illusionist.ldm.util.StringFormatUtil.bytesToString;
+
 //TIP To <b>Run</b> code, press <shortcut actionId="Run"/> or
 // click the <icon src="AllIcons.Actions.Execute"/> icon in the gutter.
 public class Main {
+    private static final long STATUS_INTERVAL_MILLIS = 5000;
+
     public static void main(String[] args) {
+        if (args.length > 0) {
+            System.exit(runHeadless(args));
+            return;
+        }
+
         try {
             UIManager.setLookAndFeel(UIManager.getCrossPlatformLookAndFeelClassName());
         } catch (ClassNotFoundException | InstantiationException | IllegalAccessException |
@@ -19,4 +36,111 @@ public class Main {
         window.setLocationRelativeTo(null);
         window.setVisible(true);
     }
-}
\ No newline at end of file
+
+    //region Headless
+    //   --cluster <dir> [--node <id>] [--tasks <n>]   work on the shared queue until killed
+    //   --submit <dir> <url> <file> [sha1]             queue a download
+    //   --status <dir>                                 print the queue and its nodes
+    //   --control [port]                               run the engine for the local control API
+    private static int runHeadless(String[] args) {
+        try {
+            switch (args[0]) {
+                case "--cluster":
+                    if (args.length >= 2)
+                        return runNode(args);
+                    break;
+                case "--submit":
+                    if (args.length >= 4) {
+                        ClusterQueue queue = new ClusterQueue(Paths.get(args[1]));
+                        System.out.println(queue.submit(args[2], args[3], args.length > 4 ? args[4] : null));
+                        return 0;
+                    }
+                    break;
+                case "--status":
+                    if (args.length >= 2) {
+                        printStatus(new ClusterQueue(Paths.get(args[1])));
+                        return 0;
+                    }
+                    break;
+                case "--control":
+                    return runControl(args.length >= 2 ? Integer.parseInt(args[1]) : 0);
+            }
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            return 1;
+        } catch (InterruptedException e) {
+            return 1;
+        } catch (NumberFormatException e) {
+            // Falls through to the usage
+        }
+
+        System.err.println("Usage: --cluster <dir> [--node <id>] [--tasks <n>] | --submit <dir> <url> <file> [sha1] | --status <dir> | --control [port]");
+        return 2;
+    }
+
+    private static int runNode(String[] args) throws IOException, InterruptedException {
+        ClusterQueue queue = new ClusterQueue(Paths.get(args[1]));
+        String nodeId = ClusterNode.getDefaultNodeId();
+        int maxTasks = 0;
+
+        for (int i = 2; i + 1 < args.length; i += 2) {
+            if (args[i].equals("--node"))
+                nodeId = args[i + 1];
+            else if (args[i].equals("--tasks"))
+                maxTasks = Integer.parseInt(args[i + 1]);
+        }
+
+        ClusterNode node = new ClusterNode(queue, nodeId);
+
+        if (maxTasks > 0)
+            node.setMaxTasks(maxTasks);
+
+        // Give the leases back on Ctrl+C instead of making the others wait them out
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                node.stop();
+            } catch (InterruptedException ignored) {
+            }
+        }));
+
+        node.start();
+
+        while (true) {
+            Thread.sleep(STATUS_INTERVAL_MILLIS);
+            printStatus(queue);
+        }
+    }
+
+    private static int runControl(int port) throws IOException, InterruptedException {
+        ControlServer control = ControlServer.getInstance();
+        control.start(port);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(control::stop));
+
+        System.out.printf("Control API on 127.0.0.1:%d, port and token in %s%n", control.getPort(), control.getConnectionFile());
+
+        while (true)
+            Thread.sleep(STATUS_INTERVAL_MILLIS);
+    }
+
+    private static void printStatus(ClusterQueue queue) throws IOException {
+        ClusterQueue.Status status = queue.getStatus();
+
+        System.out.printf("jobs %d/%d finished, tasks %d pending %d leased %d closed, %d failures%n",
+                status.getFinishedJobs(), status.getJobs(),
+                status.getPendingTasks(), status.getLeasedTasks(), status.getClosedTasks(),
+                status.getFailures());
+
+        long now = System.currentTimeMillis();
+
+        for (NodeStatus node : queue.getNodes()) {
+            System.out.printf("  %s%s: %d active, %d done, %d failed, %s, %s total, claims %d renewals %d reclaims %d lost %d%n",
+                    node.getNodeId(),
+                    now - node.getUpdatedAt() > queue.getLeaseMillis() ? " (silent)" : "",
+                    node.getActiveTasks(), node.getCompletedTasks(), node.getFailedTasks(),
+                    bytesToString(node.getBytesPerSecond()), bytesToSize(node.getBytesFetched()),
+                    node.getClaims(), node.getRenewals(), node.getReclaims(), node.getLostLeases());
+        }
+    }
+    //endregion
+}
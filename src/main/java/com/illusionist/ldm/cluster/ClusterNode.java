@@ -0,0 +1,435 @@
+package com.illusionist.ldm.cluster;
+
+import com.illusionist.ldm.network.DownloadListener;
+import com.illusionist.ldm.network.FileDownloader;
+import com.illusionist.ldm.network.RangeFetcher;
+import com.illusionist.ldm.storage.RangeSet;
+import com.illusionist.ldm.storage.WriteBehindFile;
+import com.illusionist.ldm.util.AppSettings;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URI;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+// One worker of the cluster. Polls the shared queue, claims tasks up to
+// its limit, renews the leases of what it runs and publishes a heartbeat
+// with its load. A task whose lease could not be renewed in time is
+// dropped, the node that reclaimed it carries on from the last recorded
+// position. Range writes are idempotent, so the short overlap before a
+// node notices is harmless.
+public final class ClusterNode {
+    //region Constants
+    public static final String SETTING_MAX_TASKS = "cluster.maxTasks";
+
+    private static final int DEFAULT_MAX_TASKS = 2;
+    private static final long POLL_MILLIS = 1000;
+    //endregion
+
+    private static final ExecutorService workers = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "ldm-cluster-task");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ClusterQueue queue;
+    private final String nodeId;
+    private final ConcurrentHashMap<String, RunningTask> running = new ConcurrentHashMap<>();
+
+    private int maxTasks = Math.max(1, AppSettings.getInt(SETTING_MAX_TASKS, DEFAULT_MAX_TASKS));
+    private volatile boolean stopped = false;
+    private Thread thread = null;
+
+    private final AtomicLong claims = new AtomicLong(0);
+    private final AtomicLong renewals = new AtomicLong(0);
+    private final AtomicLong reclaims = new AtomicLong(0);
+    private final AtomicLong lostLeases = new AtomicLong(0);
+    private final AtomicLong completedTasks = new AtomicLong(0);
+    private final AtomicLong failedTasks = new AtomicLong(0);
+    private final AtomicLong bytesFetched = new AtomicLong(0);
+
+    // Only touched by the node thread
+    private long rateBytes = 0;
+    private long rateNanos = System.nanoTime();
+    private long bytesPerSecond = 0;
+
+    public ClusterNode(ClusterQueue queue, String nodeId) {
+        this.queue = queue;
+        this.nodeId = ClusterQueue.safeName(nodeId);
+    }
+
+    // Host name and process id, unique enough for several nodes on one machine
+    public static String getDefaultNodeId() {
+        String host;
+
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            host = "node";
+        }
+
+        return host + "-" + ProcessHandle.current().pid();
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public void setMaxTasks(int maxTasks) {
+        this.maxTasks = Math.max(1, maxTasks);
+    }
+
+    public int getMaxTasks() {
+        return maxTasks;
+    }
+
+    //region Operations
+    public synchronized void start() {
+        if (thread != null)
+            return;
+
+        stopped = false;
+        thread = new Thread(this::run, "ldm-cluster-node");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Hands running tasks back to the queue so other nodes can take them at once
+    public void stop() throws InterruptedException {
+        Thread current;
+
+        synchronized (this) {
+            current = thread;
+            thread = null;
+        }
+
+        if (current == null)
+            return;
+
+        stopped = true;
+        current.interrupt();
+        current.join();
+
+        for (RunningTask task : running.values()) {
+            FileDownloader downloader = task.downloader;
+
+            if (downloader != null)
+                downloader.stop();
+        }
+
+        while (!running.isEmpty())
+            Thread.sleep(50);
+    }
+
+    private void run() {
+        long nextRenewal = 0;
+
+        while (!stopped) {
+            try {
+                if (System.currentTimeMillis() >= nextRenewal) {
+                    renewLeases();
+                    publishStatus();
+                    nextRenewal = System.currentTimeMillis() + queue.getLeaseMillis() / 3;
+                }
+
+                if (running.size() < maxTasks)
+                    claimTasks();
+
+                Thread.sleep(POLL_MILLIS);
+            } catch (InterruptedException e) {
+                break;
+            } catch (IOException e) {
+                // The shared directory went away for a moment, the next round tries again
+            }
+        }
+
+        try {
+            publishStatus();
+        } catch (IOException ignored) {
+        }
+    }
+    //endregion
+
+    //region Leases
+    private void claimTasks() throws IOException {
+        Set<String> closed = queue.getClosedTaskIds();
+        Map<String, Lease> leases = queue.getLeases();
+        long now = System.currentTimeMillis();
+
+        for (ClusterTask task : queue.getTasks()) {
+            if (running.size() >= maxTasks)
+                break;
+
+            if (closed.contains(task.getId()) || running.containsKey(task.getId()))
+                continue;
+
+            Lease current = leases.get(task.getId());
+
+            if (current != null && !current.isExpired(now))
+                continue;
+
+            if (current != null && current.getGeneration() >= ClusterQueue.MAX_GENERATIONS) {
+                queue.failTask(task, "Given up after " + current.getGeneration() + " attempts");
+                failedTasks.incrementAndGet();
+                continue;
+            }
+
+            Lease lease = queue.claim(task, current, nodeId);
+
+            if (lease == null)
+                continue;
+
+            claims.incrementAndGet();
+
+            // A released lease has no expiry, one that ran out belonged to a node that died or hung
+            if (current != null && current.getExpiresAt() > 0)
+                reclaims.incrementAndGet();
+
+            RunningTask runningTask = new RunningTask(task, lease);
+            running.put(task.getId(), runningTask);
+            workers.execute(() -> work(runningTask));
+        }
+    }
+
+    private void renewLeases() {
+        for (RunningTask task : running.values()) {
+            try {
+                Lease renewed = queue.renew(task.lease, task.getPosition());
+
+                if (renewed == null) {
+                    task.lost = true;
+                    lostLeases.incrementAndGet();
+
+                    FileDownloader downloader = task.downloader;
+
+                    if (downloader != null)
+                        downloader.stop();
+                } else {
+                    task.lease = renewed;
+                    renewals.incrementAndGet();
+                }
+            } catch (IOException e) {
+                // Tried again next round, the lease is good for two more
+            }
+        }
+    }
+
+    private void publishStatus() throws IOException {
+        long now = System.nanoTime();
+        long bytes = bytesFetched.get();
+
+        if (now > rateNanos) {
+            bytesPerSecond = (bytes - rateBytes) * 1_000_000_000L / (now - rateNanos);
+            rateBytes = bytes;
+            rateNanos = now;
+        }
+
+        queue.putNodeStatus(new NodeStatus(nodeId, System.currentTimeMillis(), running.size(),
+                completedTasks.get(), failedTasks.get(), bytes, bytesPerSecond,
+                claims.get(), renewals.get(), reclaims.get(), lostLeases.get()));
+    }
+    //endregion
+
+    //region Tasks
+    private void work(RunningTask task) {
+        boolean completed = false;
+
+        try {
+            boolean fetched = task.task.isRange() ? fetchRange(task) : fetchWhole(task);
+
+            if (fetched && !task.lost) {
+                queue.complete(task.lease);
+                completedTasks.incrementAndGet();
+                completed = true;
+
+                finishJob(task.task);
+            }
+        } catch (IOException e) {
+            // Released below, the next claim counts as another attempt
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                if (!completed && !task.lost)
+                    queue.release(task.lease, task.getPosition());
+            } catch (IOException ignored) {
+                // The lease runs out on its own
+            }
+
+            running.remove(task.task.getId());
+        }
+    }
+
+    // Every node writes its ranges straight into the shared .part file
+    private boolean fetchRange(RunningTask task) throws IOException, InterruptedException {
+        ClusterTask range = task.task;
+        Path part = Paths.get(range.getFilePath() + ".part");
+
+        Files.createDirectories(part.toAbsolutePath().getParent());
+
+        long from = Math.max(range.getStart(), Math.min(range.getEnd(), task.lease.getPosition()));
+        task.start = from;
+
+        if (from >= range.getEnd())
+            return true;
+
+        RangeFetcher fetcher = new RangeFetcher(URI.create(range.getUrl()));
+
+        try (WriteBehindFile out = WriteBehindFile.open(part, false)) {
+            out.setWrittenRanges(task.written);
+
+            WriteBehindFile.Appender appender = out.appender(from);
+
+            try {
+                boolean complete = fetcher.fetch(List.of(new RangeFetcher.ByteRange(from, range.getEnd())), (position, data, offset, length) -> {
+                    appender.append(data, offset, length);
+                    bytesFetched.addAndGet(length);
+                    return !task.lost && !stopped;
+                });
+
+                appender.flush();
+                return complete;
+            } finally {
+                appender.discard();
+            }
+        }
+    }
+
+    // Servers without ranges and small files are one ordinary download
+    private boolean fetchWhole(RunningTask task) throws InterruptedException {
+        FileDownloader downloader = new FileDownloader();
+        AtomicLong lastBytes = new AtomicLong(0);
+
+        downloader.setDownloadUrl(task.task.getUrl());
+        downloader.setFilePath(task.task.getFilePath());
+        downloader.setConditional(false);
+        downloader.addDownloadListener(new DownloadListener() {
+            @Override
+            public void onStateChanged(FileDownloader source, int state) {
+            }
+
+            @Override
+            public void onDataReceive(FileDownloader source, long bytesRecv, long bytesTotal) {
+                bytesFetched.addAndGet(bytesRecv - lastBytes.getAndSet(bytesRecv));
+            }
+        });
+
+        task.downloader = downloader;
+        downloader.start();
+
+        // Still PAUSED until the transfer thread starts running
+        while (downloader.getDownloadStatus() <= FileDownloader.RUNNING) {
+            if (task.lost || stopped) {
+                downloader.stop();
+                return false;
+            }
+
+            Thread.sleep(100);
+        }
+
+        return downloader.getDownloadStatus() == FileDownloader.COMPLETE;
+    }
+
+    // Only the node that closed the last task of the job gets here
+    private void finishJob(ClusterTask task) throws IOException {
+        if (!queue.tryFinishJob(task))
+            return;
+
+        Path target = Paths.get(task.getFilePath());
+
+        try {
+            if (task.isRange()) {
+                Path part = Paths.get(task.getFilePath() + ".part");
+
+                if (Files.size(part) != task.getSize())
+                    throw new IOException("Assembled file has the wrong size");
+
+                verify(part.toFile(), task);
+
+                try {
+                    Files.move(part, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(part, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } else {
+                verify(target.toFile(), task);
+            }
+        } catch (IOException e) {
+            queue.failJob(task.getJobId(), e.getMessage());
+            throw e;
+        }
+    }
+
+    private static void verify(File file, ClusterTask task) throws IOException {
+        if (task.getExpectedHash() != null && !task.getExpectedHash().equalsIgnoreCase(FileDownloader.hashFile(file)))
+            throw new IOException("Checksum does not match");
+    }
+    //endregion
+
+    //region Statistics
+    public int getActiveTasks() {
+        return running.size();
+    }
+
+    public long getClaims() {
+        return claims.get();
+    }
+
+    public long getRenewals() {
+        return renewals.get();
+    }
+
+    public long getReclaims() {
+        return reclaims.get();
+    }
+
+    public long getLostLeases() {
+        return lostLeases.get();
+    }
+
+    public long getCompletedTasks() {
+        return completedTasks.get();
+    }
+
+    public long getFailedTasks() {
+        return failedTasks.get();
+    }
+
+    public long getBytesFetched() {
+        return bytesFetched.get();
+    }
+    //endregion
+
+    private static final class RunningTask {
+        private final ClusterTask task;
+        private final RangeSet written = new RangeSet();
+
+        private volatile Lease lease;
+        private volatile long start;
+        private volatile boolean lost = false;
+        private volatile FileDownloader downloader = null;
+
+        private RunningTask(ClusterTask task, Lease lease) {
+            this.task = task;
+            this.lease = lease;
+            this.start = lease.getPosition();
+        }
+
+        // What is on disk from where this node started, the next holder continues there
+        private long getPosition() {
+            return task.isRange() ? written.getContiguousEnd(start) : 0;
+        }
+    }
+}
@@ -0,0 +1,450 @@
+package com.illusionist.ldm.cluster;
+
+import com.illusionist.ldm.network.RangeFetcher;
+import com.illusionist.ldm.util.AppSettings;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+// A job queue shared by every node that can see the same directory, on
+// one machine or over a network share. Nothing runs here: state is a
+// set of small files that are only ever created whole, by hard linking
+// a finished temporary file into place or moving one over it.
+//
+//   tasks/<job>-<n>.task    what to fetch
+//   leases/<task>.<gen>     who holds the task, the highest generation wins
+//   done/<task>.done        finished tasks, <task>.failed for given up ones
+//   done/<job>.finished     written once by the node that finishes the job
+//   nodes/<node>.node       the last heartbeat of every node
+public final class ClusterQueue {
+    //region Constants
+    public static final String SETTING_LEASE_MILLIS = "cluster.leaseMillis";
+    public static final String SETTING_SPLIT_SIZE = "cluster.splitSize";
+
+    private static final long DEFAULT_LEASE_MILLIS = 30_000;
+    private static final long DEFAULT_SPLIT_SIZE = 32L * 1024 * 1024;
+
+    // A task claimed this often without being finished is given up on
+    static final int MAX_GENERATIONS = 8;
+
+    private static final String TASK_SUFFIX = ".task";
+    private static final String DONE_SUFFIX = ".done";
+    private static final String FAILED_SUFFIX = ".failed";
+    private static final String FINISHED_SUFFIX = ".finished";
+    private static final String NODE_SUFFIX = ".node";
+    //endregion
+
+    private final Path directory;
+    private final Path tasksDirectory;
+    private final Path leasesDirectory;
+    private final Path doneDirectory;
+    private final Path nodesDirectory;
+
+    private final long leaseMillis = Math.max(1000, AppSettings.getLong(SETTING_LEASE_MILLIS, DEFAULT_LEASE_MILLIS));
+    private final long splitSize = Math.max(1024 * 1024, AppSettings.getLong(SETTING_SPLIT_SIZE, DEFAULT_SPLIT_SIZE));
+    private final SecureRandom random = new SecureRandom();
+
+    public ClusterQueue(Path directory) throws IOException {
+        this.directory = directory;
+
+        tasksDirectory = Files.createDirectories(directory.resolve("tasks"));
+        leasesDirectory = Files.createDirectories(directory.resolve("leases"));
+        doneDirectory = Files.createDirectories(directory.resolve("done"));
+        nodesDirectory = Files.createDirectories(directory.resolve("nodes"));
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public long getLeaseMillis() {
+        return leaseMillis;
+    }
+
+    //region Jobs
+    // Queues url for download into filepath and returns the job id. Files larger than
+    // the split size on servers that do ranges become one task per range.
+    public String submit(String url, String filepath, String expectedHash) throws IOException, InterruptedException {
+        long size = new RangeFetcher(URI.create(url)).probeSize();
+
+        String jobId = Long.toString(System.currentTimeMillis(), 36) + randomHex(4);
+        String hash = expectedHash == null || expectedHash.isBlank() ? null : expectedHash.trim();
+
+        if (size <= splitSize) {
+            writeWhole(tasksDirectory.resolve(jobId + "-0" + TASK_SUFFIX),
+                    new ClusterTask(jobId, 0, 1, url, filepath, size, 0, -1, hash).toProperties());
+            return jobId;
+        }
+
+        int count = (int) ((size + splitSize - 1) / splitSize);
+
+        for (int i = 0; i < count; i++) {
+            long start = i * splitSize;
+            ClusterTask task = new ClusterTask(jobId, i, count, url, filepath, size, start, Math.min(size, start + splitSize), hash);
+
+            writeWhole(tasksDirectory.resolve(task.getId() + TASK_SUFFIX), task.toProperties());
+        }
+
+        return jobId;
+    }
+
+    // Every queued task, finished or not, in submission order
+    public List<ClusterTask> getTasks() throws IOException {
+        ArrayList<ClusterTask> result = new ArrayList<>();
+
+        for (Path path : list(tasksDirectory, TASK_SUFFIX)) {
+            Properties properties = read(path);
+            ClusterTask task = properties == null ? null : ClusterTask.fromProperties(properties);
+
+            if (task != null)
+                result.add(task);
+        }
+
+        result.sort(Comparator.comparing(ClusterTask::getJobId).thenComparingInt(ClusterTask::getIndex));
+        return result;
+    }
+
+    // Ids of tasks that are finished or given up on
+    public Set<String> getClosedTaskIds() throws IOException {
+        HashSet<String> result = new HashSet<>();
+
+        for (Path path : list(doneDirectory, DONE_SUFFIX))
+            result.add(stripSuffix(path, DONE_SUFFIX));
+
+        for (Path path : list(doneDirectory, FAILED_SUFFIX))
+            result.add(stripSuffix(path, FAILED_SUFFIX));
+
+        return result;
+    }
+
+    public void failTask(ClusterTask task, String message) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("message", message);
+
+        writeWhole(doneDirectory.resolve(task.getId() + FAILED_SUFFIX), properties);
+    }
+
+    // True for exactly one caller, once every task of the job is done
+    public boolean tryFinishJob(ClusterTask task) throws IOException {
+        for (int i = 0; i < task.getCount(); i++) {
+            if (!Files.exists(doneDirectory.resolve(task.getJobId() + "-" + i + DONE_SUFFIX)))
+                return false;
+        }
+
+        try {
+            Files.createFile(doneDirectory.resolve(task.getJobId() + FINISHED_SUFFIX));
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        }
+    }
+
+    public void failJob(String jobId, String message) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("message", message);
+
+        writeWhole(doneDirectory.resolve(jobId + FAILED_SUFFIX), properties);
+    }
+    //endregion
+
+    //region Leases
+    // The highest generation lease of every task that was ever claimed
+    public Map<String, Lease> getLeases() throws IOException {
+        HashMap<String, Lease> result = new HashMap<>();
+
+        for (Path path : list(leasesDirectory, null)) {
+            String name = path.getFileName().toString();
+            int dot = name.lastIndexOf('.');
+
+            if (dot <= 0)
+                continue;
+
+            int generation;
+
+            try {
+                generation = Integer.parseInt(name.substring(dot + 1));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+
+            String taskId = name.substring(0, dot);
+            Lease current = result.get(taskId);
+
+            if (current != null && current.getGeneration() > generation)
+                continue;
+
+            Properties properties = read(path);
+            Lease lease = properties == null ? null : Lease.fromProperties(taskId, generation, properties);
+
+            // Damaged, count it as held for a full lease from when it was written
+            if (lease == null)
+                lease = new Lease(taskId, generation, "", modifiedAt(path) + leaseMillis, 0);
+
+            result.put(taskId, lease);
+        }
+
+        return result;
+    }
+
+    // Takes the task after current, null when someone else got it first or current is still live
+    public Lease claim(ClusterTask task, Lease current, String nodeId) throws IOException {
+        long now = System.currentTimeMillis();
+
+        if (current != null && !current.isExpired(now))
+            return null;
+
+        int generation = current == null ? 1 : current.getGeneration() + 1;
+        long position = current == null ? task.getStart() : Math.max(task.getStart(), current.getPosition());
+        Lease lease = new Lease(task.getId(), generation, nodeId, now + leaseMillis, position);
+
+        // Linking fails when the name exists, so of all nodes racing for this generation one wins
+        Path temporary = writeTemporary(leasesDirectory, lease.toProperties());
+
+        try {
+            Files.createLink(leasePath(task.getId(), generation), temporary);
+        } catch (FileAlreadyExistsException e) {
+            return null;
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+
+        for (int i = generation - 1; i >= 1; i--)
+            Files.deleteIfExists(leasePath(task.getId(), i));
+
+        return lease;
+    }
+
+    // Extends the lease and records how far the task got, null when it was taken over meanwhile
+    public Lease renew(Lease lease, long position) throws IOException {
+        Path next = leasePath(lease.getTaskId(), lease.getGeneration() + 1);
+
+        if (Files.exists(next))
+            return null;
+
+        Lease renewed = lease.renewed(System.currentTimeMillis() + leaseMillis, position);
+        writeWhole(leasePath(lease.getTaskId(), lease.getGeneration()), renewed.toProperties());
+
+        // Taken over while we wrote, the next claim cleans ours up
+        if (Files.exists(next))
+            return null;
+
+        return renewed;
+    }
+
+    // Gives the task back at once, keeping the position for whoever takes it next
+    public void release(Lease lease, long position) throws IOException {
+        if (!Files.exists(leasePath(lease.getTaskId(), lease.getGeneration() + 1)))
+            writeWhole(leasePath(lease.getTaskId(), lease.getGeneration()), lease.renewed(0, position).toProperties());
+    }
+
+    public void complete(Lease lease) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("node", lease.getNodeId());
+
+        writeWhole(doneDirectory.resolve(lease.getTaskId() + DONE_SUFFIX), properties);
+
+        for (int i = lease.getGeneration(); i >= 1; i--)
+            Files.deleteIfExists(leasePath(lease.getTaskId(), i));
+    }
+
+    private Path leasePath(String taskId, int generation) {
+        return leasesDirectory.resolve(taskId + "." + generation);
+    }
+    //endregion
+
+    //region Nodes
+    public void putNodeStatus(NodeStatus status) throws IOException {
+        writeWhole(nodesDirectory.resolve(safeName(status.getNodeId()) + NODE_SUFFIX), status.toProperties());
+    }
+
+    public List<NodeStatus> getNodes() throws IOException {
+        ArrayList<NodeStatus> result = new ArrayList<>();
+
+        for (Path path : list(nodesDirectory, NODE_SUFFIX)) {
+            Properties properties = read(path);
+            NodeStatus status = properties == null ? null : NodeStatus.fromProperties(properties);
+
+            if (status != null)
+                result.add(status);
+        }
+
+        result.sort(Comparator.comparing(NodeStatus::getNodeId));
+        return result;
+    }
+
+    // Node ids end up in file names
+    static String safeName(String nodeId) {
+        return nodeId.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+    //endregion
+
+    //region Status
+    public Status getStatus() throws IOException {
+        List<ClusterTask> tasks = getTasks();
+        Set<String> closed = getClosedTaskIds();
+        Map<String, Lease> leases = getLeases();
+        long now = System.currentTimeMillis();
+
+        int pending = 0;
+        int leased = 0;
+        int done = 0;
+        int failed = list(doneDirectory, FAILED_SUFFIX).size();
+        HashSet<String> jobs = new HashSet<>();
+
+        for (ClusterTask task : tasks) {
+            jobs.add(task.getJobId());
+
+            if (closed.contains(task.getId())) {
+                done++;
+                continue;
+            }
+
+            Lease lease = leases.get(task.getId());
+
+            if (lease != null && !lease.isExpired(now))
+                leased++;
+            else
+                pending++;
+        }
+
+        return new Status(jobs.size(), list(doneDirectory, FINISHED_SUFFIX).size(), pending, leased, done, failed);
+    }
+
+    public static final class Status {
+        private final int jobs;
+        private final int finishedJobs;
+        private final int pendingTasks;
+        private final int leasedTasks;
+        private final int closedTasks;
+        private final int failures;
+
+        private Status(int jobs, int finishedJobs, int pendingTasks, int leasedTasks, int closedTasks, int failures) {
+            this.jobs = jobs;
+            this.finishedJobs = finishedJobs;
+            this.pendingTasks = pendingTasks;
+            this.leasedTasks = leasedTasks;
+            this.closedTasks = closedTasks;
+            this.failures = failures;
+        }
+
+        public int getJobs() {
+            return jobs;
+        }
+
+        public int getFinishedJobs() {
+            return finishedJobs;
+        }
+
+        // Waiting for a node, including ones whose lease ran out
+        public int getPendingTasks() {
+            return pendingTasks;
+        }
+
+        public int getLeasedTasks() {
+            return leasedTasks;
+        }
+
+        // Done or given up on
+        public int getClosedTasks() {
+            return closedTasks;
+        }
+
+        // Given up tasks and jobs that failed when finishing
+        public int getFailures() {
+            return failures;
+        }
+    }
+    //endregion
+
+    //region Files
+    private List<Path> list(Path dir, String suffix) throws IOException {
+        ArrayList<Path> result = new ArrayList<>();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+
+                // Temporary files of writes in progress
+                if (name.startsWith("."))
+                    continue;
+
+                if (suffix == null || name.endsWith(suffix))
+                    result.add(path);
+            }
+        }
+
+        return result;
+    }
+
+    private static String stripSuffix(Path path, String suffix) {
+        String name = path.getFileName().toString();
+        return name.substring(0, name.length() - suffix.length());
+    }
+
+    // Null when the file went away or cannot be read
+    private static Properties read(Path path) {
+        Properties properties = new Properties();
+
+        try (InputStream in = Files.newInputStream(path)) {
+            properties.load(in);
+            return properties;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static long modifiedAt(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private Path writeTemporary(Path dir, Properties properties) throws IOException {
+        Path temporary = dir.resolve("." + randomHex(8) + ".tmp");
+
+        try (OutputStream out = Files.newOutputStream(temporary, StandardOpenOption.CREATE_NEW)) {
+            properties.store(out, null);
+        }
+
+        return temporary;
+    }
+
+    // Readers on other nodes see the old content or the new, never half of it
+    private void writeWhole(Path target, Properties properties) throws IOException {
+        Path temporary = writeTemporary(target.getParent(), properties);
+
+        try {
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private String randomHex(int bytes) {
+        byte[] value = new byte[bytes];
+        random.nextBytes(value);
+        return HexFormat.of().formatHex(value);
+    }
+    //endregion
+}
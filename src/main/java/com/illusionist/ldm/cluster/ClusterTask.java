@@ -0,0 +1,120 @@
+package com.illusionist.ldm.cluster;
+
+import java.util.Properties;
+
+// One unit of queued work: a whole file, or one byte range of a file
+// that was split across nodes. Every task of a job carries the job
+// description, so the node finishing the last one needs nothing else.
+public final class ClusterTask {
+    private final String jobId;
+    private final int index;
+    private final int count;
+    private final String url;
+    private final String filepath;
+    private final long size;
+    private final long start;
+    private final long end;
+    private final String expectedHash;
+
+    ClusterTask(String jobId, int index, int count, String url, String filepath, long size, long start, long end, String expectedHash) {
+        this.jobId = jobId;
+        this.index = index;
+        this.count = count;
+        this.url = url;
+        this.filepath = filepath;
+        this.size = size;
+        this.start = start;
+        this.end = end;
+        this.expectedHash = expectedHash;
+    }
+
+    public String getId() {
+        return jobId + "-" + index;
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    // How many tasks the job was split into
+    public int getCount() {
+        return count;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getFilePath() {
+        return filepath;
+    }
+
+    // -1 when the server did not tell
+    public long getSize() {
+        return size;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    // Exclusive
+    public long getEnd() {
+        return end;
+    }
+
+    // False for a whole file fetched in one ordinary download
+    public boolean isRange() {
+        return end > 0;
+    }
+
+    public String getExpectedHash() {
+        return expectedHash;
+    }
+
+    Properties toProperties() {
+        Properties properties = new Properties();
+
+        properties.setProperty("job", jobId);
+        properties.setProperty("index", Integer.toString(index));
+        properties.setProperty("count", Integer.toString(count));
+        properties.setProperty("url", url);
+        properties.setProperty("file", filepath);
+        properties.setProperty("size", Long.toString(size));
+        properties.setProperty("start", Long.toString(start));
+        properties.setProperty("end", Long.toString(end));
+
+        if (expectedHash != null)
+            properties.setProperty("sha1", expectedHash);
+
+        return properties;
+    }
+
+    // Null for anything half written or damaged
+    static ClusterTask fromProperties(Properties properties) {
+        try {
+            String jobId = properties.getProperty("job");
+            String url = properties.getProperty("url");
+            String filepath = properties.getProperty("file");
+
+            if (jobId == null || url == null || filepath == null)
+                return null;
+
+            return new ClusterTask(jobId,
+                    Integer.parseInt(properties.getProperty("index", "")),
+                    Integer.parseInt(properties.getProperty("count", "")),
+                    url,
+                    filepath,
+                    Long.parseLong(properties.getProperty("size", "-1")),
+                    Long.parseLong(properties.getProperty("start", "0")),
+                    Long.parseLong(properties.getProperty("end", "-1")),
+                    properties.getProperty("sha1"));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.illusionist.ldm.cluster;
+
+import java.util.Properties;
+
+// A node's claim on a task until expiresAt. Every claim of a task gets
+// the next generation, and only the holder of the highest generation
+// owns it. Position is how far a range task got, so whoever takes the
+// task over continues from there.
+public final class Lease {
+    private final String taskId;
+    private final int generation;
+    private final String nodeId;
+    private final long expiresAt;
+    private final long position;
+
+    Lease(String taskId, int generation, String nodeId, long expiresAt, long position) {
+        this.taskId = taskId;
+        this.generation = generation;
+        this.nodeId = nodeId;
+        this.expiresAt = expiresAt;
+        this.position = position;
+    }
+
+    public String getTaskId() {
+        return taskId;
+    }
+
+    public int getGeneration() {
+        return generation;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    public boolean isExpired(long now) {
+        return expiresAt <= now;
+    }
+
+    Lease renewed(long expiresAt, long position) {
+        return new Lease(taskId, generation, nodeId, expiresAt, position);
+    }
+
+    Properties toProperties() {
+        Properties properties = new Properties();
+
+        properties.setProperty("node", nodeId);
+        properties.setProperty("expires", Long.toString(expiresAt));
+        properties.setProperty("position", Long.toString(position));
+
+        return properties;
+    }
+
+    static Lease fromProperties(String taskId, int generation, Properties properties) {
+        try {
+            String nodeId = properties.getProperty("node");
+
+            if (nodeId == null)
+                return null;
+
+            return new Lease(taskId, generation, nodeId,
+                    Long.parseLong(properties.getProperty("expires", "")),
+                    Long.parseLong(properties.getProperty("position", "0")));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
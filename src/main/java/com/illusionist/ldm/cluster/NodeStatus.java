@@ -0,0 +1,120 @@
+package com.illusionist.ldm.cluster;
+
+import java.util.Properties;
+
+// What a node last reported about itself in the shared directory
+public final class NodeStatus {
+    private final String nodeId;
+    private final long updatedAt;
+    private final int activeTasks;
+    private final long completedTasks;
+    private final long failedTasks;
+    private final long bytesFetched;
+    private final long bytesPerSecond;
+    private final long claims;
+    private final long renewals;
+    private final long reclaims;
+    private final long lostLeases;
+
+    NodeStatus(String nodeId, long updatedAt, int activeTasks, long completedTasks, long failedTasks, long bytesFetched,
+               long bytesPerSecond, long claims, long renewals, long reclaims, long lostLeases) {
+        this.nodeId = nodeId;
+        this.updatedAt = updatedAt;
+        this.activeTasks = activeTasks;
+        this.completedTasks = completedTasks;
+        this.failedTasks = failedTasks;
+        this.bytesFetched = bytesFetched;
+        this.bytesPerSecond = bytesPerSecond;
+        this.claims = claims;
+        this.renewals = renewals;
+        this.reclaims = reclaims;
+        this.lostLeases = lostLeases;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public long getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public int getActiveTasks() {
+        return activeTasks;
+    }
+
+    public long getCompletedTasks() {
+        return completedTasks;
+    }
+
+    public long getFailedTasks() {
+        return failedTasks;
+    }
+
+    public long getBytesFetched() {
+        return bytesFetched;
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public long getClaims() {
+        return claims;
+    }
+
+    public long getRenewals() {
+        return renewals;
+    }
+
+    // Claims of tasks whose previous holder let the lease run out
+    public long getReclaims() {
+        return reclaims;
+    }
+
+    // Leases this node found taken over before it could renew them
+    public long getLostLeases() {
+        return lostLeases;
+    }
+
+    Properties toProperties() {
+        Properties properties = new Properties();
+
+        properties.setProperty("node", nodeId);
+        properties.setProperty("updated", Long.toString(updatedAt));
+        properties.setProperty("active", Integer.toString(activeTasks));
+        properties.setProperty("completed", Long.toString(completedTasks));
+        properties.setProperty("failed", Long.toString(failedTasks));
+        properties.setProperty("bytes", Long.toString(bytesFetched));
+        properties.setProperty("rate", Long.toString(bytesPerSecond));
+        properties.setProperty("claims", Long.toString(claims));
+        properties.setProperty("renewals", Long.toString(renewals));
+        properties.setProperty("reclaims", Long.toString(reclaims));
+        properties.setProperty("lost", Long.toString(lostLeases));
+
+        return properties;
+    }
+
+    static NodeStatus fromProperties(Properties properties) {
+        try {
+            String nodeId = properties.getProperty("node");
+
+            if (nodeId == null)
+                return null;
+
+            return new NodeStatus(nodeId,
+                    Long.parseLong(properties.getProperty("updated", "0")),
+                    Integer.parseInt(properties.getProperty("active", "0")),
+                    Long.parseLong(properties.getProperty("completed", "0")),
+                    Long.parseLong(properties.getProperty("failed", "0")),
+                    Long.parseLong(properties.getProperty("bytes", "0")),
+                    Long.parseLong(properties.getProperty("rate", "0")),
+                    Long.parseLong(properties.getProperty("claims", "0")),
+                    Long.parseLong(properties.getProperty("renewals", "0")),
+                    Long.parseLong(properties.getProperty("reclaims", "0")),
+                    Long.parseLong(properties.getProperty("lost", "0")));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,381 @@
+package com.illusionist.ldm.control;
+
+import com.illusionist.ldm.manager.DownloadManager;
+import com.illusionist.ldm.manager.DownloadRequest;
+import com.illusionist.ldm.manager.event.Subscription;
+import com.illusionist.ldm.network.RangeFetcher;
+import com.illusionist.ldm.util.AppDataUtil;
+import com.illusionist.ldm.util.AppSettings;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileAttribute;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+
+// Lets scripts drive the engine over HTTP on the loopback interface.
+// Every request carries the token from control.properties, which also
+// holds the port, so only whoever can read the app's data gets in.
+// Everything is plain text, one line per job:
+//
+//   POST /jobs                         url TAB file [TAB key=value]..., keys sha1, mirror,
+//                                      ranges, paused and offpeak. Answers a line per
+//                                      job in order: its id, or "error" TAB why
+//   POST /pause|resume|cancel|remove   job ids, answers "ok" or "error" per id
+//   GET  /status?since=n[&wait=s]      what changed after n, see StatusFeed, waiting up
+//                                      to s seconds for something to change
+//   GET  /events?since=n               the same, kept open and written to as jobs change
+public final class ControlServer {
+    //region Constants
+    public static final String SETTING_ENABLED = "control.enabled";
+    public static final String SETTING_PORT = "control.port";
+
+    private static final String FILENAME = "control.properties";
+    private static final String TOKEN_HEADER = "X-LDM-Token";
+
+    // Changes are gathered this long before a stream is written, a busy job costs one line per turn
+    private static final long STREAM_INTERVAL_MILLIS = 250;
+    // A quiet stream still gets a cursor line this often, so a client that left is noticed
+    private static final long KEEPALIVE_MILLIS = 15_000;
+    private static final long MAX_WAIT_SECONDS = 60;
+    //endregion
+
+    private static ControlServer instance = null;
+
+    private final DownloadManager manager = DownloadManager.getInstance();
+    private final StatusFeed feed = new StatusFeed();
+    private final SecureRandom random = new SecureRandom();
+
+    private HttpServer server = null;
+    private Subscription subscription = null;
+    private volatile byte[] token = null;
+
+    public static synchronized ControlServer getInstance() {
+        if (instance == null) {
+            instance = new ControlServer();
+
+            if (AppSettings.getBoolean(SETTING_ENABLED, false)) {
+                try {
+                    instance.start(AppSettings.getInt(SETTING_PORT, 0));
+                } catch (IOException ignored) {
+                    // Port taken, it can be turned on again from the menu
+                }
+            }
+        }
+
+        return instance;
+    }
+
+    //region Lifecycle
+    // Port 0 takes any free one, control.properties tells which
+    public synchronized void start(int port) throws IOException {
+        if (server != null)
+            return;
+
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        String tokenText = HexFormat.of().formatHex(bytes);
+
+        HttpServer created = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 64);
+        created.setExecutor(Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "ldm-control");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        created.createContext("/", this::handle);
+
+        // Subscribed before the jobs are read, so none falls in between
+        subscription = manager.subscribe(feed);
+        feed.seed(manager.getJobs());
+
+        token = tokenText.getBytes(StandardCharsets.US_ASCII);
+        created.start();
+        server = created;
+
+        writeConnectionFile(created.getAddress().getPort(), tokenText);
+    }
+
+    public synchronized void stop() {
+        if (server == null)
+            return;
+
+        server.stop(0);
+        server = null;
+        token = null;
+
+        subscription.close();
+        subscription = null;
+
+        // Nobody should try a port that is no longer ours
+        File file = AppDataUtil.getDataFile(FILENAME);
+
+        if (file.isFile() && !file.delete())
+            file.deleteOnExit();
+    }
+
+    public synchronized boolean isRunning() {
+        return server != null;
+    }
+
+    public synchronized int getPort() {
+        return server == null ? -1 : server.getAddress().getPort();
+    }
+
+    public File getConnectionFile() {
+        return AppDataUtil.getDataFile(FILENAME);
+    }
+
+    private void writeConnectionFile(int port, String tokenText) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("port", Integer.toString(port));
+        properties.setProperty("token", tokenText);
+
+        File file = AppDataUtil.getDataFile(FILENAME);
+
+        // Whoever can read this can drive the app, so it is the owner's alone from the moment it exists
+        FileAttribute<?>[] ownerOnly = AppDataUtil.getOwnerOnlyAttributes(file.getAbsoluteFile().toPath().getParent());
+
+        AppDataUtil.writeAtomically(file,
+                out -> properties.store(out, "Little Download Manager - control API, send the token as " + TOKEN_HEADER),
+                ownerOnly);
+
+        // A file system without permissions to set up front, do what it allows after
+        if (ownerOnly.length == 0) {
+            file.setReadable(false, false);
+            file.setReadable(true, true);
+        }
+    }
+    //endregion
+
+    //region Handling
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            byte[] expected = token;
+            String given = exchange.getRequestHeaders().getFirst(TOKEN_HEADER);
+
+            if (expected == null || given == null || !MessageDigest.isEqual(expected, given.getBytes(StandardCharsets.US_ASCII))) {
+                exchange.sendResponseHeaders(401, -1);
+                return;
+            }
+
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath();
+
+            if (method.equals("POST")) {
+                switch (path) {
+                    case "/jobs":
+                        reply(exchange, submit(exchange));
+                        return;
+                    case "/pause":
+                    case "/resume":
+                    case "/cancel":
+                    case "/remove":
+                        reply(exchange, control(exchange, path.substring(1)));
+                        return;
+                }
+            } else if (method.equals("GET")) {
+                switch (path) {
+                    case "/status":
+                        reply(exchange, status(exchange));
+                        return;
+                    case "/events":
+                        stream(exchange);
+                        return;
+                }
+            }
+
+            exchange.sendResponseHeaders(404, -1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private StringBuilder submit(HttpExchange exchange) throws IOException {
+        StringBuilder out = new StringBuilder();
+
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8))) {
+            String line;
+
+            while ((line = in.readLine()) != null) {
+                if (line.isBlank())
+                    continue;
+
+                try {
+                    out.append(manager.submit(parseRequest(line)).getId()).append('\n');
+                } catch (IllegalArgumentException e) {
+                    out.append("error\t").append(String.valueOf(e.getMessage()).replace('\t', ' ')).append('\n');
+                }
+            }
+        }
+
+        return out;
+    }
+
+    private static DownloadRequest parseRequest(String line) {
+        String[] fields = line.split("\t");
+
+        if (fields.length < 2 || fields[0].isBlank() || fields[1].isBlank())
+            throw new IllegalArgumentException("Expected url and file");
+
+        if (!Paths.get(fields[1]).isAbsolute())
+            throw new IllegalArgumentException("File must be an absolute path");
+
+        DownloadRequest request = new DownloadRequest();
+        request.setUrl(fields[0].strip());
+        request.setFilepath(fields[1]);
+
+        ArrayList<String> mirrors = new ArrayList<>();
+
+        for (int i = 2; i < fields.length; i++) {
+            int equals = fields[i].indexOf('=');
+
+            if (equals == -1)
+                throw new IllegalArgumentException("Expected key=value: " + fields[i]);
+
+            String value = fields[i].substring(equals + 1).strip();
+
+            switch (fields[i].substring(0, equals).strip()) {
+                case "sha1":
+                    request.setExpectedHash(value, true);
+                    break;
+                case "mirror":
+                    mirrors.add(value);
+                    break;
+                case "ranges":
+                    request.setRanges(RangeFetcher.parse(value));
+                    break;
+                case "paused":
+                    request.setStartPaused(Boolean.parseBoolean(value));
+                    break;
+                case "offpeak":
+                    request.setOffPeakOnly(Boolean.parseBoolean(value));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + fields[i]);
+            }
+        }
+
+        request.setMirrorUrls(mirrors);
+        return request;
+    }
+
+    private StringBuilder control(HttpExchange exchange, String action) throws IOException {
+        StringBuilder out = new StringBuilder();
+
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8))) {
+            String line;
+
+            while ((line = in.readLine()) != null) {
+                if (line.isBlank())
+                    continue;
+
+                long id;
+
+                try {
+                    id = Long.parseLong(line.strip());
+                } catch (NumberFormatException e) {
+                    out.append("error\tNot a job id\n");
+                    continue;
+                }
+
+                boolean done;
+
+                switch (action) {
+                    case "pause":
+                        done = manager.pause(id);
+                        break;
+                    case "resume":
+                        done = manager.resume(id);
+                        break;
+                    case "cancel":
+                        done = manager.cancel(id);
+                        break;
+                    default:
+                        done = manager.remove(id);
+                        break;
+                }
+
+                out.append(done ? "ok\n" : manager.getJob(id) == null ? "error\tNo such job\n" : "error\tNot possible in this state\n");
+            }
+        }
+
+        return out;
+    }
+
+    private StringBuilder status(HttpExchange exchange) throws InterruptedException {
+        long since = queryLong(exchange, "since", 0);
+        long waitSeconds = Math.min(MAX_WAIT_SECONDS, queryLong(exchange, "wait", 0));
+
+        if (waitSeconds > 0)
+            feed.awaitChange(since, waitSeconds * 1000);
+
+        StringBuilder out = new StringBuilder();
+        feed.appendChanges(out, since);
+        return out;
+    }
+
+    // Runs until the client goes away or the server stops
+    private void stream(HttpExchange exchange) throws IOException, InterruptedException {
+        long cursor = queryLong(exchange, "since", 0);
+
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+
+        OutputStream body = exchange.getResponseBody();
+        StringBuilder out = new StringBuilder();
+
+        while (isRunning()) {
+            out.setLength(0);
+            cursor = feed.appendChanges(out, cursor);
+
+            body.write(out.toString().getBytes(StandardCharsets.UTF_8));
+            body.flush();
+
+            if (feed.awaitChange(cursor, KEEPALIVE_MILLIS) > cursor)
+                Thread.sleep(STREAM_INTERVAL_MILLIS);
+        }
+    }
+
+    private static void reply(HttpExchange exchange, StringBuilder text) throws IOException {
+        byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(200, bytes.length == 0 ? -1 : bytes.length);
+
+        if (bytes.length > 0)
+            exchange.getResponseBody().write(bytes);
+    }
+
+    private static long queryLong(HttpExchange exchange, String name, long fallback) {
+        String query = exchange.getRequestURI().getRawQuery();
+
+        if (query == null)
+            return fallback;
+
+        for (String parameter : query.split("&")) {
+            if (parameter.startsWith(name + "=")) {
+                try {
+                    return Math.max(0, Long.parseLong(parameter.substring(name.length() + 1)));
+                } catch (NumberFormatException e) {
+                    return fallback;
+                }
+            }
+        }
+
+        return fallback;
+    }
+    //endregion
+}
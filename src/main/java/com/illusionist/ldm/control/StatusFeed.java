@@ -0,0 +1,194 @@
+package com.illusionist.ldm.control;
+
+import com.illusionist.ldm.manager.DownloadJob;
+import com.illusionist.ldm.manager.event.DownloadEvent;
+import com.illusionist.ldm.manager.event.DownloadEventListener;
+import com.illusionist.ldm.manager.event.JobAddedEvent;
+import com.illusionist.ldm.manager.event.JobRemovedEvent;
+import com.illusionist.ldm.manager.event.PostProcessEvent;
+import com.illusionist.ldm.manager.event.PostProcessFinishedEvent;
+import com.illusionist.ldm.manager.event.ProgressEvent;
+import com.illusionist.ldm.manager.event.QueuedEvent;
+import com.illusionist.ldm.manager.event.StateChangedEvent;
+import com.illusionist.ldm.network.FileDownloader;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TreeMap;
+
+// What every job looks like now, numbered by its last change. A client
+// keeps the number it last saw and only gets the jobs that changed after
+// it, so following the engine costs what changes rather than what is
+// queued. Progress overwrites the job's entry instead of piling up.
+public final class StatusFeed implements DownloadEventListener {
+    // Removed jobs are reported for a while, then forgotten
+    private static final int MAX_REMOVED = 10_000;
+
+    // Guarded by this
+    private final HashMap<Long, Entry> entries = new HashMap<>();
+    private final TreeMap<Long, Entry> changes = new TreeMap<>();
+    private final ArrayDeque<Entry> removed = new ArrayDeque<>();
+    private long sequence = 0;
+    // A client from before this may have missed forgotten removals, it gets everything again
+    private long floor = 0;
+
+    // Catches up with the jobs as they are, for whatever happened while not subscribed
+    public synchronized void seed(List<DownloadJob> jobs) {
+        HashSet<Long> present = new HashSet<>();
+
+        for (DownloadJob job : jobs) {
+            Entry entry = entries.computeIfAbsent(job.getId(), Entry::new);
+            entry.state = job.isWaiting() ? "queued" : stateName(job.getDownloadStatus());
+            present.add(job.getId());
+            touch(entry);
+        }
+
+        for (Entry entry : new ArrayList<>(entries.values())) {
+            if (!present.contains(entry.id)) {
+                remove(entry);
+                touch(entry);
+            }
+        }
+
+        notifyAll();
+    }
+
+    @Override
+    public synchronized void onEvent(DownloadEvent event) {
+        long id = event.getJob().getId();
+        Entry entry = entries.get(id);
+
+        if (entry == null) {
+            if (event instanceof JobRemovedEvent)
+                return;
+
+            entry = new Entry(id);
+            entries.put(id, entry);
+        }
+
+        if (event instanceof ProgressEvent progress) {
+            entry.bytesRecv = progress.getBytesRecv();
+            entry.bytesTotal = progress.getBytesTotal();
+        } else if (event instanceof StateChangedEvent stateChanged) {
+            entry.state = stateName(stateChanged.getState());
+            entry.detail = "";
+        } else if (event instanceof QueuedEvent queued) {
+            entry.state = queued.getOffPeak() ? "waiting-off-peak" : "queued";
+        } else if (event instanceof PostProcessEvent postProcess) {
+            entry.state = "post-processing";
+            entry.detail = postProcess.getStage().getName() + " " + postProcess.getPercent() + "%";
+        } else if (event instanceof PostProcessFinishedEvent finished) {
+            entry.state = finished.getSucceeded() ? "complete" : "failed";
+            entry.detail = finished.getSucceeded() ? "" : clean(finished.getFailedStage().getName() + ": " + finished.getMessage());
+        } else if (event instanceof JobAddedEvent) {
+            entry.state = event.getJob().getRequest().getStartPaused() ? "paused" : "starting";
+        } else if (event instanceof JobRemovedEvent) {
+            remove(entry);
+        }
+
+        touch(entry);
+        notifyAll();
+    }
+
+    //region Reading
+    public synchronized long getSequence() {
+        return sequence;
+    }
+
+    // A "# n" line to ask from next time, then a line per job that changed after since:
+    // id, state, bytes received, bytes total and detail, tab separated. A client too
+    // far behind gets "# reset n" and every job there is instead.
+    public synchronized long appendChanges(StringBuilder out, long since) {
+        if (since < floor) {
+            out.append("# reset ").append(sequence).append('\n');
+
+            for (Entry entry : changes.values()) {
+                if (entries.containsKey(entry.id))
+                    entry.appendTo(out);
+            }
+        } else {
+            out.append("# ").append(sequence).append('\n');
+
+            for (Entry entry : changes.tailMap(since, false).values())
+                entry.appendTo(out);
+        }
+
+        return sequence;
+    }
+
+    // The sequence once it moved past since, or as it is when the time ran out
+    public synchronized long awaitChange(long since, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        long remaining = timeoutMillis;
+
+        while (sequence <= since && remaining > 0) {
+            wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+        }
+
+        return sequence;
+    }
+    //endregion
+
+    private void remove(Entry entry) {
+        entry.state = "removed";
+        entries.remove(entry.id);
+        removed.add(entry);
+
+        while (removed.size() > MAX_REMOVED) {
+            Entry forgotten = removed.poll();
+            changes.remove(forgotten.sequence);
+            floor = Math.max(floor, forgotten.sequence);
+        }
+    }
+
+    private void touch(Entry entry) {
+        if (entry.sequence != 0)
+            changes.remove(entry.sequence);
+
+        entry.sequence = ++sequence;
+        changes.put(entry.sequence, entry);
+    }
+
+    private static String stateName(int state) {
+        switch (state) {
+            case FileDownloader.RUNNING:
+                return "running";
+            case FileDownloader.COMPLETE:
+                return "complete";
+            case FileDownloader.STOPPED:
+                return "stopped";
+            case FileDownloader.ERROR:
+                return "failed";
+            default:
+                return "paused";
+        }
+    }
+
+    // Tabs and line breaks would split the line
+    private static String clean(String text) {
+        return text.replace('\t', ' ').replace('\r', ' ').replace('\n', ' ');
+    }
+
+    private static final class Entry {
+        private final long id;
+        private long sequence = 0;
+        private String state = "starting";
+        private String detail = "";
+        private long bytesRecv = 0;
+        private long bytesTotal = 0;
+
+        private Entry(long id) {
+            this.id = id;
+        }
+
+        private void appendTo(StringBuilder out) {
+            out.append(id).append('\t').append(state).append('\t')
+                    .append(bytesRecv).append('\t').append(bytesTotal).append('\t')
+                    .append(detail).append('\n');
+        }
+    }
+}
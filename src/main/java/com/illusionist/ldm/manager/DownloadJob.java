@@ -0,0 +1,104 @@
+package com.illusionist.ldm.manager;
+
+import com.illusionist.ldm.network.FileDownloader;
+import com.illusionist.ldm.pipeline.PostProcessJob;
+
+import java.net.URI;
+
+// One entry of the engine registry: the request, the downloader working
+// on it and the post-processing that follows.
+public final class DownloadJob {
+    private final long id;
+    private final DownloadRequest request;
+    private final FileDownloader downloader;
+    private final long createdAt = System.currentTimeMillis();
+
+    private volatile PostProcessJob postProcessJob = null;
+    private volatile URI streamUri = null;
+
+    private final ThroughputHistory throughput = ThroughputHistory.fromSettings();
+
+    // When progress for this job was last posted, for throttling
+    volatile long lastProgressNanos = System.nanoTime();
+    // In the registry, transfer callbacks for removed jobs are dropped
+    volatile boolean registered = false;
+
+    // Held by the schedule until a slot is free or its window opens
+    volatile boolean waiting = false;
+    // Started by the schedule and not running yet, so it already takes a slot
+    volatile boolean starting = false;
+    // What the last queued event told, -1 when none is standing
+    int queuedReason = -1;
+
+    DownloadJob(long id, DownloadRequest request, FileDownloader downloader) {
+        this.id = id;
+        this.request = request;
+        this.downloader = downloader;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public DownloadRequest getRequest() {
+        return request;
+    }
+
+    public FileDownloader getDownloader() {
+        return downloader;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public int getDownloadStatus() {
+        return downloader.getDownloadStatus();
+    }
+
+    public String getFilePath() {
+        return downloader.getFilePath();
+    }
+
+    void setPostProcessJob(PostProcessJob postProcessJob) {
+        this.postProcessJob = postProcessJob;
+    }
+
+    // Null until the download completes with stages to run
+    public PostProcessJob getPostProcessJob() {
+        return postProcessJob;
+    }
+
+    void setStreamUri(URI streamUri) {
+        this.streamUri = streamUri;
+    }
+
+    // Where a player can open the file while it downloads, null when not streamed
+    public URI getStreamUri() {
+        return streamUri;
+    }
+
+    // Bytes per second over the last few minutes
+    public ThroughputHistory getThroughput() {
+        return throughput;
+    }
+
+    // Waiting to be started by the transfer schedule
+    public boolean isWaiting() {
+        return waiting;
+    }
+
+    // Transferring, paused, queued, or still being verified and unpacked
+    public boolean isActive() {
+        if (waiting)
+            return true;
+
+        int status = downloader.getDownloadStatus();
+
+        if (status == FileDownloader.RUNNING || status == FileDownloader.PAUSED)
+            return true;
+
+        PostProcessJob current = postProcessJob;
+        return current != null && (current.getState() == PostProcessJob.QUEUED || current.getState() == PostProcessJob.RUNNING);
+    }
+}
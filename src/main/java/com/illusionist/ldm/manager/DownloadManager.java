@@ -0,0 +1,504 @@
+package com.illusionist.ldm.manager;
+
+import com.illusionist.ldm.manager.event.DownloadEventListener;
+import com.illusionist.ldm.manager.event.EventBus;
+import com.illusionist.ldm.manager.event.JobAddedEvent;
+import com.illusionist.ldm.manager.event.JobRemovedEvent;
+import com.illusionist.ldm.manager.event.PostProcessEvent;
+import com.illusionist.ldm.manager.event.PostProcessFinishedEvent;
+import com.illusionist.ldm.manager.event.ProgressEvent;
+import com.illusionist.ldm.manager.event.QueuedEvent;
+import com.illusionist.ldm.manager.event.StateChangedEvent;
+import com.illusionist.ldm.manager.event.Subscription;
+import com.illusionist.ldm.network.BandwidthLimiter;
+import com.illusionist.ldm.network.DownloadListener;
+import com.illusionist.ldm.network.FileDownloader;
+import com.illusionist.ldm.network.StreamServer;
+import com.illusionist.ldm.pipeline.PostProcessJob;
+import com.illusionist.ldm.pipeline.PostProcessListener;
+import com.illusionist.ldm.pipeline.PostProcessStage;
+import com.illusionist.ldm.pipeline.PostProcessor;
+import com.illusionist.ldm.pipeline.StreamingExtractor;
+import com.illusionist.ldm.storage.HistoryStore;
+import com.illusionist.ldm.util.AppSettings;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// The download engine. Owns every job in a concurrent registry keyed by
+// job id, and everything here is safe to call from any thread. The UI
+// is one subscriber among any others, and none of them ever runs on a
+// transfer thread.
+public final class DownloadManager {
+    // Completed jobs go straight to the history instead of staying in the registry
+    public static final String SETTING_RETIRE_COMPLETED = "history.retireCompleted";
+
+    private static DownloadManager instance = null;
+
+    private final ConcurrentHashMap<Long, DownloadJob> jobs = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong(0);
+    // Progress is posted at most this often per job, the bus merges what still piles up
+    private static final long PROGRESS_INTERVAL_NANOS = 100_000_000L;
+
+    // Everything every job received, removed jobs included
+    private final ThroughputHistory throughput = ThroughputHistory.fromSettings();
+
+    private final EventBus events = new EventBus();
+    private final DownloadListener downloadListener = new JobDownloadListener();
+    private final PostProcessListener postProcessListener = new JobPostProcessListener();
+
+    private volatile boolean retireCompleted = AppSettings.getBoolean(SETTING_RETIRE_COMPLETED, true);
+
+    // Why a queued job waits, as last told in a QueuedEvent
+    private static final int QUEUED_FOR_SLOT = 0;
+    private static final int QUEUED_FOR_OFF_PEAK = 1;
+    // Profile windows are in minutes, this catches their edges soon enough
+    private static final long SCHEDULE_TICK_SECONDS = 15;
+
+    private final TransferSchedule schedule = TransferSchedule.getInstance();
+    // Every start, hold and rate change happens on this one thread
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ldm-schedule");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile TransferSchedule.Profile activeProfile = null;
+    private final AtomicBoolean reschedulePending = new AtomicBoolean(false);
+
+    private DownloadManager() {
+        scheduler.scheduleWithFixedDelay(this::reschedule, 0, SCHEDULE_TICK_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public static synchronized DownloadManager getInstance() {
+        if (instance == null)
+            instance = new DownloadManager();
+
+        return instance;
+    }
+
+    //region Events
+    public Subscription subscribe(DownloadEventListener listener) {
+        return events.subscribe(listener);
+    }
+
+    public Subscription subscribe(DownloadEventListener listener, Executor executor) {
+        return events.subscribe(listener, executor);
+    }
+    //endregion
+
+    //region Jobs
+    public DownloadJob submit(DownloadRequest request) {
+        FileDownloader downloader = new FileDownloader();
+
+        downloader.setDownloadUrl(request.getUrl());
+        downloader.setMirrorUrls(request.getMirrorUrls());
+        downloader.setFilePath(request.getFilepath());
+        downloader.setConditional(request.getConditional());
+        downloader.setExpectedHash(request.getExpectedHash());
+        downloader.setDeltaBasis(request.getDeltaBasis());
+        downloader.setSequential(request.getStreaming());
+        downloader.setRanges(request.getRanges());
+
+        if (request.getExtractDirectory() != null) {
+            String archiveName = Paths.get(request.getFilepath()).getFileName().toString();
+
+            downloader.setContentSink(new StreamingExtractor(archiveName, Paths.get(request.getExtractDirectory())));
+            downloader.setKeepFile(request.getKeepArchive());
+        }
+
+        DownloadJob job = new DownloadJob(nextId.incrementAndGet(), request, downloader);
+        // The job itself rather than its id, looking that up would box it for every chunk
+        downloader.setUserData(job);
+
+        downloader.addDownloadListener(downloadListener);
+
+        if (request.getStreaming()) {
+            try {
+                job.setStreamUri(StreamServer.getInstance().publish(downloader));
+            } catch (IOException e) {
+                // No local port to serve from, the download itself still works
+            }
+        }
+
+        jobs.put(job.getId(), job);
+        job.registered = true;
+        events.post(new JobAddedEvent(job));
+
+        if (!request.getStartPaused())
+            enqueue(job);
+
+        return job;
+    }
+
+    public DownloadJob getJob(long id) {
+        return jobs.get(id);
+    }
+
+    // A snapshot in submission order
+    public List<DownloadJob> getJobs() {
+        ArrayList<DownloadJob> result = new ArrayList<>(jobs.values());
+        result.sort(Comparator.comparingLong(DownloadJob::getId));
+        return result;
+    }
+
+    // Pauses a running job, or takes a queued one out of the queue
+    public boolean pause(long id) {
+        DownloadJob job = jobs.get(id);
+
+        if (job == null)
+            return false;
+
+        if (dequeue(job))
+            return true;
+
+        if (job.getDownloadStatus() != FileDownloader.RUNNING)
+            return false;
+
+        job.getDownloader().pause();
+        return true;
+    }
+
+    // Queues a paused job to carry on, or a new, stopped, failed or finished one
+    // to start over again, the schedule decides when
+    public boolean resume(long id) {
+        DownloadJob job = jobs.get(id);
+
+        if (job == null || job.waiting || job.getDownloadStatus() == FileDownloader.RUNNING)
+            return false;
+
+        job.setPostProcessJob(null);
+        enqueue(job);
+        return true;
+    }
+
+    // Stops the transfer, post-processing that already started runs to its end
+    public boolean cancel(long id) {
+        DownloadJob job = jobs.get(id);
+
+        if (job == null)
+            return false;
+
+        boolean dequeued = dequeue(job);
+        int status = job.getDownloadStatus();
+
+        if (status != FileDownloader.RUNNING && status != FileDownloader.PAUSED)
+            return dequeued;
+
+        job.getDownloader().stop();
+        return true;
+    }
+
+    // Only jobs that are no longer doing anything leave the registry
+    public boolean remove(long id) {
+        DownloadJob job = jobs.get(id);
+
+        if (job == null || job.isActive())
+            return false;
+
+        return retire(job);
+    }
+
+    // Drops the job from the registry and records it in the history
+    private boolean retire(DownloadJob job) {
+        if (!jobs.remove(job.getId(), job))
+            return false;
+
+        job.registered = false;
+
+        if (job.getStreamUri() != null)
+            StreamServer.getInstance().unpublish(job.getDownloader());
+
+        // Writing the history is file I/O under its lock, retire is called on transfer threads
+        scheduler.execute(() -> {
+            record(job);
+            events.post(new JobRemovedEvent(job));
+        });
+        return true;
+    }
+
+    private void record(DownloadJob job) {
+        FileDownloader downloader = job.getDownloader();
+        PostProcessJob postProcessJob = job.getPostProcessJob();
+        int status;
+
+        switch (downloader.getDownloadStatus()) {
+            case FileDownloader.COMPLETE:
+                status = postProcessJob != null && postProcessJob.getState() == PostProcessJob.FAILED
+                        ? HistoryStore.FAILED : HistoryStore.COMPLETED;
+                break;
+            case FileDownloader.ERROR:
+                status = HistoryStore.FAILED;
+                break;
+            default:
+                status = HistoryStore.STOPPED;
+                break;
+        }
+
+        String hash = downloader.getContentHash();
+
+        if (hash == null)
+            hash = downloader.getExpectedHash();
+
+        // What ended up on disk, the announced size when nothing did
+        File file = new File(downloader.getFilePath());
+        long size = file.isFile() ? file.length() : downloader.getContentSize();
+
+        try {
+            HistoryStore.getInstance().add(downloader.getDownloadUrl(), downloader.getFilePath(), hash,
+                    size, System.currentTimeMillis(), status);
+        } catch (IOException | IllegalStateException ignored) {
+            // The history is a convenience, losing an entry must not keep the job around
+        }
+    }
+
+    public void setRetireCompleted(boolean retireCompleted) {
+        this.retireCompleted = retireCompleted;
+    }
+
+    public boolean getRetireCompleted() {
+        return retireCompleted;
+    }
+
+    public void cancelAll() {
+        for (DownloadJob job : jobs.values())
+            cancel(job.getId());
+    }
+
+    public ThroughputHistory getThroughput() {
+        return throughput;
+    }
+
+    // The profile in force since the schedule was last looked at
+    public TransferSchedule.Profile getActiveProfile() {
+        TransferSchedule.Profile profile = activeProfile;
+        return profile != null ? profile : schedule.getActive(LocalTime.now());
+    }
+
+    // Applies edited profiles now rather than on the next tick
+    public void applySchedule() {
+        requestReschedule();
+    }
+
+    public int getActiveCount() {
+        int count = 0;
+
+        for (DownloadJob job : jobs.values()) {
+            if (job.isActive())
+                count++;
+        }
+
+        return count;
+    }
+    //endregion
+
+    //region Schedule
+    private void enqueue(DownloadJob job) {
+        job.waiting = true;
+        requestReschedule();
+    }
+
+    // False when the job was not queued
+    private boolean dequeue(DownloadJob job) {
+        if (!job.waiting)
+            return false;
+
+        job.waiting = false;
+        job.queuedReason = -1;
+        events.post(new StateChangedEvent(job, job.getDownloadStatus()));
+        return true;
+    }
+
+    // A burst of submissions or state changes needs only one pass
+    private void requestReschedule() {
+        if (reschedulePending.compareAndSet(false, true))
+            scheduler.execute(this::reschedule);
+    }
+
+    // Applies the profile in force: its rate, then holds what runs outside
+    // its window or over its limit, then starts the oldest queued jobs
+    // while slots remain. Held jobs are paused in place and keep their
+    // connections, so they carry on where they were.
+    private void reschedule() {
+        // Anything that changes from here on asks for another pass
+        reschedulePending.set(false);
+
+        try {
+            TransferSchedule.Profile profile = schedule.getActive(LocalTime.now());
+            activeProfile = profile;
+            BandwidthLimiter.getInstance().setRate(profile.getBytesPerSecond());
+
+            List<DownloadJob> ordered = getJobs();
+            int maxActive = profile.getMaxActive();
+            int running = 0;
+
+            for (DownloadJob job : ordered) {
+                if (!takesSlot(job))
+                    continue;
+
+                if (job.getRequest().getOffPeakOnly() && !profile.getOffPeak() && hold(job))
+                    continue;
+
+                running++;
+            }
+
+            // Over the limit, the newest go back to the queue first
+            for (int i = ordered.size() - 1; i >= 0 && maxActive > 0 && running > maxActive; i--) {
+                DownloadJob job = ordered.get(i);
+
+                if (takesSlot(job) && hold(job))
+                    running--;
+            }
+
+            for (DownloadJob job : ordered) {
+                if (!job.waiting || !job.registered)
+                    continue;
+
+                boolean offPeak = job.getRequest().getOffPeakOnly() && !profile.getOffPeak();
+
+                if (!offPeak && (maxActive == 0 || running < maxActive)) {
+                    job.waiting = false;
+                    job.queuedReason = -1;
+                    job.starting = true;
+                    job.getDownloader().start();
+                    running++;
+                    continue;
+                }
+
+                int reason = offPeak ? QUEUED_FOR_OFF_PEAK : QUEUED_FOR_SLOT;
+
+                if (job.queuedReason != reason) {
+                    job.queuedReason = reason;
+                    events.post(new QueuedEvent(job, offPeak));
+                }
+            }
+        } catch (RuntimeException ignored) {
+            // Thrown out of here it would cancel the periodic tick for good
+        }
+    }
+
+    private static boolean takesSlot(DownloadJob job) {
+        return !job.waiting && (job.starting || job.getDownloadStatus() == FileDownloader.RUNNING);
+    }
+
+    // A job still connecting cannot be paused yet, the next pass gets it
+    private static boolean hold(DownloadJob job) {
+        if (job.getDownloadStatus() != FileDownloader.RUNNING)
+            return false;
+
+        job.waiting = true;
+        job.getDownloader().pause();
+        return true;
+    }
+    //endregion
+
+    //region Events
+    private void onCompleted(DownloadJob job) {
+        FileDownloader downloader = job.getDownloader();
+        DownloadRequest request = job.getRequest();
+
+        // Nothing new arrived or nothing was kept, so there is nothing to check.
+        // Slices of a file are no file to verify or unpack either.
+        if (!downloader.getNotModified() && downloader.getKeepFile() && request.getRanges() == null) {
+            List<PostProcessStage> stages = PostProcessor.createStages(
+                    request.getVerify() ? request.getExpectedHash() : null,
+                    request.getExtractDirectory() != null);
+
+            if (!stages.isEmpty())
+                job.setPostProcessJob(new PostProcessJob(Paths.get(downloader.getFilePath()), stages, postProcessListener, job));
+        }
+
+        events.post(new StateChangedEvent(job, FileDownloader.COMPLETE));
+
+        PostProcessJob postProcessJob = job.getPostProcessJob();
+
+        if (postProcessJob != null)
+            PostProcessor.getInstance().submit(postProcessJob);
+        else if (retireCompleted)
+            retire(job);
+    }
+    //endregion
+
+    // Runs on the transfer threads, so it only posts and returns
+    private final class JobDownloadListener implements DownloadListener {
+        @Override
+        public void onStateChanged(FileDownloader source, int state) {
+            DownloadJob job = (DownloadJob) source.getUserData();
+
+            if (!job.registered)
+                return;
+
+            job.starting = false;
+
+            // Progress totals start over with every new run, a resumed one carries on
+            if (state == FileDownloader.RUNNING && !source.getResumed())
+                job.getThroughput().resetTotal();
+
+            if (state == FileDownloader.COMPLETE)
+                onCompleted(job);
+            else
+                events.post(new StateChangedEvent(job, state));
+
+            // A slot may have come free
+            if (state != FileDownloader.RUNNING)
+                requestReschedule();
+        }
+
+        @Override
+        public void onDataReceive(FileDownloader source, long bytesRecv, long bytesTotal) {
+            DownloadJob job = (DownloadJob) source.getUserData();
+
+            if (!job.registered)
+                return;
+
+            long now = System.nanoTime();
+            long bytes = job.getThroughput().recordTotal(now, bytesRecv);
+
+            if (bytes > 0)
+                throughput.record(now, bytes);
+
+            // The last chunk of a known size always goes out so the row ends on 100%.
+            // Without a size there is no last chunk, the state event marks the end.
+            boolean last = bytesTotal > 0 && bytesRecv >= bytesTotal;
+
+            if (now - job.lastProgressNanos < PROGRESS_INTERVAL_NANOS && !last)
+                return;
+
+            job.lastProgressNanos = now;
+            events.post(new ProgressEvent(job, bytesRecv, bytesTotal));
+        }
+    }
+
+    private final class JobPostProcessListener implements PostProcessListener {
+        @Override
+        public void onStageChanged(PostProcessJob postProcessJob, PostProcessStage stage, int percent) {
+            events.post(new PostProcessEvent((DownloadJob) postProcessJob.getUserData(), stage, percent));
+        }
+
+        @Override
+        public void onCompleted(PostProcessJob postProcessJob) {
+            DownloadJob job = (DownloadJob) postProcessJob.getUserData();
+            events.post(new PostProcessFinishedEvent(job, null, null));
+
+            // A failed check stays in the list where it can be seen
+            if (retireCompleted)
+                retire(job);
+        }
+
+        @Override
+        public void onFailed(PostProcessJob postProcessJob, PostProcessStage stage, String message) {
+            events.post(new PostProcessFinishedEvent((DownloadJob) postProcessJob.getUserData(), stage, message));
+        }
+    }
+}
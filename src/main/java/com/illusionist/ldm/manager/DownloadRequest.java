@@ -0,0 +1,128 @@
+package com.illusionist.ldm.manager;
+
+import com.illusionist.ldm.network.RangeFetcher;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Everything needed to create a job, filled in by whoever drives the engine
+public final class DownloadRequest {
+    private String url = "";
+    private final ArrayList<String> mirrorUrls = new ArrayList<>();
+    private String filepath = "";
+    private String expectedHash = null;
+    private boolean verify = false;
+    private boolean conditional = false;
+    private boolean startPaused = false;
+    private String extractDirectory = null;
+    private boolean keepArchive = true;
+    private String deltaBasis = null;
+    private boolean streaming = false;
+    private boolean offPeakOnly = false;
+    private List<RangeFetcher.ByteRange> ranges = null;
+
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public void setMirrorUrls(List<String> urls) {
+        mirrorUrls.clear();
+        mirrorUrls.addAll(urls);
+    }
+
+    public List<String> getMirrorUrls() {
+        return List.copyOf(mirrorUrls);
+    }
+
+    public void setFilepath(String filepath) {
+        this.filepath = filepath;
+    }
+
+    public String getFilepath() {
+        return filepath;
+    }
+
+    // With verify set the hash is checked after the download, without it only local copies are matched
+    public void setExpectedHash(String expectedHash, boolean verify) {
+        this.expectedHash = expectedHash;
+        this.verify = verify;
+    }
+
+    public String getExpectedHash() {
+        return expectedHash;
+    }
+
+    public boolean getVerify() {
+        return verify;
+    }
+
+    public void setConditional(boolean conditional) {
+        this.conditional = conditional;
+    }
+
+    public boolean getConditional() {
+        return conditional;
+    }
+
+    public void setStartPaused(boolean startPaused) {
+        this.startPaused = startPaused;
+    }
+
+    public boolean getStartPaused() {
+        return startPaused;
+    }
+
+    // Unpack the archive into directory while it downloads, null to leave it alone
+    public void setExtractDirectory(String directory, boolean keepArchive) {
+        this.extractDirectory = directory;
+        this.keepArchive = keepArchive;
+    }
+
+    public String getExtractDirectory() {
+        return extractDirectory;
+    }
+
+    public boolean getKeepArchive() {
+        return keepArchive;
+    }
+
+    // For .zsync urls, the older copy to reuse blocks from. Null uses the target file.
+    public void setDeltaBasis(String filepath) {
+        this.deltaBasis = filepath;
+    }
+
+    public String getDeltaBasis() {
+        return deltaBasis;
+    }
+
+    // Fetch front to back and serve the file to local players while it downloads
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    public boolean getStreaming() {
+        return streaming;
+    }
+
+    // Waits in the queue until a schedule profile marked off-peak applies
+    public void setOffPeakOnly(boolean offPeakOnly) {
+        this.offPeakOnly = offPeakOnly;
+    }
+
+    public boolean getOffPeakOnly() {
+        return offPeakOnly;
+    }
+
+    // Only these parts of the file, into a sparse file at the same offsets. Null for all of it.
+    public void setRanges(List<RangeFetcher.ByteRange> ranges) {
+        this.ranges = ranges == null || ranges.isEmpty() ? null : List.copyOf(ranges);
+    }
+
+    public List<RangeFetcher.ByteRange> getRanges() {
+        return ranges;
+    }
+}
@@ -0,0 +1,123 @@
+package com.illusionist.ldm.manager;
+
+import com.illusionist.ldm.util.AppSettings;
+
+// Bytes received per second over the last few minutes, in a ring of one
+// second buckets sized once. Recording and reading never allocate, so a
+// job that runs for days costs what one that ran a minute does.
+public final class ThroughputHistory {
+    // How many minutes of samples every job and the engine keep
+    public static final String SETTING_MINUTES = "throughput.minutes";
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private final long[] samples;
+    private final long origin = System.nanoTime();
+
+    // Guarded by this
+    private long head = 0;
+    private long lastTotal = -1;
+
+    public ThroughputHistory(int seconds) {
+        // One more for the second still filling up
+        samples = new long[Math.max(1, seconds) + 1];
+    }
+
+    static ThroughputHistory fromSettings() {
+        return new ThroughputHistory(Math.max(1, AppSettings.getInt(SETTING_MINUTES, 5)) * 60);
+    }
+
+    //region Recording
+    synchronized void record(long nowNanos, long bytes) {
+        advance(nowNanos);
+        samples[(int) (head % samples.length)] += bytes;
+    }
+
+    // Takes a running total and records what it grew by, returning that
+    synchronized long recordTotal(long nowNanos, long total) {
+        if (lastTotal == -1)
+            lastTotal = total;
+
+        // Reports from parallel connections can arrive slightly out of order
+        if (total <= lastTotal) {
+            advance(nowNanos);
+            return 0;
+        }
+
+        long bytes = total - lastTotal;
+        lastTotal = total;
+
+        record(nowNanos, bytes);
+        return bytes;
+    }
+
+    // The next total starts a new count, for a run that starts over or resumes
+    synchronized void resetTotal() {
+        lastTotal = -1;
+    }
+
+    // Moves to the second nowNanos falls in, clearing the ones nothing arrived in
+    private void advance(long nowNanos) {
+        long second = (nowNanos - origin) / NANOS_PER_SECOND;
+
+        if (second <= head)
+            return;
+
+        long steps = Math.min(second - head, samples.length);
+
+        for (long i = 1; i <= steps; i++)
+            samples[(int) ((head + i) % samples.length)] = 0;
+
+        head = second;
+    }
+    //endregion
+
+    //region Reading
+    // Seconds of history kept
+    public int getCapacity() {
+        return samples.length - 1;
+    }
+
+    // The last into.length whole seconds, oldest first, returns how many were filled
+    public synchronized int copySamples(long[] into) {
+        advance(System.nanoTime());
+
+        int length = Math.min(into.length, samples.length - 1);
+
+        for (int i = 0; i < length; i++)
+            into[i] = samples[(int) ((head - length + i + samples.length) % samples.length)];
+
+        return length;
+    }
+
+    // Received in the last whole second
+    public synchronized long getBytesPerSecond() {
+        advance(System.nanoTime());
+        return samples[(int) ((head - 1 + samples.length) % samples.length)];
+    }
+
+    public synchronized long getAverage(int seconds) {
+        advance(System.nanoTime());
+
+        int length = Math.max(1, Math.min(seconds, samples.length - 1));
+        long sum = 0;
+
+        for (int i = 1; i <= length; i++)
+            sum += samples[(int) ((head - i + samples.length) % samples.length)];
+
+        return sum / length;
+    }
+
+    public synchronized long getPeak(int seconds) {
+        advance(System.nanoTime());
+
+        int length = Math.max(1, Math.min(seconds, samples.length - 1));
+        long peak = 0;
+
+        for (int i = 1; i <= length; i++)
+            peak = Math.max(peak, samples[(int) ((head - i + samples.length) % samples.length)]);
+
+        return peak;
+    }
+    //endregion
+}
@@ -0,0 +1,172 @@
+package com.illusionist.ldm.manager;
+
+import com.illusionist.ldm.util.AppDataUtil;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+// Time of day profiles for the rate cap and the number of downloads
+// running at once. Profiles are checked in order and the first whose
+// window holds the current time applies; outside all of them nothing
+// is limited and off-peak jobs wait.
+public final class TransferSchedule {
+    private static final String FILENAME = "schedule.properties";
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
+    private static TransferSchedule instance = null;
+
+    private static final Profile UNLIMITED = new Profile("Unlimited", 0, MINUTES_PER_DAY, 0, 0, false);
+
+    private final File file;
+    private volatile List<Profile> profiles = List.of();
+
+    public TransferSchedule(File file) {
+        this.file = file;
+        load();
+    }
+
+    public static synchronized TransferSchedule getInstance() {
+        if (instance == null)
+            instance = new TransferSchedule(AppDataUtil.getDataFile(FILENAME));
+
+        return instance;
+    }
+
+    public List<Profile> getProfiles() {
+        return profiles;
+    }
+
+    public void setProfiles(List<Profile> profiles) {
+        this.profiles = List.copyOf(profiles);
+        save();
+    }
+
+    public Profile getActive(LocalTime time) {
+        int minute = time.getHour() * 60 + time.getMinute();
+
+        for (Profile profile : profiles) {
+            if (profile.contains(minute))
+                return profile;
+        }
+
+        return UNLIMITED;
+    }
+
+    //region Persistence
+    private void load() {
+        if (!file.isFile())
+            return;
+
+        Properties properties = new Properties();
+
+        try (FileInputStream in = new FileInputStream(file)) {
+            properties.load(in);
+        } catch (IOException e) {
+            return;
+        }
+
+        ArrayList<Profile> loaded = new ArrayList<>();
+
+        for (int i = 0; properties.containsKey("profile." + i + ".name"); i++) {
+            String prefix = "profile." + i + ".";
+
+            try {
+                loaded.add(new Profile(properties.getProperty(prefix + "name"),
+                        Integer.parseInt(properties.getProperty(prefix + "start", "0")),
+                        Integer.parseInt(properties.getProperty(prefix + "end", "0")),
+                        Long.parseLong(properties.getProperty(prefix + "rate", "0")),
+                        Integer.parseInt(properties.getProperty(prefix + "maxActive", "0")),
+                        Boolean.parseBoolean(properties.getProperty(prefix + "offPeak", "false"))));
+            } catch (NumberFormatException ignored) {
+                // Edited by hand, skip the broken profile rather than lose the rest
+            }
+        }
+
+        profiles = List.copyOf(loaded);
+    }
+
+    private synchronized void save() {
+        Properties properties = new Properties();
+        List<Profile> current = profiles;
+
+        for (int i = 0; i < current.size(); i++) {
+            Profile profile = current.get(i);
+            String prefix = "profile." + i + ".";
+
+            properties.setProperty(prefix + "name", profile.name);
+            properties.setProperty(prefix + "start", Integer.toString(profile.startMinute));
+            properties.setProperty(prefix + "end", Integer.toString(profile.endMinute));
+            properties.setProperty(prefix + "rate", Long.toString(profile.bytesPerSecond));
+            properties.setProperty(prefix + "maxActive", Integer.toString(profile.maxActive));
+            properties.setProperty(prefix + "offPeak", Boolean.toString(profile.offPeak));
+        }
+
+        // A crash mid write leaves the old profiles rather than half of the new ones
+        try {
+            AppDataUtil.storeAtomically(file, properties, "Little Download Manager - transfer schedule");
+        } catch (IOException ignored) {
+        }
+    }
+    //endregion
+
+    // A window of the day with its limits, 0 meaning no limit
+    public static final class Profile {
+        private final String name;
+        private final int startMinute;
+        private final int endMinute;
+        private final long bytesPerSecond;
+        private final int maxActive;
+        private final boolean offPeak;
+
+        // Minutes of the day, a window ending before it starts runs past midnight
+        // and one that ends where it starts covers the whole day
+        public Profile(String name, int startMinute, int endMinute, long bytesPerSecond, int maxActive, boolean offPeak) {
+            this.name = name;
+            this.startMinute = Math.floorMod(startMinute, MINUTES_PER_DAY);
+            this.endMinute = endMinute == MINUTES_PER_DAY ? endMinute : Math.floorMod(endMinute, MINUTES_PER_DAY);
+            this.bytesPerSecond = Math.max(0, bytesPerSecond);
+            this.maxActive = Math.max(0, maxActive);
+            this.offPeak = offPeak;
+        }
+
+        public boolean contains(int minute) {
+            if (startMinute == endMinute)
+                return true;
+
+            if (startMinute < endMinute)
+                return minute >= startMinute && minute < endMinute;
+
+            return minute >= startMinute || minute < endMinute;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getStartMinute() {
+            return startMinute;
+        }
+
+        public int getEndMinute() {
+            return endMinute;
+        }
+
+        public long getBytesPerSecond() {
+            return bytesPerSecond;
+        }
+
+        public int getMaxActive() {
+            return maxActive;
+        }
+
+        // Off-peak only jobs run while this profile applies
+        public boolean getOffPeak() {
+            return offPeak;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.illusionist.ldm.manager.event;
+
+import com.illusionist.ldm.manager.DownloadJob;
+
+// Something that happened to one job. Events are delivered in the order
+// they happened for that job, on the executor of each subscriber.
+public abstract class DownloadEvent {
+    private final DownloadJob job;
+
+    protected DownloadEvent(DownloadJob job) {
+        this.job = job;
+    }
+
+    public final DownloadJob getJob() {
+        return job;
+    }
+
+    // A newer event of the same type for the same job makes this one
+    // pointless, so a queued one may be overwritten instead of adding more
+    boolean isReplaceable() {
+        return false;
+    }
+}
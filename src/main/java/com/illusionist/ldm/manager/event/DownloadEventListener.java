@@ -0,0 +1,8 @@
+package com.illusionist.ldm.manager.event;
+
+import java.util.EventListener;
+
+public interface DownloadEventListener extends EventListener
+{
+    void onEvent(DownloadEvent event);
+}
@@ -0,0 +1,316 @@
+package com.illusionist.ldm.manager.event;
+
+import com.illusionist.ldm.util.AppSettings;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+// Hands events to any number of subscribers without ever running their
+// code on the posting thread. Every subscriber has its own bounded queue
+// drained one event at a time on its own executor, so a slow one only
+// falls behind itself. While behind, progress for a job is merged into
+// the entry already waiting, and once the queue is full new progress is
+// dropped. State changes always get through, in order, until a
+// subscriber is so far behind that it is cut off altogether.
+public final class EventBus {
+    public static final String SETTING_QUEUE_CAPACITY = "events.queueCapacity";
+
+    private static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    // State changes may go this many times past the capacity before the subscriber is cut off
+    private static final int OVERRUN_FACTOR = 4;
+
+    // Events handed to a subscriber per turn on its executor, so the event
+    // dispatch thread gets to paint in between long bursts
+    private static final int BATCH_SIZE = 64;
+
+    private static final ExecutorService deliveryPool = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "ldm-events");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final CopyOnWriteArrayList<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private final int queueCapacity;
+
+    public EventBus() {
+        this(AppSettings.getInt(SETTING_QUEUE_CAPACITY, DEFAULT_QUEUE_CAPACITY));
+    }
+
+    public EventBus(int queueCapacity) {
+        this.queueCapacity = Math.max(16, queueCapacity);
+    }
+
+    //region Subscribing
+    public Subscription subscribe(DownloadEventListener listener) {
+        return subscribe(listener, deliveryPool);
+    }
+
+    // Events arrive on executor, SwingUtilities::invokeLater for the UI
+    public Subscription subscribe(DownloadEventListener listener, Executor executor) {
+        Subscriber subscriber = new Subscriber(listener, executor);
+        subscribers.add(subscriber);
+        return subscriber;
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+    //endregion
+
+    // Only ever takes a short lock per subscriber, never waits on one
+    public void post(DownloadEvent event) {
+        for (Subscriber subscriber : subscribers)
+            subscriber.offer(event);
+    }
+
+    // A queued event that newer ones of the same kind for the job may overwrite
+    private static final class Slot {
+        private DownloadEvent event;
+
+        private Slot(DownloadEvent event) {
+            this.event = event;
+        }
+    }
+
+    // Slots by job id with open addressing, so posting does not box the id.
+    // Slots are only added while the queue has room, so it never fills.
+    private static final class SlotTable {
+        private final long[] keys;
+        private final Slot[] slots;
+
+        private SlotTable(int capacity) {
+            int size = Integer.highestOneBit(capacity) * 4;
+            keys = new long[size];
+            slots = new Slot[size];
+        }
+
+        private Slot get(long key) {
+            int index = indexOf(key);
+            return index == -1 ? null : slots[index];
+        }
+
+        private void put(long key, Slot slot) {
+            int index = slotOf(key);
+
+            while (slots[index] != null && keys[index] != key)
+                index = (index + 1) & (slots.length - 1);
+
+            keys[index] = key;
+            slots[index] = slot;
+        }
+
+        private void remove(long key) {
+            int index = indexOf(key);
+
+            if (index != -1)
+                removeAt(index);
+        }
+
+        // Only while key still maps to slot
+        private void remove(long key, Slot slot) {
+            int index = indexOf(key);
+
+            if (index != -1 && slots[index] == slot)
+                removeAt(index);
+        }
+
+        private void clear() {
+            Arrays.fill(slots, null);
+        }
+
+        private int indexOf(long key) {
+            int index = slotOf(key);
+
+            while (slots[index] != null) {
+                if (keys[index] == key)
+                    return index;
+
+                index = (index + 1) & (slots.length - 1);
+            }
+
+            return -1;
+        }
+
+        // Moves later entries of the run back so lookups do not stop at the hole
+        private void removeAt(int hole) {
+            int mask = slots.length - 1;
+            int index = hole;
+
+            while (true) {
+                index = (index + 1) & mask;
+
+                if (slots[index] == null)
+                    break;
+
+                int home = slotOf(keys[index]);
+
+                // Stays put when its home lies cyclically between the hole and where it is
+                if (hole <= index ? hole < home && home <= index : hole < home || home <= index)
+                    continue;
+
+                keys[hole] = keys[index];
+                slots[hole] = slots[index];
+                hole = index;
+            }
+
+            slots[hole] = null;
+        }
+
+        private int slotOf(long key) {
+            return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & (slots.length - 1);
+        }
+    }
+
+    private final class Subscriber implements Subscription, Runnable {
+        private final DownloadEventListener listener;
+        private final Executor executor;
+
+        // Holds DownloadEvents and Slots
+        private final ArrayDeque<Object> queue = new ArrayDeque<>();
+        // The slot of each job that can still be overwritten
+        private final SlotTable pending = new SlotTable(queueCapacity);
+
+        private boolean scheduled = false;
+        private boolean closed = false;
+        private long coalesced = 0;
+        private long dropped = 0;
+
+        private Subscriber(DownloadEventListener listener, Executor executor) {
+            this.listener = listener;
+            this.executor = executor;
+        }
+
+        private void offer(DownloadEvent event) {
+            long jobId = event.getJob().getId();
+
+            synchronized (this) {
+                if (closed)
+                    return;
+
+                if (event.isReplaceable()) {
+                    Slot slot = pending.get(jobId);
+
+                    if (slot != null && slot.event.getClass() == event.getClass()) {
+                        slot.event = event;
+                        coalesced++;
+                        return;
+                    }
+
+                    if (queue.size() >= queueCapacity) {
+                        dropped++;
+                        return;
+                    }
+
+                    slot = new Slot(event);
+                    pending.put(jobId, slot);
+                    queue.add(slot);
+                } else {
+                    if (queue.size() >= queueCapacity * OVERRUN_FACTOR) {
+                        cutOff();
+                        return;
+                    }
+
+                    // Anything after this must not be merged into what came before it
+                    pending.remove(jobId);
+                    queue.add(event);
+                }
+
+                if (scheduled)
+                    return;
+
+                scheduled = true;
+            }
+
+            schedule();
+        }
+
+        private void schedule() {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                synchronized (this) {
+                    scheduled = false;
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                DownloadEvent event;
+
+                synchronized (this) {
+                    Object next = queue.poll();
+
+                    if (next == null) {
+                        scheduled = false;
+                        return;
+                    }
+
+                    if (next instanceof Slot slot) {
+                        pending.remove(slot.event.getJob().getId(), slot);
+                        event = slot.event;
+                    } else {
+                        event = (DownloadEvent) next;
+                    }
+                }
+
+                // A broken listener must not stop delivery to itself or anyone else
+                try {
+                    listener.onEvent(event);
+                } catch (RuntimeException ignored) {
+                }
+            }
+
+            // More waiting, give the executor a chance to run other work first
+            schedule();
+        }
+
+        @Override
+        public void close() {
+            subscribers.remove(this);
+
+            synchronized (this) {
+                closed = true;
+                queue.clear();
+                pending.clear();
+            }
+        }
+
+        // Dropping state changes would leave the subscriber with a wrong picture,
+        // so one that cannot keep up gets nothing more at all. Called holding the lock.
+        private void cutOff() {
+            subscribers.remove(this);
+            dropped += queue.size() + 1;
+            closed = true;
+            queue.clear();
+            pending.clear();
+        }
+
+        @Override
+        public synchronized boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        public synchronized int getQueuedCount() {
+            return queue.size();
+        }
+
+        @Override
+        public synchronized long getCoalescedCount() {
+            return coalesced;
+        }
+
+        @Override
+        public synchronized long getDroppedCount() {
+            return dropped;
+        }
+    }
+}
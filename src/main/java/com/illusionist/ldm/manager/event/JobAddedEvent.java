@@ -0,0 +1,9 @@
+package com.illusionist.ldm.manager.event;
+
+import com.illusionist.ldm.manager.DownloadJob;
+
+public final class JobAddedEvent extends DownloadEvent {
+    public JobAddedEvent(DownloadJob job) {
+        super(job);
+    }
+}
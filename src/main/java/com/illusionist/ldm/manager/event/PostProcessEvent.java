@@ -0,0 +1,29 @@
+package com.illusionist.ldm.manager.event;
+
+import com.illusionist.ldm.manager.DownloadJob;
+import com.illusionist.ldm.pipeline.PostProcessStage;
+
+// A stage started or moved on, percent is -1 when the stage cannot tell
+public final class PostProcessEvent extends DownloadEvent {
+    private final PostProcessStage stage;
+    private final int percent;
+
+    public PostProcessEvent(DownloadJob job, PostProcessStage stage, int percent) {
+        super(job);
+        this.stage = stage;
+        this.percent = percent;
+    }
+
+    public PostProcessStage getStage() {
+        return stage;
+    }
+
+    public int getPercent() {
+        return percent;
+    }
+
+    @Override
+    boolean isReplaceable() {
+        return true;
+    }
+}
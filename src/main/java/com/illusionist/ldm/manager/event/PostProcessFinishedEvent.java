@@ -0,0 +1,28 @@
+package com.illusionist.ldm.manager.event;
+
+import com.illusionist.ldm.manager.DownloadJob;
+import com.illusionist.ldm.pipeline.PostProcessStage;
+
+public final class PostProcessFinishedEvent extends DownloadEvent {
+    private final PostProcessStage failedStage;
+    private final String message;
+
+    public PostProcessFinishedEvent(DownloadJob job, PostProcessStage failedStage, String message) {
+        super(job);
+        this.failedStage = failedStage;
+        this.message = message;
+    }
+
+    // Null when every stage succeeded
+    public PostProcessStage getFailedStage() {
+        return failedStage;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public boolean getSucceeded() {
+        return failedStage == null;
+    }
+}
@@ -0,0 +1,28 @@
+package com.illusionist.ldm.manager.event;
+
+import com.illusionist.ldm.manager.DownloadJob;
+
+// Only the latest one matters, subscribers that fall behind skip the ones in between
+public final class ProgressEvent extends DownloadEvent {
+    private final long bytesRecv;
+    private final long bytesTotal;
+
+    public ProgressEvent(DownloadJob job, long bytesRecv, long bytesTotal) {
+        super(job);
+        this.bytesRecv = bytesRecv;
+        this.bytesTotal = bytesTotal;
+    }
+
+    public long getBytesRecv() {
+        return bytesRecv;
+    }
+
+    public long getBytesTotal() {
+        return bytesTotal;
+    }
+
+    @Override
+    boolean isReplaceable() {
+        return true;
+    }
+}
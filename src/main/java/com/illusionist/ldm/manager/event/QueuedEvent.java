@@ -0,0 +1,19 @@
+package com.illusionist.ldm.manager.event;
+
+import com.illusionist.ldm.manager.DownloadJob;
+
+// The job is waiting for a free slot, or for an off-peak window. It
+// leaves the queue with a StateChangedEvent when it starts running.
+public final class QueuedEvent extends DownloadEvent {
+    private final boolean offPeak;
+
+    public QueuedEvent(DownloadJob job, boolean offPeak) {
+        super(job);
+        this.offPeak = offPeak;
+    }
+
+    // Waiting for a profile that lets off-peak jobs run, rather than for a slot
+    public boolean getOffPeak() {
+        return offPeak;
+    }
+}
@@ -0,0 +1,17 @@
+package com.illusionist.ldm.manager.event;
+
+import com.illusionist.ldm.manager.DownloadJob;
+
+// One of the FileDownloader states, never dropped or merged
+public final class StateChangedEvent extends DownloadEvent {
+    private final int state;
+
+    public StateChangedEvent(DownloadJob job, int state) {
+        super(job);
+        this.state = state;
+    }
+
+    public int getState() {
+        return state;
+    }
+}
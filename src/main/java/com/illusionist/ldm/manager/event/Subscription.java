@@ -0,0 +1,17 @@
+package com.illusionist.ldm.manager.event;
+
+public interface Subscription extends AutoCloseable
+{
+    // Events still queued for this subscriber are dropped
+    @Override
+    void close();
+
+    // Also true once the bus cut the subscriber off for falling too far behind
+    boolean isClosed();
+
+    int getQueuedCount();
+
+    long getCoalescedCount();
+
+    long getDroppedCount();
+}
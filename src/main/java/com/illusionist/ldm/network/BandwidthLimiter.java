@@ -0,0 +1,97 @@
+package com.illusionist.ldm.network;
+
+import java.util.concurrent.TimeUnit;
+
+// One token bucket shared by every transfer. Readers take what they just
+// read and sleep off any debt, so the cap holds across all connections
+// and a new rate applies from the next chunk without reconnecting. The
+// sender is slowed by TCP once our receive buffers fill up.
+public final class BandwidthLimiter {
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    // Saved up while idle, so a short burst does not sleep on every chunk
+    private static final long BURST_NANOS = 250_000_000L;
+    private static final long MIN_BURST_BYTES = 16 * 1024;
+    // Sleepers wake at least this often to pick up a new rate
+    private static final long MAX_SLEEP_NANOS = 100_000_000L;
+
+    private static BandwidthLimiter instance = null;
+
+    // 0 for no limit, read without the lock on the unlimited fast path
+    private volatile long bytesPerSecond = 0;
+
+    // Guarded by this
+    private double available = 0;
+    private long lastRefill = System.nanoTime();
+
+    public static synchronized BandwidthLimiter getInstance() {
+        if (instance == null)
+            instance = new BandwidthLimiter();
+
+        return instance;
+    }
+
+    public synchronized void setRate(long bytesPerSecond) {
+        long rate = Math.max(0, bytesPerSecond);
+
+        if (rate == this.bytesPerSecond)
+            return;
+
+        refill(System.nanoTime());
+        this.bytesPerSecond = rate;
+
+        // Debt taken at the old rate is forgiven, the new one starts clean
+        available = Math.max(0, Math.min(available, burstOf(rate)));
+    }
+
+    public long getRate() {
+        return bytesPerSecond;
+    }
+
+    // Accounts for bytes already read, returns once the rate allows more
+    public void consume(int bytes) throws InterruptedException {
+        if (bytesPerSecond == 0)
+            return;
+
+        synchronized (this) {
+            refill(System.nanoTime());
+            available -= bytes;
+        }
+
+        while (true) {
+            long sleepNanos;
+
+            synchronized (this) {
+                long rate = bytesPerSecond;
+
+                if (rate == 0) {
+                    available = 0;
+                    return;
+                }
+
+                refill(System.nanoTime());
+
+                if (available >= 0)
+                    return;
+
+                sleepNanos = Math.min(MAX_SLEEP_NANOS, (long) (-available * NANOS_PER_SECOND / rate) + 1);
+            }
+
+            TimeUnit.NANOSECONDS.sleep(sleepNanos);
+        }
+    }
+
+    private void refill(long now) {
+        long rate = bytesPerSecond;
+        long elapsed = now - lastRefill;
+        lastRefill = now;
+
+        if (rate == 0 || elapsed <= 0)
+            return;
+
+        available = Math.min(burstOf(rate), available + (double) elapsed * rate / NANOS_PER_SECOND);
+    }
+
+    private static double burstOf(long rate) {
+        return Math.max(MIN_BURST_BYTES, (double) rate * BURST_NANOS / NANOS_PER_SECOND);
+    }
+}
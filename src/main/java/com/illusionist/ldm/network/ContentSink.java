@@ -0,0 +1,22 @@
+package com.illusionist.ldm.network;
+
+import java.io.IOException;
+
+// Gets the body of a download in order while it arrives, alongside the
+// file on disk or instead of it. Downloads with a sink never split into
+// ranges since the bytes have to come in sequence.
+public interface ContentSink
+{
+    void start() throws IOException;
+
+    // The server sent the body again from the first byte, drop what was written so far
+    void restart() throws IOException;
+
+    void write(byte[] data, int offset, int length) throws IOException;
+
+    // All bytes are in, returns once the sink is done with them
+    void complete() throws IOException;
+
+    // The download stopped or failed, must not throw
+    void abort();
+}
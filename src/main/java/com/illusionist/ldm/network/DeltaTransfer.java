@@ -0,0 +1,328 @@
+package com.illusionist.ldm.network;
+
+import com.illusionist.ldm.storage.BufferPool;
+import com.illusionist.ldm.storage.WriteBehindFile;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Builds the new version of a file from an older local copy and a zsync
+// index. Every offset of the old copy is checked against the block
+// checksums with a rolling checksum, blocks found are copied locally and
+// only the rest is fetched with range requests. The caller checks the
+// hash of the result, blocks can match by accident.
+final class DeltaTransfer {
+    //region Constants
+    static final int COMPLETED = 0;
+    static final int STOPPED = 1;
+    static final int FAILED = 2;
+
+    // Missing blocks this close together are fetched in one request
+    private static final long MAX_GAP = 64 * 1024;
+
+    // How much of the old copy is scanned between looks at the owner state
+    private static final long CHECK_INTERVAL = 4L * 1024 * 1024;
+    //endregion
+
+    private final FileDownloader owner;
+    private final HttpClient client;
+    private final ZsyncIndex index;
+    private final URI contentUri;
+    private final Path basis;
+    private final WriteBehindFile target;
+
+    private final Md4 md4 = new Md4();
+    private final byte[] digest = new byte[16];
+    private final byte[] nextDigest = new byte[16];
+
+    private WriteBehindFile.Appender appender = null;
+    private long reusedBytes = 0;
+    private long fetchedBytes = 0;
+    private long written = 0;
+
+    DeltaTransfer(FileDownloader owner, HttpClient client, ZsyncIndex index, URI contentUri, Path basis, WriteBehindFile target) {
+        this.owner = owner;
+        this.client = client;
+        this.index = index;
+        this.contentUri = contentUri;
+        this.basis = basis;
+        this.target = target;
+    }
+
+    // Bytes of the new file taken from the old copy
+    long getReusedBytes() {
+        return reusedBytes;
+    }
+
+    // Bytes that came over the network, including small gaps fetched to save requests
+    long getFetchedBytes() {
+        return fetchedBytes;
+    }
+
+    int run() throws IOException, InterruptedException {
+        ByteBuffer pooled = BufferPool.getInstance().acquireHeap(BufferPool.MEDIUM, BufferPool.SMALL);
+
+        try (FileChannel source = FileChannel.open(basis, StandardOpenOption.READ)) {
+            long[] found = matchBlocks(source);
+
+            if (found == null || !copyMatched(source, found, pooled))
+                return STOPPED;
+
+            RangeFetcher fetcher = new RangeFetcher(client, contentUri);
+            fetcher.setMaxGap(MAX_GAP);
+
+            try {
+                if (!fetcher.fetch(missingRanges(found), this::write))
+                    return STOPPED;
+            } catch (IOException e) {
+                return FAILED;
+            } finally {
+                fetchedBytes = fetcher.getBytesFetched();
+            }
+
+            if (appender != null)
+                appender.flush();
+
+            return COMPLETED;
+        } finally {
+            if (appender != null)
+                appender.discard();
+
+            BufferPool.getInstance().release(pooled);
+        }
+    }
+
+    //region Matching
+    // Where in the old copy each block of the new file starts, -1 where it is nowhere.
+    // Null when the download was stopped while scanning.
+    private long[] matchBlocks(FileChannel source) throws IOException {
+        int blockSize = index.getBlockSize();
+        int count = index.getBlockCount();
+        int weakMask = index.getWeakMask();
+        boolean sequential = index.getSequenceMatches() > 1;
+
+        long[] found = new long[count];
+        Arrays.fill(found, -1);
+        int remaining = count;
+
+        // Chains of blocks by weak checksum, in block order
+        int tableBits = 1;
+        while ((1 << tableBits) < count * 2)
+            tableBits++;
+
+        int[] head = new int[1 << tableBits];
+        int[] next = new int[count];
+        Arrays.fill(head, -1);
+
+        for (int i = count - 1; i >= 0; i--) {
+            int slot = slotOf(index.getWeak(i), tableBits);
+            next[i] = head[slot];
+            head[slot] = i;
+        }
+
+        // Room for two blocks and the byte rolled in after them
+        int needed = 2 * blockSize + 1;
+        byte[] window = new byte[Math.max(BufferPool.LARGE, 4 * needed)];
+
+        long length = source.size();
+        long windowStart = 0;
+        int filled = 0;
+        int at = 0;
+        boolean eof = false;
+
+        int a = 0;
+        int b = 0;
+        boolean fresh = true;
+        long nextCheck = CHECK_INTERVAL;
+
+        while (remaining > 0 && windowStart + at < length) {
+            if (at + needed > filled && !eof) {
+                System.arraycopy(window, at, window, 0, filled - at);
+                windowStart += at;
+                filled -= at;
+                at = 0;
+
+                // The end of the window stays free for the zero padding after the last byte
+                while (filled < window.length - needed) {
+                    int read = source.read(ByteBuffer.wrap(window, filled, window.length - needed - filled), windowStart + filled);
+
+                    if (read == -1) {
+                        eof = true;
+                        break;
+                    }
+
+                    filled += read;
+                }
+
+                // The index pads the last block with zeros, so the old copy is read the same way
+                if (eof)
+                    Arrays.fill(window, filled, window.length, (byte) 0);
+            }
+
+            if (windowStart + at >= nextCheck) {
+                if (!waitWhilePaused())
+                    return null;
+
+                nextCheck += CHECK_INTERVAL;
+            }
+
+            if (fresh) {
+                int weak = ZsyncIndex.weakChecksum(window, at, blockSize);
+                a = weak >>> 16;
+                b = weak & 0xFFFF;
+                fresh = false;
+            }
+
+            int value = ((a & 0xFFFF) << 16 | (b & 0xFFFF)) & weakMask;
+            boolean hit = false;
+            boolean strongDone = false;
+            boolean nextDone = false;
+
+            for (int i = head[slotOf(value, tableBits)]; i != -1; i = next[i]) {
+                if (index.getWeak(i) != value)
+                    continue;
+
+                if (!strongDone) {
+                    md4.digest(window, at, blockSize, digest);
+                    strongDone = true;
+                }
+
+                if (!index.strongMatches(i, digest))
+                    continue;
+
+                // Short checksums are only trusted when the following block matches as well
+                if (sequential && i + 1 < count) {
+                    if (!nextDone) {
+                        md4.digest(window, at + blockSize, blockSize, nextDigest);
+                        nextDone = true;
+                    }
+
+                    if (!index.strongMatches(i + 1, nextDigest))
+                        continue;
+                }
+
+                hit = true;
+
+                // Identical blocks, runs of zeros for example, all come from here
+                if (found[i] == -1) {
+                    found[i] = windowStart + at;
+                    remaining--;
+                }
+            }
+
+            if (hit) {
+                at += blockSize;
+                fresh = true;
+                continue;
+            }
+
+            int out = window[at] & 0xFF;
+            int in = window[at + blockSize] & 0xFF;
+
+            a += in - out;
+            b += a - blockSize * out;
+            at++;
+        }
+
+        return found;
+    }
+
+    private static int slotOf(int weak, int tableBits) {
+        return (weak * 0x9E3779B9) >>> (32 - tableBits);
+    }
+    //endregion
+
+    //region Assembling
+    private boolean copyMatched(FileChannel source, long[] found, ByteBuffer pooled) throws IOException {
+        int blockSize = index.getBlockSize();
+        long length = index.getLength();
+        byte[] buffer = pooled.array();
+
+        for (int i = 0; i < found.length; i++) {
+            if (found[i] == -1)
+                continue;
+
+            long position = (long) i * blockSize;
+            long end = Math.min(length, position + blockSize);
+            long from = found[i];
+
+            while (position < end) {
+                int count = (int) Math.min(buffer.length, end - position);
+                int read = source.read(ByteBuffer.wrap(buffer, 0, count), from);
+
+                // Matched against the zero padding at the end of the old copy
+                if (read <= 0) {
+                    Arrays.fill(buffer, 0, count, (byte) 0);
+                    read = count;
+                }
+
+                if (!write(position, buffer, 0, read))
+                    return false;
+
+                reusedBytes += read;
+                position += read;
+                from += read;
+            }
+        }
+
+        return true;
+    }
+
+    private List<RangeFetcher.ByteRange> missingRanges(long[] found) {
+        int blockSize = index.getBlockSize();
+        long length = index.getLength();
+        ArrayList<RangeFetcher.ByteRange> result = new ArrayList<>();
+
+        for (int i = 0; i < found.length; i++) {
+            if (found[i] != -1)
+                continue;
+
+            int first = i;
+
+            while (i + 1 < found.length && found[i + 1] == -1)
+                i++;
+
+            result.add(new RangeFetcher.ByteRange((long) first * blockSize, Math.min(length, (long) (i + 1) * blockSize)));
+        }
+
+        return result;
+    }
+
+    private boolean write(long position, byte[] data, int offset, int length) throws IOException {
+        if (appender == null || appender.getPosition() != position) {
+            if (appender != null)
+                appender.flush();
+
+            appender = target.appender(position);
+        }
+
+        appender.append(data, offset, length);
+
+        written += length;
+        owner.reportProgress(Math.min(index.getLength(), written), index.getLength());
+
+        return waitWhilePaused();
+    }
+    //endregion
+
+    private boolean waitWhilePaused() {
+        while (owner.getDownloadStatus() == FileDownloader.PAUSED) {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        return owner.getDownloadStatus() == FileDownloader.RUNNING;
+    }
+}
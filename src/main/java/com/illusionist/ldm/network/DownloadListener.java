@@ -0,0 +1,12 @@
+package com.illusionist.ldm.network;
+
+import java.util.EventListener;
+
+// Called on the thread doing the transfer, so implementations must only
+// record or hand off what they get and return straight away.
+public interface DownloadListener extends EventListener
+{
+    void onStateChanged(FileDownloader source, int state);
+
+    void onDataReceive(FileDownloader source, long bytesRecv, long bytesTotal);
+}
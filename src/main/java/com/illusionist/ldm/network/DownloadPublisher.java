@@ -0,0 +1,153 @@
+package com.illusionist.ldm.network;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// A download as a stream of ByteBuffers for code that wants to work on
+// the content while it arrives. Subscribers that fall behind fill their
+// buffer and then hold up the read loop, which is what keeps memory
+// bounded. Reconnects and range resumes are the ones FileDownloader does,
+// the stream only fails when the server cannot continue where it broke.
+public final class DownloadPublisher implements Flow.Publisher<ByteBuffer> {
+    public static final int DEFAULT_BUFFER_CAPACITY = 64;
+
+    private static final AtomicInteger nextId = new AtomicInteger(0);
+
+    private static final ExecutorService deliveryPool = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "ldm-publish");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final FileDownloader downloader = new FileDownloader();
+    private final AtomicBoolean started = new AtomicBoolean(false);
+
+    private int bufferCapacity = DEFAULT_BUFFER_CAPACITY;
+    private String teeFilepath = null;
+    private SubmissionPublisher<ByteBuffer> publisher = null;
+
+    public DownloadPublisher(String url) {
+        downloader.setDownloadUrl(url);
+        downloader.setConditional(false);
+        downloader.setContentSink(new PublishingSink());
+
+        // Only finish the stream once the tee file, if any, is in place
+        downloader.addDownloadListener(new DownloadListener() {
+            @Override
+            public void onStateChanged(FileDownloader source, int state) {
+                if (state == FileDownloader.COMPLETE)
+                    finish();
+                else if (state == FileDownloader.ERROR)
+                    fail(new IOException("Download failed"));
+                else if (state == FileDownloader.STOPPED)
+                    fail(new CancellationException("Download stopped"));
+            }
+
+            @Override
+            public void onDataReceive(FileDownloader source, long bytesRecv, long bytesTotal) {
+            }
+        });
+    }
+
+    // Also keep the content in a file, written the same way a normal download is
+    public void setTeeFilepath(String filepath) {
+        teeFilepath = filepath;
+    }
+
+    public final String getTeeFilepath() {
+        return teeFilepath;
+    }
+
+    // Chunks each subscriber may have waiting before the download holds off
+    public void setBufferCapacity(int chunks) {
+        bufferCapacity = Math.max(1, chunks);
+    }
+
+    public final int getBufferCapacity() {
+        return bufferCapacity;
+    }
+
+    // For progress, pausing and stopping
+    public final FileDownloader getDownloader() {
+        return downloader;
+    }
+
+    // The first subscriber starts the transfer, later ones only see what arrives after they join
+    @Override
+    public synchronized void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        if (publisher == null)
+            publisher = new SubmissionPublisher<>(deliveryPool, bufferCapacity);
+
+        publisher.subscribe(subscriber);
+
+        if (started.compareAndSet(false, true)) {
+            if (teeFilepath != null) {
+                downloader.setFilePath(teeFilepath);
+                downloader.setKeepFile(true);
+            } else {
+                // Nothing is kept, the path only names the staging file that never gets data
+                downloader.setFilePath(new File(System.getProperty("java.io.tmpdir"), "ldm-stream-" + nextId.incrementAndGet()).getPath());
+                downloader.setKeepFile(false);
+            }
+
+            downloader.start();
+        }
+    }
+
+    private synchronized void finish() {
+        if (publisher != null && !publisher.isClosed())
+            publisher.close();
+    }
+
+    private synchronized void fail(Throwable error) {
+        if (publisher != null && !publisher.isClosed())
+            publisher.closeExceptionally(error);
+    }
+
+    private final class PublishingSink implements ContentSink {
+        private long published = 0;
+
+        @Override
+        public void start() {
+            published = 0;
+        }
+
+        @Override
+        public void restart() throws IOException {
+            // Bytes already handed out cannot be taken back
+            if (published > 0)
+                throw new IOException("Server restarted the body, the stream cannot continue");
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            // Everyone went away, no point carrying on
+            if (publisher.isClosed() || publisher.getNumberOfSubscribers() == 0) {
+                downloader.stop();
+                return;
+            }
+
+            // Subscribers keep the buffer, so every chunk is its own copy
+            publisher.submit(ByteBuffer.wrap(Arrays.copyOfRange(data, offset, offset + length)).asReadOnlyBuffer());
+            published += length;
+        }
+
+        @Override
+        public void complete() {
+        }
+
+        @Override
+        public void abort() {
+            fail(new IOException("Download ended before all content arrived"));
+        }
+    }
+}
@@ -1,21 +1,49 @@
 package com.illusionist.ldm.network;
 
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
+import com.illusionist.ldm.storage.BufferPool;
+import com.illusionist.ldm.storage.ContentStore;
+import com.illusionist.ldm.storage.LocalCopyUtil;
+import com.illusionist.ldm.storage.RangeSet;
+import com.illusionist.ldm.storage.WriteBehindFile;
+import com.illusionist.ldm.util.AppSettings;
+
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PushbackInputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.http.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.InvalidParameterException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 import java.util.OptionalLong;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.IntStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 @SuppressWarnings("unused")
 public class FileDownloader {
@@ -27,11 +55,22 @@ public class FileDownloader {
     public static final int ERROR = 4;
 
     private static final int[] REDIRECT_RESPONSES = { 301, 302, 307, 308 };
+    private static final int MAX_REDIRECTS = 10;
+
+    // Below this a single stream is quicker than setting up range connections
+    private static final long SEGMENTED_MIN_SIZE = 8L * 1024 * 1024;
+
+    // Wanted ranges this close together are fetched as one, cheaper than another part
+    private static final long RANGES_MAX_GAP = 4 * 1024;
+
+    public static final String SETTING_ACCEPT_COMPRESSION = "download.acceptCompression";
     //endregion
 
     //region Data
     private String downloadUrl;
+    private final ArrayList<String> mirrorUrls = new ArrayList<>();
     private String downloadFilepath;
+    private String expectedHash;
 
     private Object userData;
     //endregion
@@ -42,20 +81,74 @@ public class FileDownloader {
 
     private final AtomicInteger downloadState = new AtomicInteger(0);
 
+    private String contentUrl;
     private long contentSize = 0;
+    private long rangeStart = 0;
     private boolean resumed = false;
+
+    private boolean conditional = true;
+    private int maxConnections = AppSettings.getInt("download.maxConnections", 8);
+    private boolean notModified = false;
+    private ValidatorStore.Entry conditionalEntry = null;
+    private String etag = null;
+    private String lastModified = null;
+    private boolean satisfiedLocally = false;
+    private String servedByPeer = null;
+    private String contentHash = null;
+
+    private ContentSink contentSink = null;
+    private boolean keepFile = true;
+
+    private boolean acceptCompression = AppSettings.getBoolean(SETTING_ACCEPT_COMPRESSION, false);
+    private String contentEncoding = "identity";
+    private long encodedSize = 0;
+    private long responseWireBytes = 0;
+    private volatile long wireBytes = 0;
+    private volatile long decodedBytes = 0;
+
+    private boolean sequential = false;
+    private volatile RangeSet writtenRanges = null;
+    private volatile StreamingTransfer streamingTransfer = null;
+
+    private String deltaBasisFilepath = null;
+    private long deltaReusedBytes = 0;
+    private long deltaFetchedBytes = 0;
+
+    private List<RangeFetcher.ByteRange> ranges = null;
+
+    private volatile WriteBehindFile targetFile = null;
+    private long networkReadNanos = 0;
+    private long networkReadCount = 0;
+    //endregion
+
+    //region Shared transfers
+    // Downloads currently on the wire, keyed by source url and by where it redirected to
+    private static final ConcurrentHashMap<String, FileDownloader> inFlight = new ConcurrentHashMap<>();
+
+    private final ArrayList<String> inFlightKeys = new ArrayList<>();
+    private final CopyOnWriteArrayList<FileDownloader> subscribers = new CopyOnWriteArrayList<>();
+    private volatile FileDownloader leader = null;
+    private boolean acceptingSubscribers = false;
     //endregion
 
-    //region Callbacks
-    private ActionListener onDownloadPaused = null;
-    private ActionListener onDownloadRunning = null;
-    private ActionListener onDownloadStopped = null;
-    private ActionListener onDownloadCompleted = null;
-    private ActionListener onDownloadError = null;
-    private DataReceiveListener onDataReceive = null;
+    //region Listeners
+    // Called on the transfer thread, listeners hand the work off instead of doing it here.
+    // Copied on change so walking it for every chunk creates no iterator.
+    private volatile DownloadListener[] listeners = new DownloadListener[0];
     //endregion
 
     private static final HttpClient client = HttpClient.newBuilder().build();
+    private static final HostCapabilityCache hostCache = HostCapabilityCache.getInstance();
+    private static final ValidatorStore validatorStore = ValidatorStore.getInstance();
+    private static final ContentStore contentStore = ContentStore.getInstance();
+    private static final PeerCache peerCache = PeerCache.getInstance();
+    private static final BufferPool bufferPool = BufferPool.getInstance();
+    private static final BandwidthLimiter bandwidthLimiter = BandwidthLimiter.getInstance();
+
+    // Shared with the other transfer helpers so they reuse its connections
+    static HttpClient getHttpClient() {
+        return client;
+    }
 
     public FileDownloader() {
         downloadState.set(PAUSED);
@@ -75,8 +168,21 @@ public class FileDownloader {
         if(downloadFilepath.isBlank())
             return;
 
+        // Riding along on another transfer, there is nothing of our own to start
+        if(leader != null) {
+            if(downloadState.get() == PAUSED) {
+                resumed = true;
+                setDownloadState(RUNNING);
+            }
+            return;
+        }
+
         if(downloadTask == null || downloadTask.state() != Future.State.RUNNING) {
             resumed = false;
+            notModified = false;
+            satisfiedLocally = false;
+            servedByPeer = null;
+            contentHash = null;
             downloadTask = CompletableFuture.runAsync(this::download);
         }
         else {
@@ -87,6 +193,13 @@ public class FileDownloader {
 
     public void stop() {
         if(downloadState.get() == RUNNING || downloadState.get() == PAUSED) {
+            FileDownloader current = leader;
+
+            if(current != null) {
+                current.subscribers.remove(this);
+                leader = null;
+            }
+
             setDownloadState(STOPPED);
         }
     }
@@ -107,6 +220,16 @@ public class FileDownloader {
         return downloadUrl;
     }
 
+    // Other places serving the same content, fetched from in parallel by range
+    public void setMirrorUrls(List<String> urls) {
+        mirrorUrls.clear();
+        mirrorUrls.addAll(urls);
+    }
+
+    public final List<String> getMirrorUrls() {
+        return List.copyOf(mirrorUrls);
+    }
+
     public void setFilePath(String filepath) {
         downloadFilepath = filepath;
     }
@@ -115,6 +238,15 @@ public class FileDownloader {
         return downloadFilepath;
     }
 
+    // SHA-1 the finished file is expected to have, lets the content store answer the job
+    public void setExpectedHash(String sha1) {
+        expectedHash = sha1;
+    }
+
+    public final String getExpectedHash() {
+        return expectedHash;
+    }
+
     public void setUserData(Object userData) {
         this.userData = userData;
     }
@@ -126,6 +258,162 @@ public class FileDownloader {
     public final boolean getResumed() {
         return resumed;
     }
+
+    // Upper bound for parallel range connections, 1 keeps to a single stream
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = Math.max(1, maxConnections);
+    }
+
+    public final int getMaxConnections() {
+        return maxConnections;
+    }
+
+    // Send repeat downloads of the same url and file as conditional requests
+    public void setConditional(boolean conditional) {
+        this.conditional = conditional;
+    }
+
+    public final boolean getConditional() {
+        return conditional;
+    }
+
+    // Receives the body in order as it arrives, such as an archive being unpacked on the fly
+    public void setContentSink(ContentSink contentSink) {
+        this.contentSink = contentSink;
+    }
+
+    public final ContentSink getContentSink() {
+        return contentSink;
+    }
+
+    // With a sink the file on disk can be skipped entirely
+    public void setKeepFile(boolean keepFile) {
+        this.keepFile = keepFile;
+    }
+
+    public final boolean getKeepFile() {
+        return keepFile;
+    }
+
+    private boolean keepsFile() {
+        return keepFile || contentSink == null;
+    }
+
+    // Ask for gzip or deflate bodies, only ever on requests from the first byte
+    public void setAcceptCompression(boolean acceptCompression) {
+        this.acceptCompression = acceptCompression;
+    }
+
+    public final boolean getAcceptCompression() {
+        return acceptCompression;
+    }
+
+    // True while the body arrives compressed, progress then counts wire bytes
+    public final boolean getEncoded() {
+        return !contentEncoding.equals("identity");
+    }
+
+    // Bytes taken off the network, before decoding
+    public final long getWireBytes() {
+        return wireBytes;
+    }
+
+    // Bytes of the actual file, after decoding
+    public final long getDecodedBytes() {
+        return decodedBytes;
+    }
+
+    // Fetch in file order and keep track of what is on disk, so the file can be read while it downloads
+    public void setSequential(boolean sequential) {
+        this.sequential = sequential;
+
+        if (sequential && writtenRanges == null)
+            writtenRanges = new RangeSet();
+    }
+
+    public final boolean getSequential() {
+        return sequential;
+    }
+
+    // What of the .part file is on disk so far, null unless sequential
+    public final RangeSet getWrittenRanges() {
+        return writtenRanges;
+    }
+
+    // Zero until the server told us, and for compressed transfers
+    public final long getContentSize() {
+        return contentSize;
+    }
+
+    // A reader wants position next, move the fetching there
+    public void prioritize(long position) {
+        StreamingTransfer current = streamingTransfer;
+
+        if (current != null)
+            current.prioritize(position);
+    }
+
+    // The older copy a .zsync download builds on, the target file itself when not set
+    public void setDeltaBasis(String filepath) {
+        deltaBasisFilepath = filepath;
+    }
+
+    public final String getDeltaBasis() {
+        return deltaBasisFilepath;
+    }
+
+    public final long getDeltaReusedBytes() {
+        return deltaReusedBytes;
+    }
+
+    public final long getDeltaFetchedBytes() {
+        return deltaFetchedBytes;
+    }
+
+    // Only these parts of the resource, each at its own offset of a sparse file. Null for all of it.
+    public void setRanges(List<RangeFetcher.ByteRange> ranges) {
+        this.ranges = ranges == null || ranges.isEmpty() ? null : List.copyOf(ranges);
+    }
+
+    public final List<RangeFetcher.ByteRange> getRanges() {
+        return ranges;
+    }
+
+    // True when the last run completed on a 304 without transferring anything
+    public final boolean getNotModified() {
+        return notModified;
+    }
+
+    // True when the last run was served from an identical local file
+    public final boolean getSatisfiedLocally() {
+        return satisfiedLocally;
+    }
+
+    // host:port of the peer the last run came from, null when it was not one
+    public final String getServedByPeer() {
+        return servedByPeer;
+    }
+
+    // SHA-1 of the finished file when the last run learned it, null otherwise
+    public final String getContentHash() {
+        return contentHash;
+    }
+
+    // Average time one read waited on the network, the single stream path only
+    public final long getNetworkReadMicros() {
+        return networkReadCount == 0 ? 0 : networkReadNanos / networkReadCount / 1000;
+    }
+
+    // Average time one block took to reach the disk, reported apart from the network
+    public final long getDiskWriteMicros() {
+        WriteBehindFile file = targetFile;
+        return file == null ? 0 : file.getAverageWriteMicros();
+    }
+
+    // True while this download shares another one's transfer instead of its own
+    public final boolean getShared() {
+        return leader != null;
+    }
     //endregion
 
     //region State change
@@ -139,26 +427,11 @@ public class FileDownloader {
     }
 
     private void onDownloadStateChanged(int state) throws InvalidParameterException {
-        switch (state)
-        {
-            case PAUSED:
-                onPauseDownload();
-                break;
-            case RUNNING:
-                onStartDownload();
-                break;
-            case COMPLETE:
-                onCompleteDownload();
-                break;
-            case STOPPED:
-                onStopDownload();
-                break;
-            case ERROR:
-                onErrorDownload();
-                break;
-            default:
-                throw new InvalidParameterException("Parameter: state was set to an invalid value.");
-        }
+        if (state < PAUSED || state > ERROR)
+            throw new InvalidParameterException("Parameter: state was set to an invalid value.");
+
+        for (DownloadListener listener : listeners)
+            listener.onStateChanged(this, state);
     }
     //endregion
 
@@ -168,204 +441,1189 @@ public class FileDownloader {
         downloadTask = null;
 
         contentSize = 0;
+        rangeStart = 0;
 
         resumed = false;
 
-        File fileObject = new File(downloadFilepath);
+        contentEncoding = "identity";
+        encodedSize = 0;
+
+        if (writtenRanges != null)
+            writtenRanges.clear();
+
+        File fileObject = new File(getPartFilepath());
 
         if(fileObject.isFile() && fileObject.delete()) {
         }
     }
 
-    private boolean isValidResponse() throws URISyntaxException, ExecutionException, InterruptedException {
-        boolean result = false;
+    // Data is staged next to the target and only takes its name once complete
+    public final String getPartFilepath() {
+        return downloadFilepath + ".part";
+    }
+
+    private void finishPartFile() throws IOException {
+        Path part = Paths.get(getPartFilepath());
+        Path target = Paths.get(downloadFilepath);
+
+        try {
+            Files.move(part, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(part, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private HttpRequest buildRequest(URI uri, long offset) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder().uri(uri);
+
+        // A server that answered in HTTP/1.1 is not asked to upgrade on every reconnect
+        if(hostCache.getVersion(uri) == HttpClient.Version.HTTP_1_1)
+            builder.version(HttpClient.Version.HTTP_1_1);
+
+        if(offset > 0) {
+            builder.header("Range", "bytes=" + offset + "-");
+
+            // Only take the range if the resource is still the one we started on
+            HostCapabilityCache.ResourceValidators validators = hostCache.getValidators(uri);
+
+            if(validators != null && validators.getIfRangeValue() != null)
+                builder.header("If-Range", validators.getIfRangeValue());
+        } else if(conditionalEntry != null) {
+            if(conditionalEntry.getETag() != null)
+                builder.header("If-None-Match", conditionalEntry.getETag());
+
+            if(conditionalEntry.getLastModified() != null)
+                builder.header("If-Modified-Since", conditionalEntry.getLastModified());
+        }
+
+        // Ranges of an encoded body count encoded bytes, which we cannot line up with
+        // what is already decoded on disk. Resumes therefore ask for the plain body.
+        if(offset == 0 && acceptCompression && !sequential)
+            builder.header("Accept-Encoding", "gzip, deflate");
+
+        return builder.build();
+    }
+
+    private boolean isValidResponse(long offset) throws ExecutionException, InterruptedException, IOException {
+        HttpResponse<InputStream> response = downloadResponse.get();
 
-        var ref = new Object() {
-            int statusCode = downloadResponse.get().statusCode();
-        };
+        HashSet<URI> visited = new HashSet<>();
+        visited.add(response.uri());
+
+        int hops = 0;
 
         // Keep connecting while we have matching redirects
-        while(IntStream.of(REDIRECT_RESPONSES).anyMatch(x -> x == ref.statusCode)) {
+        while(isRedirect(response.statusCode())) {
 
-            HttpHeaders headers = downloadResponse.get().headers();
+            HttpHeaders headers = response.headers();
             
             if(headers.firstValue("Location").isEmpty())
                 break;
-            
-            String newAddress = headers.firstValue("Location").get();
-            HttpRequest request = HttpRequest.newBuilder().uri(new URI(newAddress)).build();
 
-            downloadResponse = client.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream());
+            // Location is allowed to be relative to the url that sent it
+            URI newAddress = response.uri().resolve(headers.firstValue("Location").get());
 
-            ref.statusCode = downloadResponse.get().statusCode();
+            response.body().close();
+
+            // Give up on overly long chains and on servers sending us in circles
+            if(++hops > MAX_REDIRECTS || !visited.add(newAddress))
+                return false;
+
+            downloadResponse = client.sendAsync(buildRequest(newAddress, offset), HttpResponse.BodyHandlers.ofInputStream());
+
+            response = downloadResponse.get();
         }
 
         // if we succeeded
-        if(ref.statusCode == 200) {
-            result = true;
+        return response.statusCode() == 200
+                || (offset > 0 && response.statusCode() == 206)
+                || (offset == 0 && conditionalEntry != null && response.statusCode() == 304);
+    }
+
+    private static boolean isRedirect(int statusCode) {
+        return IntStream.of(REDIRECT_RESPONSES).anyMatch(x -> x == statusCode);
+    }
+
+    private boolean connect(URI uri, long offset) throws ExecutionException, InterruptedException, IOException {
+        downloadResponse = client.sendAsync(buildRequest(uri, offset), HttpResponse.BodyHandlers.ofInputStream());
+
+        if(!isValidResponse(offset)) {
+            downloadResponse.get().body().close();
+            return false;
         }
 
-        return result;
+        HttpResponse<InputStream> response = downloadResponse.get();
+
+        if(response.statusCode() == 304) {
+            notModified = true;
+            return true;
+        }
+
+        hostCache.update(response);
+
+        etag = response.headers().firstValue("ETag").orElse(null);
+        lastModified = response.headers().firstValue("Last-Modified").orElse(null);
+
+        if(response.statusCode() == 206) {
+            rangeStart = offset;
+            contentSize = getTotalFromContentRange(response.headers(), offset);
+        } else {
+            rangeStart = 0;
+
+            // A connection is valid even if there is no Content-Length
+            // which is why this was moved out of isValidResponse.
+            OptionalLong dataLength = response.headers().firstValueAsLong("Content-Length");
+
+            if(dataLength.isEmpty()) {
+                contentSize = 0;
+            } else {
+                contentSize = dataLength.getAsLong();
+            }
+        }
+
+        contentEncoding = response.headers().firstValue("Content-Encoding").orElse("identity").trim().toLowerCase();
+
+        // Content-Length counts compressed bytes, the size of the file is unknown until the end
+        if(getEncoded()) {
+            encodedSize = contentSize;
+            contentSize = 0;
+        }
+
+        return true;
+    }
+
+    static long getTotalFromContentRange(HttpHeaders headers, long offset) {
+        // Content-Range: bytes 100-999/1000
+        String contentRange = headers.firstValue("Content-Range").orElse("");
+        int slash = contentRange.lastIndexOf('/');
+
+        if(slash != -1 && !contentRange.endsWith("*")) {
+            try {
+                return Long.parseLong(contentRange.substring(slash + 1).trim());
+            } catch (NumberFormatException ignored) {
+            }
+        }
+
+        OptionalLong dataLength = headers.firstValueAsLong("Content-Length");
+        return dataLength.isEmpty() ? 0 : offset + dataLength.getAsLong();
     }
 
     private boolean open() {
+        return open(0);
+    }
+
+    private boolean open(long offset) {
         try {
-            HttpRequest request = HttpRequest.newBuilder().uri(new URI(downloadUrl)).build();
+            // Skip the redirect chain when we already know where it ends
+            URI resolved = hostCache.getResolvedUri(contentUrl);
 
-            downloadResponse = client.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream());
+            if(resolved != null) {
+                if(connect(resolved, offset))
+                    return true;
 
-            if (isValidResponse()) {
-                // A connection is valid even if there is no Content-Length
-                // which is why this was moved out of isValidResponse.
-                OptionalLong dataLength = downloadResponse.get().headers().firstValueAsLong("Content-Length");
+                // Stale location, walk the redirects again
+                hostCache.invalidate(contentUrl);
+            }
 
-                if(dataLength.isEmpty()) {
-                    contentSize = 0;
-                } else {
-                    contentSize = dataLength.getAsLong();
-                }
-            } else {
-                clearState();
-                return false;
+            if(connect(new URI(contentUrl), offset)) {
+                hostCache.putResolvedUri(contentUrl, downloadResponse.get().uri());
+                return true;
             }
-        } catch (ExecutionException | InterruptedException | URISyntaxException e) {
+        } catch (ExecutionException | InterruptedException | URISyntaxException | IllegalArgumentException | IOException e) {
             return false;
         }
 
-        return true;
+        clearState();
+        return false;
     }
 
-    private void download() {
+    private static MessageDigest createDigest() {
         try {
-            if (!open()) {
-                clearState();
-                setDownloadState(ERROR);
-                return;
-            }
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
 
-            // Get out stream object
-            InputStream stream = downloadResponse.get().body();
+    private static void closeQuietly(InputStream stream) {
+        try {
+            stream.close();
+        } catch (IOException ignored) {
+        }
+    }
 
-            long totalBytesRead = 0;
+    // The body of the current response, decoded when the server compressed it
+    private InputStream openBody() throws ExecutionException, InterruptedException, IOException {
+        responseWireBytes = 0;
 
-            try (FileOutputStream fileOut = new FileOutputStream(downloadFilepath)) {
+        InputStream body = new WireCountingInputStream(downloadResponse.get().body());
 
-                // Technically where we know the download has actually started
-                setDownloadState(RUNNING);
+        switch (contentEncoding) {
+            case "identity":
+                return body;
+            case "gzip":
+            case "x-gzip":
+                return new GZIPInputStream(body, 64 * 1024);
+            case "deflate":
+                return openDeflate(body);
+            default:
+                body.close();
+                throw new IOException("Unsupported Content-Encoding: " + contentEncoding);
+        }
+    }
 
-                int bytesRead;
-                byte[] buffer = new byte[8192];
+    // deflate is meant to be zlib wrapped but plenty of servers send it raw
+    private static InputStream openDeflate(InputStream body) throws IOException {
+        PushbackInputStream in = new PushbackInputStream(body, 2);
+        byte[] header = in.readNBytes(2);
 
-                while (true) {
-                    // Read all the available bytes from the stream
-                    try {
-                        bytesRead = stream.read(buffer);
-                    } catch (IOException e) {
-                        if (open()) {
-                            stream = downloadResponse.get().body();
-                            stream.skipNBytes(totalBytesRead);
-                            continue;
-                        } else {
-                            // Failed to reopen stream
-                            clearState();
-                            setDownloadState(ERROR);
-                            return;
-                        }
-                    }
+        in.unread(header);
 
-                    // The value -1 is not really an error so break out
-                    if (bytesRead == -1)
-                        break;
+        boolean zlib = header.length == 2
+                && (header[0] & 0x0F) == 8
+                && (((header[0] & 0xFF) << 8) | (header[1] & 0xFF)) % 31 == 0;
 
-                    // Write data to file
-                    fileOut.write(buffer, 0, bytesRead);
+        return new InflaterInputStream(in, new Inflater(!zlib), 64 * 1024);
+    }
 
-                    // Use the total bytes read not what was available
-                    totalBytesRead += bytesRead;
+    // Reconnect after a dropped stream, continuing at offset where the server allows it
+    private boolean reopen(long offset) {
+        URI lastUri = null;
 
-                    // Create another request state?
-                    if (onDataReceive != null && downloadState.get() == RUNNING)
-                        onDataReceive.onDataReceive(this, totalBytesRead, contentSize);
+        try {
+            lastUri = downloadResponse.get().uri();
+        } catch (ExecutionException | InterruptedException ignored) {
+        }
 
-                    if (downloadState.get() == PAUSED) {
-                        while (downloadState.get() == PAUSED) {
-                            Thread.sleep(100);
-                        }
-                    }
+        // Without known range support a plain request and a skip is the only safe option
+        if(lastUri == null || !hostCache.supportsRanges(lastUri))
+            return open(0);
 
-                    // We should be doing clean up delete task and request
-                    if (downloadState.get() == STOPPED) {
-                        // The filestream object needs to be closed first
-                        fileOut.close();
-                        clearState();
-                        return;
-                    }
-                }
+        return open(offset);
+    }
 
-                fileOut.flush();
-            }
+    private void download() {
+        // Slices of a file are nothing a local copy, a peer or a shared transfer could stand in for
+        if (ranges != null) {
+            transferRanges();
+            return;
+        }
 
-            stream.close();
+        // A sink needs the bytes themselves, a local copy or a shared transfer only makes a file.
+        // A sequential download is read while it runs, so it needs a transfer of its own.
+        if (contentSink != null || sequential) {
+            transfer();
+            return;
+        }
 
-            // We finished success
+        if (expectedHash != null && contentStore.materialize(expectedHash, new File(downloadFilepath))) {
+            satisfiedLocally = true;
             setDownloadState(COMPLETE);
-        } catch (InterruptedException | ExecutionException | IOException e) {
-            clearState();
-            setDownloadState(ERROR);
+            return;
         }
-    }
-    //endregion
 
-    //region State change callbacks
-    private void onStartDownload() {
-        if(onDownloadRunning != null)
-            onDownloadRunning.actionPerformed(new ActionEvent(this, ActionEvent.ACTION_PERFORMED, "start"));
-    }
+        // Someone is already fetching this url, ride along instead of opening a second transfer
+        if (joinInFlight(inFlightKey(downloadUrl)))
+            return;
 
-    private void onStopDownload() {
-        if(onDownloadStopped != null)
-            onDownloadStopped.actionPerformed(new ActionEvent(this, ActionEvent.ACTION_PERFORMED, "stop"));
+        try {
+            // Another instance nearby may already have it, a peer that lets us down is skipped after
+            int attempts = peerCache.getPeers().size();
+            boolean done = false;
+            PeerCache.Source peer;
+
+            while (!done && attempts-- > 0 && (peer = peerCache.find(downloadUrl, expectedHash)) != null)
+                done = transferFromPeer(peer);
+
+            if (!done)
+                transfer();
+        } finally {
+            releaseInFlight();
+        }
     }
 
-    private void onPauseDownload() {
-        if(onDownloadPaused != null)
-            onDownloadPaused.actionPerformed(new ActionEvent(this, ActionEvent.ACTION_PERFORMED, "pause"));
-    }
+    private void transfer() {
+        try {
+            contentUrl = downloadUrl;
 
-    private void onCompleteDownload() {
-        if(onDownloadCompleted != null)
-            onDownloadCompleted.actionPerformed(new ActionEvent(this, ActionEvent.ACTION_PERFORMED, "complete"));
-    }
+            if (writtenRanges != null)
+                writtenRanges.clear();
 
-    private void onErrorDownload() {
-        if(onDownloadError != null)
-            onDownloadError.actionPerformed(new ActionEvent(this, ActionEvent.ACTION_PERFORMED, "error"));
-    }
-    //endregion
+            ArrayList<String> sources = new ArrayList<>(mirrorUrls);
 
-    //region ActionListener Setters
-    public void setOnDownloadPaused(ActionListener onDownloadPaused) {
-        this.onDownloadPaused = onDownloadPaused;
-    }
+            // A metalink names the mirrors, the real url is its first one
+            if (MetalinkParser.isMetalink(downloadUrl)) {
+                MetalinkParser.Metalink metalink = loadMetalink();
 
-    public void setOnDownloadStopped(ActionListener onDownloadStopped) {
-        this.onDownloadStopped = onDownloadStopped;
-    }
+                if (metalink == null) {
+                    clearState();
+                    setDownloadState(ERROR);
+                    return;
+                }
 
-    public void setOnDownloadRunning(ActionListener onDownloadRunning) {
-        this.onDownloadRunning = onDownloadRunning;
-    }
+                contentUrl = metalink.getUrls().get(0);
+                sources.addAll(metalink.getUrls().subList(1, metalink.getUrls().size()));
 
-    public void setOnDownloadCompleted(ActionListener onDownloadCompleted) {
-        this.onDownloadCompleted = onDownloadCompleted;
-    }
+                if (expectedHash == null)
+                    expectedHash = metalink.getSHA1();
+            }
 
-    public void setOnDownloadError(ActionListener onDownloadError) {
-        this.onDownloadError = onDownloadError;
-    }
+            // A zsync index names the real file and lets us reuse what we already have of it
+            if (ZsyncIndex.isZsync(downloadUrl)) {
+                ZsyncIndex zsync = loadZsync();
+                URI contentUri = zsync == null ? null : resolveAgainstResponse(zsync.getUrl());
 
-    public void setOnDataRecv(DataReceiveListener onDataReceive) {
-        this.onDataReceive = onDataReceive;
-    }
-    //endregion
+                if (contentUri == null) {
+                    clearState();
+                    setDownloadState(ERROR);
+                    return;
+                }
+
+                contentUrl = contentUri.toString();
+
+                if (expectedHash == null)
+                    expectedHash = zsync.getSHA1();
+
+                if (contentSink == null && transferDelta(zsync, contentUri))
+                    return;
+            }
+
+            conditionalEntry = conditional ? validatorStore.getMatching(downloadUrl, downloadFilepath) : null;
+
+            // A restart of something the cache already knows goes straight to range requests
+            if (conditionalEntry == null && transferFromCache(sources))
+                return;
+
+            boolean opened = open();
+
+            // Only the first request may be conditional, from here on the file gets rewritten
+            conditionalEntry = null;
+
+            if (!opened) {
+                clearState();
+                setDownloadState(ERROR);
+                return;
+            }
+
+            // The same content may already be on the wire under the redirected url
+            String resolvedKey = inFlightKey(downloadResponse.get().uri().toString());
+
+            if (contentSink == null && !inFlightKeys.contains(resolvedKey) && joinInFlight(resolvedKey)) {
+                downloadResponse.get().body().close();
+                return;
+            }
+
+            if (notModified) {
+                downloadResponse.get().body().close();
+
+                // The copy on disk is still current
+                setDownloadState(COMPLETE);
+                return;
+            }
+
+            List<URI> mirrors = getMirrorUris(downloadResponse.get().uri(), sources);
+
+            if (sequential && contentSink == null && contentSize > 0 && hostCache.supportsRanges(mirrors.get(0))) {
+                downloadResponse.get().body().close();
+                transferSequential(mirrors.get(0));
+                return;
+            }
+
+            boolean worthSplitting = contentSink == null
+                    && (mirrors.size() > 1 || (maxConnections > 1 && contentSize >= SEGMENTED_MIN_SIZE));
+
+            if (worthSplitting && contentSize > 0 && hostCache.supportsRanges(mirrors.get(0))) {
+                downloadResponse.get().body().close();
+                transferSegmented(mirrors, false);
+                return;
+            }
+
+            // Get out stream object
+            InputStream stream = openBody();
+
+            long totalBytesRead = 0;
+            String computedHash = null;
+
+            Path partPath = Paths.get(getPartFilepath());
+
+            boolean sinkCompleted = false;
+
+            try (WriteBehindFile fileOut = WriteBehindFile.open(partPath, true)) {
+                targetFile = fileOut;
+                fileOut.setWrittenRanges(writtenRanges);
+
+                if (keepsFile())
+                    fileOut.preallocate(contentSize);
+
+                if (contentSink != null)
+                    contentSink.start();
+
+                // Disk writes happen on the device writer, this thread only reads the network
+                WriteBehindFile.Appender appender = fileOut.appender(0);
+
+                // Technically where we know the download has actually started
+                setDownloadState(RUNNING);
+
+                int bytesRead;
+                ByteBuffer pooled = bufferPool.acquireHeap(BufferPool.MEDIUM, BufferPool.SMALL);
+                byte[] buffer = pooled.array();
+
+                // Hash on the fly so the content index stays current without a second pass
+                MessageDigest digest = keepsFile() && (contentStore.isEnabled() || peerCache.isServing()) ? createDigest() : null;
+
+                try {
+                    while (true) {
+                        // Read all the available bytes from the stream
+                        try {
+                            long readStarted = System.nanoTime();
+                            bytesRead = stream.read(buffer);
+
+                            networkReadNanos += System.nanoTime() - readStarted;
+                            networkReadCount++;
+                        } catch (IOException e) {
+                            closeQuietly(stream);
+
+                            if (reopen(totalBytesRead)) {
+                                stream = openBody();
+
+                                if (rangeStart == 0 && totalBytesRead > 0) {
+                                    if (downloadResponse.get().request().headers().firstValue("Range").isPresent()) {
+                                        // The server answered our range with the whole body, either
+                                        // the resource changed or it does not do ranges after all.
+                                        if (downloadResponse.get().request().headers().firstValue("If-Range").isEmpty())
+                                            hostCache.markRangesUnsupported(downloadResponse.get().uri());
+
+                                        appender.flush();
+                                        fileOut.truncate(0);
+                                        appender = fileOut.appender(0);
+                                        totalBytesRead = 0;
+
+                                        if (keepsFile())
+                                            fileOut.preallocate(contentSize);
+
+                                        if (contentSink != null)
+                                            contentSink.restart();
+
+                                        if (digest != null)
+                                            digest.reset();
+                                    } else {
+                                        stream.skipNBytes(totalBytesRead);
+                                    }
+                                }
+                                continue;
+                            } else {
+                                // Failed to reopen stream
+                                clearState();
+                                setDownloadState(ERROR);
+                                return;
+                            }
+                        }
+
+                        // The value -1 is not really an error so break out
+                        if (bytesRead == -1)
+                            break;
+
+                        // Write data to file
+                        if (keepsFile())
+                            appender.append(buffer, 0, bytesRead);
+
+                        if (contentSink != null)
+                            contentSink.write(buffer, 0, bytesRead);
+
+                        if (digest != null)
+                            digest.update(buffer, 0, bytesRead);
+
+                        // Use the total bytes read not what was available
+                        totalBytesRead += bytesRead;
+
+                        decodedBytes = totalBytesRead;
+
+                        // Create another request state?
+                        if (getEncoded())
+                            reportProgress(responseWireBytes, encodedSize);
+                        else
+                            reportProgress(totalBytesRead, contentSize);
+
+                        if (downloadState.get() == PAUSED) {
+                            while (downloadState.get() == PAUSED) {
+                                Thread.sleep(100);
+                            }
+                        }
+
+                        // We should be doing clean up delete task and request
+                        if (downloadState.get() == STOPPED) {
+                            // The filestream object needs to be closed first
+                            fileOut.close();
+                            clearState();
+                            return;
+                        }
+                    }
+
+                    appender.flush();
+
+                    // Never leave preallocated zeros behind if the body came up short
+                    if (keepsFile() && totalBytesRead < contentSize)
+                        fileOut.truncate(totalBytesRead);
+
+                    if (contentSink != null) {
+                        contentSink.complete();
+                        sinkCompleted = true;
+                    }
+                } finally {
+                    // Stops and failures can leave a partly filled block behind, hand it back
+                    appender.discard();
+                    bufferPool.release(pooled);
+
+                    if (contentSink != null && !sinkCompleted)
+                        contentSink.abort();
+                }
+
+                if (digest != null)
+                    computedHash = HexFormat.of().formatHex(digest.digest());
+            }
+
+            stream.close();
+
+            if (keepsFile()) {
+                finishPartFile();
+
+                validatorStore.put(downloadUrl, downloadFilepath, totalBytesRead, etag, lastModified);
+
+                if (computedHash != null)
+                    rememberContent(computedHash);
+            } else {
+                Files.deleteIfExists(partPath);
+            }
+
+            // We finished success
+            setDownloadState(COMPLETE);
+        } catch (InterruptedException | ExecutionException | IOException e) {
+            clearState();
+            setDownloadState(ERROR);
+        }
+    }
+    //endregion
+
+    private MetalinkParser.Metalink loadMetalink() throws ExecutionException, InterruptedException, IOException {
+        if (!open())
+            return null;
+
+        try (InputStream stream = downloadResponse.get().body()) {
+            return MetalinkParser.parse(stream);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private ZsyncIndex loadZsync() throws ExecutionException, InterruptedException, IOException {
+        if (!open())
+            return null;
+
+        try (InputStream stream = downloadResponse.get().body()) {
+            return ZsyncIndex.parse(stream);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // The index may name its file relative to where the index came from
+    private URI resolveAgainstResponse(String url) throws ExecutionException, InterruptedException {
+        try {
+            return downloadResponse.get().uri().resolve(url.trim());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    // Pieces in file order on the streaming transfer, so readers of the .part file
+    // get the front first. Always ends the run, completed, stopped or failed.
+    private void transferSequential(URI uri) throws IOException, InterruptedException {
+        setDownloadState(RUNNING);
+
+        int result;
+
+        Path partPath = Paths.get(getPartFilepath());
+
+        try (WriteBehindFile fileOut = WriteBehindFile.open(partPath, true)) {
+            targetFile = fileOut;
+            fileOut.setWrittenRanges(writtenRanges);
+            fileOut.preallocate(contentSize);
+
+            StreamingTransfer streaming = new StreamingTransfer(this, client, uri, contentSize, fileOut);
+            streaming.setMaxConnections(maxConnections);
+
+            streamingTransfer = streaming;
+
+            try {
+                result = streaming.run();
+            } finally {
+                streamingTransfer = null;
+            }
+        }
+
+        switch (result) {
+            case StreamingTransfer.COMPLETED:
+                finishPartFile();
+
+                validatorStore.put(downloadUrl, downloadFilepath, contentSize, etag, lastModified);
+
+                rememberContent(null);
+
+                setDownloadState(COMPLETE);
+                break;
+            case StreamingTransfer.STOPPED:
+                clearState();
+                break;
+            default:
+                clearState();
+                setDownloadState(ERROR);
+                break;
+        }
+    }
+
+    // True when the delta finished or was stopped, false to fall back to a full transfer
+    private boolean transferDelta(ZsyncIndex index, URI contentUri) throws IOException, InterruptedException {
+        Path basis = Paths.get(deltaBasisFilepath != null ? deltaBasisFilepath : downloadFilepath);
+
+        if (!Files.isRegularFile(basis))
+            return false;
+
+        setDownloadState(RUNNING);
+
+        Path partPath = Paths.get(getPartFilepath());
+        int result;
+
+        try (WriteBehindFile fileOut = WriteBehindFile.open(partPath, true)) {
+            targetFile = fileOut;
+            fileOut.preallocate(index.getLength());
+
+            DeltaTransfer delta = new DeltaTransfer(this, client, index, contentUri, basis, fileOut);
+
+            try {
+                result = delta.run();
+            } catch (IOException e) {
+                result = DeltaTransfer.FAILED;
+            }
+
+            deltaReusedBytes = delta.getReusedBytes();
+            deltaFetchedBytes = delta.getFetchedBytes();
+        }
+
+        if (result == DeltaTransfer.STOPPED) {
+            clearState();
+            return true;
+        }
+
+        // Blocks can match by accident, only the hash of the whole file counts
+        if (result == DeltaTransfer.COMPLETED && index.getSHA1().equalsIgnoreCase(hashFile(partPath.toFile()))) {
+            finishPartFile();
+
+            rememberContent(index.getSHA1());
+
+            setDownloadState(COMPLETE);
+            return true;
+        }
+
+        Files.deleteIfExists(partPath);
+        return false;
+    }
+
+    // The wanted ranges only, several per request where the server allows. What
+    // is left out stays a hole, the file is never hashed or taken for the whole.
+    private void transferRanges() {
+        Path partPath = Paths.get(getPartFilepath());
+
+        try {
+            contentUrl = downloadUrl;
+
+            RangeFetcher fetcher = new RangeFetcher(client, new URI(downloadUrl));
+            fetcher.setMaxGap(RANGES_MAX_GAP);
+            fetcher.setMultipart(true);
+
+            List<RangeFetcher.ByteRange> resolved = fetcher.resolve(ranges);
+            long total = 0;
+
+            for (RangeFetcher.ByteRange range : RangeFetcher.merge(resolved, RANGES_MAX_GAP))
+                total += range.getLength();
+
+            contentSize = total;
+            long bytesTotal = total;
+            boolean complete;
+
+            setDownloadState(RUNNING);
+
+            try (FileChannel channel = FileChannel.open(partPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.SPARSE)) {
+                complete = fetcher.fetch(resolved, (position, data, offset, length) -> {
+                    ByteBuffer source = ByteBuffer.wrap(data, offset, length);
+
+                    while (source.hasRemaining())
+                        channel.write(source, position + source.position() - offset);
+
+                    reportProgress(fetcher.getBytesFetched(), bytesTotal);
+
+                    try {
+                        while (downloadState.get() == PAUSED)
+                            Thread.sleep(100);
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException("Interrupted while paused");
+                    }
+
+                    return downloadState.get() != STOPPED;
+                });
+
+                // As long as the resource, so every slice sits at its own offset and the rest is a hole
+                long size = fetcher.getSize();
+
+                if (complete && size > channel.size())
+                    channel.write(ByteBuffer.wrap(new byte[1]), size - 1);
+            }
+
+            if (!complete) {
+                clearState();
+                return;
+            }
+
+            finishPartFile();
+            setDownloadState(COMPLETE);
+        } catch (URISyntaxException | IllegalArgumentException | IOException | InterruptedException e) {
+            clearState();
+            setDownloadState(ERROR);
+        }
+    }
+
+    // False when the peer let us down and the origin has to be asked after all.
+    // Nothing a peer sends is kept unless its SHA-1 comes out right.
+    private boolean transferFromPeer(PeerCache.Source peer) {
+        MessageDigest digest = createDigest();
+
+        if (digest == null)
+            return false;
+
+        Path partPath = Paths.get(getPartFilepath());
+        boolean stopped = false;
+
+        try {
+            HttpResponse<InputStream> response = client.send(HttpRequest.newBuilder(peer.getUri()).build(), HttpResponse.BodyHandlers.ofInputStream());
+
+            if (response.statusCode() != 200) {
+                response.body().close();
+                peerCache.reportBad(peer);
+                return false;
+            }
+
+            setDownloadState(RUNNING);
+
+            ByteBuffer pooled = bufferPool.acquireHeap(BufferPool.MEDIUM, BufferPool.SMALL);
+
+            try (InputStream stream = response.body(); WriteBehindFile fileOut = WriteBehindFile.open(partPath, true)) {
+                targetFile = fileOut;
+
+                WriteBehindFile.Appender appender = fileOut.appender(0);
+                byte[] buffer = pooled.array();
+                long totalBytesRead = 0;
+                int bytesRead;
+
+                try {
+                    while ((bytesRead = stream.read(buffer)) != -1) {
+                        appender.append(buffer, 0, bytesRead);
+                        digest.update(buffer, 0, bytesRead);
+                        totalBytesRead += bytesRead;
+
+                        reportProgress(totalBytesRead, peer.getSize());
+
+                        while (downloadState.get() == PAUSED)
+                            Thread.sleep(100);
+
+                        if (downloadState.get() == STOPPED) {
+                            stopped = true;
+                            break;
+                        }
+                    }
+
+                    appender.flush();
+                } finally {
+                    appender.discard();
+                }
+            } finally {
+                bufferPool.release(pooled);
+            }
+        } catch (IOException e) {
+            peerCache.reportBad(peer);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stopped = true;
+        }
+
+        try {
+            if (stopped) {
+                clearState();
+                return true;
+            }
+
+            if (peer.getHash().equalsIgnoreCase(HexFormat.of().formatHex(digest.digest()))) {
+                finishPartFile();
+
+                servedByPeer = peer.getPeer();
+                rememberContent(peer.getHash());
+
+                setDownloadState(COMPLETE);
+                return true;
+            }
+
+            // Damaged or not what it claimed to be
+            peerCache.reportBad(peer);
+            Files.deleteIfExists(partPath);
+        } catch (IOException e) {
+            clearState();
+        }
+
+        return false;
+    }
+
+    // The url we connected to first, then every mirror we can make sense of
+    private List<URI> getMirrorUris(URI first, List<String> sources) {
+        ArrayList<URI> result = new ArrayList<>();
+        result.add(first);
+
+        for (String source : sources) {
+            try {
+                URI uri = hostCache.getResolvedUri(source);
+
+                if (uri == null)
+                    uri = new URI(source.trim());
+
+                if (uri.getScheme() != null && uri.getHost() != null && !result.contains(uri))
+                    result.add(uri);
+            } catch (URISyntaxException ignored) {
+            }
+        }
+
+        return result;
+    }
+
+    // Skips the probing request when an earlier one told us where the url ends up, that the
+    // server takes ranges and how big the file is. The segmented probe still checks the size
+    // on every mirror. False when the cache knows too little or turned out stale.
+    private boolean transferFromCache(List<String> sources) throws IOException, InterruptedException {
+        if (contentSink != null || sequential || MetalinkParser.isMetalink(downloadUrl) || ZsyncIndex.isZsync(downloadUrl))
+            return false;
+
+        URI resolved = hostCache.getResolvedUri(contentUrl);
+
+        if (resolved == null || !hostCache.supportsRanges(resolved))
+            return false;
+
+        HostCapabilityCache.ResourceValidators validators = hostCache.getValidators(resolved);
+
+        if (validators == null || validators.getContentLength() <= 0)
+            return false;
+
+        List<URI> mirrors = getMirrorUris(resolved, sources);
+        long size = validators.getContentLength();
+
+        if (mirrors.size() == 1 && (maxConnections <= 1 || size < SEGMENTED_MIN_SIZE))
+            return false;
+
+        String resolvedKey = inFlightKey(resolved.toString());
+
+        if (!inFlightKeys.contains(resolvedKey) && joinInFlight(resolvedKey))
+            return true;
+
+        contentSize = size;
+        rangeStart = 0;
+        etag = validators.getETag();
+        lastModified = validators.getLastModified();
+
+        if (transferSegmented(mirrors, true))
+            return true;
+
+        // Moved or changed since, the next attempt probes like a first one
+        hostCache.invalidate(contentUrl);
+        contentSize = 0;
+        return false;
+    }
+
+    // False only for a failure that may be retried with a fresh probe
+    private boolean transferSegmented(List<URI> mirrors, boolean fromCache) throws IOException, InterruptedException {
+        setDownloadState(RUNNING);
+
+        int result;
+
+        Path partPath = Paths.get(getPartFilepath());
+
+        try (WriteBehindFile fileOut = WriteBehindFile.open(partPath, true)) {
+            targetFile = fileOut;
+            fileOut.preallocate(contentSize);
+
+            SegmentedTransfer segmented = new SegmentedTransfer(this, client, mirrors, contentSize, fileOut);
+            segmented.setMaxConnections(maxConnections);
+
+            result = segmented.run();
+        }
+
+        switch (result) {
+            case SegmentedTransfer.COMPLETED:
+                finishPartFile();
+
+                validatorStore.put(downloadUrl, downloadFilepath, contentSize, etag, lastModified);
+
+                // Pieces arrive out of order, so here the hash needs its own pass
+                rememberContent(null);
+
+                setDownloadState(COMPLETE);
+                break;
+            case SegmentedTransfer.STOPPED:
+                clearState();
+                break;
+            default:
+                if (fromCache) {
+                    Files.deleteIfExists(partPath);
+                    return false;
+                }
+
+                clearState();
+                setDownloadState(ERROR);
+                break;
+        }
+
+        return true;
+    }
+
+    // Lets the content index and peers find what is now on disk, hashing it first when needed
+    private void rememberContent(String hash) throws IOException {
+        contentHash = hash;
+
+        if (!contentStore.isEnabled() && !peerCache.isServing())
+            return;
+
+        File file = new File(downloadFilepath);
+
+        if (hash == null)
+            hash = contentHash = hashFile(file);
+
+        contentStore.add(hash, file);
+        peerCache.advertise(downloadUrl, hash, file);
+    }
+
+    public static String hashFile(File file) throws IOException {
+        MessageDigest digest = createDigest();
+
+        if (digest == null)
+            return null;
+
+        ByteBuffer pooled;
+
+        try {
+            pooled = bufferPool.acquireHeap(BufferPool.MEDIUM, BufferPool.SMALL);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a buffer");
+        }
+
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = pooled.array();
+            int bytesRead;
+
+            while ((bytesRead = in.read(buffer)) != -1)
+                digest.update(buffer, 0, bytesRead);
+        } finally {
+            bufferPool.release(pooled);
+        }
+
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    void reportProgress(long bytesRecv, long bytesTotal) {
+        if (downloadState.get() == RUNNING) {
+            for (DownloadListener listener : listeners)
+                listener.onDataReceive(this, bytesRecv, bytesTotal);
+        }
+
+        // Nobody is waiting on this transfer most of the time, skip making an iterator then
+        if (subscribers.isEmpty())
+            return;
+
+        for (FileDownloader subscriber : subscribers)
+            subscriber.onSharedDataReceive(bytesRecv, bytesTotal);
+    }
+
+    //region Shared transfers
+    private static String inFlightKey(String url) {
+        try {
+            URI uri = new URI(url).normalize();
+            return new URI(uri.getScheme(), uri.getAuthority(), uri.getPath(), uri.getQuery(), null).toString();
+        } catch (URISyntaxException e) {
+            return url;
+        }
+    }
+
+    private boolean joinInFlight(String key) {
+        while (true) {
+            FileDownloader running = inFlight.putIfAbsent(key, this);
+
+            if (running == null || running == this) {
+                synchronized (this) {
+                    acceptingSubscribers = true;
+                }
+
+                inFlightKeys.add(key);
+                return false;
+            }
+
+            if (running.addSubscriber(this, true))
+                return true;
+
+            // It finished while we looked, try to take its place
+            inFlight.remove(key, running);
+        }
+    }
+
+    // The subscriber is set up under our lock, releaseInFlight cannot deliver to it or
+    // restart it before it knows who it follows
+    private synchronized boolean addSubscriber(FileDownloader subscriber, boolean joining) {
+        if (!acceptingSubscribers)
+            return false;
+
+        subscriber.leader = this;
+
+        if (joining) {
+            subscriber.resumed = false;
+            subscriber.setDownloadState(RUNNING);
+        }
+
+        subscribers.addIfAbsent(subscriber);
+        return true;
+    }
+
+    private void releaseInFlight() {
+        for (String key : inFlightKeys)
+            inFlight.remove(key, this);
+
+        inFlightKeys.clear();
+
+        ArrayList<FileDownloader> pending;
+
+        synchronized (this) {
+            acceptingSubscribers = false;
+            pending = new ArrayList<>(subscribers);
+            subscribers.clear();
+        }
+
+        FileDownloader newLeader = leader;
+
+        for (FileDownloader subscriber : pending) {
+            if (newLeader != null) {
+                // We ended up following someone else, so do the ones that followed us
+                if (!newLeader.addSubscriber(subscriber, false))
+                    subscriber.restartIndependently();
+            } else if (downloadState.get() == COMPLETE) {
+                deliverTo(subscriber);
+            } else if (downloadState.get() == STOPPED) {
+                // Only this one was cancelled, the others still want the file
+                subscriber.restartIndependently();
+            } else {
+                subscriber.leader = null;
+                subscriber.setDownloadState(ERROR);
+            }
+        }
+    }
+
+    private void deliverTo(FileDownloader subscriber) {
+        subscriber.leader = null;
+
+        if (subscriber.downloadState.get() == STOPPED)
+            return;
+
+        try {
+            LocalCopyUtil.copy(Paths.get(downloadFilepath), Paths.get(subscriber.downloadFilepath), false);
+
+            subscriber.notModified = notModified;
+            validatorStore.put(subscriber.downloadUrl, subscriber.downloadFilepath, new File(downloadFilepath).length(), etag, lastModified);
+
+            subscriber.setDownloadState(COMPLETE);
+        } catch (IOException e) {
+            subscriber.setDownloadState(ERROR);
+        }
+    }
+
+    private void restartIndependently() {
+        leader = null;
+
+        if (downloadState.get() != STOPPED)
+            downloadTask = CompletableFuture.runAsync(this::download);
+    }
+
+    private void onSharedDataReceive(long bytesRecv, long bytesTotal) {
+        if (downloadState.get() == RUNNING) {
+            for (DownloadListener listener : listeners)
+                listener.onDataReceive(this, bytesRecv, bytesTotal);
+        }
+    }
+    //endregion
+
+    //region Listeners
+    public synchronized void addDownloadListener(DownloadListener listener) {
+        for (DownloadListener existing : listeners) {
+            if (existing == listener)
+                return;
+        }
+
+        DownloadListener[] grown = Arrays.copyOf(listeners, listeners.length + 1);
+        grown[listeners.length] = listener;
+        listeners = grown;
+    }
+
+    public synchronized void removeDownloadListener(DownloadListener listener) {
+        DownloadListener[] current = listeners;
+
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == listener) {
+                DownloadListener[] shrunk = Arrays.copyOf(current, current.length - 1);
+                System.arraycopy(current, i + 1, shrunk, i, current.length - i - 1);
+                listeners = shrunk;
+                return;
+            }
+        }
+    }
+    //endregion
+
+    private final class WireCountingInputStream extends FilterInputStream {
+        private WireCountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+
+            if (value != -1)
+                count(1);
+
+            return value;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int bytesRead = super.read(b, off, len);
+
+            if (bytesRead > 0)
+                count(bytesRead);
+
+            return bytesRead;
+        }
+
+        // What crossed the wire is what the rate cap is about, compressed or not
+        private void count(int bytes) throws IOException {
+            responseWireBytes += bytes;
+            wireBytes += bytes;
+
+            try {
+                bandwidthLimiter.consume(bytes);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while held to the rate limit");
+            }
+        }
+    }
 }
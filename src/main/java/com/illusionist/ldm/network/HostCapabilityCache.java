@@ -0,0 +1,316 @@
+package com.illusionist.ldm.network;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpResponse;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Remembers where a download url ends up after redirects and what the
+// server at the end of it supports, so reconnects and restarts can skip
+// the redirect chain and go straight to a range request.
+public final class HostCapabilityCache {
+    //region Constants
+    public static final long DEFAULT_TTL_MILLIS = 10 * 60 * 1000;
+
+    public static final int RANGES_UNKNOWN = 0;
+    public static final int RANGES_SUPPORTED = 1;
+    public static final int RANGES_UNSUPPORTED = 2;
+
+    // Past this many entries in a map the expired ones are swept out, then the oldest
+    private static final int MAX_ENTRIES = 4096;
+    //endregion
+
+    private static final HostCapabilityCache instance = new HostCapabilityCache(DEFAULT_TTL_MILLIS);
+
+    private final ConcurrentHashMap<String, ResolvedLocation> locations = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, HostCapabilities> hosts = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<URI, ResourceValidators> validators = new ConcurrentHashMap<>();
+
+    private volatile long ttlMillis;
+
+    public HostCapabilityCache(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    public static HostCapabilityCache getInstance() {
+        return instance;
+    }
+
+    public void setTtlMillis(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    //region Resolved locations
+    public URI getResolvedUri(String sourceUrl) {
+        ResolvedLocation location = locations.get(sourceUrl);
+
+        if(location == null)
+            return null;
+
+        if(location.isExpired()) {
+            locations.remove(sourceUrl, location);
+            return null;
+        }
+
+        return location.finalUri;
+    }
+
+    public void putResolvedUri(String sourceUrl, URI finalUri) {
+        locations.put(sourceUrl, new ResolvedLocation(finalUri, System.currentTimeMillis() + ttlMillis));
+        prune(locations);
+    }
+
+    public void invalidate(String sourceUrl) {
+        ResolvedLocation location = locations.remove(sourceUrl);
+
+        if(location != null)
+            validators.remove(location.finalUri);
+    }
+    //endregion
+
+    //region Host capabilities
+    public HostCapabilities getHostCapabilities(URI uri) {
+        HostCapabilities capabilities = hosts.get(hostKey(uri));
+
+        if(capabilities == null)
+            return null;
+
+        if(capabilities.isExpired()) {
+            hosts.remove(hostKey(uri), capabilities);
+            return null;
+        }
+
+        return capabilities;
+    }
+
+    public boolean supportsRanges(URI uri) {
+        HostCapabilities capabilities = getHostCapabilities(uri);
+        return capabilities != null && capabilities.getRangeSupport() == RANGES_SUPPORTED;
+    }
+
+    // What the server answered with last time, null when we have not talked to it
+    public HttpClient.Version getVersion(URI uri) {
+        HostCapabilities capabilities = getHostCapabilities(uri);
+        return capabilities == null ? null : capabilities.getVersion();
+    }
+
+    public ResourceValidators getValidators(URI uri) {
+        ResourceValidators result = validators.get(uri);
+
+        if(result != null && result.isExpired()) {
+            validators.remove(uri, result);
+            return null;
+        }
+
+        return result;
+    }
+
+    // Record whatever a successful (200/206) response tells us about the server
+    // and the resource it served.
+    public void update(HttpResponse<?> response) {
+        URI uri = response.uri();
+        HttpHeaders headers = response.headers();
+        long expires = System.currentTimeMillis() + ttlMillis;
+
+        int rangeSupport;
+        Optional<String> acceptRanges = headers.firstValue("Accept-Ranges");
+
+        if(response.statusCode() == 206 || acceptRanges.filter(x -> x.equalsIgnoreCase("bytes")).isPresent()) {
+            rangeSupport = RANGES_SUPPORTED;
+        } else if(acceptRanges.filter(x -> x.equalsIgnoreCase("none")).isPresent()) {
+            rangeSupport = RANGES_UNSUPPORTED;
+        } else {
+            // Nothing new learned, keep what an earlier response told us
+            HostCapabilities previous = getHostCapabilities(uri);
+            rangeSupport = previous == null ? RANGES_UNKNOWN : previous.getRangeSupport();
+        }
+
+        hosts.put(hostKey(uri), new HostCapabilities(rangeSupport, response.version(), expires));
+        prune(hosts);
+
+        String etag = headers.firstValue("ETag").orElse(null);
+        String lastModified = headers.firstValue("Last-Modified").orElse(null);
+
+        // A 206 carries the full length after the slash of its Content-Range, an encoded
+        // body only its compressed length
+        OptionalLong length = OptionalLong.empty();
+
+        if (response.statusCode() == 206)
+            length = totalOf(headers.firstValue("Content-Range").orElse(""));
+        else if (response.statusCode() == 200 && headers.firstValue("Content-Encoding").isEmpty())
+            length = headers.firstValueAsLong("Content-Length");
+
+        // Nothing new learned, keep what an earlier response told of the same version
+        if (length.isEmpty()) {
+            ResourceValidators previous = getValidators(uri);
+
+            if (previous != null && previous.contentLength >= 0 && sameVersion(previous, etag, lastModified))
+                length = OptionalLong.of(previous.contentLength);
+        }
+
+        validators.put(uri, new ResourceValidators(etag, lastModified, length.orElse(-1), expires));
+        prune(validators);
+    }
+
+    public void markRangesUnsupported(URI uri) {
+        HostCapabilities previous = getHostCapabilities(uri);
+        HttpClient.Version version = previous == null ? HttpClient.Version.HTTP_1_1 : previous.getVersion();
+
+        hosts.put(hostKey(uri), new HostCapabilities(RANGES_UNSUPPORTED, version, System.currentTimeMillis() + ttlMillis));
+        prune(hosts);
+    }
+    //endregion
+
+    public void clear() {
+        locations.clear();
+        hosts.clear();
+        validators.clear();
+    }
+
+    public int size() {
+        return locations.size() + hosts.size() + validators.size();
+    }
+
+    // Lookups only drop what they trip over, urls never asked for again would stay forever
+    private static <K, V extends Expiring> void prune(ConcurrentHashMap<K, V> map) {
+        if (map.size() <= MAX_ENTRIES)
+            return;
+
+        map.values().removeIf(Expiring::isExpired);
+
+        if (map.size() <= MAX_ENTRIES)
+            return;
+
+        // Still full of live entries, drop the ones learned first and leave room for a while
+        int excess = map.size() - MAX_ENTRIES * 3 / 4;
+
+        map.entrySet().stream()
+                .sorted(Comparator.comparingLong(x -> x.getValue().getExpiresAt()))
+                .limit(excess)
+                .map(Map.Entry::getKey)
+                .toList()
+                .forEach(map::remove);
+    }
+
+    // Validators that differ mean the resource changed, missing ones say nothing either way
+    private static boolean sameVersion(ResourceValidators previous, String etag, String lastModified) {
+        if (etag != null && previous.etag != null)
+            return etag.equals(previous.etag);
+
+        return lastModified == null || previous.lastModified == null || lastModified.equals(previous.lastModified);
+    }
+
+    // The size after the slash of "bytes 0-99/1000", empty for "*" or anything unusable
+    private static OptionalLong totalOf(String contentRange) {
+        int slash = contentRange.lastIndexOf('/');
+
+        if (!contentRange.regionMatches(true, 0, "bytes ", 0, 6) || slash == -1)
+            return OptionalLong.empty();
+
+        try {
+            long total = Long.parseLong(contentRange.substring(slash + 1).trim());
+            return total < 0 ? OptionalLong.empty() : OptionalLong.of(total);
+        } catch (NumberFormatException e) {
+            return OptionalLong.empty();
+        }
+    }
+
+    // http://h/ and http://h:80/ are the same server
+    private static String hostKey(URI uri) {
+        String scheme = uri.getScheme() == null ? "" : uri.getScheme().toLowerCase(Locale.ROOT);
+        String host = uri.getHost() == null ? "" : uri.getHost().toLowerCase(Locale.ROOT);
+        int port = uri.getPort();
+
+        if (port == -1)
+            port = scheme.equals("https") ? 443 : scheme.equals("http") ? 80 : -1;
+
+        return scheme + "://" + host + ":" + port;
+    }
+
+    private static abstract class Expiring {
+        private final long expiresAt;
+
+        private Expiring(long expiresAt) {
+            this.expiresAt = expiresAt;
+        }
+
+        long getExpiresAt() {
+            return expiresAt;
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() > expiresAt;
+        }
+    }
+
+    private static final class ResolvedLocation extends Expiring {
+        private final URI finalUri;
+
+        private ResolvedLocation(URI finalUri, long expiresAt) {
+            super(expiresAt);
+            this.finalUri = finalUri;
+        }
+    }
+
+    public static final class HostCapabilities extends Expiring {
+        private final int rangeSupport;
+        private final HttpClient.Version version;
+
+        private HostCapabilities(int rangeSupport, HttpClient.Version version, long expiresAt) {
+            super(expiresAt);
+            this.rangeSupport = rangeSupport;
+            this.version = version;
+        }
+
+        public int getRangeSupport() {
+            return rangeSupport;
+        }
+
+        public HttpClient.Version getVersion() {
+            return version;
+        }
+    }
+
+    public static final class ResourceValidators extends Expiring {
+        private final String etag;
+        private final String lastModified;
+        private final long contentLength;
+
+        private ResourceValidators(String etag, String lastModified, long contentLength, long expiresAt) {
+            super(expiresAt);
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.contentLength = contentLength;
+        }
+
+        public String getETag() {
+            return etag;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+
+        public long getContentLength() {
+            return contentLength;
+        }
+
+        // Value for If-Range, strong ETags are preferred over dates
+        public String getIfRangeValue() {
+            if(etag != null && !etag.startsWith("W/"))
+                return etag;
+
+            return lastModified;
+        }
+    }
+}
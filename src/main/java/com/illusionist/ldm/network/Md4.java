@@ -0,0 +1,110 @@
+package com.illusionist.ldm.network;
+
+// MD4 (RFC 1320), which the JDK no longer ships as a MessageDigest. Only
+// used for the block checksums of zsync indexes, never for security.
+// One instance hashes one block at a time and allocates nothing per call.
+final class Md4 {
+    private static final int[] ROUND3_ORDER = { 0, 2, 1, 3 };
+
+    private final int[] words = new int[16];
+    private final byte[] tail = new byte[128];
+    private final int[] result = new int[4];
+
+    void digest(byte[] data, int offset, int length, byte[] output) {
+        int a = 0x67452301;
+        int b = 0xefcdab89;
+        int c = 0x98badcfe;
+        int d = 0x10325476;
+
+        int full = length & ~63;
+
+        for (int i = 0; i < full; i += 64) {
+            load(data, offset + i);
+
+            int[] state = transform(a, b, c, d);
+            a = state[0];
+            b = state[1];
+            c = state[2];
+            d = state[3];
+        }
+
+        // The rest, a 0x80 marker, zeros and the bit length fill one or two more blocks
+        int rest = length - full;
+        System.arraycopy(data, offset + full, tail, 0, rest);
+        tail[rest] = (byte) 0x80;
+
+        int padded = rest < 56 ? 64 : 128;
+
+        for (int i = rest + 1; i < padded - 8; i++)
+            tail[i] = 0;
+
+        long bits = (long) length * 8;
+
+        for (int i = 0; i < 8; i++)
+            tail[padded - 8 + i] = (byte) (bits >>> (8 * i));
+
+        for (int i = 0; i < padded; i += 64) {
+            load(tail, i);
+
+            int[] state = transform(a, b, c, d);
+            a = state[0];
+            b = state[1];
+            c = state[2];
+            d = state[3];
+        }
+
+        store(a, output, 0);
+        store(b, output, 4);
+        store(c, output, 8);
+        store(d, output, 12);
+    }
+
+    private void load(byte[] data, int offset) {
+        for (int i = 0; i < 16; i++) {
+            int at = offset + i * 4;
+            words[i] = (data[at] & 0xFF) | (data[at + 1] & 0xFF) << 8 | (data[at + 2] & 0xFF) << 16 | (data[at + 3] & 0xFF) << 24;
+        }
+    }
+
+    private int[] transform(int a, int b, int c, int d) {
+        int aa = a, bb = b, cc = c, dd = d;
+        int[] x = words;
+
+        // Round 1
+        for (int i = 0; i < 16; i += 4) {
+            a = Integer.rotateLeft(a + ((b & c) | (~b & d)) + x[i], 3);
+            d = Integer.rotateLeft(d + ((a & b) | (~a & c)) + x[i + 1], 7);
+            c = Integer.rotateLeft(c + ((d & a) | (~d & b)) + x[i + 2], 11);
+            b = Integer.rotateLeft(b + ((c & d) | (~c & a)) + x[i + 3], 19);
+        }
+
+        // Round 2
+        for (int i = 0; i < 4; i++) {
+            a = Integer.rotateLeft(a + ((b & c) | (b & d) | (c & d)) + x[i] + 0x5a827999, 3);
+            d = Integer.rotateLeft(d + ((a & b) | (a & c) | (b & c)) + x[i + 4] + 0x5a827999, 5);
+            c = Integer.rotateLeft(c + ((d & a) | (d & b) | (a & b)) + x[i + 8] + 0x5a827999, 9);
+            b = Integer.rotateLeft(b + ((c & d) | (c & a) | (d & a)) + x[i + 12] + 0x5a827999, 13);
+        }
+
+        // Round 3
+        for (int i : ROUND3_ORDER) {
+            a = Integer.rotateLeft(a + (b ^ c ^ d) + x[i] + 0x6ed9eba1, 3);
+            d = Integer.rotateLeft(d + (a ^ b ^ c) + x[i + 8] + 0x6ed9eba1, 9);
+            c = Integer.rotateLeft(c + (d ^ a ^ b) + x[i + 4] + 0x6ed9eba1, 11);
+            b = Integer.rotateLeft(b + (c ^ d ^ a) + x[i + 12] + 0x6ed9eba1, 15);
+        }
+
+        result[0] = aa + a;
+        result[1] = bb + b;
+        result[2] = cc + c;
+        result[3] = dd + d;
+        return result;
+    }
+
+    private static void store(int value, byte[] output, int offset) {
+        output[offset] = (byte) value;
+        output[offset + 1] = (byte) (value >>> 8);
+        output[offset + 2] = (byte) (value >>> 16);
+        output[offset + 3] = (byte) (value >>> 24);
+    }
+}
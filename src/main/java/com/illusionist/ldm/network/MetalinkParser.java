@@ -0,0 +1,149 @@
+package com.illusionist.ldm.network;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+// Reads the mirror list, size and hash out of Metalink 4 (.meta4) and
+// Metalink 3 (.metalink) documents. Only the first file entry is used.
+public final class MetalinkParser {
+    public static boolean isMetalink(String url) {
+        String lower = url.toLowerCase(Locale.ROOT);
+        int query = lower.indexOf('?');
+
+        if (query != -1)
+            lower = lower.substring(0, query);
+
+        return lower.endsWith(".meta4") || lower.endsWith(".metalink");
+    }
+
+    public static Metalink parse(InputStream in) throws IOException {
+        Document document;
+
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setExpandEntityReferences(false);
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+
+            DocumentBuilder builder = factory.newDocumentBuilder();
+            document = builder.parse(in);
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("Invalid metalink document", e);
+        }
+
+        NodeList files = document.getElementsByTagNameNS("*", "file");
+
+        if (files.getLength() == 0)
+            throw new IOException("Metalink document has no file entry");
+
+        Element file = (Element) files.item(0);
+
+        Metalink result = new Metalink();
+        result.filename = file.getAttribute("name");
+
+        NodeList sizes = file.getElementsByTagNameNS("*", "size");
+
+        if (sizes.getLength() > 0) {
+            try {
+                result.size = Long.parseLong(sizes.item(0).getTextContent().trim());
+            } catch (NumberFormatException ignored) {
+            }
+        }
+
+        NodeList hashes = file.getElementsByTagNameNS("*", "hash");
+
+        for (int i = 0; i < hashes.getLength(); i++) {
+            Element hash = (Element) hashes.item(i);
+            String type = hash.getAttribute("type").toLowerCase(Locale.ROOT);
+
+            // Piece hashes live inside <pieces>, we only want the whole file one
+            if (!hash.getParentNode().isSameNode(file) && !"verification".equals(hash.getParentNode().getLocalName()))
+                continue;
+
+            if (type.equals("sha-1") || type.equals("sha1"))
+                result.sha1 = hash.getTextContent().trim();
+        }
+
+        ArrayList<RankedUrl> ranked = new ArrayList<>();
+        NodeList urls = file.getElementsByTagNameNS("*", "url");
+
+        for (int i = 0; i < urls.getLength(); i++) {
+            Element url = (Element) urls.item(i);
+            String address = url.getTextContent().trim();
+            String lower = address.toLowerCase(Locale.ROOT);
+
+            if (!lower.startsWith("http://") && !lower.startsWith("https://"))
+                continue;
+
+            // Metalink 4 ranks by priority (1 is best), Metalink 3 by preference (100 is best)
+            int rank = 0;
+
+            try {
+                if (url.hasAttribute("priority"))
+                    rank = Integer.parseInt(url.getAttribute("priority").trim());
+                else if (url.hasAttribute("preference"))
+                    rank = 100 - Integer.parseInt(url.getAttribute("preference").trim());
+            } catch (NumberFormatException ignored) {
+            }
+
+            ranked.add(new RankedUrl(address, rank));
+        }
+
+        ranked.sort(Comparator.comparingInt(x -> x.rank));
+
+        for (RankedUrl url : ranked)
+            result.urls.add(url.url);
+
+        if (result.urls.isEmpty())
+            throw new IOException("Metalink document has no http mirrors");
+
+        return result;
+    }
+
+    private static final class RankedUrl {
+        private final String url;
+        private final int rank;
+
+        private RankedUrl(String url, int rank) {
+            this.url = url;
+            this.rank = rank;
+        }
+    }
+
+    public static final class Metalink {
+        private final ArrayList<String> urls = new ArrayList<>();
+        private String filename = "";
+        private String sha1 = null;
+        private long size = 0;
+
+        public List<String> getUrls() {
+            return urls;
+        }
+
+        public String getFilename() {
+            return filename;
+        }
+
+        public String getSHA1() {
+            return sha1;
+        }
+
+        public long getSize() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,400 @@
+package com.illusionist.ldm.network;
+
+import com.illusionist.ldm.storage.ContentStore;
+import com.illusionist.ldm.util.AppDataUtil;
+import com.illusionist.ldm.util.AppSettings;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.net.UnknownHostException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+
+// Shares finished downloads between instances on the local network. An
+// instance that serves advertises what it completed by SHA-1 and by the
+// url it came from, and downloads ask the configured peers before the
+// origin. Whatever a peer sends is hashed against the SHA-1 the job
+// expects. Jobs without one can ask by url, but that takes the peer's
+// word for what the url holds, so it is off unless switched on.
+public final class PeerCache {
+    //region Constants
+    public static final String SETTING_SERVE = "peers.serve";
+    public static final String SETTING_PORT = "peers.port";
+    public static final String SETTING_PEERS = "peers.list";
+    public static final String SETTING_URL_LOOKUP = "peers.urlLookup";
+    public static final String SETTING_BIND_ADDRESS = "peers.bindAddress";
+
+    public static final int DEFAULT_PORT = 47821;
+
+    private static final String CONTENT_FILENAME = "peer-content.log";
+    private static final String URLS_FILENAME = "peer-urls.properties";
+
+    private static final Duration PEER_TIMEOUT = Duration.ofSeconds(2);
+    // A peer that failed us is left alone for this long
+    private static final long BAD_PEER_MILLIS = 10 * 60 * 1000;
+    //endregion
+
+    private static PeerCache instance = null;
+
+    private final ContentStore content;
+    private final File urlsFile;
+    private final Properties urls = new Properties();
+
+    private final CopyOnWriteArrayList<String> peers = new CopyOnWriteArrayList<>();
+    private final ConcurrentHashMap<String, Long> badPeers = new ConcurrentHashMap<>();
+    private volatile boolean urlLookup = AppSettings.getBoolean(SETTING_URL_LOOKUP, false);
+
+    private HttpServer server = null;
+    private volatile boolean serving = false;
+
+    public PeerCache(File contentFile, File urlsFile) {
+        // Served files are indexed apart from the content store, which can be switched off
+        content = new ContentStore(contentFile);
+        content.setEnabled(true);
+
+        this.urlsFile = urlsFile;
+        load();
+    }
+
+    public static synchronized PeerCache getInstance() {
+        if (instance == null) {
+            instance = new PeerCache(AppDataUtil.getDataFile(CONTENT_FILENAME), AppDataUtil.getDataFile(URLS_FILENAME));
+            instance.setPeers(List.of(AppSettings.getString(SETTING_PEERS, "").split(",")));
+
+            if (AppSettings.getBoolean(SETTING_SERVE, false)) {
+                try {
+                    instance.startServing(AppSettings.getInt(SETTING_PORT, DEFAULT_PORT));
+                } catch (IOException ignored) {
+                    // Port taken, this instance still uses its peers
+                }
+            }
+        }
+
+        return instance;
+    }
+
+    //region Peers
+    // host:port of every instance to ask, in order
+    public void setPeers(List<String> addresses) {
+        ArrayList<String> cleaned = new ArrayList<>();
+
+        for (String address : addresses) {
+            if (isPeerAddress(address.trim()))
+                cleaned.add(address.trim());
+        }
+
+        peers.clear();
+        peers.addAll(cleaned);
+    }
+
+    // A typo in the setting is skipped rather than failing every lookup
+    private static boolean isPeerAddress(String address) {
+        if (address.isEmpty())
+            return false;
+
+        try {
+            URI uri = new URI("http://" + address);
+            return uri.getHost() != null && uri.getRawPath().isEmpty() && uri.getRawQuery() == null && uri.getRawUserInfo() == null;
+        } catch (URISyntaxException e) {
+            return false;
+        }
+    }
+
+    public List<String> getPeers() {
+        return List.copyOf(peers);
+    }
+
+    public void setUrlLookup(boolean urlLookup) {
+        this.urlLookup = urlLookup;
+    }
+
+    // The first peer that has the content, null when none does. Without an
+    // expected hash peers are asked for the url, when that is allowed.
+    Source find(String url, String expectedHash) {
+        if (peers.isEmpty())
+            return null;
+
+        String hash = expectedHash == null || expectedHash.isBlank() ? null : normalize(expectedHash);
+
+        if (hash == null && !urlLookup)
+            return null;
+
+        long now = System.currentTimeMillis();
+
+        for (String peer : peers) {
+            Long until = badPeers.get(peer);
+
+            if (until != null && until > now)
+                continue;
+
+            try {
+                Source source = ask(peer, url, hash);
+
+                if (source != null)
+                    return source;
+            } catch (IOException | IllegalArgumentException e) {
+                badPeers.put(peer, now + BAD_PEER_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+
+        return null;
+    }
+
+    private Source ask(String peer, String url, String hash) throws IOException, InterruptedException {
+        if (hash == null) {
+            URI lookup = URI.create("http://" + peer + "/lookup?url=" + URLEncoder.encode(url, StandardCharsets.UTF_8));
+            HttpResponse<String> response = FileDownloader.getHttpClient().send(
+                    HttpRequest.newBuilder(lookup).timeout(PEER_TIMEOUT).build(), HttpResponse.BodyHandlers.ofString());
+
+            if (response.statusCode() != 200)
+                return null;
+
+            hash = normalize(response.body());
+
+            if (!hash.matches("[0-9a-f]{40}"))
+                return null;
+        }
+
+        URI uri = URI.create("http://" + peer + "/content/" + hash);
+        HttpResponse<Void> response = FileDownloader.getHttpClient().send(
+                HttpRequest.newBuilder(uri).timeout(PEER_TIMEOUT).method("HEAD", HttpRequest.BodyPublishers.noBody()).build(),
+                HttpResponse.BodyHandlers.discarding());
+
+        if (response.statusCode() != 200)
+            return null;
+
+        return new Source(peer, uri, hash, response.headers().firstValueAsLong("Content-Length").orElse(-1));
+    }
+
+    // Sent something that did not hash right or broke off, ask the others first for a while
+    void reportBad(Source source) {
+        badPeers.put(source.peer, System.currentTimeMillis() + BAD_PEER_MILLIS);
+    }
+    //endregion
+
+    //region Serving
+    public void startServing(int port) throws IOException {
+        startServing(getBindAddress(), port);
+    }
+
+    synchronized void startServing(InetAddress address, int port) throws IOException {
+        if (server != null)
+            return;
+
+        // Anyone who can reach the port can read what is shared, so only listen where the peers are
+        server = HttpServer.create(new InetSocketAddress(address, port), 16);
+        server.setExecutor(Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "ldm-peer-serve");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.createContext("/content/", this::handleContent);
+        server.createContext("/lookup", this::handleLookup);
+        server.start();
+
+        serving = true;
+    }
+
+    public synchronized void stopServing() {
+        serving = false;
+
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+
+    public boolean isServing() {
+        return serving;
+    }
+
+    public synchronized int getPort() {
+        return server == null ? -1 : server.getAddress().getPort();
+    }
+
+    public synchronized InetAddress getAddress() {
+        return server == null ? null : server.getAddress().getAddress();
+    }
+
+    // The configured address, else the one this machine reaches the first
+    // peer it can through, else loopback only
+    InetAddress getBindAddress() {
+        String configured = AppSettings.getString(SETTING_BIND_ADDRESS, "").trim();
+
+        if (!configured.isEmpty()) {
+            try {
+                return InetAddress.getByName(configured);
+            } catch (UnknownHostException ignored) {
+                // Fall back to the peers
+            }
+        }
+
+        for (String peer : peers) {
+            InetAddress local = getRouteTo(peer);
+
+            if (local != null)
+                return local;
+        }
+
+        return InetAddress.getLoopbackAddress();
+    }
+
+    // Connecting a datagram socket sends nothing, it only picks the interface
+    private static InetAddress getRouteTo(String peer) {
+        try (DatagramSocket socket = new DatagramSocket()) {
+            URI uri = URI.create("http://" + peer);
+            socket.connect(new InetSocketAddress(uri.getHost(), uri.getPort() < 0 ? DEFAULT_PORT : uri.getPort()));
+
+            InetAddress local = socket.getLocalAddress();
+            return local.isAnyLocalAddress() ? null : local;
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    // Offer file to peers, under its hash and the url it was downloaded from
+    public void advertise(String url, String hash, File file) {
+        if (!serving || hash == null || hash.isBlank())
+            return;
+
+        content.add(normalize(hash), file);
+
+        synchronized (urls) {
+            urls.setProperty(url, normalize(hash));
+            save();
+        }
+    }
+
+    private void handleContent(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String hash = exchange.getRequestURI().getPath().substring("/content/".length());
+            File file = content.lookup(hash);
+
+            if (file == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+
+            if (exchange.getRequestMethod().equals("HEAD")) {
+                exchange.getResponseHeaders().set("Content-Length", Long.toString(file.length()));
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+
+            exchange.sendResponseHeaders(200, file.length());
+
+            try (OutputStream out = exchange.getResponseBody()) {
+                Files.copy(file.toPath(), out);
+            }
+        }
+    }
+
+    private void handleLookup(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String query = exchange.getRequestURI().getRawQuery();
+            String hash = null;
+
+            if (query != null && query.startsWith("url=")) {
+                synchronized (urls) {
+                    hash = urls.getProperty(URLDecoder.decode(query.substring(4), StandardCharsets.UTF_8));
+                }
+            }
+
+            // Only answer for content that is still there
+            if (hash == null || content.lookup(hash) == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            byte[] body = hash.getBytes(StandardCharsets.US_ASCII);
+            exchange.sendResponseHeaders(200, body.length);
+
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+    //endregion
+
+    private static String normalize(String hash) {
+        return hash.trim().toLowerCase(Locale.ROOT);
+    }
+
+    //region Persistence
+    private void load() {
+        if (!urlsFile.isFile())
+            return;
+
+        try (FileInputStream in = new FileInputStream(urlsFile)) {
+            urls.load(in);
+        } catch (IOException e) {
+            urls.clear();
+        }
+    }
+
+    private void save() {
+        try (FileOutputStream out = new FileOutputStream(urlsFile)) {
+            urls.store(out, "Little Download Manager - urls served to peers");
+        } catch (IOException ignored) {
+        }
+    }
+    //endregion
+
+    // A peer that has the content, and the hash it has to come out with
+    static final class Source {
+        private final String peer;
+        private final URI uri;
+        private final String hash;
+        private final long size;
+
+        private Source(String peer, URI uri, String hash, long size) {
+            this.peer = peer;
+            this.uri = uri;
+            this.hash = hash;
+            this.size = size;
+        }
+
+        String getPeer() {
+            return peer;
+        }
+
+        URI getUri() {
+            return uri;
+        }
+
+        String getHash() {
+            return hash;
+        }
+
+        long getSize() {
+            return size;
+        }
+    }
+}
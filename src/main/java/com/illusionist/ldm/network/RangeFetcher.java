@@ -0,0 +1,580 @@
+package com.illusionist.ldm.network;
+
+import com.illusionist.ldm.storage.BufferPool;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+
+// Fetches explicit byte ranges of one resource and hands the bytes to a
+// Consumer in file order. Overlapping and touching ranges are merged,
+// and ranges closer together than the gap limit are fetched as one so
+// a few wasted bytes save a round trip. A dropped connection continues
+// where it broke.
+//
+// With multipart on, several ranges go out in one request and come back
+// as multipart/byteranges, parts then arrive in the order the server
+// sends them. Whatever a server leaves out is fetched range by range.
+public final class RangeFetcher {
+    //region Constants
+    private static final int MAX_FAILURES = 3;
+    private static final int MAX_REDIRECTS = 10;
+
+    // Keeps the Range header well under what servers accept
+    private static final int MAX_RANGES_PER_REQUEST = 64;
+    private static final int MAX_PART_HEADER_LINE = 8 * 1024;
+    //endregion
+
+    public interface Consumer {
+        // Return false to stop fetching
+        boolean onData(long position, byte[] data, int offset, int length) throws IOException;
+    }
+
+    private final HttpClient client;
+    private URI uri;
+    private long maxGap = 0;
+    private boolean multipart = false;
+    // Of the whole resource, -1 until a response told it
+    private long size = -1;
+
+    private long bytesFetched = 0;
+    private int requestCount = 0;
+
+    public RangeFetcher(URI uri) {
+        this(FileDownloader.getHttpClient(), uri);
+    }
+
+    RangeFetcher(HttpClient client, URI uri) {
+        this.client = client;
+        this.uri = uri;
+    }
+
+    // Ranges at most this many bytes apart are fetched together
+    public void setMaxGap(long maxGap) {
+        this.maxGap = Math.max(0, maxGap);
+    }
+
+    public long getMaxGap() {
+        return maxGap;
+    }
+
+    // Asks for several ranges per request, off by default as parts may come out of file order
+    public void setMultipart(boolean multipart) {
+        this.multipart = multipart;
+    }
+
+    // False once the server answered a multipart request with something else
+    public boolean getMultipart() {
+        return multipart;
+    }
+
+    // Size of the whole resource as far as responses told it, -1 when none did yet
+    public long getSize() {
+        return size;
+    }
+
+    // Where redirects ended up, later requests go straight there
+    public URI getUri() {
+        return uri;
+    }
+
+    public long getBytesFetched() {
+        return bytesFetched;
+    }
+
+    public int getRequestCount() {
+        return requestCount;
+    }
+
+    // Sorted, with overlapping, touching and close ranges joined
+    public static List<ByteRange> merge(List<ByteRange> ranges, long maxGap) {
+        ArrayList<ByteRange> sorted = new ArrayList<>(ranges);
+        sorted.sort(Comparator.comparingLong(ByteRange::getStart));
+
+        ArrayList<ByteRange> result = new ArrayList<>();
+
+        for (ByteRange range : sorted) {
+            if (range.getLength() <= 0)
+                continue;
+
+            ByteRange last = result.isEmpty() ? null : result.get(result.size() - 1);
+
+            if (last != null && range.getStart() <= last.getEnd() + maxGap)
+                result.set(result.size() - 1, new ByteRange(last.getStart(), Math.max(last.getEnd(), range.getEnd())));
+            else
+                result.add(range);
+        }
+
+        return result;
+    }
+
+    // Suffix and open ended ranges turned into exact ones, cut at the end of the
+    // resource. Asks for the size first when one of them needs it.
+    public List<ByteRange> resolve(List<ByteRange> ranges) throws IOException, InterruptedException {
+        boolean needsSize = false;
+
+        for (ByteRange range : ranges)
+            needsSize |= range.isSuffix() || range.getEnd() == Long.MAX_VALUE;
+
+        if (needsSize && size == -1 && probeSize() == -1)
+            throw new RangeNotSatisfiedException("Server does not tell the size, ranges from the end cannot be placed");
+
+        ArrayList<ByteRange> result = new ArrayList<>(ranges.size());
+
+        for (ByteRange range : ranges)
+            result.add(size == -1 ? range : range.resolve(size));
+
+        return result;
+    }
+
+    // False when the consumer asked to stop
+    public boolean fetch(List<ByteRange> ranges, Consumer consumer) throws IOException, InterruptedException {
+        List<ByteRange> merged = merge(resolve(ranges), maxGap);
+        ByteBuffer pooled = BufferPool.getInstance().acquireHeap(BufferPool.MEDIUM, BufferPool.SMALL);
+
+        try {
+            for (int i = 0; i < merged.size(); ) {
+                if (multipart && merged.size() - i > 1) {
+                    List<ByteRange> batch = merged.subList(i, Math.min(merged.size(), i + MAX_RANGES_PER_REQUEST));
+
+                    if (!fetchMultipart(batch, consumer, pooled.array()))
+                        return false;
+
+                    i += batch.size();
+                } else {
+                    if (!fetch(merged.get(i), consumer, pooled.array()))
+                        return false;
+
+                    i++;
+                }
+            }
+        } finally {
+            BufferPool.getInstance().release(pooled);
+        }
+
+        return true;
+    }
+
+    // The bytes of each range, in the order asked for. Ranges past the end come back short.
+    public List<byte[]> read(List<ByteRange> ranges) throws IOException, InterruptedException {
+        List<ByteRange> resolved = resolve(ranges);
+        byte[][] result = new byte[resolved.size()][];
+
+        for (int i = 0; i < result.length; i++) {
+            long length = Math.max(0, resolved.get(i).getLength());
+
+            if (length > Integer.MAX_VALUE - 8)
+                throw new IllegalArgumentException("Range too large for a buffer: " + resolved.get(i));
+
+            result[i] = new byte[(int) length];
+        }
+
+        fetch(resolved, (position, data, offset, length) -> {
+            long chunkEnd = position + length;
+
+            // Ranges may overlap, each one gets its own copy
+            for (int i = 0; i < result.length; i++) {
+                ByteRange range = resolved.get(i);
+                long from = Math.max(position, range.getStart());
+                long to = Math.min(chunkEnd, range.getEnd());
+
+                if (from < to)
+                    System.arraycopy(data, offset + (int) (from - position), result[i], (int) (from - range.getStart()), (int) (to - from));
+            }
+
+            return true;
+        });
+
+        return List.of(result);
+    }
+
+    // Size of the resource from a one byte range request, -1 when the server does not do ranges
+    public long probeSize() throws IOException, InterruptedException {
+        HttpResponse<InputStream> response = send(0, 1);
+        response.body().close();
+
+        if (response.statusCode() != 206)
+            return -1;
+
+        parseContentRange(response.headers().firstValue("Content-Range").orElse(""));
+        return size;
+    }
+
+    private boolean fetch(ByteRange range, Consumer consumer, byte[] buffer) throws IOException, InterruptedException {
+        long position = range.getStart();
+        int failures = 0;
+
+        while (position < range.getEnd()) {
+            try (InputStream in = open(position, range.getEnd())) {
+                while (position < range.getEnd()) {
+                    int want = (int) Math.min(buffer.length, range.getEnd() - position);
+                    int bytesRead = in.read(buffer, 0, want);
+
+                    if (bytesRead == -1)
+                        throw new IOException("Server closed the connection early");
+
+                    bytesFetched += bytesRead;
+                    BandwidthLimiter.getInstance().consume(bytesRead);
+
+                    if (!consumer.onData(position, buffer, 0, bytesRead))
+                        return false;
+
+                    position += bytesRead;
+                    failures = 0;
+                }
+            } catch (IOException e) {
+                // Only the network gets another try, a rejected range will not get better
+                if (e instanceof RangeNotSatisfiedException || ++failures >= MAX_FAILURES)
+                    throw e;
+            }
+        }
+
+        return true;
+    }
+
+    private InputStream open(long from, long to) throws IOException, InterruptedException {
+        HttpResponse<InputStream> response = send(from, to);
+
+        if (response.statusCode() != 206) {
+            response.body().close();
+            throw new RangeNotSatisfiedException("Server did not answer the range request: " + response.statusCode());
+        }
+
+        // Some servers shift or shorten a range, only take the exact one
+        String contentRange = response.headers().firstValue("Content-Range").orElse("");
+        long[] bounds = parseContentRange(contentRange);
+
+        if (bounds == null || bounds[0] != from) {
+            response.body().close();
+            throw new RangeNotSatisfiedException("Server answered a different range: " + contentRange);
+        }
+
+        return response.body();
+    }
+
+    //region Multipart
+    // Several ranges in one request. Bytes come in whatever parts the server
+    // chose to send, anything missing afterwards is fetched range by range.
+    private boolean fetchMultipart(List<ByteRange> batch, Consumer consumer, byte[] buffer) throws IOException, InterruptedException {
+        long[] done = new long[batch.size()];
+
+        for (int i = 0; i < done.length; i++)
+            done[i] = batch.get(i).getStart();
+
+        StringBuilder header = new StringBuilder("bytes=");
+
+        for (int i = 0; i < batch.size(); i++) {
+            if (i > 0)
+                header.append(',');
+
+            header.append(batch.get(i).getStart()).append('-').append(batch.get(i).getEnd() - 1);
+        }
+
+        try {
+            HttpResponse<InputStream> response = send(header.toString());
+
+            if (response.statusCode() == 206) {
+                String contentType = response.headers().firstValue("Content-Type").orElse("");
+
+                try (InputStream in = response.body()) {
+                    if (contentType.toLowerCase().startsWith("multipart/byteranges")) {
+                        if (!readParts(new BufferedInputStream(in), boundaryOf(contentType), batch, done, consumer, buffer))
+                            return false;
+                    } else {
+                        // One part, the server joined the ranges or only sent the first
+                        long[] bounds = parseContentRange(response.headers().firstValue("Content-Range").orElse(""));
+
+                        if (bounds != null && !readPart(in, bounds[0], bounds[1], batch, done, consumer, buffer))
+                            return false;
+                    }
+                }
+            } else {
+                // Usually the whole body, this server only does one range per request
+                response.body().close();
+                multipart = false;
+            }
+        } catch (RangeNotSatisfiedException e) {
+            throw e;
+        } catch (IOException e) {
+            // The range by range fetch below has its own retries
+        }
+
+        for (int i = 0; i < done.length; i++) {
+            if (done[i] < batch.get(i).getEnd() && !fetch(new ByteRange(done[i], batch.get(i).getEnd()), consumer, buffer))
+                return false;
+        }
+
+        return true;
+    }
+
+    private boolean readParts(InputStream in, String boundary, List<ByteRange> batch, long[] done,
+                              Consumer consumer, byte[] buffer) throws IOException, InterruptedException {
+        if (boundary == null)
+            throw new IOException("Multipart response without a boundary");
+
+        String delimiter = "--" + boundary;
+        String line;
+
+        while ((line = readLine(in)) != null) {
+            line = line.stripTrailing();
+
+            if (line.equals(delimiter + "--"))
+                break;
+
+            // The preamble and the line break after each part
+            if (!line.equals(delimiter))
+                continue;
+
+            String contentRange = null;
+
+            while ((line = readLine(in)) != null && !line.isEmpty()) {
+                int colon = line.indexOf(':');
+
+                if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Content-Range"))
+                    contentRange = line.substring(colon + 1).trim();
+            }
+
+            long[] bounds = contentRange == null ? null : parseContentRange(contentRange);
+
+            if (bounds == null)
+                throw new IOException("Part without a usable Content-Range");
+
+            if (!readPart(in, bounds[0], bounds[1], batch, done, consumer, buffer))
+                return false;
+        }
+
+        return true;
+    }
+
+    // Hands one part to the consumer and moves on every range it covers
+    private boolean readPart(InputStream in, long start, long end, List<ByteRange> batch, long[] done,
+                             Consumer consumer, byte[] buffer) throws IOException, InterruptedException {
+        long position = start;
+
+        while (position < end) {
+            int bytesRead = in.read(buffer, 0, (int) Math.min(buffer.length, end - position));
+
+            if (bytesRead == -1)
+                throw new IOException("Server closed the connection early");
+
+            bytesFetched += bytesRead;
+            BandwidthLimiter.getInstance().consume(bytesRead);
+
+            if (!consumer.onData(position, buffer, 0, bytesRead))
+                return false;
+
+            position += bytesRead;
+
+            for (int i = 0; i < done.length; i++) {
+                if (done[i] >= start && done[i] < position)
+                    done[i] = Math.min(batch.get(i).getEnd(), position);
+            }
+        }
+
+        return true;
+    }
+
+    // Null when the line would not end, or at the end of the stream
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                int length = line.length();
+                return length > 0 && line.charAt(length - 1) == '\r' ? line.substring(0, length - 1) : line.toString();
+            }
+
+            if (line.length() >= MAX_PART_HEADER_LINE)
+                throw new IOException("Multipart header line too long");
+
+            line.append((char) c);
+        }
+
+        return null;
+    }
+
+    private static String boundaryOf(String contentType) {
+        for (String parameter : contentType.split(";")) {
+            String trimmed = parameter.trim();
+
+            if (trimmed.regionMatches(true, 0, "boundary=", 0, 9)) {
+                String boundary = trimmed.substring(9);
+
+                if (boundary.length() >= 2 && boundary.startsWith("\"") && boundary.endsWith("\""))
+                    boundary = boundary.substring(1, boundary.length() - 1);
+
+                return boundary.isEmpty() ? null : boundary;
+            }
+        }
+
+        return null;
+    }
+    //endregion
+
+    // Start and end exclusive of "bytes 0-99/1000", null when unusable. Remembers the size.
+    private long[] parseContentRange(String contentRange) {
+        if (!contentRange.regionMatches(true, 0, "bytes ", 0, 6))
+            return null;
+
+        int dash = contentRange.indexOf('-', 6);
+        int slash = contentRange.indexOf('/', 6);
+
+        try {
+            if (slash != -1 && !contentRange.substring(slash + 1).trim().equals("*"))
+                size = Long.parseLong(contentRange.substring(slash + 1).trim());
+
+            if (dash == -1 || (slash != -1 && dash > slash))
+                return null;
+
+            long start = Long.parseLong(contentRange.substring(6, dash).trim());
+            long last = Long.parseLong(contentRange.substring(dash + 1, slash == -1 ? contentRange.length() : slash).trim());
+
+            return last < start ? null : new long[] {start, last + 1};
+        } catch (NumberFormatException e) {
+            // bytes 0-0/* does not tell us the size
+            return null;
+        }
+    }
+
+    private HttpResponse<InputStream> send(long from, long to) throws IOException, InterruptedException {
+        return send("bytes=" + from + "-" + (to - 1));
+    }
+
+    // Range request that follows redirects, remembering where they lead
+    private HttpResponse<InputStream> send(String range) throws IOException, InterruptedException {
+        HashSet<URI> visited = new HashSet<>();
+
+        for (int hops = 0; hops <= MAX_REDIRECTS; hops++) {
+            HttpRequest request = HttpRequest.newBuilder().uri(uri)
+                    .timeout(Duration.ofSeconds(30))
+                    .header("Range", range)
+                    .build();
+
+            requestCount++;
+
+            HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            int status = response.statusCode();
+
+            if (status != 301 && status != 302 && status != 307 && status != 308)
+                return response;
+
+            response.body().close();
+
+            String location = response.headers().firstValue("Location").orElse(null);
+
+            if (location == null)
+                return response;
+
+            uri = uri.resolve(location);
+
+            if (!visited.add(uri))
+                break;
+        }
+
+        throw new IOException("Too many redirects for " + uri);
+    }
+
+    // Comma separated, written as in a Range header: 0-1023, 4096- or -65536
+    public static List<ByteRange> parse(String text) {
+        ArrayList<ByteRange> result = new ArrayList<>();
+
+        for (String part : text.split(",")) {
+            String spec = part.trim();
+
+            if (spec.isEmpty())
+                continue;
+
+            int dash = spec.indexOf('-');
+
+            if (dash == -1)
+                throw new IllegalArgumentException("Not a byte range: " + spec);
+
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+
+            if (first.isEmpty()) {
+                result.add(ByteRange.suffix(Long.parseLong(last)));
+            } else {
+                long start = Long.parseLong(first);
+                long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last) + 1;
+
+                if (start < 0 || end <= start)
+                    throw new IllegalArgumentException("Not a byte range: " + spec);
+
+                result.add(new ByteRange(start, end));
+            }
+        }
+
+        return result;
+    }
+
+    // Start inclusive, end exclusive. An end of Long.MAX_VALUE runs to the end of the resource.
+    public static final class ByteRange {
+        private final long start;
+        private final long end;
+
+        public ByteRange(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        // The last bytes of the resource, whatever its size
+        public static ByteRange suffix(long length) {
+            if (length <= 0)
+                throw new IllegalArgumentException("Suffix length must be positive: " + length);
+
+            return new ByteRange(-length, 0);
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public long getEnd() {
+            return end;
+        }
+
+        public long getLength() {
+            return end - start;
+        }
+
+        // Counted back from the end, its start is minus its length
+        public boolean isSuffix() {
+            return start < 0;
+        }
+
+        // Placed in a resource of this size and cut at its end
+        public ByteRange resolve(long size) {
+            if (isSuffix())
+                return new ByteRange(Math.max(0, size + start), size);
+
+            return new ByteRange(Math.min(start, size), Math.min(end, size));
+        }
+
+        @Override
+        public String toString() {
+            if (isSuffix())
+                return Long.toString(start);
+
+            return start + "-" + (end == Long.MAX_VALUE ? "" : Long.toString(end - 1));
+        }
+    }
+
+    private static final class RangeNotSatisfiedException extends IOException {
+        private RangeNotSatisfiedException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,622 @@
+package com.illusionist.ldm.network;
+
+import com.illusionist.ldm.storage.BufferPool;
+import com.illusionist.ldm.storage.WriteBehindFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Fetches one file as byte ranges from one or more mirrors at once.
+// Faster mirrors are handed bigger pieces, mirrors that keep failing
+// or fall far behind the best one are dropped and their unfinished
+// pieces go back to the others.
+final class SegmentedTransfer {
+    //region Constants
+    static final int COMPLETED = 0;
+    static final int STOPPED = 1;
+    static final int FAILED = 2;
+
+    private static final long MIN_CHUNK = 1024 * 1024;
+    private static final long MAX_CHUNK = 64L * 1024 * 1024;
+    private static final int CHUNK_SECONDS = 4;
+
+    private static final long MIN_STEAL = 256 * 1024;
+
+    private static final int DEFAULT_MAX_CONNECTIONS = 8;
+    private static final int INITIAL_CONNECTIONS = 2;
+    private static final long CONTROL_INTERVAL_MILLIS = 2000;
+    private static final double MIN_GAIN = 0.05;
+    private static final int HOLD_INTERVALS = 5;
+
+    private static final int MAX_MIRROR_FAILURES = 3;
+    private static final int SLOW_MIRROR_FACTOR = 8;
+    private static final long SLOW_MIRROR_GRACE_MILLIS = 5000;
+    private static final long MONITOR_INTERVAL_MILLIS = 250;
+
+    private static final int BUFFER_SIZE = BufferPool.MEDIUM;
+    private static final int MAX_REDIRECTS = 10;
+    //endregion
+
+    private static final ExecutorService workers = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "ldm-segment");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final FileDownloader owner;
+    private final HttpClient client;
+    private final long contentSize;
+    private final WriteBehindFile target;
+
+    private final ArrayList<Mirror> mirrors = new ArrayList<>();
+    private final ArrayDeque<Segment> pending = new ArrayDeque<>();
+    private final ArrayList<Segment> active = new ArrayList<>();
+
+    private final AtomicLong totalWritten = new AtomicLong(0);
+    private final AtomicInteger activeWorkers = new AtomicInteger(0);
+    private final AtomicInteger retireRequests = new AtomicInteger(0);
+    private final AtomicInteger errors = new AtomicInteger(0);
+
+    private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+
+    // Connection tuning state, only touched by the monitor
+    private double controlElapsed = 0;
+    private long controlBytes = 0;
+    private long controlLastTotal = 0;
+    private double lastRate = 0;
+    private boolean lastIncrease = false;
+    private int holdIntervals = 0;
+
+    SegmentedTransfer(FileDownloader owner, HttpClient client, List<URI> mirrorUris, long contentSize, WriteBehindFile target) {
+        this.owner = owner;
+        this.client = client;
+        this.contentSize = contentSize;
+        this.target = target;
+
+        for (URI uri : mirrorUris)
+            mirrors.add(new Mirror(uri));
+
+        pending.add(new Segment(0, contentSize));
+    }
+
+    void setMaxConnections(int maxConnections) {
+        this.maxConnections = Math.max(1, maxConnections);
+    }
+
+    long getBytesWritten() {
+        return totalWritten.get();
+    }
+
+    int run() throws IOException, InterruptedException {
+        probeMirrors();
+
+        if (aliveMirrors().isEmpty())
+            return FAILED;
+
+        for (Mirror mirror : aliveMirrors())
+            startWorker(mirror);
+
+        // A single mirror starts with a second connection, tuning takes it from there
+        while (activeWorkers.get() < Math.min(INITIAL_CONNECTIONS, maxConnections))
+            startWorker(aliveMirrors().get(0));
+
+        int result = monitor();
+
+        // Let the workers see the final state and hand over their last blocks
+        while (activeWorkers.get() > 0)
+            Thread.sleep(10);
+
+        return result;
+    }
+
+    //region Mirror probing
+    // A one byte range request tells us latency, range support and the size each mirror has
+    private void probeMirrors() throws InterruptedException {
+        ArrayList<Future<?>> probes = new ArrayList<>();
+
+        for (Mirror mirror : mirrors)
+            probes.add(workers.submit(() -> probe(mirror)));
+
+        for (Future<?> probe : probes) {
+            try {
+                probe.get();
+            } catch (ExecutionException ignored) {
+            }
+        }
+
+        mirrors.sort(Comparator.comparingLong(x -> x.latencyNanos));
+    }
+
+    private void probe(Mirror mirror) {
+        try {
+            long started = System.nanoTime();
+            HttpResponse<InputStream> response = sendRange(mirror, 0, 0);
+            mirror.latencyNanos = System.nanoTime() - started;
+
+            try (InputStream body = response.body()) {
+                body.readAllBytes();
+            }
+
+            if (response.statusCode() != 206
+                    || FileDownloader.getTotalFromContentRange(response.headers(), 0) != contentSize) {
+                mirror.dropped = true;
+            }
+        } catch (IOException | InterruptedException e) {
+            mirror.dropped = true;
+        }
+    }
+
+    // Range request that follows redirects, remembering where the mirror really is
+    private HttpResponse<InputStream> sendRange(Mirror mirror, long from, long to) throws IOException, InterruptedException {
+        URI uri = mirror.uri;
+        HashSet<URI> visited = new HashSet<>();
+
+        for (int hops = 0; hops <= MAX_REDIRECTS; hops++) {
+            HttpRequest.Builder builder = HttpRequest.newBuilder().uri(uri)
+                    .timeout(Duration.ofSeconds(30))
+                    .header("Range", "bytes=" + from + "-" + to);
+
+            // Every piece is a new request, an HTTP/1.1 mirror is not asked to upgrade each time
+            if (HostCapabilityCache.getInstance().getVersion(uri) == HttpClient.Version.HTTP_1_1)
+                builder.version(HttpClient.Version.HTTP_1_1);
+
+            HttpRequest request = builder.build();
+
+            HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            int status = response.statusCode();
+
+            if (status != 301 && status != 302 && status != 307 && status != 308)
+                return response;
+
+            response.body().close();
+
+            String location = response.headers().firstValue("Location").orElse(null);
+
+            if (location == null)
+                return response;
+
+            uri = uri.resolve(location);
+
+            if (!visited.add(uri))
+                break;
+
+            mirror.uri = uri;
+        }
+
+        throw new IOException("Too many redirects for " + mirror.uri);
+    }
+    //endregion
+
+    //region Scheduling
+    private List<Mirror> aliveMirrors() {
+        ArrayList<Mirror> result = new ArrayList<>();
+
+        for (Mirror mirror : mirrors) {
+            if (!mirror.dropped)
+                result.add(mirror);
+        }
+
+        return result;
+    }
+
+    private Future<?> startWorker(Mirror mirror) {
+        activeWorkers.incrementAndGet();
+        mirror.connections.incrementAndGet();
+
+        return workers.submit(() -> {
+            try {
+                work(mirror);
+            } finally {
+                mirror.connections.decrementAndGet();
+                activeWorkers.decrementAndGet();
+            }
+        });
+    }
+
+    // Size the next piece so it takes a few seconds at the rate this mirror has shown
+    private synchronized Segment nextSegment(Mirror mirror) {
+        Segment free = pending.pollFirst();
+
+        if (free == null)
+            return steal(mirror);
+
+        double rate = mirror.rate / Math.max(1, mirror.connections.get());
+        long chunk = Math.max(MIN_CHUNK, Math.min(MAX_CHUNK, (long) rate * CHUNK_SECONDS));
+
+        if (free.remaining() > chunk) {
+            pending.addFirst(new Segment(free.start + chunk, free.end));
+            free = new Segment(free.start, free.start + chunk);
+        }
+
+        active.add(free);
+        free.mirror = mirror;
+        return free;
+    }
+
+    // Nothing left to hand out, so take the back part of whichever piece
+    // would take longest to finish. Keeps one slow connection from
+    // holding up the end of the download.
+    private Segment steal(Mirror thief) {
+        Segment victim = null;
+        double longest = 0;
+
+        for (Segment segment : active) {
+            double rate = Math.max(1, segment.mirror.rate / Math.max(1, segment.mirror.connections.get()));
+            double secondsLeft = segment.remaining() / rate;
+
+            if (segment.remaining() > MIN_STEAL && secondsLeft > longest) {
+                victim = segment;
+                longest = secondsLeft;
+            }
+        }
+
+        if (victim == null)
+            return null;
+
+        // Split in proportion to the speeds so both halves end together
+        double thiefRate = Math.max(1, thief.rate / Math.max(1, thief.connections.get()));
+        double victimRate = Math.max(1, victim.mirror.rate / Math.max(1, victim.mirror.connections.get()));
+        double share = thiefRate / (thiefRate + victimRate);
+
+        Segment stolen;
+
+        synchronized (victim) {
+            long remaining = victim.remaining();
+
+            if (remaining <= MIN_STEAL)
+                return null;
+
+            long split = victim.end - (long) (remaining * share);
+            stolen = new Segment(split, victim.end);
+            victim.end = split;
+        }
+
+        active.add(stolen);
+        stolen.mirror = thief;
+        return stolen;
+    }
+
+    private synchronized void giveBack(Segment segment) {
+        active.remove(segment);
+
+        if (segment.remaining() > 0)
+            pending.addFirst(new Segment(segment.position, segment.end));
+    }
+
+    private synchronized boolean hasPending() {
+        return !pending.isEmpty();
+    }
+
+    private void work(Mirror mirror) {
+        while (!mirror.dropped && isRunning()) {
+            // Asked to shed a connection
+            if (tryRetire())
+                return;
+
+            Segment segment = nextSegment(mirror);
+
+            if (segment == null) {
+                // Nothing left to hand out, but a failing piece may still come back
+                if (totalWritten.get() >= contentSize)
+                    return;
+
+                sleepQuietly(50);
+                continue;
+            }
+
+            boolean retired;
+
+            try {
+                retired = fetch(mirror, segment);
+            } catch (IOException e) {
+                retired = false;
+                errors.incrementAndGet();
+
+                if (mirror.failures.incrementAndGet() >= MAX_MIRROR_FAILURES)
+                    mirror.dropped = true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                giveBack(segment);
+                return;
+            }
+
+            giveBack(segment);
+
+            if (retired)
+                return;
+        }
+    }
+
+    private boolean tryRetire() {
+        int requested;
+
+        do {
+            requested = retireRequests.get();
+
+            if (requested <= 0)
+                return false;
+        } while (!retireRequests.compareAndSet(requested, requested - 1));
+
+        return true;
+    }
+
+    // True when this connection took a retire request and stopped mid piece
+    private boolean fetch(Mirror mirror, Segment segment) throws IOException, InterruptedException {
+        HttpResponse<InputStream> response = sendRange(mirror, segment.position, segment.end - 1);
+
+        if (response.statusCode() != 206) {
+            response.body().close();
+            throw new IOException("Mirror did not answer the range request");
+        }
+
+        WriteBehindFile.Appender appender = target.appender(segment.position);
+        ByteBuffer pooled = null;
+
+        try (InputStream in = response.body()) {
+            pooled = BufferPool.getInstance().acquireHeap(BUFFER_SIZE, BufferPool.SMALL);
+            byte[] buffer = pooled.array();
+
+            while (segment.remaining() > 0) {
+                if (!waitWhilePaused() || mirror.dropped)
+                    return false;
+
+                // Only the connection that claims the request stops, the others keep their pieces
+                if (tryRetire())
+                    return true;
+
+                int want = (int) Math.min(buffer.length, segment.remaining());
+                int bytesRead = in.read(buffer, 0, want);
+
+                if (bytesRead == -1)
+                    throw new IOException("Mirror closed the connection early");
+
+                BandwidthLimiter.getInstance().consume(bytesRead);
+                appender.append(buffer, 0, bytesRead);
+
+                // The end may have been stolen while we wrote, only count what is still ours.
+                // Anything past it is the same bytes the thief is about to write.
+                synchronized (segment) {
+                    long credited = Math.max(0, Math.min(bytesRead, segment.end - segment.position));
+                    segment.position += bytesRead;
+                    totalWritten.addAndGet(credited);
+                }
+
+                mirror.bytes.addAndGet(bytesRead);
+            }
+
+            mirror.failures.set(0);
+            return false;
+        } finally {
+            // Whatever arrived is good data, even if the rest of the piece moved elsewhere
+            try {
+                appender.flush();
+            } finally {
+                appender.discard();
+                BufferPool.getInstance().release(pooled);
+            }
+        }
+    }
+    //endregion
+
+    //region Monitoring
+    // Runs on the downloading thread: reports progress, tracks mirror
+    // rates, drops the ones that fall too far behind and tunes the
+    // number of connections.
+    private int monitor() throws InterruptedException {
+        long lastTick = System.nanoTime();
+
+        while (true) {
+            Thread.sleep(MONITOR_INTERVAL_MILLIS);
+
+            long now = System.nanoTime();
+            double seconds = (now - lastTick) / 1e9;
+            lastTick = now;
+
+            if (owner.getDownloadStatus() == FileDownloader.STOPPED)
+                return STOPPED;
+
+            owner.reportProgress(totalWritten.get(), contentSize);
+
+            if (totalWritten.get() >= contentSize && !hasPending())
+                return COMPLETED;
+
+            if (owner.getDownloadStatus() == FileDownloader.PAUSED)
+                continue;
+
+            updateRates(seconds);
+            dropSlowMirrors();
+
+            if (aliveMirrors().isEmpty() || activeWorkers.get() == 0)
+                return totalWritten.get() >= contentSize ? COMPLETED : FAILED;
+
+            tuneConnections(seconds);
+        }
+    }
+
+    private void updateRates(double seconds) {
+        for (Mirror mirror : mirrors) {
+            long bytes = mirror.bytes.get();
+            double sample = (bytes - mirror.lastBytes) / seconds;
+            mirror.lastBytes = bytes;
+
+            // Smooth over a couple of seconds so one stalled read does not condemn a mirror
+            mirror.rate = mirror.rate == 0 ? sample : mirror.rate * 0.8 + sample * 0.2;
+
+            if (mirror.connections.get() > 0 && mirror.activeSince == 0)
+                mirror.activeSince = System.currentTimeMillis();
+        }
+    }
+
+    private void dropSlowMirrors() {
+        List<Mirror> alive = aliveMirrors();
+
+        if (alive.size() < 2)
+            return;
+
+        double best = 0;
+
+        for (Mirror mirror : alive)
+            best = Math.max(best, mirror.rate);
+
+        long now = System.currentTimeMillis();
+
+        for (Mirror mirror : alive) {
+            if (mirror.activeSince == 0 || now - mirror.activeSince < SLOW_MIRROR_GRACE_MILLIS)
+                continue;
+
+            if (mirror.rate * SLOW_MIRROR_FACTOR < best) {
+                mirror.dropped = true;
+                break;
+            }
+        }
+    }
+
+    // AIMD: add a connection while the total keeps rising by a useful
+    // amount, halve on errors, give the last one back when it did not help.
+    private void tuneConnections(double seconds) {
+        controlElapsed += seconds;
+        controlBytes += totalWritten.get() - controlLastTotal;
+        controlLastTotal = totalWritten.get();
+
+        if (controlElapsed * 1000 < CONTROL_INTERVAL_MILLIS)
+            return;
+
+        double rate = controlBytes / controlElapsed;
+        controlElapsed = 0;
+        controlBytes = 0;
+
+        int connections = activeWorkers.get() - retireRequests.get();
+        int failed = errors.getAndSet(0);
+
+        if (failed > 0) {
+            int target = Math.max(aliveMirrors().size(), connections / 2);
+            retire(connections - target);
+            lastIncrease = false;
+        } else if (lastIncrease && rate < lastRate * (1 + MIN_GAIN)) {
+            // The extra connection bought nothing, the link or the server is the limit
+            retire(1);
+            lastIncrease = false;
+            holdIntervals = HOLD_INTERVALS;
+        } else if (holdIntervals > 0) {
+            holdIntervals--;
+        } else if (connections < maxConnections && hasWorkLeft()) {
+            Mirror best = bestMirror();
+
+            if (best != null) {
+                startWorker(best);
+                lastIncrease = true;
+            }
+        } else {
+            lastIncrease = false;
+        }
+
+        lastRate = rate;
+    }
+
+    void retire(int count) {
+        // Always keep at least one connection per usable mirror
+        int keep = Math.max(1, aliveMirrors().size());
+        int available = activeWorkers.get() - retireRequests.get() - keep;
+
+        if (count > 0 && available > 0)
+            retireRequests.addAndGet(Math.min(count, available));
+    }
+
+    private boolean hasWorkLeft() {
+        return contentSize - totalWritten.get() > MIN_CHUNK;
+    }
+
+    // The mirror with the best rate per connection gets the next connection
+    private Mirror bestMirror() {
+        Mirror best = null;
+        double bestRate = -1;
+
+        for (Mirror mirror : aliveMirrors()) {
+            double rate = mirror.rate / Math.max(1, mirror.connections.get());
+
+            if (rate > bestRate) {
+                best = mirror;
+                bestRate = rate;
+            }
+        }
+
+        return best;
+    }
+
+    int getConnectionCount() {
+        return activeWorkers.get();
+    }
+    //endregion
+
+    private boolean isRunning() {
+        int status = owner.getDownloadStatus();
+        return status == FileDownloader.RUNNING || status == FileDownloader.PAUSED;
+    }
+
+    private boolean waitWhilePaused() {
+        while (owner.getDownloadStatus() == FileDownloader.PAUSED)
+            sleepQuietly(100);
+
+        return owner.getDownloadStatus() == FileDownloader.RUNNING;
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Mirror {
+        private volatile URI uri;
+        private volatile boolean dropped = false;
+        private volatile double rate = 0;
+
+        private final AtomicLong bytes = new AtomicLong(0);
+        private final AtomicInteger failures = new AtomicInteger(0);
+        private final AtomicInteger connections = new AtomicInteger(0);
+
+        private long latencyNanos = Long.MAX_VALUE;
+        private long lastBytes = 0;
+        private long activeSince = 0;
+
+        private Mirror(URI uri) {
+            this.uri = uri;
+        }
+    }
+
+    private static final class Segment {
+        private final long start;
+        private volatile long end;
+        private volatile long position;
+        private Mirror mirror;
+
+        private Segment(long start, long end) {
+            this.start = start;
+            this.end = end;
+            this.position = start;
+        }
+
+        private long remaining() {
+            return end - position;
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package com.illusionist.ldm.network;
+
+import com.illusionist.ldm.storage.BufferPool;
+import com.illusionist.ldm.storage.RangeSet;
+import com.illusionist.ldm.util.AppSettings;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLConnection;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+
+// Serves downloads that are still running to local players over HTTP on
+// the loopback interface. Range requests are answered from what is on
+// disk; a request for a part that has not arrived moves the download
+// there and waits for it a little while.
+public final class StreamServer {
+    //region Constants
+    public static final String SETTING_PORT = "stream.port";
+    public static final String SETTING_WAIT_MILLIS = "stream.waitMillis";
+
+    private static final long DEFAULT_WAIT_MILLIS = 30_000;
+    private static final String CONTEXT = "/stream/";
+    //endregion
+
+    private static StreamServer instance = null;
+
+    private final ConcurrentHashMap<String, FileDownloader> published = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final long waitMillis = AppSettings.getLong(SETTING_WAIT_MILLIS, DEFAULT_WAIT_MILLIS);
+
+    private HttpServer server = null;
+
+    public static synchronized StreamServer getInstance() {
+        if (instance == null)
+            instance = new StreamServer();
+
+        return instance;
+    }
+
+    //region Publishing
+    // The address a player can open, only reachable from this machine.
+    // The downloader should be sequential, otherwise nothing is served before it completes.
+    public synchronized URI publish(FileDownloader downloader) throws IOException {
+        if (server == null)
+            start();
+
+        // Unguessable, so other local users cannot list what is downloading
+        byte[] bytes = new byte[12];
+        random.nextBytes(bytes);
+        String token = HexFormat.of().formatHex(bytes);
+
+        published.put(token, downloader);
+
+        String filename = Paths.get(downloader.getFilePath()).getFileName().toString();
+        String path = CONTEXT + token + "/" + URLEncoder.encode(filename, StandardCharsets.UTF_8).replace("+", "%20");
+
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + path);
+    }
+
+    public void unpublish(FileDownloader downloader) {
+        published.values().removeIf(x -> x == downloader);
+    }
+
+    public int getPublishedCount() {
+        return published.size();
+    }
+
+    private void start() throws IOException {
+        int port = AppSettings.getInt(SETTING_PORT, 0);
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 16);
+        server.setExecutor(Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "ldm-stream-serve");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.createContext(CONTEXT, this::handle);
+        server.start();
+    }
+
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+    //endregion
+
+    //region Serving
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String method = exchange.getRequestMethod();
+
+            if (!method.equals("GET") && !method.equals("HEAD")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            String rest = exchange.getRequestURI().getPath().substring(CONTEXT.length());
+            int slash = rest.indexOf('/');
+            FileDownloader downloader = published.get(slash == -1 ? rest : rest.substring(0, slash));
+
+            if (downloader == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            long size = waitForSize(downloader);
+
+            if (size <= 0) {
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+
+            long start = 0;
+            long end = size - 1;
+            boolean partial = false;
+
+            String range = exchange.getRequestHeaders().getFirst("Range");
+
+            // Several ranges at once are allowed to get the whole body instead
+            if (range != null && range.startsWith("bytes=") && !range.contains(",")) {
+                long[] bounds = parseRange(range.substring(6).trim(), size);
+
+                if (bounds == null) {
+                    exchange.getResponseHeaders().set("Content-Range", "bytes */" + size);
+                    exchange.sendResponseHeaders(416, -1);
+                    return;
+                }
+
+                start = bounds[0];
+                end = bounds[1];
+                partial = true;
+            }
+
+            String type = URLConnection.guessContentTypeFromName(downloader.getFilePath());
+
+            exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+            exchange.getResponseHeaders().set("Content-Type", type != null ? type : "application/octet-stream");
+
+            if (partial)
+                exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + size);
+
+            if (method.equals("HEAD")) {
+                exchange.getResponseHeaders().set("Content-Length", Long.toString(end - start + 1));
+                exchange.sendResponseHeaders(partial ? 206 : 200, -1);
+                return;
+            }
+
+            // A seek to something we do not have yet
+            if (available(downloader, start) <= start)
+                downloader.prioritize(start);
+
+            exchange.sendResponseHeaders(partial ? 206 : 200, end - start + 1);
+
+            try (OutputStream out = exchange.getResponseBody()) {
+                send(downloader, start, end + 1, out);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // The size is only known once the download has its response
+    private long waitForSize(FileDownloader downloader) throws InterruptedException {
+        long deadline = System.nanoTime() + waitMillis * 1_000_000;
+
+        while (System.nanoTime() < deadline) {
+            int status = downloader.getDownloadStatus();
+
+            if (status == FileDownloader.COMPLETE)
+                return Paths.get(downloader.getFilePath()).toFile().length();
+
+            if (downloader.getContentSize() > 0)
+                return downloader.getContentSize();
+
+            if (status == FileDownloader.STOPPED || status == FileDownloader.ERROR)
+                return 0;
+
+            Thread.sleep(100);
+        }
+
+        return 0;
+    }
+
+    // bytes=a-b, bytes=a- or bytes=-n, null when it does not fit the file
+    private static long[] parseRange(String spec, long size) {
+        int dash = spec.indexOf('-');
+
+        if (dash == -1)
+            return null;
+
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+
+            long start;
+            long end;
+
+            if (first.isEmpty()) {
+                long suffix = Long.parseLong(last);
+                start = Math.max(0, size - suffix);
+                end = size - 1;
+
+                if (suffix <= 0)
+                    return null;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? size - 1 : Math.min(size - 1, Long.parseLong(last));
+            }
+
+            return start < size && start <= end ? new long[] { start, end } : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // Where the data that is readable from position on ends
+    private static long available(FileDownloader downloader, long position) {
+        if (downloader.getDownloadStatus() == FileDownloader.COMPLETE)
+            return Long.MAX_VALUE;
+
+        RangeSet ranges = downloader.getWrittenRanges();
+        return ranges == null ? position : ranges.getContiguousEnd(position);
+    }
+
+    private void send(FileDownloader downloader, long position, long end, OutputStream out) throws IOException, InterruptedException {
+        ByteBuffer pooled = BufferPool.getInstance().acquireHeap(BufferPool.MEDIUM, BufferPool.SMALL);
+        FileChannel channel = null;
+
+        try {
+            byte[] buffer = pooled.array();
+
+            while (position < end) {
+                long ready = available(downloader, position);
+
+                if (ready <= position) {
+                    int status = downloader.getDownloadStatus();
+
+                    if (status == FileDownloader.STOPPED || status == FileDownloader.ERROR)
+                        return;
+
+                    RangeSet ranges = downloader.getWrittenRanges();
+
+                    // Give up on the reader rather than hold the connection forever
+                    if (ranges == null || ranges.await(position, waitMillis) <= position) {
+                        if (downloader.getDownloadStatus() != FileDownloader.COMPLETE)
+                            return;
+                    }
+
+                    continue;
+                }
+
+                // The .part file is renamed when the download completes, an open channel keeps working
+                if (channel == null)
+                    channel = open(downloader);
+
+                int count = (int) Math.min(buffer.length, Math.min(ready, end) - position);
+                int read = channel.read(ByteBuffer.wrap(buffer, 0, count), position);
+
+                if (read <= 0) {
+                    // Opened before the rename and the file is gone, try the final name
+                    channel.close();
+                    channel = open(downloader);
+                    read = channel.read(ByteBuffer.wrap(buffer, 0, count), position);
+
+                    if (read <= 0)
+                        return;
+                }
+
+                out.write(buffer, 0, read);
+                position += read;
+            }
+        } finally {
+            if (channel != null)
+                channel.close();
+
+            BufferPool.getInstance().release(pooled);
+        }
+    }
+
+    private static FileChannel open(FileDownloader downloader) throws IOException {
+        Path part = Paths.get(downloader.getPartFilepath());
+
+        if (downloader.getDownloadStatus() != FileDownloader.COMPLETE && part.toFile().isFile())
+            return FileChannel.open(part, StandardOpenOption.READ);
+
+        return FileChannel.open(Paths.get(downloader.getFilePath()), StandardOpenOption.READ);
+    }
+    //endregion
+}
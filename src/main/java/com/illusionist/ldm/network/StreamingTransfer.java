@@ -0,0 +1,203 @@
+package com.illusionist.ldm.network;
+
+import com.illusionist.ldm.storage.WriteBehindFile;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Fetches a file front to back in small pieces over a few connections,
+// so what arrives first is what a player needs first. A seek moves the
+// front: pieces from there on are fetched next and the ones before it
+// once the end is reached.
+final class StreamingTransfer {
+    //region Constants
+    static final int COMPLETED = 0;
+    static final int STOPPED = 1;
+    static final int FAILED = 2;
+
+    private static final long PIECE_SIZE = 1024 * 1024;
+    private static final int MAX_CONNECTIONS = 4;
+    private static final long MONITOR_INTERVAL_MILLIS = 250;
+
+    private static final byte MISSING = 0;
+    private static final byte FETCHING = 1;
+    private static final byte DONE = 2;
+    //endregion
+
+    private static final ExecutorService workers = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "ldm-stream-fetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final FileDownloader owner;
+    private final HttpClient client;
+    private final URI uri;
+    private final long contentSize;
+    private final WriteBehindFile target;
+
+    // Guarded by this
+    private final byte[] pieces;
+    private int piecesDone = 0;
+    private int front = 0;
+
+    private final AtomicLong bytesFetched = new AtomicLong(0);
+    private final AtomicInteger activeWorkers = new AtomicInteger(0);
+    private volatile boolean failed = false;
+
+    private int maxConnections = MAX_CONNECTIONS;
+
+    StreamingTransfer(FileDownloader owner, HttpClient client, URI uri, long contentSize, WriteBehindFile target) {
+        this.owner = owner;
+        this.client = client;
+        this.uri = uri;
+        this.contentSize = contentSize;
+        this.target = target;
+
+        pieces = new byte[(int) ((contentSize + PIECE_SIZE - 1) / PIECE_SIZE)];
+    }
+
+    void setMaxConnections(int maxConnections) {
+        this.maxConnections = Math.max(1, Math.min(MAX_CONNECTIONS, maxConnections));
+    }
+
+    // Fetch from position on next, pieces already under way are finished first
+    synchronized void prioritize(long position) {
+        front = (int) Math.max(0, Math.min(pieces.length - 1, position / PIECE_SIZE));
+    }
+
+    int run() throws InterruptedException {
+        for (int i = 0; i < maxConnections; i++) {
+            activeWorkers.incrementAndGet();
+            workers.execute(this::work);
+        }
+
+        int result;
+
+        while (true) {
+            Thread.sleep(MONITOR_INTERVAL_MILLIS);
+
+            if (owner.getDownloadStatus() == FileDownloader.STOPPED) {
+                result = STOPPED;
+                break;
+            }
+
+            owner.reportProgress(bytesFetched.get(), contentSize);
+
+            if (failed) {
+                result = FAILED;
+                break;
+            }
+
+            synchronized (this) {
+                if (piecesDone == pieces.length) {
+                    result = COMPLETED;
+                    break;
+                }
+            }
+        }
+
+        // Workers see the final state and hand over their last blocks
+        failed |= result != COMPLETED;
+
+        while (activeWorkers.get() > 0)
+            Thread.sleep(10);
+
+        return result;
+    }
+
+    //region Scheduling
+    private synchronized int takePiece() {
+        for (int i = front; i < pieces.length; i++) {
+            if (pieces[i] == MISSING) {
+                pieces[i] = FETCHING;
+                return i;
+            }
+        }
+
+        for (int i = 0; i < front; i++) {
+            if (pieces[i] == MISSING) {
+                pieces[i] = FETCHING;
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private synchronized void finishPiece(int piece, boolean done) {
+        pieces[piece] = done ? DONE : MISSING;
+
+        if (done)
+            piecesDone++;
+    }
+
+    private void work() {
+        RangeFetcher fetcher = new RangeFetcher(client, uri);
+
+        try {
+            int piece;
+
+            while (!failed && waitWhilePaused() && (piece = takePiece()) != -1) {
+                boolean done = false;
+
+                try {
+                    done = fetchPiece(fetcher, piece);
+                } catch (IOException | InterruptedException e) {
+                    // RangeFetcher already retried, this server will not give us the piece
+                    failed = true;
+                } finally {
+                    finishPiece(piece, done);
+                }
+            }
+        } finally {
+            activeWorkers.decrementAndGet();
+        }
+    }
+
+    private boolean fetchPiece(RangeFetcher fetcher, int piece) throws IOException, InterruptedException {
+        long start = piece * PIECE_SIZE;
+        long end = Math.min(contentSize, start + PIECE_SIZE);
+
+        WriteBehindFile.Appender appender = target.appender(start);
+        boolean kept = false;
+
+        try {
+            boolean complete = fetcher.fetch(List.of(new RangeFetcher.ByteRange(start, end)), (position, data, offset, length) -> {
+                appender.append(data, offset, length);
+                bytesFetched.addAndGet(length);
+                return !failed && waitWhilePaused();
+            });
+
+            appender.flush();
+            kept = complete;
+            return complete;
+        } finally {
+            appender.discard();
+
+            // An unfinished piece is fetched again from its start, what came of it so far must not count twice
+            if (!kept)
+                bytesFetched.addAndGet(start - appender.getPosition());
+        }
+    }
+    //endregion
+
+    private boolean waitWhilePaused() {
+        while (owner.getDownloadStatus() == FileDownloader.PAUSED) {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        return owner.getDownloadStatus() == FileDownloader.RUNNING;
+    }
+}
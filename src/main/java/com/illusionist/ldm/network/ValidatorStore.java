@@ -0,0 +1,164 @@
+package com.illusionist.ldm.network;
+
+import com.illusionist.ldm.util.AppDataUtil;
+import com.illusionist.ldm.util.BackgroundSaver;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Properties;
+
+// Persists the validators of completed downloads so a repeat of the same
+// url into the same file can be sent as a conditional request.
+public final class ValidatorStore {
+    private static final String STORE_FILENAME = "validators.properties";
+
+    private static ValidatorStore instance = null;
+
+    private final File storeFile;
+    private final Properties entries = new Properties();
+    private final BackgroundSaver saver = new BackgroundSaver(this::save);
+
+    public ValidatorStore(File storeFile) {
+        this.storeFile = storeFile;
+        load();
+    }
+
+    public static synchronized ValidatorStore getInstance() {
+        if(instance == null)
+            instance = new ValidatorStore(AppDataUtil.getDataFile(STORE_FILENAME));
+
+        return instance;
+    }
+
+    public synchronized Entry get(String url, String filepath) {
+        String value = entries.getProperty(key(url, filepath));
+
+        if(value == null)
+            return null;
+
+        String[] fields = value.split("\t", -1);
+
+        // Entries from before the modification time was kept have four fields and never match
+        if(fields.length != 5)
+            return null;
+
+        try {
+            return new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[4]), fields[1], emptyToNull(fields[2]), emptyToNull(fields[3]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // The stored validators for url, but only if they still describe filepath as it is on disk
+    public Entry getMatching(String url, String filepath) {
+        Entry entry = get(url, filepath);
+
+        if(entry == null)
+            return null;
+
+        File file = new File(filepath);
+
+        // An edit in place can keep the size, it does not keep the modification time
+        if(!file.isFile() || file.length() != entry.getSize() || file.lastModified() != entry.getModified())
+            return null;
+
+        return entry;
+    }
+
+    public synchronized void put(String url, String filepath, long size, String etag, String lastModified) {
+        if(etag == null && lastModified == null)
+            return;
+
+        // Called once the file is in place, so this is the time it keeps until someone touches it
+        long modified = new File(filepath).lastModified();
+
+        entries.setProperty(key(url, filepath), size + "\t" + filepath + "\t" + nullToEmpty(etag) + "\t" + nullToEmpty(lastModified) + "\t" + modified);
+        saver.request();
+    }
+
+    public synchronized void remove(String url, String filepath) {
+        if(entries.remove(key(url, filepath)) != null)
+            saver.request();
+    }
+
+    // Writes what is pending now instead of in the background
+    public void flush() {
+        saver.flush();
+    }
+
+    // The same url saved to two places is two entries
+    private static String key(String url, String filepath) {
+        return url + "\t" + filepath;
+    }
+
+    private void load() {
+        if(!storeFile.isFile())
+            return;
+
+        try (FileInputStream in = new FileInputStream(storeFile)) {
+            entries.load(in);
+        } catch (IOException e) {
+            // A damaged store only costs us a full download
+            entries.clear();
+        }
+    }
+
+    private void save() {
+        Properties snapshot;
+
+        synchronized (this) {
+            snapshot = (Properties) entries.clone();
+        }
+
+        try {
+            AppDataUtil.storeAtomically(storeFile, snapshot, "Little Download Manager - validators of completed downloads");
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    public static final class Entry {
+        private final long size;
+        private final long modified;
+        private final String filepath;
+        private final String etag;
+        private final String lastModified;
+
+        private Entry(long size, long modified, String filepath, String etag, String lastModified) {
+            this.size = size;
+            this.modified = modified;
+            this.filepath = filepath;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        // Modification time of the file when it was stored, in milliseconds
+        public long getModified() {
+            return modified;
+        }
+
+        public String getFilePath() {
+            return filepath;
+        }
+
+        public String getETag() {
+            return etag;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+    }
+}
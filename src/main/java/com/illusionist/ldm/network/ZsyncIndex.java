@@ -0,0 +1,220 @@
+package com.illusionist.ldm.network;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+// The block checksum index published next to a file as name.zsync: a
+// text header with the size, block size and hash of the new version,
+// then a weak rolling checksum and a truncated MD4 for every block.
+// Only indexes of uncompressed files are supported.
+public final class ZsyncIndex {
+    private static final int MAX_HEADER_LINE = 8192;
+
+    private String filename = "";
+    private String url = null;
+    private String sha1 = null;
+    private long length = 0;
+    private int blockSize = 0;
+    private int sequenceMatches = 1;
+    private int weakBytes = 4;
+    private int strongBytes = 16;
+
+    private int[] weak;
+    private byte[] strong;
+
+    public static boolean isZsync(String url) {
+        String lower = url.toLowerCase(Locale.ROOT);
+        int query = lower.indexOf('?');
+
+        if (query != -1)
+            lower = lower.substring(0, query);
+
+        return lower.endsWith(".zsync");
+    }
+
+    public static ZsyncIndex parse(InputStream in) throws IOException {
+        ZsyncIndex result = new ZsyncIndex();
+        boolean compressed = false;
+
+        String line;
+
+        while (!(line = readLine(in)).isEmpty()) {
+            int colon = line.indexOf(':');
+
+            if (colon == -1)
+                throw new IOException("Invalid zsync header line: " + line);
+
+            String key = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+            String value = line.substring(colon + 1).trim();
+
+            try {
+                switch (key) {
+                    case "filename":
+                        result.filename = value;
+                        break;
+                    case "url":
+                        // Several may be listed, the first one is used
+                        if (result.url == null)
+                            result.url = value;
+                        break;
+                    case "sha-1":
+                        result.sha1 = value.toLowerCase(Locale.ROOT);
+                        break;
+                    case "length":
+                        result.length = Long.parseLong(value);
+                        break;
+                    case "blocksize":
+                        result.blockSize = Integer.parseInt(value);
+                        break;
+                    case "hash-lengths":
+                        String[] parts = value.split(",");
+
+                        if (parts.length != 3)
+                            throw new IOException("Invalid Hash-Lengths: " + value);
+
+                        result.sequenceMatches = Integer.parseInt(parts[0].trim());
+                        result.weakBytes = Integer.parseInt(parts[1].trim());
+                        result.strongBytes = Integer.parseInt(parts[2].trim());
+                        break;
+                    case "z-map2":
+                    case "z-url":
+                        compressed = true;
+                        break;
+                }
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid zsync header line: " + line, e);
+            }
+        }
+
+        if (compressed && result.url == null)
+            throw new IOException("zsync indexes of compressed files are not supported");
+
+        if (result.url == null || result.sha1 == null)
+            throw new IOException("zsync index has no URL or SHA-1");
+
+        if (result.blockSize < 64 || Integer.bitCount(result.blockSize) != 1)
+            throw new IOException("Invalid zsync block size: " + result.blockSize);
+
+        if (result.sequenceMatches < 1 || result.sequenceMatches > 2
+                || result.weakBytes < 1 || result.weakBytes > 4
+                || result.strongBytes < 3 || result.strongBytes > 16)
+            throw new IOException("Unsupported zsync hash lengths");
+
+        long blocks = (result.length + result.blockSize - 1) / result.blockSize;
+
+        if (result.length < 0 || blocks > Integer.MAX_VALUE / 16)
+            throw new IOException("Invalid zsync length: " + result.length);
+
+        int count = (int) blocks;
+
+        result.weak = new int[count];
+        result.strong = new byte[count * result.strongBytes];
+
+        byte[] entry = new byte[result.weakBytes + result.strongBytes];
+
+        for (int i = 0; i < count; i++) {
+            if (in.readNBytes(entry, 0, entry.length) != entry.length)
+                throw new IOException("zsync index ends early");
+
+            // The weak checksum is the last weakBytes bytes of a then b, both big endian
+            int value = 0;
+
+            for (int j = 0; j < result.weakBytes; j++)
+                value = (value << 8) | (entry[j] & 0xFF);
+
+            result.weak[i] = value;
+            System.arraycopy(entry, result.weakBytes, result.strong, i * result.strongBytes, result.strongBytes);
+        }
+
+        return result;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+
+        while ((b = in.read()) != -1 && b != '\n') {
+            if (line.size() >= MAX_HEADER_LINE)
+                throw new IOException("zsync header line too long");
+
+            line.write(b);
+        }
+
+        if (b == -1)
+            throw new IOException("zsync index ends in its header");
+
+        String text = line.toString(StandardCharsets.UTF_8);
+        return text.endsWith("\r") ? text.substring(0, text.length() - 1) : text;
+    }
+
+    //region Weak checksum
+    // Mask for the part of a full (a << 16 | b) checksum the index keeps
+    int getWeakMask() {
+        return weakBytes == 4 ? -1 : (1 << (8 * weakBytes)) - 1;
+    }
+
+    static int weakChecksum(byte[] data, int offset, int length) {
+        int a = 0;
+        int b = 0;
+
+        for (int i = 0; i < length; i++) {
+            int value = data[offset + i] & 0xFF;
+            a += value;
+            b += (length - i) * value;
+        }
+
+        return ((a & 0xFFFF) << 16) | (b & 0xFFFF);
+    }
+    //endregion
+
+    public String getFilename() {
+        return filename;
+    }
+
+    // Possibly relative to the index url
+    public String getUrl() {
+        return url;
+    }
+
+    public String getSHA1() {
+        return sha1;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public int getBlockCount() {
+        return weak.length;
+    }
+
+    int getSequenceMatches() {
+        return sequenceMatches;
+    }
+
+    int getWeak(int block) {
+        return weak[block];
+    }
+
+    int getStrongBytes() {
+        return strongBytes;
+    }
+
+    boolean strongMatches(int block, byte[] digest) {
+        int start = block * strongBytes;
+
+        for (int i = 0; i < strongBytes; i++) {
+            if (strong[start + i] != digest[i])
+                return false;
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,229 @@
+package com.illusionist.ldm.pipeline;
+
+import com.illusionist.ldm.storage.BufferPool;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+// Unpacks zip, tar and gzipped tar archives from a stream, front to
+// back, so the same code works on a file on disk or on bytes still
+// arriving from the network.
+public final class ArchiveExtractor {
+    private static final int TAR_BLOCK = 512;
+
+    public static boolean isArchive(String name) {
+        return !stripExtension(name).equals(name);
+    }
+
+    public static String stripExtension(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+
+        for (String extension : new String[] { ".tar.gz", ".tgz", ".tar", ".zip" }) {
+            if (lower.endsWith(extension))
+                return name.substring(0, name.length() - extension.length());
+        }
+
+        return name;
+    }
+
+    public static void extract(Path archive, Path directory) throws IOException {
+        try (InputStream in = Files.newInputStream(archive)) {
+            extract(in, archive.getFileName().toString(), directory);
+        }
+    }
+
+    // The name only decides the format, the stream is read to its end
+    public static void extract(InputStream in, String name, Path directory) throws IOException {
+        String lower = name.toLowerCase(Locale.ROOT);
+        InputStream buffered = new BufferedInputStream(in, 64 * 1024);
+
+        Files.createDirectories(directory);
+
+        if (lower.endsWith(".zip"))
+            extractZip(buffered, directory);
+        else if (lower.endsWith(".tar.gz") || lower.endsWith(".tgz"))
+            extractTar(new GZIPInputStream(buffered, 64 * 1024), directory);
+        else if (lower.endsWith(".tar"))
+            extractTar(buffered, directory);
+        else
+            throw new IOException("Not a supported archive: " + name);
+    }
+
+    private static void extractZip(InputStream in, Path directory) throws IOException {
+        ZipInputStream zip = new ZipInputStream(in);
+        ZipEntry entry;
+
+        while ((entry = zip.getNextEntry()) != null) {
+            Path target = resolve(directory, entry.getName());
+
+            if (entry.isDirectory()) {
+                Files.createDirectories(target);
+            } else {
+                Files.createDirectories(target.getParent());
+
+                try (OutputStream out = Files.newOutputStream(target)) {
+                    zip.transferTo(out);
+                }
+            }
+
+            zip.closeEntry();
+        }
+
+        // Drain the central directory so a network stream reaches its end
+        in.transferTo(OutputStream.nullOutputStream());
+    }
+
+    private static void extractTar(InputStream in, Path directory) throws IOException {
+        BufferPool pool = BufferPool.getInstance();
+        ByteBuffer pooled;
+
+        try {
+            pooled = pool.acquireHeap(BufferPool.MEDIUM, BufferPool.SMALL);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a buffer");
+        }
+
+        try {
+            extractTar(in, directory, pooled.array());
+        } finally {
+            pool.release(pooled);
+        }
+    }
+
+    private static void extractTar(InputStream in, Path directory, byte[] buffer) throws IOException {
+        byte[] header = new byte[TAR_BLOCK];
+        String longName = null;
+
+        while (true) {
+            if (!readBlock(in, header))
+                break;
+
+            // Two zero blocks end the archive, one is enough to stop
+            if (isZero(header))
+                break;
+
+            String name = readString(header, 0, 100);
+            long size = readOctal(header, 124, 12);
+            char type = (char) header[156];
+
+            // ustar keeps long paths split over a prefix field
+            if (readString(header, 257, 5).equals("ustar")) {
+                String prefix = readString(header, 345, 155);
+
+                if (!prefix.isEmpty())
+                    name = prefix + "/" + name;
+            }
+
+            if (longName != null) {
+                name = longName;
+                longName = null;
+            }
+
+            long padding = (TAR_BLOCK - (size % TAR_BLOCK)) % TAR_BLOCK;
+
+            switch (type) {
+                case 'L':
+                    // GNU long name, the real name is the data of this entry
+                    byte[] data = in.readNBytes((int) size);
+                    longName = new String(data, StandardCharsets.UTF_8).replace("\0", "");
+                    break;
+                case '5':
+                    Files.createDirectories(resolve(directory, name));
+                    break;
+                case '0':
+                case '\0':
+                case '7':
+                    Path target = resolve(directory, name);
+                    Files.createDirectories(target.getParent());
+
+                    try (OutputStream out = Files.newOutputStream(target)) {
+                        copy(in, out, size, buffer);
+                    }
+                    break;
+                default:
+                    // Links, devices and pax headers are not extracted
+                    in.skipNBytes(size);
+                    break;
+            }
+
+            in.skipNBytes(padding);
+        }
+
+        in.transferTo(OutputStream.nullOutputStream());
+    }
+
+    // Refuses entries that would land outside the target folder
+    private static Path resolve(Path directory, String name) throws IOException {
+        Path target = directory.resolve(name).normalize();
+
+        if (!target.startsWith(directory.normalize()))
+            throw new IOException("Archive entry escapes the target folder: " + name);
+
+        return target;
+    }
+
+    private static boolean readBlock(InputStream in, byte[] block) throws IOException {
+        int read = in.readNBytes(block, 0, block.length);
+
+        if (read == 0)
+            return false;
+
+        if (read < block.length)
+            throw new EOFException("Archive ends in the middle of a header");
+
+        return true;
+    }
+
+    private static void copy(InputStream in, OutputStream out, long size, byte[] buffer) throws IOException {
+        while (size > 0) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, size));
+
+            if (read == -1)
+                throw new EOFException("Archive ends in the middle of an entry");
+
+            out.write(buffer, 0, read);
+            size -= read;
+        }
+    }
+
+    private static boolean isZero(byte[] block) {
+        for (byte b : block) {
+            if (b != 0)
+                return false;
+        }
+
+        return true;
+    }
+
+    private static String readString(byte[] block, int offset, int length) {
+        int end = offset;
+
+        while (end < offset + length && block[end] != 0)
+            end++;
+
+        return new String(block, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private static long readOctal(byte[] block, int offset, int length) throws IOException {
+        String value = readString(block, offset, length).trim();
+
+        try {
+            return value.isEmpty() ? 0 : Long.parseLong(value, 8);
+        } catch (NumberFormatException e) {
+            throw new IOException("Corrupt tar header");
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.illusionist.ldm.pipeline;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+// Inflates .gz downloads next to the original, which is kept
+public final class DecompressStage implements PostProcessStage {
+    public static final String NAME = "Decompressing";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public Path process(PostProcessJob job, Path input) throws IOException {
+        String name = input.getFileName().toString();
+        String lower = name.toLowerCase(Locale.ROOT);
+
+        if (!Files.isRegularFile(input))
+            return input;
+
+        Path output;
+
+        if (lower.endsWith(".tgz"))
+            output = input.resolveSibling(name.substring(0, name.length() - 4) + ".tar");
+        else if (lower.endsWith(".gz"))
+            output = input.resolveSibling(name.substring(0, name.length() - 3));
+        else
+            return input;
+
+        Path part = output.resolveSibling(output.getFileName() + ".part");
+        job.reportProgress(-1);
+
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(input), 64 * 1024);
+             OutputStream out = Files.newOutputStream(part)) {
+            in.transferTo(out);
+        } catch (IOException e) {
+            Files.deleteIfExists(part);
+            throw e;
+        }
+
+        Files.move(part, output, StandardCopyOption.REPLACE_EXISTING);
+        return output;
+    }
+}
@@ -0,0 +1,48 @@
+package com.illusionist.ldm.pipeline;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+// Runs a user command with the finished path as its last argument
+public final class HookStage implements PostProcessStage {
+    public static final String NAME = "Running Hook";
+
+    private final String command;
+
+    public HookStage(String command) {
+        this.command = command.trim();
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public Path process(PostProcessJob job, Path input) throws IOException {
+        job.reportProgress(-1);
+
+        ArrayList<String> arguments = new ArrayList<>(Arrays.asList(command.split("\\s+")));
+        arguments.add(input.toAbsolutePath().toString());
+
+        Process process = new ProcessBuilder(arguments)
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start();
+
+        try {
+            int exitCode = process.waitFor();
+
+            if (exitCode != 0)
+                throw new IOException("Hook exited with code " + exitCode);
+        } catch (InterruptedException e) {
+            process.destroy();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while running hook", e);
+        }
+
+        return input;
+    }
+}
@@ -0,0 +1,37 @@
+package com.illusionist.ldm.pipeline;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+public final class MoveStage implements PostProcessStage {
+    public static final String NAME = "Moving";
+
+    private final Path directory;
+
+    public MoveStage(Path directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public Path process(PostProcessJob job, Path input) throws IOException {
+        job.reportProgress(-1);
+
+        Files.createDirectories(directory);
+        Path target = directory.resolve(input.getFileName());
+
+        try {
+            return Files.move(input, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            // Another device, a copy and delete is the best we can do
+            return Files.move(input, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.illusionist.ldm.pipeline;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+// The ordered stages to run on one finished download and where it got to
+public final class PostProcessJob {
+    //region Constants
+    public static final int QUEUED = 0;
+    public static final int RUNNING = 1;
+    public static final int COMPLETE = 2;
+    public static final int FAILED = 3;
+    //endregion
+
+    private final Path source;
+    private final ArrayList<PostProcessStage> stages;
+    private final PostProcessListener listener;
+    private final Object userData;
+
+    private volatile int state = QUEUED;
+    private volatile PostProcessStage currentStage = null;
+    private volatile Path result = null;
+    private volatile String failure = null;
+
+    public PostProcessJob(Path source, List<PostProcessStage> stages, PostProcessListener listener, Object userData) {
+        this.source = source;
+        this.stages = new ArrayList<>(stages);
+        this.listener = listener;
+        this.userData = userData;
+    }
+
+    void run() {
+        Path current = source;
+        state = RUNNING;
+
+        for (PostProcessStage stage : stages) {
+            currentStage = stage;
+            reportProgress(0);
+
+            try {
+                current = stage.process(this, current);
+            } catch (Exception e) {
+                failure = e.getMessage() == null ? e.toString() : e.getMessage();
+                state = FAILED;
+
+                if (listener != null)
+                    listener.onFailed(this, stage, failure);
+                return;
+            }
+        }
+
+        result = current;
+        currentStage = null;
+        state = COMPLETE;
+
+        if (listener != null)
+            listener.onCompleted(this);
+    }
+
+    // Stages call this as they go, percent -1 means no meaningful figure
+    public void reportProgress(int percent) {
+        if (listener != null && currentStage != null)
+            listener.onStageChanged(this, currentStage, percent);
+    }
+
+    public Path getSource() {
+        return source;
+    }
+
+    public List<PostProcessStage> getStages() {
+        return stages;
+    }
+
+    public Object getUserData() {
+        return userData;
+    }
+
+    public int getState() {
+        return state;
+    }
+
+    public PostProcessStage getCurrentStage() {
+        return currentStage;
+    }
+
+    // What the last stage produced, the source when nothing changed it
+    public Path getResult() {
+        return result;
+    }
+
+    public String getFailure() {
+        return failure;
+    }
+}
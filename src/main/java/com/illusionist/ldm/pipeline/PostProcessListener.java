@@ -0,0 +1,12 @@
+package com.illusionist.ldm.pipeline;
+
+import java.util.EventListener;
+
+public interface PostProcessListener extends EventListener
+{
+    void onStageChanged(PostProcessJob job, PostProcessStage stage, int percent);
+
+    void onCompleted(PostProcessJob job);
+
+    void onFailed(PostProcessJob job, PostProcessStage stage, String message);
+}
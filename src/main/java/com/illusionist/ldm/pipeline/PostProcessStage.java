@@ -0,0 +1,13 @@
+package com.illusionist.ldm.pipeline;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+// One step run on a finished download. Returns the path later stages
+// should work on, which is the input unless the stage produced something new.
+public interface PostProcessStage
+{
+    String getName();
+
+    Path process(PostProcessJob job, Path input) throws IOException;
+}
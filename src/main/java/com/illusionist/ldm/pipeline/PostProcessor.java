@@ -0,0 +1,92 @@
+package com.illusionist.ldm.pipeline;
+
+import com.illusionist.ldm.util.AppSettings;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs the work that follows a download (verify, decompress, unpack,
+// move, hook) on its own small pool, so a long checksum never holds a
+// network worker and several finished files can be checked at once.
+public final class PostProcessor {
+    //region Constants
+    public static final String SETTING_THREADS = "pipeline.threads";
+    public static final String SETTING_DECOMPRESS = "pipeline.decompress";
+    public static final String SETTING_UNPACK = "pipeline.unpack";
+    public static final String SETTING_MOVE_TO = "pipeline.moveTo";
+    public static final String SETTING_HOOK = "pipeline.hook";
+    public static final String SETTING_KEEP_STREAMED_ARCHIVE = "pipeline.keepStreamedArchive";
+    //endregion
+
+    private static PostProcessor instance = null;
+
+    private final ExecutorService executor;
+    private final AtomicInteger pending = new AtomicInteger(0);
+
+    private PostProcessor(int threads) {
+        AtomicInteger threadCount = new AtomicInteger(0);
+
+        executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "ldm-pipeline-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static synchronized PostProcessor getInstance() {
+        if (instance == null) {
+            int defaultThreads = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+            instance = new PostProcessor(Math.max(1, AppSettings.getInt(SETTING_THREADS, defaultThreads)));
+        }
+
+        return instance;
+    }
+
+    public void submit(PostProcessJob job) {
+        pending.incrementAndGet();
+
+        executor.execute(() -> {
+            try {
+                job.run();
+            } finally {
+                pending.decrementAndGet();
+            }
+        });
+    }
+
+    // Jobs queued or running
+    public int getPendingCount() {
+        return pending.get();
+    }
+
+    // The stages the settings ask for, in the order they have to run.
+    // Archives already unpacked while downloading skip the unpack stage.
+    public static List<PostProcessStage> createStages(String expectedHash, boolean unpacked) {
+        ArrayList<PostProcessStage> stages = new ArrayList<>();
+
+        if (expectedHash != null && !expectedHash.isBlank())
+            stages.add(new VerifyStage(expectedHash));
+
+        if (AppSettings.getBoolean(SETTING_DECOMPRESS, false))
+            stages.add(new DecompressStage());
+
+        if (!unpacked && AppSettings.getBoolean(SETTING_UNPACK, false))
+            stages.add(new UnpackStage());
+
+        String moveTo = AppSettings.getString(SETTING_MOVE_TO, "");
+
+        if (!moveTo.isBlank())
+            stages.add(new MoveStage(Path.of(moveTo)));
+
+        String hook = AppSettings.getString(SETTING_HOOK, "");
+
+        if (!hook.isBlank())
+            stages.add(new HookStage(hook));
+
+        return stages;
+    }
+}
@@ -0,0 +1,110 @@
+package com.illusionist.ldm.pipeline;
+
+import com.illusionist.ldm.network.ContentSink;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.file.Path;
+
+// Unpacks an archive while it downloads. The download thread writes
+// into a pipe and an extraction thread reads it through the same
+// ArchiveExtractor the pipeline uses, so the archive is only read once.
+public final class StreamingExtractor implements ContentSink {
+    private static final int PIPE_SIZE = 1024 * 1024;
+
+    private final String archiveName;
+    private final Path directory;
+
+    private PipedOutputStream out = null;
+    private Thread thread = null;
+    private volatile IOException failure = null;
+
+    public StreamingExtractor(String archiveName, Path directory) {
+        this.archiveName = archiveName;
+        this.directory = directory;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public void start() throws IOException {
+        PipedInputStream in = new PipedInputStream(PIPE_SIZE);
+
+        out = new PipedOutputStream(in);
+        failure = null;
+
+        thread = new Thread(() -> extract(in), "ldm-extract");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void extract(InputStream in) {
+        try (in) {
+            ArchiveExtractor.extract(in, archiveName, directory);
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    @Override
+    public void restart() throws IOException {
+        abort();
+        start();
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        checkFailure();
+
+        try {
+            out.write(data, offset, length);
+        } catch (IOException e) {
+            // The reader gave up, its reason is the interesting one
+            checkFailure();
+            throw e;
+        }
+    }
+
+    @Override
+    public void complete() throws IOException {
+        out.close();
+
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while extracting", e);
+        }
+
+        checkFailure();
+    }
+
+    @Override
+    public void abort() {
+        if (thread == null)
+            return;
+
+        try {
+            out.close();
+        } catch (IOException ignored) {
+        }
+
+        // The reader sees the end of the pipe and stops on a truncated archive
+        try {
+            thread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        thread = null;
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null)
+            throw new IOException("Extraction failed: " + failure.getMessage(), failure);
+    }
+}
@@ -0,0 +1,29 @@
+package com.illusionist.ldm.pipeline;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Extracts zip and tar archives into a folder named after the archive
+public final class UnpackStage implements PostProcessStage {
+    public static final String NAME = "Extracting";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public Path process(PostProcessJob job, Path input) throws IOException {
+        String name = input.getFileName().toString();
+
+        if (!Files.isRegularFile(input) || !ArchiveExtractor.isArchive(name))
+            return input;
+
+        Path directory = input.resolveSibling(ArchiveExtractor.stripExtension(name));
+        job.reportProgress(-1);
+
+        ArchiveExtractor.extract(input, directory);
+        return directory;
+    }
+}
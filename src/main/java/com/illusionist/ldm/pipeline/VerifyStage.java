@@ -0,0 +1,80 @@
+package com.illusionist.ldm.pipeline;
+
+import com.illusionist.ldm.storage.BufferPool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+public final class VerifyStage implements PostProcessStage {
+    public static final String NAME = "Verifying";
+
+    private final String expectedHash;
+
+    public VerifyStage(String expectedHash) {
+        this.expectedHash = expectedHash.trim();
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public Path process(PostProcessJob job, Path input) throws IOException {
+        MessageDigest digest;
+
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-1 is not available", e);
+        }
+
+        if (!Files.isRegularFile(input))
+            throw new IOException("Nothing to verify at " + input);
+
+        BufferPool pool = BufferPool.getInstance();
+        ByteBuffer pooled;
+
+        try {
+            pooled = pool.acquireHeap(BufferPool.MEDIUM, BufferPool.SMALL);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a buffer");
+        }
+
+        try (InputStream in = Files.newInputStream(input)) {
+            byte[] buffer = pooled.array();
+            long size = Math.max(1, Files.size(input));
+            long totalBytesRead = 0;
+            int lastPercent = 0;
+            int bytesRead;
+
+            while ((bytesRead = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, bytesRead);
+                totalBytesRead += bytesRead;
+
+                // Only tell the listener when the figure actually moves
+                int percent = (int) (totalBytesRead * 100 / size);
+
+                if (percent != lastPercent) {
+                    lastPercent = percent;
+                    job.reportProgress(percent);
+                }
+            }
+        } finally {
+            pool.release(pooled);
+        }
+
+        if (!expectedHash.equalsIgnoreCase(HexFormat.of().formatHex(digest.digest())))
+            throw new IOException("Checksum does not match");
+
+        return input;
+    }
+}
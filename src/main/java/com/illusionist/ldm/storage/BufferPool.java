@@ -0,0 +1,215 @@
+package com.illusionist.ldm.storage;
+
+import com.illusionist.ldm.util.AppSettings;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Shared, reusable buffers in a few size classes under one memory cap.
+// When the cap is reached idle buffers of other classes are let go
+// first, then callers get a smaller buffer than they asked for, and only
+// when even the smallest one does not fit do they wait for a release.
+public final class BufferPool {
+    //region Constants
+    public static final int SMALL = 8 * 1024;
+    public static final int MEDIUM = 64 * 1024;
+    public static final int LARGE = 1024 * 1024;
+
+    public static final String SETTING_MAX_BYTES = "buffers.maxBytes";
+    public static final String SETTING_DIRECT = "buffers.direct";
+
+    private static final int[] SIZE_CLASSES = { SMALL, MEDIUM, LARGE };
+    private static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+    //endregion
+
+    private static BufferPool instance = null;
+
+    private final long maxBytes;
+    private final boolean preferDirect;
+
+    // [class][0 = heap, 1 = direct]
+    private final ConcurrentLinkedDeque<ByteBuffer>[][] free;
+
+    private final Object capacityLock = new Object();
+    private long allocatedBytes = 0;
+
+    //region Statistics
+    private final AtomicLong bytesInUse = new AtomicLong(0);
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+    private final AtomicLong downgrades = new AtomicLong(0);
+    private final AtomicLong waits = new AtomicLong(0);
+    //endregion
+
+    @SuppressWarnings("unchecked")
+    public BufferPool(long maxBytes, boolean preferDirect) {
+        this.maxBytes = Math.max(LARGE, maxBytes);
+        this.preferDirect = preferDirect;
+
+        free = (ConcurrentLinkedDeque<ByteBuffer>[][]) new ConcurrentLinkedDeque<?>[SIZE_CLASSES.length][2];
+
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            free[i][0] = new ConcurrentLinkedDeque<>();
+            free[i][1] = new ConcurrentLinkedDeque<>();
+        }
+    }
+
+    public static synchronized BufferPool getInstance() {
+        if (instance == null) {
+            instance = new BufferPool(
+                    AppSettings.getLong(SETTING_MAX_BYTES, DEFAULT_MAX_BYTES),
+                    AppSettings.getBoolean(SETTING_DIRECT, false));
+        }
+
+        return instance;
+    }
+
+    //region Borrowing
+    // A heap buffer for reading from streams, which need a backing array
+    public ByteBuffer acquireHeap(int preferredSize, int minimumSize) throws InterruptedException {
+        return acquire(preferredSize, minimumSize, false);
+    }
+
+    // A buffer bound for a FileChannel, direct when the pool is set up for that
+    public ByteBuffer acquireForChannel(int preferredSize, int minimumSize) throws InterruptedException {
+        return acquire(preferredSize, minimumSize, preferDirect);
+    }
+
+    private ByteBuffer acquire(int preferredSize, int minimumSize, boolean direct) throws InterruptedException {
+        int preferred = classFor(preferredSize);
+        int minimum = classFor(Math.min(minimumSize, preferredSize));
+        int kind = direct ? 1 : 0;
+
+        while (true) {
+            // Try the size asked for, then step down while memory is tight
+            for (int i = preferred; i >= minimum; i--) {
+                ByteBuffer buffer = free[i][kind].pollFirst();
+
+                if (buffer != null) {
+                    hits.incrementAndGet();
+                    if (i != preferred)
+                        downgrades.incrementAndGet();
+
+                    return lend(buffer);
+                }
+
+                if (reserve(SIZE_CLASSES[i])) {
+                    misses.incrementAndGet();
+                    if (i != preferred)
+                        downgrades.incrementAndGet();
+
+                    return lend(direct ? ByteBuffer.allocateDirect(SIZE_CLASSES[i]) : ByteBuffer.allocate(SIZE_CLASSES[i]));
+                }
+            }
+
+            // Everything is lent out, wait for someone to give a buffer back
+            waits.incrementAndGet();
+
+            synchronized (capacityLock) {
+                capacityLock.wait(50);
+            }
+        }
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (buffer == null)
+            return;
+
+        int index = indexOf(buffer.capacity());
+
+        // Not one of ours, let the garbage collector have it
+        if (index == -1)
+            return;
+
+        bytesInUse.addAndGet(-buffer.capacity());
+
+        buffer.clear();
+        free[index][buffer.isDirect() ? 1 : 0].addFirst(buffer);
+
+        synchronized (capacityLock) {
+            capacityLock.notifyAll();
+        }
+    }
+
+    private ByteBuffer lend(ByteBuffer buffer) {
+        bytesInUse.addAndGet(buffer.capacity());
+        buffer.clear();
+        return buffer;
+    }
+
+    private boolean reserve(int size) {
+        synchronized (capacityLock) {
+            if (allocatedBytes + size > maxBytes)
+                evictIdle(allocatedBytes + size - maxBytes);
+
+            if (allocatedBytes + size > maxBytes)
+                return false;
+
+            allocatedBytes += size;
+            return true;
+        }
+    }
+
+    // Drop idle buffers, largest first, until at least bytes are freed
+    private void evictIdle(long bytes) {
+        long freed = 0;
+
+        for (int i = SIZE_CLASSES.length - 1; i >= 0 && freed < bytes; i--) {
+            for (int kind = 0; kind < 2 && freed < bytes; kind++) {
+                while (freed < bytes && free[i][kind].pollLast() != null) {
+                    freed += SIZE_CLASSES[i];
+                    allocatedBytes -= SIZE_CLASSES[i];
+                }
+            }
+        }
+    }
+
+    private static int classFor(int size) {
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            if (size <= SIZE_CLASSES[i])
+                return i;
+        }
+
+        return SIZE_CLASSES.length - 1;
+    }
+
+    private static int indexOf(int capacity) {
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            if (capacity == SIZE_CLASSES[i])
+                return i;
+        }
+
+        return -1;
+    }
+    //endregion
+
+    //region Statistics
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getBytesInUse() {
+        return bytesInUse.get();
+    }
+
+    public long getBytesAllocated() {
+        synchronized (capacityLock) {
+            return allocatedBytes;
+        }
+    }
+
+    public double getHitRate() {
+        long total = hits.get() + misses.get();
+        return total == 0 ? 0 : (double) hits.get() / total;
+    }
+
+    public long getDowngrades() {
+        return downgrades.get();
+    }
+
+    public long getWaits() {
+        return waits.get();
+    }
+    //endregion
+}
@@ -0,0 +1,267 @@
+package com.illusionist.ldm.storage;
+
+import com.illusionist.ldm.util.AppDataUtil;
+import com.illusionist.ldm.util.AppSettings;
+import com.illusionist.ldm.util.BackgroundSaver;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Index of SHA-1 -> file we already have on disk, so a job whose content
+// is already local can be satisfied without going to the network.
+public final class ContentStore {
+    //region Constants
+    public static final String SETTING_ENABLED = "contentStore.enabled";
+    public static final String SETTING_HARD_LINKS = "contentStore.hardLinks";
+
+    private static final String INDEX_FILENAME = "content-index.log";
+
+    // Below this many lines the log is never worth compacting
+    private static final int COMPACT_MIN_LINES = 1024;
+    //endregion
+
+    private static ContentStore instance = null;
+
+    private final File indexFile;
+    private final ConcurrentHashMap<String, IndexEntry> index = new ConcurrentHashMap<>();
+    private final BackgroundSaver compactor = new BackgroundSaver(this::compact);
+
+    // Guarded by this
+    private long logLines = 0;
+
+    private volatile boolean enabled;
+    private volatile boolean allowHardLinks;
+
+    public ContentStore(File indexFile) {
+        this.indexFile = indexFile;
+        load();
+    }
+
+    public static synchronized ContentStore getInstance() {
+        if (instance == null) {
+            instance = new ContentStore(AppDataUtil.getDataFile(INDEX_FILENAME));
+            instance.enabled = AppSettings.getBoolean(SETTING_ENABLED, false);
+            instance.allowHardLinks = AppSettings.getBoolean(SETTING_HARD_LINKS, false);
+        }
+
+        return instance;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setAllowHardLinks(boolean allowHardLinks) {
+        this.allowHardLinks = allowHardLinks;
+    }
+
+    //region Lookup
+    public File lookup(String hash) {
+        if (!enabled || hash == null || hash.isBlank())
+            return null;
+
+        String key = normalize(hash);
+        IndexEntry entry = index.get(key);
+
+        if (entry == null)
+            return null;
+
+        // Size and modification time are enough to notice the file was replaced
+        File file = new File(entry.path);
+
+        if (!file.isFile() || file.length() != entry.size || file.lastModified() != entry.modified) {
+            if (index.remove(key, entry))
+                append("-\t" + key);
+
+            return null;
+        }
+
+        return file;
+    }
+
+    public void add(String hash, File file) {
+        if (!enabled || hash == null || hash.isBlank() || !file.isFile())
+            return;
+
+        String path = file.getAbsolutePath();
+
+        // Would split its log line
+        if (path.indexOf('\n') != -1 || path.indexOf('\r') != -1)
+            return;
+
+        String key = normalize(hash);
+        IndexEntry entry = new IndexEntry(path, file.length(), file.lastModified());
+
+        index.put(key, entry);
+        append(addLine(key, entry));
+    }
+    //endregion
+
+    // Put a copy of the content for hash at target
+    public boolean materialize(String hash, File target) {
+        File source = lookup(hash);
+
+        if (source == null)
+            return false;
+
+        try {
+            LocalCopyUtil.copy(source.toPath(), target.toPath(), allowHardLinks);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static String normalize(String hash) {
+        return hash.trim().toLowerCase(Locale.ROOT);
+    }
+
+    //region Persistence
+    // The log holds one line per change: "+" TAB hash TAB size TAB modified TAB path,
+    // or "-" TAB hash. Replaying it in order gives the index. A crash can only tear
+    // the last line, which the replay skips.
+    private void load() {
+        if (!indexFile.isFile()) {
+            loadLegacy();
+            return;
+        }
+
+        try (BufferedReader in = Files.newBufferedReader(indexFile.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+
+            while ((line = in.readLine()) != null) {
+                logLines++;
+                String[] fields = line.split("\t", 5);
+
+                try {
+                    if (fields.length == 5 && fields[0].equals("+"))
+                        index.put(fields[1], new IndexEntry(fields[4], Long.parseLong(fields[2]), Long.parseLong(fields[3])));
+                    else if (fields.length == 2 && fields[0].equals("-"))
+                        index.remove(fields[1]);
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        } catch (IOException e) {
+            index.clear();
+            return;
+        }
+
+        // A torn last line would run into the next one appended
+        if (!endsWithNewline())
+            compact();
+    }
+
+    private boolean endsWithNewline() {
+        try (RandomAccessFile file = new RandomAccessFile(indexFile, "r")) {
+            if (file.length() == 0)
+                return true;
+
+            file.seek(file.length() - 1);
+            return file.read() == '\n';
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // The index used to be one properties file rewritten on every change
+    private void loadLegacy() {
+        String name = indexFile.getName();
+        File legacyFile = new File(indexFile.getParentFile(), name.substring(0, name.lastIndexOf('.') + 1) + "properties");
+
+        if (!legacyFile.isFile())
+            return;
+
+        Properties properties = new Properties();
+
+        try (FileInputStream in = new FileInputStream(legacyFile)) {
+            properties.load(in);
+        } catch (IOException e) {
+            return;
+        }
+
+        for (String hash : properties.stringPropertyNames()) {
+            String[] fields = properties.getProperty(hash).split("\t", 3);
+
+            if (fields.length != 3)
+                continue;
+
+            try {
+                index.put(hash, new IndexEntry(fields[2], Long.parseLong(fields[0]), Long.parseLong(fields[1])));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+
+        compact();
+
+        if (indexFile.isFile() && !legacyFile.delete())
+            legacyFile.deleteOnExit();
+    }
+
+    private synchronized void append(String line) {
+        try {
+            Files.write(indexFile.toPath(), (line + "\n").getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            logLines++;
+        } catch (IOException ignored) {
+        }
+
+        // Mostly dead lines by now, write the live ones out fresh
+        if (logLines > COMPACT_MIN_LINES && logLines > index.size() * 2L)
+            compactor.request();
+    }
+
+    // Replaces the log with one line per live entry
+    synchronized void compact() {
+        try {
+            AppDataUtil.writeAtomically(indexFile, out -> {
+                Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+
+                for (Map.Entry<String, IndexEntry> entry : index.entrySet())
+                    writer.write(addLine(entry.getKey(), entry.getValue()) + "\n");
+
+                writer.flush();
+            });
+
+            logLines = index.size();
+        } catch (IOException ignored) {
+        }
+    }
+
+    // Lines in the log, live or not
+    synchronized long getLogLines() {
+        return logLines;
+    }
+
+    private static String addLine(String hash, IndexEntry entry) {
+        return "+\t" + hash + "\t" + entry.size + "\t" + entry.modified + "\t" + entry.path;
+    }
+    //endregion
+
+    private static final class IndexEntry {
+        private final String path;
+        private final long size;
+        private final long modified;
+
+        private IndexEntry(String path, long size, long modified) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+        }
+    }
+}
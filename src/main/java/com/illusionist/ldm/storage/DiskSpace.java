@@ -0,0 +1,82 @@
+package com.illusionist.ldm.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+
+// Free space bookkeeping per device. A download reserves its full size
+// before the first byte arrives, so several downloads starting at once
+// cannot each see the same free gigabytes and all run out half way.
+public final class DiskSpace {
+    private static final HashMap<FileStore, Long> reserved = new HashMap<>();
+
+    public static Reservation reserve(Path path, long bytes) throws IOException {
+        FileStore store = getStore(path);
+
+        // Whatever is already on disk for this file does not need room again
+        long needed = Math.max(0, bytes - (Files.isRegularFile(path) ? Files.size(path) : 0));
+
+        synchronized (reserved) {
+            long others = reserved.getOrDefault(store, 0L);
+            long usable = store.getUsableSpace() - others;
+
+            if (needed > usable)
+                throw new IOException(String.format("Not enough free space on %s: %d bytes needed, %d available", store.name(), needed, Math.max(0, usable)));
+
+            reserved.put(store, others + needed);
+        }
+
+        return new Reservation(store, needed);
+    }
+
+    public static long getReservedBytes(Path path) throws IOException {
+        FileStore store = getStore(path);
+
+        synchronized (reserved) {
+            return reserved.getOrDefault(store, 0L);
+        }
+    }
+
+    private static FileStore getStore(Path path) throws IOException {
+        Path existing = path.toAbsolutePath();
+
+        while (existing != null && !Files.exists(existing))
+            existing = existing.getParent();
+
+        if (existing == null)
+            throw new IOException("No existing directory for " + path);
+
+        return Files.getFileStore(existing);
+    }
+
+    public static final class Reservation implements Closeable {
+        private final FileStore store;
+        private long bytes;
+
+        private Reservation(FileStore store, long bytes) {
+            this.store = store;
+            this.bytes = bytes;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        @Override
+        public void close() {
+            synchronized (reserved) {
+                long remaining = reserved.getOrDefault(store, 0L) - bytes;
+
+                if (remaining > 0)
+                    reserved.put(store, remaining);
+                else
+                    reserved.remove(store);
+
+                bytes = 0;
+            }
+        }
+    }
+}
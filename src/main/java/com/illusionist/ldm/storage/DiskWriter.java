@@ -0,0 +1,178 @@
+package com.illusionist.ldm.storage;
+
+import com.illusionist.ldm.util.AppSettings;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// One writer thread per storage device. Downloads hand it large,
+// aligned blocks and go back to reading the network; the writer sorts
+// what has piled up by file and offset so several downloads to the same
+// disk do not make it seek back and forth for every block.
+public final class DiskWriter {
+    //region Constants
+    public static final String SETTING_MEMORY_BUDGET = "disk.writeBehindBytes";
+
+    private static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+    private static final int PERMIT_SIZE = 1024;
+    private static final int MAX_BATCH = 64;
+    //endregion
+
+    private static final ConcurrentHashMap<Object, DiskWriter> writers = new ConcurrentHashMap<>();
+
+    private final String name;
+    private final LinkedBlockingQueue<WriteRequest> queue = new LinkedBlockingQueue<>();
+    private final Semaphore budget;
+    private final long budgetBytes;
+
+    //region Statistics
+    private final AtomicLong bytesWritten = new AtomicLong(0);
+    private final AtomicLong writeCount = new AtomicLong(0);
+    private final AtomicLong writeNanos = new AtomicLong(0);
+    private final AtomicLong bytesQueued = new AtomicLong(0);
+    //endregion
+
+    private DiskWriter(String name, long budgetBytes) {
+        this.name = name;
+        this.budgetBytes = budgetBytes;
+        this.budget = new Semaphore((int) Math.max(1, budgetBytes / PERMIT_SIZE), true);
+
+        Thread thread = new Thread(this::run, "ldm-disk-" + name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // The writer for whatever device path lives on
+    public static DiskWriter forPath(Path path) {
+        Object key;
+        String name;
+
+        try {
+            Path existing = path.toAbsolutePath();
+
+            while (existing != null && !Files.exists(existing))
+                existing = existing.getParent();
+
+            FileStore store = Files.getFileStore(existing == null ? path.toAbsolutePath().getRoot() : existing);
+            key = store;
+            name = store.name();
+        } catch (IOException | NullPointerException e) {
+            key = "default";
+            name = "default";
+        }
+
+        String writerName = name;
+        return writers.computeIfAbsent(key, x -> new DiskWriter(writerName,
+                AppSettings.getLong(SETTING_MEMORY_BUDGET, DEFAULT_MEMORY_BUDGET)));
+    }
+
+    //region Queueing
+    // Blocks while the memory budget of this device is used up, that is the backpressure on readers
+    void submit(WriteBehindFile file, long position, ByteBuffer data) throws InterruptedException {
+        int permits = permitsFor(data.remaining());
+
+        budget.acquire(permits);
+        bytesQueued.addAndGet(data.remaining());
+
+        queue.add(new WriteRequest(file, position, data, permits));
+    }
+
+    private int permitsFor(int bytes) {
+        int permits = (bytes + PERMIT_SIZE - 1) / PERMIT_SIZE;
+        return (int) Math.min(permits, Math.max(1, budgetBytes / PERMIT_SIZE));
+    }
+
+    private void run() {
+        ArrayList<WriteRequest> batch = new ArrayList<>();
+
+        while (true) {
+            try {
+                WriteRequest first = queue.poll(1, TimeUnit.SECONDS);
+
+                if (first == null)
+                    continue;
+
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH - 1);
+
+                // Group by file and walk each file front to back
+                batch.sort(Comparator.comparingInt((WriteRequest x) -> x.file.getId()).thenComparingLong(x -> x.position));
+
+                for (WriteRequest request : batch)
+                    write(request);
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(WriteRequest request) {
+        long started = System.nanoTime();
+        int length = request.data.remaining();
+
+        try {
+            request.file.writeNow(request.data, request.position);
+            request.file.markWritten(request.position, length);
+        } catch (IOException e) {
+            request.file.fail(e);
+        } finally {
+            long elapsed = System.nanoTime() - started;
+
+            writeNanos.addAndGet(elapsed);
+            writeCount.incrementAndGet();
+            bytesWritten.addAndGet(length);
+            bytesQueued.addAndGet(-length);
+
+            request.file.onWritten(length, elapsed);
+            budget.release(request.permits);
+            BufferPool.getInstance().release(request.data);
+        }
+    }
+    //endregion
+
+    //region Statistics
+    public String getName() {
+        return name;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    public long getBytesQueued() {
+        return bytesQueued.get();
+    }
+
+    // Average time one block spends being written, queueing not included
+    public long getAverageWriteMicros() {
+        long count = writeCount.get();
+        return count == 0 ? 0 : writeNanos.get() / count / 1000;
+    }
+    //endregion
+
+    private static final class WriteRequest {
+        private final WriteBehindFile file;
+        private final long position;
+        private final ByteBuffer data;
+        private final int permits;
+
+        private WriteRequest(WriteBehindFile file, long position, ByteBuffer data, int permits) {
+            this.file = file;
+            this.position = position;
+            this.data = data;
+            this.permits = permits;
+        }
+    }
+}
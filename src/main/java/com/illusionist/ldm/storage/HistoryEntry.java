@@ -0,0 +1,52 @@
+package com.illusionist.ldm.storage;
+
+// One finished job as the history store keeps it
+public final class HistoryEntry {
+    private final int index;
+    private final String url;
+    private final String filepath;
+    private final String hash;
+    private final long size;
+    private final long finishedAt;
+    private final int status;
+
+    HistoryEntry(int index, String url, String filepath, String hash, long size, long finishedAt, int status) {
+        this.index = index;
+        this.url = url;
+        this.filepath = filepath;
+        this.hash = hash;
+        this.size = size;
+        this.finishedAt = finishedAt;
+        this.status = status;
+    }
+
+    // Position in the store, entries never move
+    public int getIndex() {
+        return index;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getFilePath() {
+        return filepath;
+    }
+
+    // Null when the SHA-1 was never known
+    public String getHash() {
+        return hash;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getFinishedAt() {
+        return finishedAt;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+}
@@ -0,0 +1,452 @@
+package com.illusionist.ldm.storage;
+
+import com.illusionist.ldm.util.AppDataUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Locale;
+
+// Finished jobs on disk, so they do not have to stay in memory. Entries
+// are fixed size records appended to one file, with their url and path
+// in a second one, so any page of the history is a single read. What is
+// kept in memory per entry is a few primitives for the indexes: url and
+// hash go through open addressing tables holding the newest entry per
+// key, each entry links to the previous one with its key, dates are
+// searched by bisection since entries are appended as jobs finish, and
+// status is a byte array scanned directly.
+public final class HistoryStore {
+    //region Constants
+    public static final int COMPLETED = 0;
+    public static final int FAILED = 1;
+    public static final int STOPPED = 2;
+
+    private static final String RECORDS_FILENAME = "history.dat";
+    private static final String STRINGS_FILENAME = "history.str";
+
+    // finishedAt, size, urlKey, hashKey, strings offset, url length, path length, status, hash tail
+    private static final int RECORD_SIZE = 64;
+    private static final int HASH_TAIL = 12;
+    private static final int INITIAL_CAPACITY = 1024;
+    //endregion
+
+    private static HistoryStore instance = null;
+
+    private final FileChannel records;
+    private final FileChannel strings;
+
+    // Guarded by this
+    private int count = 0;
+    private long stringsLength;
+    private long[] finishedAt = new long[INITIAL_CAPACITY];
+    private long[] urlKeys = new long[INITIAL_CAPACITY];
+    private long[] hashKeys = new long[INITIAL_CAPACITY];
+    private byte[] statuses = new byte[INITIAL_CAPACITY];
+    private int[] urlPrevious = new int[INITIAL_CAPACITY];
+    private int[] hashPrevious = new int[INITIAL_CAPACITY];
+    private int[] urlTable = emptyTable(INITIAL_CAPACITY * 2);
+    private int[] hashTable = emptyTable(INITIAL_CAPACITY * 2);
+
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+
+    public HistoryStore(File recordsFile, File stringsFile) throws IOException {
+        records = FileChannel.open(recordsFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        strings = FileChannel.open(stringsFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        load();
+    }
+
+    public static synchronized HistoryStore getInstance() {
+        if (instance == null) {
+            try {
+                instance = new HistoryStore(AppDataUtil.getDataFile(RECORDS_FILENAME), AppDataUtil.getDataFile(STRINGS_FILENAME));
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot open the download history", e);
+            }
+        }
+
+        return instance;
+    }
+
+    //region Writing
+    public synchronized int add(String url, String filepath, String hash, long size, long time, int status) throws IOException {
+        byte[] urlBytes = url.getBytes(StandardCharsets.UTF_8);
+        byte[] pathBytes = filepath.getBytes(StandardCharsets.UTF_8);
+        byte[] hashBytes = parseHash(hash);
+
+        // Strings first, a record never points past the end of its strings
+        ByteBuffer text = ByteBuffer.allocate(urlBytes.length + pathBytes.length);
+        text.put(urlBytes).put(pathBytes).flip();
+
+        long offset = stringsLength;
+        writeFully(strings, text, offset);
+        stringsLength += urlBytes.length + pathBytes.length;
+
+        long urlKey = keyOf(urlBytes);
+        long hashKey = hashBytes == null ? 0 : ByteBuffer.wrap(hashBytes).getLong();
+
+        record.clear();
+        record.putLong(time).putLong(size).putLong(urlKey).putLong(hashKey).putLong(offset)
+                .putInt(urlBytes.length).putInt(pathBytes.length).putInt(status);
+
+        if (hashBytes != null)
+            record.put(hashBytes, 8, HASH_TAIL);
+        else
+            record.put(new byte[HASH_TAIL]);
+
+        record.flip();
+        writeFully(records, record, (long) count * RECORD_SIZE);
+
+        index(time, urlKey, hashKey, status);
+        return count - 1;
+    }
+
+    public synchronized void flush() throws IOException {
+        records.force(false);
+        strings.force(false);
+    }
+    //endregion
+
+    //region Reading
+    public synchronized int getCount() {
+        return count;
+    }
+
+    public synchronized HistoryEntry get(int index) throws IOException {
+        if (index < 0 || index >= count)
+            return null;
+
+        return read(index);
+    }
+
+    // The entries at the given positions, in the order given
+    public synchronized HistoryEntry[] get(int[] indexes, int from, int length) throws IOException {
+        int end = Math.min(indexes.length, from + length);
+        HistoryEntry[] result = new HistoryEntry[Math.max(0, end - from)];
+
+        for (int i = from; i < end; i++)
+            result[i - from] = read(indexes[i]);
+
+        return result;
+    }
+
+    // Entries from index back towards the oldest, at most length of them
+    public synchronized HistoryEntry[] getBackwards(int index, int length) throws IOException {
+        int first = Math.min(index, count - 1);
+        int last = Math.max(-1, first - length);
+        HistoryEntry[] result = new HistoryEntry[Math.max(0, first - last)];
+
+        if (result.length == 0)
+            return result;
+
+        // One read for the whole page
+        ByteBuffer page = ByteBuffer.allocate(result.length * RECORD_SIZE);
+        readFully(records, page, (long) (last + 1) * RECORD_SIZE);
+
+        for (int i = 0; i < result.length; i++) {
+            page.position((result.length - 1 - i) * RECORD_SIZE);
+            result[i] = decode(first - i, page);
+        }
+
+        return result;
+    }
+
+    private HistoryEntry read(int index) throws IOException {
+        record.clear();
+        readFully(records, record, (long) index * RECORD_SIZE);
+        record.flip();
+
+        return decode(index, record);
+    }
+
+    private HistoryEntry decode(int index, ByteBuffer buffer) throws IOException {
+        long time = buffer.getLong();
+        long size = buffer.getLong();
+        buffer.getLong();
+        long hashKey = buffer.getLong();
+        long offset = buffer.getLong();
+        int urlLength = buffer.getInt();
+        int pathLength = buffer.getInt();
+        int status = buffer.getInt();
+        byte[] tail = new byte[HASH_TAIL];
+        buffer.get(tail);
+
+        ByteBuffer text = ByteBuffer.allocate(urlLength + pathLength);
+        readFully(strings, text, offset);
+
+        byte[] bytes = text.array();
+        String hash = null;
+
+        if (hashKey != 0) {
+            byte[] full = ByteBuffer.allocate(20).putLong(hashKey).put(tail).array();
+            hash = HexFormat.of().formatHex(full);
+        }
+
+        return new HistoryEntry(index,
+                new String(bytes, 0, urlLength, StandardCharsets.UTF_8),
+                new String(bytes, urlLength, pathLength, StandardCharsets.UTF_8),
+                hash, size, time, status);
+    }
+    //endregion
+
+    //region Queries
+    // Every entry for url, newest first
+    public synchronized int[] findByUrl(String url) throws IOException {
+        long key = keyOf(url.getBytes(StandardCharsets.UTF_8));
+        IntList result = new IntList();
+
+        for (int index = find(urlTable, urlKeys, key); index != -1; index = urlPrevious[index]) {
+            // Keys can collide, so the url itself decides
+            if (url.equals(read(index).getUrl()))
+                result.add(index);
+        }
+
+        return result.toArray();
+    }
+
+    // Every entry with this SHA-1, newest first
+    public synchronized int[] findByHash(String hash) {
+        byte[] hashBytes = parseHash(hash);
+
+        if (hashBytes == null)
+            return new int[0];
+
+        IntList result = new IntList();
+
+        // The first 8 bytes of a SHA-1 are as good as unique, the entry still shows the full one
+        for (int index = find(hashTable, hashKeys, ByteBuffer.wrap(hashBytes).getLong()); index != -1; index = hashPrevious[index])
+            result.add(index);
+
+        return result.toArray();
+    }
+
+    // Entries finished in [from, to) with the status, -1 for any, newest first.
+    // candidates narrows the search to the result of another query, null searches everything.
+    public synchronized int[] filter(int[] candidates, long from, long to, int status) {
+        IntList result = new IntList();
+
+        if (candidates != null) {
+            for (int index : candidates) {
+                if (finishedAt[index] >= from && finishedAt[index] < to && (status == -1 || statuses[index] == status))
+                    result.add(index);
+            }
+
+            return result.toArray();
+        }
+
+        int first = lowerBound(from);
+        int last = lowerBound(to);
+
+        for (int index = last - 1; index >= first; index--) {
+            if (status == -1 || statuses[index] == status)
+                result.add(index);
+        }
+
+        return result.toArray();
+    }
+
+    // First entry finished at or after time, assuming the clock never went back much
+    private int lowerBound(long time) {
+        int low = 0;
+        int high = count;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+
+            if (finishedAt[middle] < time)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+
+        return low;
+    }
+    //endregion
+
+    //region Indexes
+    private void index(long time, long urlKey, long hashKey, int status) {
+        if (count == finishedAt.length) {
+            int capacity = count * 2;
+
+            finishedAt = Arrays.copyOf(finishedAt, capacity);
+            urlKeys = Arrays.copyOf(urlKeys, capacity);
+            hashKeys = Arrays.copyOf(hashKeys, capacity);
+            statuses = Arrays.copyOf(statuses, capacity);
+            urlPrevious = Arrays.copyOf(urlPrevious, capacity);
+            hashPrevious = Arrays.copyOf(hashPrevious, capacity);
+        }
+
+        finishedAt[count] = time;
+        urlKeys[count] = urlKey;
+        hashKeys[count] = hashKey;
+        statuses[count] = (byte) status;
+        urlPrevious[count] = -1;
+        hashPrevious[count] = -1;
+        count++;
+
+        // Tables stay at most half full so probe runs stay short
+        if (count * 2 > urlTable.length) {
+            urlTable = rebuild(urlKeys, urlPrevious, urlTable.length * 2);
+            hashTable = rebuild(hashKeys, hashPrevious, hashTable.length * 2);
+            return;
+        }
+
+        insert(urlTable, urlKeys, urlPrevious, count - 1);
+        insert(hashTable, hashKeys, hashPrevious, count - 1);
+    }
+
+    private int[] rebuild(long[] keys, int[] previous, int size) {
+        int[] table = emptyTable(size);
+
+        for (int i = 0; i < count; i++) {
+            previous[i] = -1;
+            insert(table, keys, previous, i);
+        }
+
+        return table;
+    }
+
+    // The slot of key holds its newest entry, which links back to the one it replaced
+    private static void insert(int[] table, long[] keys, int[] previous, int index) {
+        long key = keys[index];
+
+        if (key == 0)
+            return;
+
+        int slot = slotOf(key, table.length);
+
+        while (table[slot] != -1 && keys[table[slot]] != key)
+            slot = (slot + 1) & (table.length - 1);
+
+        previous[index] = table[slot];
+        table[slot] = index;
+    }
+
+    // Newest entry with key, -1 when there is none
+    private static int find(int[] table, long[] keys, long key) {
+        int slot = slotOf(key, table.length);
+
+        while (table[slot] != -1 && keys[table[slot]] != key)
+            slot = (slot + 1) & (table.length - 1);
+
+        return table[slot];
+    }
+
+    private static int slotOf(long key, int size) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & (size - 1);
+    }
+
+    private static int[] emptyTable(int size) {
+        int[] table = new int[size];
+        Arrays.fill(table, -1);
+        return table;
+    }
+
+    // FNV-1a, never 0 so 0 can mean no key
+    private static long keyOf(byte[] bytes) {
+        long hash = 0xcbf29ce484222325L;
+
+        for (byte b : bytes) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+
+        return hash == 0 ? 1 : hash;
+    }
+
+    private static byte[] parseHash(String hash) {
+        if (hash == null)
+            return null;
+
+        String value = hash.trim().toLowerCase(Locale.ROOT);
+
+        if (!value.matches("[0-9a-f]{40}"))
+            return null;
+
+        byte[] bytes = HexFormat.of().parseHex(value);
+
+        // An all zero prefix would read back as no hash
+        return ByteBuffer.wrap(bytes).getLong() == 0 ? null : bytes;
+    }
+    //endregion
+
+    //region Files
+    private void load() throws IOException {
+        stringsLength = strings.size();
+
+        // A record cut short by a crash is dropped
+        long total = records.size() / RECORD_SIZE;
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 1024);
+        long position = 0;
+
+        while (position < total * RECORD_SIZE) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), total * RECORD_SIZE - position));
+            readFully(records, buffer, position);
+            buffer.flip();
+
+            while (buffer.remaining() >= RECORD_SIZE) {
+                int start = buffer.position();
+                long time = buffer.getLong(start);
+                long urlKey = buffer.getLong(start + 16);
+                long hashKey = buffer.getLong(start + 24);
+                long offset = buffer.getLong(start + 32);
+                int length = buffer.getInt(start + 40) + buffer.getInt(start + 44);
+                int status = buffer.getInt(start + 48);
+
+                buffer.position(start + RECORD_SIZE);
+
+                // Its strings never made it to disk, so neither did anything after it
+                if (offset + length > stringsLength) {
+                    records.truncate((long) count * RECORD_SIZE);
+                    return;
+                }
+
+                index(time, urlKey, hashKey, status);
+            }
+
+            position += buffer.limit();
+        }
+
+        records.truncate((long) count * RECORD_SIZE);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining())
+            position += channel.write(buffer, position);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+
+            if (read == -1)
+                throw new IOException("History file is shorter than its index");
+
+            position += read;
+        }
+    }
+    //endregion
+
+    // Growable list of entry numbers, boxing a million Integers would defeat the point
+    private static final class IntList {
+        private int[] values = new int[16];
+        private int size = 0;
+
+        private void add(int value) {
+            if (size == values.length)
+                values = Arrays.copyOf(values, size * 2);
+
+            values[size++] = value;
+        }
+
+        private int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
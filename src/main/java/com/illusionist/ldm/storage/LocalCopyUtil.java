@@ -0,0 +1,88 @@
+package com.illusionist.ldm.storage;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+public class LocalCopyUtil {
+    // Put a copy of source at target, cheapest method first. A hard link shares
+    // its data with the original, rewriting either one in place changes both,
+    // so callers have to ask for it. The copy is made next to target and moved
+    // over it, whatever was at target stays until the copy is complete.
+    public static void copy(Path source, Path target, boolean allowHardLinks) throws IOException {
+        source = source.toAbsolutePath();
+        target = target.toAbsolutePath();
+
+        if (source.equals(target))
+            return;
+
+        Path temp = target.resolveSibling(target.getFileName() + ".copy");
+        Files.deleteIfExists(temp);
+
+        try {
+            place(source, temp, allowHardLinks);
+
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void place(Path source, Path target, boolean allowHardLinks) throws IOException {
+        if (reflink(source, target))
+            return;
+
+        if (allowHardLinks) {
+            try {
+                Files.createLink(target, source);
+                return;
+            } catch (IOException | UnsupportedOperationException ignored) {
+                // Different file system, fall through to a copy
+            }
+        }
+
+        Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // Copy on write clone, only where the platform cp knows how to do it
+    private static boolean reflink(Path source, Path target) {
+        String os = System.getProperty("os.name", "").toLowerCase(Locale.ROOT);
+        ProcessBuilder builder;
+
+        if (os.contains("linux")) {
+            builder = new ProcessBuilder("cp", "--reflink=always", source.toString(), target.toString());
+        } else if (os.contains("mac")) {
+            builder = new ProcessBuilder("cp", "-c", source.toString(), target.toString());
+        } else {
+            return false;
+        }
+
+        try {
+            Process process = builder.redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+
+            if (process.waitFor(30, TimeUnit.SECONDS) && process.exitValue() == 0)
+                return true;
+
+            process.destroy();
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            Files.deleteIfExists(target);
+        } catch (IOException ignored) {
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,85 @@
+package com.illusionist.ldm.storage;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+// The parts of a file that are on disk, as merged [start, end) runs.
+// Readers can wait for a position to arrive; every add wakes them.
+public final class RangeSet {
+    private final TreeMap<Long, Long> runs = new TreeMap<>();
+    private long totalBytes = 0;
+
+    public synchronized void add(long start, long end) {
+        if (end <= start)
+            return;
+
+        // Swallow every run that overlaps or touches the new one
+        Map.Entry<Long, Long> before = runs.floorEntry(start);
+
+        if (before != null && before.getValue() >= start) {
+            start = before.getKey();
+            end = Math.max(end, before.getValue());
+            runs.remove(before.getKey());
+            totalBytes -= before.getValue() - before.getKey();
+        }
+
+        Map.Entry<Long, Long> after;
+
+        while ((after = runs.ceilingEntry(start)) != null && after.getKey() <= end) {
+            end = Math.max(end, after.getValue());
+            runs.remove(after.getKey());
+            totalBytes -= after.getValue() - after.getKey();
+        }
+
+        runs.put(start, end);
+        totalBytes += end - start;
+
+        notifyAll();
+    }
+
+    public synchronized void clear() {
+        runs.clear();
+        totalBytes = 0;
+        notifyAll();
+    }
+
+    // Where the run holding position ends, position itself when it is missing
+    public synchronized long getContiguousEnd(long position) {
+        Map.Entry<Long, Long> run = runs.floorEntry(position);
+        return run != null && run.getValue() > position ? run.getValue() : position;
+    }
+
+    public synchronized boolean contains(long start, long end) {
+        return getContiguousEnd(start) >= end;
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public synchronized int getRunCount() {
+        return runs.size();
+    }
+
+    // Waits up to timeoutMillis for position to arrive, returns where its run ends
+    public synchronized long await(long position, long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutMillis * 1_000_000;
+        long end;
+
+        while ((end = getContiguousEnd(position)) == position) {
+            long left = (deadline - System.nanoTime()) / 1_000_000;
+
+            if (left <= 0)
+                break;
+
+            wait(left);
+        }
+
+        return end;
+    }
+
+    // Wake waiters without adding anything, when the file went away for example
+    public synchronized void wakeAll() {
+        notifyAll();
+    }
+}
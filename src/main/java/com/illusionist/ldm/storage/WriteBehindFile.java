@@ -0,0 +1,317 @@
+package com.illusionist.ldm.storage;
+
+import com.illusionist.ldm.util.AppSettings;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// A download target whose writes are handed to the DiskWriter of its
+// device instead of being done on the network thread. Each reader gets
+// an Appender that collects bytes into blocks aligned to BLOCK_SIZE.
+public final class WriteBehindFile implements Closeable {
+    //region Constants
+    public static final int FSYNC_NEVER = 0;
+    public static final int FSYNC_ON_CLOSE = 1;
+    public static final int FSYNC_INTERVAL = 2;
+
+    public static final String SETTING_FSYNC_POLICY = "disk.fsyncPolicy";
+    public static final String SETTING_FSYNC_INTERVAL = "disk.fsyncIntervalBytes";
+    public static final String SETTING_BLOCK_SIZE = "disk.blockSize";
+
+    private static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+    private static final long DEFAULT_FSYNC_INTERVAL = 256L * 1024 * 1024;
+    //endregion
+
+    private static final AtomicInteger nextId = new AtomicInteger(0);
+
+    private final int id = nextId.incrementAndGet();
+    private final Path path;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private DiskSpace.Reservation reservation = null;
+    private final DiskWriter writer;
+    private final BufferPool pool = BufferPool.getInstance();
+
+    private final int blockSize;
+    private final int fsyncPolicy;
+    private final long fsyncInterval;
+    private long unsyncedBytes = 0;
+
+    private final Object drainLock = new Object();
+    private long outstandingBytes = 0;
+    private volatile IOException failure = null;
+    private volatile RangeSet writtenRanges = null;
+
+    //region Statistics
+    private final AtomicLong bytesWritten = new AtomicLong(0);
+    private final AtomicLong writeNanos = new AtomicLong(0);
+    private final AtomicLong writeCount = new AtomicLong(0);
+    //endregion
+
+    private WriteBehindFile(Path path, RandomAccessFile file, DiskWriter writer) {
+        this.path = path;
+        this.file = file;
+        this.channel = file.getChannel();
+        this.writer = writer;
+
+        blockSize = Math.max(4096, AppSettings.getInt(SETTING_BLOCK_SIZE, DEFAULT_BLOCK_SIZE));
+        fsyncPolicy = parsePolicy(AppSettings.getString(SETTING_FSYNC_POLICY, "close"));
+        fsyncInterval = AppSettings.getLong(SETTING_FSYNC_INTERVAL, DEFAULT_FSYNC_INTERVAL);
+    }
+
+    public static WriteBehindFile open(Path path, boolean truncate) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw");
+
+        try {
+            if (truncate)
+                file.setLength(0);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+
+        return new WriteBehindFile(path, file, DiskWriter.forPath(path));
+    }
+
+    private static int parsePolicy(String policy) {
+        switch (policy.trim().toLowerCase()) {
+            case "never":
+                return FSYNC_NEVER;
+            case "interval":
+                return FSYNC_INTERVAL;
+            default:
+                return FSYNC_ON_CLOSE;
+        }
+    }
+
+    int getId() {
+        return id;
+    }
+
+    // A contiguous writer starting at position, for use by one thread
+    public Appender appender(long position) {
+        return new Appender(position);
+    }
+
+    //region Writer side
+    void writeNow(ByteBuffer data, long position) throws IOException {
+        while (data.hasRemaining())
+            position += channel.write(data, position);
+
+        if (fsyncPolicy == FSYNC_INTERVAL) {
+            unsyncedBytes += data.limit();
+
+            if (unsyncedBytes >= fsyncInterval) {
+                channel.force(false);
+                unsyncedBytes = 0;
+            }
+        }
+    }
+
+    void fail(IOException e) {
+        if (failure == null)
+            failure = e;
+    }
+
+    void markWritten(long position, int length) {
+        RangeSet ranges = writtenRanges;
+
+        if (ranges != null)
+            ranges.add(position, position + length);
+    }
+
+    void onWritten(int length, long nanos) {
+        bytesWritten.addAndGet(length);
+        writeNanos.addAndGet(nanos);
+        writeCount.incrementAndGet();
+
+        synchronized (drainLock) {
+            outstandingBytes -= length;
+            drainLock.notifyAll();
+        }
+    }
+    //endregion
+
+    private void submit(long position, ByteBuffer data) throws IOException {
+        if (failure != null) {
+            pool.release(data);
+            checkFailure();
+        }
+
+        synchronized (drainLock) {
+            outstandingBytes += data.remaining();
+        }
+
+        try {
+            writer.submit(this, position, data);
+        } catch (InterruptedException e) {
+            synchronized (drainLock) {
+                outstandingBytes -= data.remaining();
+            }
+
+            pool.release(data);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for disk");
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null)
+            throw new IOException("Write to disk failed", failure);
+    }
+
+    // Wait for everything handed to the writer so far to reach the file
+    public void drain() throws IOException {
+        synchronized (drainLock) {
+            while (outstandingBytes > 0) {
+                try {
+                    drainLock.wait(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for disk");
+                }
+            }
+        }
+
+        checkFailure();
+    }
+
+    public void truncate(long size) throws IOException {
+        drain();
+        channel.truncate(size);
+
+        if (size == 0 && writtenRanges != null)
+            writtenRanges.clear();
+    }
+
+    // Record what has actually reached the file, for readers of a file still being written
+    public void setWrittenRanges(RangeSet ranges) {
+        writtenRanges = ranges;
+    }
+
+    public RangeSet getWrittenRanges() {
+        return writtenRanges;
+    }
+
+    // Claim the free space and size the file up front so the filesystem
+    // can lay it out in one piece. Fails before any data is fetched when
+    // the device is too full.
+    public void preallocate(long size) throws IOException {
+        if (reservation != null)
+            reservation.close();
+
+        reservation = DiskSpace.reserve(path, size);
+
+        if (size > file.length())
+            file.setLength(size);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!channel.isOpen())
+            return;
+
+        try {
+            drain();
+
+            if (fsyncPolicy != FSYNC_NEVER)
+                channel.force(true);
+        } finally {
+            file.close();
+
+            if (reservation != null)
+                reservation.close();
+        }
+    }
+
+    //region Statistics
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    // Average time one block took to write on this file, kept apart from network time
+    public long getAverageWriteMicros() {
+        long count = writeCount.get();
+        return count == 0 ? 0 : writeNanos.get() / count / 1000;
+    }
+
+    public DiskWriter getWriter() {
+        return writer;
+    }
+    //endregion
+
+    public final class Appender {
+        private long position;
+        private long blockStart;
+        private ByteBuffer block = null;
+
+        private Appender(long position) {
+            this.position = position;
+            this.blockStart = position;
+        }
+
+        public void append(byte[] source, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (block == null) {
+                    // The first block only runs up to the next boundary so every later one is aligned.
+                    // Under memory pressure the pool may hand out less, the next block realigns.
+                    int size = (int) (blockSize - (position % blockSize));
+                    block = borrow(size);
+                    block.limit(Math.min(size, block.capacity()));
+                    blockStart = position;
+                }
+
+                int count = Math.min(length, block.remaining());
+                block.put(source, offset, count);
+
+                offset += count;
+                length -= count;
+                position += count;
+
+                if (!block.hasRemaining())
+                    flush();
+            }
+        }
+
+        public void flush() throws IOException {
+            if (block == null)
+                return;
+
+            ByteBuffer full = block;
+            block = null;
+            full.flip();
+
+            // The disk writer gives the block back to the pool once it is on disk
+            if (full.hasRemaining())
+                submit(blockStart, full);
+            else
+                pool.release(full);
+        }
+
+        // Drop what was collected but not flushed, for readers that give up on the file
+        public void discard() {
+            pool.release(block);
+            block = null;
+        }
+
+        private ByteBuffer borrow(int size) throws IOException {
+            try {
+                return pool.acquireForChannel(size, BufferPool.MEDIUM);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a buffer");
+            }
+        }
+
+        public long getPosition() {
+            return position;
+        }
+    }
+}
@@ -1,9 +1,37 @@
 package com.illusionist.ldm.ui;
 
-import com.illusionist.ldm.network.DataReceiveListener;
+import com.illusionist.ldm.control.ControlServer;
+import com.illusionist.ldm.manager.DownloadJob;
+import com.illusionist.ldm.manager.DownloadManager;
+import com.illusionist.ldm.manager.DownloadRequest;
+import com.illusionist.ldm.manager.ThroughputHistory;
+import com.illusionist.ldm.manager.TransferSchedule;
+import com.illusionist.ldm.manager.event.DownloadEvent;
+import com.illusionist.ldm.manager.event.DownloadEventListener;
+import com.illusionist.ldm.manager.event.JobAddedEvent;
+import com.illusionist.ldm.manager.event.JobRemovedEvent;
+import com.illusionist.ldm.manager.event.PostProcessEvent;
+import com.illusionist.ldm.manager.event.PostProcessFinishedEvent;
+import com.illusionist.ldm.manager.event.ProgressEvent;
+import com.illusionist.ldm.manager.event.QueuedEvent;
+import com.illusionist.ldm.manager.event.StateChangedEvent;
 import com.illusionist.ldm.network.FileDownloader;
+import com.illusionist.ldm.network.PeerCache;
+import com.illusionist.ldm.pipeline.ArchiveExtractor;
+import com.illusionist.ldm.pipeline.PostProcessStage;
+import com.illusionist.ldm.pipeline.PostProcessor;
+import com.illusionist.ldm.pipeline.VerifyStage;
+import com.illusionist.ldm.storage.BufferPool;
+import com.illusionist.ldm.storage.ContentStore;
 import com.illusionist.ldm.ui.dialog.DlgDownload;
+import com.illusionist.ldm.ui.dialog.DlgHistory;
+import com.illusionist.ldm.ui.dialog.DlgSchedule;
 import com.illusionist.ldm.ui.renderer.DownloadTableCellRenderer;
+import com.illusionist.ldm.ui.renderer.EtaCellRenderer;
+import com.illusionist.ldm.ui.renderer.JobProgress;
+import com.illusionist.ldm.ui.renderer.ThroughputCellRenderer;
+import com.illusionist.ldm.ui.renderer.ThroughputGraph;
+import com.illusionist.ldm.util.AppSettings;
 
 import javax.swing.*;
 import javax.swing.event.PopupMenuEvent;
@@ -11,31 +39,31 @@ import javax.swing.event.PopupMenuListener;
 import javax.swing.table.DefaultTableCellRenderer;
 import javax.swing.table.DefaultTableModel;
 import java.awt.*;
+import java.awt.datatransfer.StringSelection;
 import java.awt.event.ActionEvent;
 import java.awt.event.WindowEvent;
 import java.awt.event.WindowListener;
 import java.io.*;
 import java.nio.file.Paths;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.time.Duration;
-import java.time.Instant;
 import java.util.*;
 
-import static com.illusionist.ldm.util.StringFormatUtil.bytesToString;
-import static com.illusionist.ldm.util.StringFormatUtil.secondsToTime;
+import static com.illusionist.ldm.util.StringFormatUtil.appendRate;
+import static com.illusionist.ldm.util.StringFormatUtil.bytesToSize;
 
 public final class MainWindow extends MainWindowUI {
 
-    public final ArrayList<FileDownloader> downloadList = new ArrayList<>();
-
     private final int ID_COLUMN = 0;
     private final int STATUS_COLUMN = 2;
     private final int SPEED_COLUMN = 3;
     private final int ETA_COLUMN = 4;
 
-    private int availableId = 1;
     private final DefaultTableModel downloadTableData;
+    private final DownloadManager manager = DownloadManager.getInstance();
+
+    // Seconds averaged for the remaining time, a single second swings too much
+    private static final int ETA_AVERAGE_SECONDS = 5;
+
+    private final ThroughputGraph totalGraph = new ThroughputGraph();
 
     public MainWindow() {
         super("Little Download Manager");
@@ -49,6 +77,9 @@ public final class MainWindow extends MainWindowUI {
         JMenuItem addItem = new JMenuItem("Add Download");
         addItem.addActionListener(this::addDownload);
 
+        JMenuItem historyItem = new JMenuItem("History");
+        historyItem.addActionListener(this::showHistory);
+
         JMenuItem exitItem = new JMenuItem("Exit");
         //noinspection CodeBlock2Expr
         exitItem.addActionListener((ActionEvent e) -> {
@@ -56,13 +87,99 @@ public final class MainWindow extends MainWindowUI {
         });
 
         fileMenu.add(addItem);
+        fileMenu.add(historyItem);
         fileMenu.addSeparator();
         fileMenu.add(exitItem);
         menuBar.add(fileMenu);
 
+        JMenu optionsMenu = new JMenu("Options");
+        JCheckBoxMenuItem reuseItem = new JCheckBoxMenuItem("Reuse Local Copies By SHA1", ContentStore.getInstance().isEnabled());
+        reuseItem.addActionListener((ActionEvent e) -> {
+            ContentStore.getInstance().setEnabled(reuseItem.isSelected());
+            AppSettings.set(ContentStore.SETTING_ENABLED, reuseItem.isSelected());
+        });
+
+        JCheckBoxMenuItem shareItem = new JCheckBoxMenuItem("Share Completed Downloads With Peers", PeerCache.getInstance().isServing());
+        shareItem.addActionListener((ActionEvent e) -> {
+            PeerCache peers = PeerCache.getInstance();
+
+            if (shareItem.isSelected()) {
+                try {
+                    peers.startServing(AppSettings.getInt(PeerCache.SETTING_PORT, PeerCache.DEFAULT_PORT));
+                } catch (IOException ex) {
+                    shareItem.setSelected(false);
+                    JOptionPane.showMessageDialog(this, "Could not listen for peers: " + ex.getMessage(), "Peer Cache", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+            } else {
+                peers.stopServing();
+            }
+
+            AppSettings.set(PeerCache.SETTING_SERVE, shareItem.isSelected());
+        });
+
+        JCheckBoxMenuItem controlItem = new JCheckBoxMenuItem("Local Control API", ControlServer.getInstance().isRunning());
+        controlItem.addActionListener((ActionEvent e) -> {
+            ControlServer control = ControlServer.getInstance();
+
+            if (controlItem.isSelected()) {
+                try {
+                    control.start(AppSettings.getInt(ControlServer.SETTING_PORT, 0));
+                } catch (IOException ex) {
+                    controlItem.setSelected(false);
+                    JOptionPane.showMessageDialog(this, "Could not start the control API: " + ex.getMessage(), "Control API", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+            } else {
+                control.stop();
+            }
+
+            AppSettings.set(ControlServer.SETTING_ENABLED, controlItem.isSelected());
+        });
+
+        JCheckBoxMenuItem decompressItem = new JCheckBoxMenuItem("Decompress .gz After Download", AppSettings.getBoolean(PostProcessor.SETTING_DECOMPRESS, false));
+        decompressItem.addActionListener((ActionEvent e) -> AppSettings.set(PostProcessor.SETTING_DECOMPRESS, decompressItem.isSelected()));
+
+        JCheckBoxMenuItem unpackItem = new JCheckBoxMenuItem("Extract Archives After Download", AppSettings.getBoolean(PostProcessor.SETTING_UNPACK, false));
+        unpackItem.addActionListener((ActionEvent e) -> AppSettings.set(PostProcessor.SETTING_UNPACK, unpackItem.isSelected()));
+
+        JCheckBoxMenuItem keepArchiveItem = new JCheckBoxMenuItem("Keep Archives Extracted While Downloading", AppSettings.getBoolean(PostProcessor.SETTING_KEEP_STREAMED_ARCHIVE, true));
+        keepArchiveItem.addActionListener((ActionEvent e) -> AppSettings.set(PostProcessor.SETTING_KEEP_STREAMED_ARCHIVE, keepArchiveItem.isSelected()));
+
+        JCheckBoxMenuItem compressionItem = new JCheckBoxMenuItem("Request Compressed Transfers", AppSettings.getBoolean(FileDownloader.SETTING_ACCEPT_COMPRESSION, false));
+        compressionItem.addActionListener((ActionEvent e) -> AppSettings.set(FileDownloader.SETTING_ACCEPT_COMPRESSION, compressionItem.isSelected()));
+
+        JMenuItem scheduleItem = new JMenuItem("Transfer Schedule...");
+        scheduleItem.addActionListener(this::showSchedule);
+
+        JMenuItem memoryItem = new JMenuItem("Buffer Statistics");
+        memoryItem.addActionListener(this::showBufferStatistics);
+
+        optionsMenu.add(reuseItem);
+        optionsMenu.add(shareItem);
+        optionsMenu.add(controlItem);
+        optionsMenu.add(compressionItem);
+        optionsMenu.add(decompressItem);
+        optionsMenu.add(unpackItem);
+        optionsMenu.add(keepArchiveItem);
+        optionsMenu.addSeparator();
+        optionsMenu.add(scheduleItem);
+        optionsMenu.add(memoryItem);
+        menuBar.add(optionsMenu);
+
         setJMenuBar(menuBar);
 
-        setContentPane(contentPane);
+        // Everything downloading together, below the list
+        totalGraph.setHistory(manager.getThroughput());
+        totalGraph.setBackground(Color.white);
+        totalGraph.setPreferredSize(new Dimension(800, 48));
+        totalGraph.setBorder(BorderFactory.createMatteBorder(1, 0, 0, 0, Color.lightGray));
+
+        JPanel rootPane = new JPanel(new BorderLayout());
+        rootPane.add(contentPane, BorderLayout.CENTER);
+        rootPane.add(totalGraph, BorderLayout.SOUTH);
+
+        setContentPane(rootPane);
 
         String[] COLUMN_NAMES = {"#", "Filename", "Status", "Down Speed", "ETA"};
         downloadTableData = new DefaultTableModel(null, COLUMN_NAMES);
@@ -74,42 +191,45 @@ public final class MainWindow extends MainWindowUI {
         // Set custom cell renderer
         downloadTableView.getColumnModel().getColumn(2).setCellRenderer(new DownloadTableCellRenderer());
 
-        // Center cells 0, 3 and 4
+        // Center cell 0, the speed and ETA renderers center their own text
         DefaultTableCellRenderer centerRenderer = new DefaultTableCellRenderer();
         centerRenderer.setHorizontalAlignment(JLabel.CENTER);
 
         downloadTableView.getColumnModel().getColumn(ID_COLUMN).setCellRenderer(centerRenderer);
-        downloadTableView.getColumnModel().getColumn(SPEED_COLUMN).setCellRenderer(centerRenderer);
-        downloadTableView.getColumnModel().getColumn(ETA_COLUMN).setCellRenderer(centerRenderer);
+        downloadTableView.getColumnModel().getColumn(SPEED_COLUMN).setCellRenderer(new ThroughputCellRenderer());
+        downloadTableView.getColumnModel().getColumn(ETA_COLUMN).setCellRenderer(new EtaCellRenderer());
 
         JPopupMenu downloadPopup = getPopupMenu(downloadTableView);
 
         downloadTableView.setComponentPopupMenu(downloadPopup);
 
         addWindowListener(new MainWindowListener());
-    }
 
-    private void stopDownloading() {
-        for (FileDownloader download : downloadList) {
-            int status = download.getDownloadStatus();
+        manager.subscribe(new JobTableListener(), SwingUtilities::invokeLater);
 
-            if (status == FileDownloader.RUNNING || status == FileDownloader.PAUSED) {
-                download.stop();
-            }
-        }
+        // Graphs keep moving while nothing arrives, a stall shows up as a gap
+        new javax.swing.Timer(1000, this::updateThroughput).start();
     }
 
-    private int getNumActiveDownloads() {
-        int numActiveDownloads = 0;
+    private void updateThroughput(ActionEvent e) {
+        ThroughputHistory throughput = manager.getThroughput();
 
-        for (FileDownloader download : downloadList) {
-            int status = download.getDownloadStatus();
+        StringBuilder text = totalGraph.resetText().append("All downloads: ");
 
-            if (status == FileDownloader.RUNNING || status == FileDownloader.PAUSED)
-                numActiveDownloads++;
+        appendRate(text, throughput.getBytesPerSecond()).append(", peak ");
+        appendRate(text, throughput.getPeak(throughput.getCapacity())).append(" over ").append(throughput.getCapacity() / 60).append(" min");
+
+        TransferSchedule.Profile profile = manager.getActiveProfile();
+
+        if (profile.getBytesPerSecond() > 0) {
+            text.append(", limited to ");
+            appendRate(text, profile.getBytesPerSecond()).append(" (").append(profile.getName()).append(')');
         }
 
-        return numActiveDownloads;
+        totalGraph.repaint();
+
+        if (downloadTableData.getRowCount() > 0)
+            downloadTableView.repaint();
     }
 
     private JPopupMenu getPopupMenu(JTable downloadTable) {
@@ -122,27 +242,27 @@ public final class MainWindow extends MainWindowUI {
 
         JMenuItem showItem = new JMenuItem("Show In Folder");
 
+        JMenuItem streamItem = new JMenuItem("Copy Stream Link");
+
         // Add Events
         pauseItem.addActionListener((ActionEvent e) -> {
-            FileDownloader dl = getDownloaderFromIndex(downloadTable.getSelectedRow());
+            DownloadJob job = getJobFromIndex(downloadTable.getSelectedRow());
 
-            if (dl != null) {
-                if (dl.getDownloadStatus() == FileDownloader.RUNNING) {
-                    dl.pause();
-                } else if (dl.getDownloadStatus() == FileDownloader.PAUSED) {
-                    dl.start();
+            if (job != null) {
+                if (job.getDownloadStatus() == FileDownloader.RUNNING || job.isWaiting()) {
+                    manager.pause(job.getId());
                 } else {
-                    // Try and restart the download
-                    dl.start();
+                    // Resumes a paused download or tries to restart it
+                    manager.resume(job.getId());
                 }
             }
         });
 
         showItem.addActionListener((ActionEvent e) -> {
-            FileDownloader dl = getDownloaderFromIndex(downloadTable.getSelectedRow());
+            DownloadJob job = getJobFromIndex(downloadTable.getSelectedRow());
 
-            if (dl != null) {
-                File file = new File(dl.getFilePath()).getParentFile();
+            if (job != null) {
+                File file = new File(job.getFilePath()).getParentFile();
                 Desktop desktop = Desktop.getDesktop();
                 try {
                     desktop.open(file);
@@ -152,33 +272,22 @@ public final class MainWindow extends MainWindowUI {
             }
         });
 
-        stopItem.addActionListener((ActionEvent e) -> {
-            int rowIndex = downloadTable.getSelectedRow();
-            FileDownloader dl = getDownloaderFromIndex(rowIndex);
-
-            if (dl != null) {
-                int status = dl.getDownloadStatus();
-                int downloadId = (int) dl.getUserData();
-
-                if (status == FileDownloader.RUNNING || status == FileDownloader.PAUSED) {
-                    dl.stop();
-                } else {
-                    int removeIndex = -1;
+        streamItem.addActionListener((ActionEvent e) -> {
+            DownloadJob job = getJobFromIndex(downloadTable.getSelectedRow());
 
-                    for (int i = 0; i < downloadList.size(); i++) {
-                        int currentId = (int) downloadList.get(i).getUserData();
-
-                        if (currentId == downloadId) {
-                            removeIndex = i;
-                            break;
-                        }
-                    }
+            if (job != null && job.getStreamUri() != null) {
+                StringSelection link = new StringSelection(job.getStreamUri().toString());
+                Toolkit.getDefaultToolkit().getSystemClipboard().setContents(link, link);
+            }
+        });
 
-                    downloadTableData.removeRow(rowIndex);
+        stopItem.addActionListener((ActionEvent e) -> {
+            DownloadJob job = getJobFromIndex(downloadTable.getSelectedRow());
 
-                    if (removeIndex != -1)
-                        downloadList.remove(removeIndex);
-                }
+            if (job != null) {
+                // The row goes away once the manager reports the job removed
+                if (!manager.cancel(job.getId()))
+                    manager.remove(job.getId());
             }
         });
 
@@ -186,65 +295,45 @@ public final class MainWindow extends MainWindowUI {
         downloadPopup.add(pauseItem);
         downloadPopup.addSeparator();
         downloadPopup.add(showItem);
+        downloadPopup.add(streamItem);
         downloadPopup.addSeparator();
         downloadPopup.add(stopItem);
 
         // Create Listener
-        downloadPopup.addPopupMenuListener(new DownloadMenuListener(downloadTable, downloadPopup, stopItem, pauseItem));
+        downloadPopup.addPopupMenuListener(new DownloadMenuListener(downloadTable, downloadPopup, stopItem, pauseItem, streamItem));
 
         return downloadPopup;
     }
 
-    private boolean verifyDownload(String filepath, String hash, int rowIndex) {
-        boolean result = false;
-
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-
-            File file = new File(filepath);
-
-            // If this path does not exist or is not a file fail
-            if (!file.exists() || !file.isFile())
-                return false;
-
-            try (FileInputStream inputStream = new FileInputStream(file)) {
-
-                int bytesRead = 0;
-                int totalBytesRead = 0;
-                long fileSizeInBytes = file.length();
-                byte[] buffer = new byte[16384];
+    private void showBufferStatistics(ActionEvent e) {
+        BufferPool pool = BufferPool.getInstance();
 
-                while (bytesRead != -1) {
-                    bytesRead = inputStream.read(buffer);
+        String message = String.format("In use: %s of %s%nAllocated: %s%nHit rate: %.1f%%%nSmaller than asked: %d%nWaited for memory: %d",
+                bytesToSize(pool.getBytesInUse()),
+                bytesToSize(pool.getMaxBytes()),
+                bytesToSize(pool.getBytesAllocated()),
+                pool.getHitRate() * 100,
+                pool.getDowngrades(),
+                pool.getWaits());
 
-                    if (bytesRead > 0) {
-                        md.update(buffer, 0, bytesRead);
-                        totalBytesRead += bytesRead;
-                    }
-
-                    if (rowIndex != -1) {
-                        long percent = (long) (((double) totalBytesRead / (double) fileSizeInBytes) * 100);
-                        updateCell(rowIndex, STATUS_COLUMN, String.format("Verifying:%d", percent));
-                    }
-                }
-
-                byte[] hashBytes = md.digest();
-                String computedHash = HexFormat.of().formatHex(hashBytes);
-
-                if (hash.equalsIgnoreCase(computedHash))
-                    result = true;
-            }
+        JOptionPane.showMessageDialog(this, message, "Buffer Statistics", JOptionPane.INFORMATION_MESSAGE);
+    }
 
-        } catch (NoSuchAlgorithmException | IOException e) {
-            throw new RuntimeException(e);
-        }
+    private void showSchedule(ActionEvent e) {
+        DlgSchedule dialog = new DlgSchedule(this);
+        dialog.pack();
+        dialog.setLocationRelativeTo(this);
+        dialog.setVisible(true);
 
-        return result;
+        if (dialog.getResult())
+            manager.applySchedule();
     }
 
-    @SuppressWarnings("unused")
-    private boolean verifyDownload(String filepath, String hash) {
-        return verifyDownload(filepath, hash, -1);
+    private void showHistory(ActionEvent e) {
+        DlgHistory dialog = new DlgHistory(this);
+        dialog.pack();
+        dialog.setLocationRelativeTo(this);
+        dialog.setVisible(true);
     }
 
     public void addDownload(ActionEvent e) {
@@ -254,138 +343,218 @@ public final class MainWindow extends MainWindowUI {
         dialog.setVisible(true);
 
         if (dialog.getResult()) {
-            FileDownloader downloader = new FileDownloader();
-
-            downloader.setDownloadUrl(dialog.getUrl());
-            downloader.setFilePath(Paths.get(dialog.getDirectory(), dialog.getFilename()).toString());
+            DownloadRequest request = new DownloadRequest();
+
+            request.setUrl(dialog.getUrl());
+            request.setMirrorUrls(dialog.getMirrorUrls());
+            request.setFilepath(Paths.get(dialog.getDirectory(), dialog.getFilename()).toString());
+            request.setConditional(dialog.getOnlyIfModified());
+            request.setStartPaused(dialog.getStartPaused());
+            request.setStreaming(dialog.getStreamWhileDownloading() && !dialog.getExtractWhileDownloading());
+            request.setOffPeakOnly(dialog.getOffPeakOnly());
+            request.setRanges(dialog.getRanges());
+
+            // Slices of a file cannot be checked, unpacked or played
+            boolean whole = request.getRanges() == null;
+
+            if (!whole)
+                request.setStreaming(false);
+
+            if (whole && dialog.getVerify())
+                request.setExpectedHash(dialog.getSHA1(), true);
+
+            if (whole && dialog.getExtractWhileDownloading()) {
+                request.setExtractDirectory(
+                        Paths.get(dialog.getDirectory(), ArchiveExtractor.stripExtension(dialog.getFilename())).toString(),
+                        AppSettings.getBoolean(PostProcessor.SETTING_KEEP_STREAMED_ARCHIVE, true));
+            }
 
-            int downloadId = availableId++;
+            manager.submit(request);
+        }
+    }
 
-            downloader.setUserData(downloadId);
+    public int getRowIndex(long id) {
+        int rowCount = downloadTableData.getRowCount();
 
-            Object[] downloadData = {downloadId, dialog.getFilename(), dialog.getStartPaused() ? "Paused:0" : "Starting:0", "0kB", "∞"};
+        // Compared unboxed, boxing id would make an object per row on every update
+        for (int i = 0; i < rowCount; i++) {
+            if ((long) downloadTableData.getValueAt(i, ID_COLUMN) == id) {
+                return i;
+            }
+        }
 
-            downloadTableData.addRow(downloadData);
+        return -1;
+    }
 
-            downloader.setOnDownloadRunning((ActionEvent ex) -> {
-                int rowIndex = getRowIndex(downloadId);
-                updateCell(rowIndex, STATUS_COLUMN, "Downloading:0");
-            });
+    public DownloadJob getJobFromIndex(int rowIndex) {
+        if (rowIndex < 0)
+            return null;
 
-            downloader.setOnDownloadCompleted((ActionEvent ex) -> {
-                int rowIndex = getRowIndex(downloadId);
+        return manager.getJob((long) downloadTableData.getValueAt(rowIndex, ID_COLUMN));
+    }
 
-                updateCell(rowIndex, SPEED_COLUMN, "");
-                updateCell(rowIndex, ETA_COLUMN, "");
+    // The numbers behind the status, speed and ETA cells of a row, null for no row
+    private JobProgress getProgress(int row) {
+        return row == -1 ? null : (JobProgress) downloadTableData.getValueAt(row, STATUS_COLUMN);
+    }
 
-                if (dialog.getVerify()) {
+    // Fields changed in place, the renderers write the new text when they paint
+    private void updateRow(int row) {
+        if (row != -1)
+            downloadTableData.fireTableRowsUpdated(row, row);
+    }
 
-                    updateCell(rowIndex, STATUS_COLUMN, "Verifying:-1");
+    private void createUIComponents() {
+        // TODO: place custom component creation code here
+    }
 
-                    if (verifyDownload(downloader.getFilePath(), dialog.getSHA1(), rowIndex)) {
-                        updateCell(rowIndex, STATUS_COLUMN, "Complete:-1");
-                    } else {
-                        updateCell(rowIndex, STATUS_COLUMN, "Checksum Failed!:-1");
-                    }
-                } else {
-                    updateCell(rowIndex, STATUS_COLUMN, "Complete:-1");
-                }
-            });
+    // Subscribed with the event dispatch thread as its executor, so everything here runs there
+    private class JobTableListener implements DownloadEventListener {
+        @Override
+        public void onEvent(DownloadEvent event) {
+            DownloadJob job = event.getJob();
+
+            if (event instanceof ProgressEvent progress)
+                onProgress(job, progress.getBytesRecv(), progress.getBytesTotal());
+            else if (event instanceof StateChangedEvent stateChanged)
+                onStateChanged(job, stateChanged.getState());
+            else if (event instanceof QueuedEvent queued)
+                onQueued(job, queued.getOffPeak());
+            else if (event instanceof PostProcessEvent postProcess)
+                onPostProcess(job, postProcess.getStage(), postProcess.getPercent());
+            else if (event instanceof PostProcessFinishedEvent finished)
+                onPostProcessFinished(job, finished.getFailedStage());
+            else if (event instanceof JobAddedEvent)
+                onJobAdded(job);
+            else if (event instanceof JobRemovedEvent)
+                onJobRemoved(job);
+        }
 
-            downloader.setOnDownloadPaused((ActionEvent ex) -> {
-                int rowIndex = getRowIndex(downloadId);
+        private void onJobAdded(DownloadJob job) {
+            String filename = Paths.get(job.getFilePath()).getFileName().toString();
+            JobProgress progress = new JobProgress(job.getRequest().getStartPaused() ? "Paused" : "Starting", job.getThroughput());
 
-                updateCell(rowIndex, ETA_COLUMN, "∞");
-                updateCell(rowIndex, SPEED_COLUMN, "0 B/s");
-                updateCell(rowIndex, STATUS_COLUMN, "Paused:-2");
-            });
+            progress.setEta(-1);
 
-            downloader.setOnDownloadStopped((ActionEvent ex) -> {
-                int rowIndex = getRowIndex(downloadId);
+            // Status, speed and ETA all render from the same numbers
+            downloadTableData.addRow(new Object[] {job.getId(), filename, progress, progress, progress});
+        }
 
-                updateCell(rowIndex, ETA_COLUMN, "");
-                updateCell(rowIndex, SPEED_COLUMN, "");
-                updateCell(rowIndex, STATUS_COLUMN, "Stopped:-1");
-            });
+        private void onJobRemoved(DownloadJob job) {
+            int rowIndex = getRowIndex(job.getId());
 
-            // 1st start, 2nd end
-            final long[] bytesPerSecond = {0, 0};
-            final Instant[] lastTime = {Instant.now()};
+            if (rowIndex != -1)
+                downloadTableData.removeRow(rowIndex);
+        }
 
-            //noinspection Convert2Lambda
-            downloader.setOnDataRecv(new DataReceiveListener() {
-                @Override
-                public void onDataReceive(FileDownloader source, long bytesRecv, long bytesTotal) {
-                    int rowIndex = getRowIndex(downloadId);
+        private void onStateChanged(DownloadJob job, int state) {
+            int rowIndex = getRowIndex(job.getId());
+            JobProgress progress = getProgress(rowIndex);
+
+            if (progress == null)
+                return;
+
+            switch (state) {
+                case FileDownloader.RUNNING:
+                    progress.setState("Downloading");
+                    break;
+                case FileDownloader.PAUSED:
+                    progress.setEta(-1);
+                    progress.setSpeed(0, 0);
+                    progress.setState("Paused");
+                    break;
+                case FileDownloader.STOPPED:
+                    progress.clearEta();
+                    progress.clearSpeed();
+                    progress.setState("Stopped", -1);
+                    break;
+                case FileDownloader.ERROR:
+                    progress.clearEta();
+                    progress.clearSpeed();
+                    progress.setState("Failed!", -1);
+                    break;
+                case FileDownloader.COMPLETE:
+                    progress.clearSpeed();
+                    progress.clearEta();
+
+                    if (job.getDownloader().getNotModified())
+                        progress.setState("Up To Date", -1);
+                    else if (job.getPostProcessJob() != null)
+                        progress.setState(job.getPostProcessJob().getStages().get(0).getName(), -1);
+                    else
+                        progress.setState("Complete", -1);
+                    break;
+            }
 
-                    int percent = (int) (((double) bytesRecv / (double) bytesTotal) * 100);
+            updateRow(rowIndex);
+        }
 
-                    // Calculate a time here...
-                    if (Duration.between(lastTime[0], Instant.now()).getSeconds() > 0) {
-                        lastTime[0] = Instant.now();
+        private void onQueued(DownloadJob job, boolean offPeak) {
+            int rowIndex = getRowIndex(job.getId());
+            JobProgress progress = getProgress(rowIndex);
 
-                        bytesPerSecond[0] = bytesRecv - bytesPerSecond[1];
+            if (progress == null)
+                return;
 
-                        bytesPerSecond[1] = bytesRecv;
+            progress.clearEta();
+            progress.clearSpeed();
+            progress.setState(offPeak ? "Waiting For Off-Peak" : "Queued");
 
-                        // now find what remains
-                        long bytesLeft = bytesTotal - bytesRecv;
+            updateRow(rowIndex);
+        }
 
-                        // use our bytesPerSecond[0] to determine how long this operation would take in sections
-                        if (bytesPerSecond[0] != 0) {
-                            long seconds = bytesLeft / bytesPerSecond[0];
+        // Runs for every progress event, so it only sets numbers and formats nothing
+        private void onProgress(DownloadJob job, long bytesRecv, long bytesTotal) {
+            int rowIndex = getRowIndex(job.getId());
+            JobProgress progress = getProgress(rowIndex);
+            FileDownloader source = job.getDownloader();
 
-                            updateCell(rowIndex, SPEED_COLUMN, bytesToString(bytesPerSecond[0]));
-                            updateCell(rowIndex, ETA_COLUMN, secondsToTime(seconds));
-                        } else {
-                            updateCell(rowIndex, SPEED_COLUMN, bytesToString(0));
-                            updateCell(rowIndex, ETA_COLUMN, "∞");
-                        }
-                    }
+            if (progress == null)
+                return;
 
-                    updateCell(rowIndex, STATUS_COLUMN, String.format("Downloading:%d", percent));
-                }
-            });
+            ThroughputHistory throughput = job.getThroughput();
+            long bytesPerSecond = throughput.getBytesPerSecond();
+            long average = throughput.getAverage(ETA_AVERAGE_SECONDS);
 
-            if (!dialog.getStartPaused()) {
-                downloader.start();
-            }
+            double ratio = 0;
 
-            downloadList.add(downloader);
-        }
-    }
+            if (bytesPerSecond != 0 && source.getEncoded() && source.getWireBytes() > 0)
+                ratio = (double) source.getDecodedBytes() / source.getWireBytes();
 
-    public int getRowIndex(int id) {
-        int rowCount = downloadTableData.getRowCount();
+            progress.setSpeed(bytesPerSecond, ratio);
+            progress.setEta(average != 0 ? (bytesTotal - bytesRecv) / average : -1);
+            progress.setState("Downloading", (int) (((double) bytesRecv / (double) bytesTotal) * 100));
 
-        for (int i = 0; i < rowCount; i++) {
-            if (Objects.equals(downloadTableView.getValueAt(i, 0), id)) {
-                return i;
-            }
+            updateRow(rowIndex);
         }
 
-        return -1;
-    }
-
-    public FileDownloader getDownloaderFromIndex(int rowIndex) {
-        int downloadId = (int) downloadTableData.getValueAt(rowIndex, ID_COLUMN);
+        private void onPostProcess(DownloadJob job, PostProcessStage stage, int percent) {
+            int rowIndex = getRowIndex(job.getId());
+            JobProgress progress = getProgress(rowIndex);
 
-        for (FileDownloader fileDownloader : downloadList) {
-            int id = (int) fileDownloader.getUserData();
+            if (progress == null)
+                return;
 
-            if (id == downloadId)
-                return fileDownloader;
+            progress.setState(stage.getName(), percent);
+            updateRow(rowIndex);
         }
 
-        return null;
-    }
+        private void onPostProcessFinished(DownloadJob job, PostProcessStage failedStage) {
+            int rowIndex = getRowIndex(job.getId());
+            JobProgress progress = getProgress(rowIndex);
 
-    public void updateCell(int row, int column, Object value) {
-        downloadTableData.setValueAt(value, row, column);
-    }
+            if (progress == null)
+                return;
 
-    private void createUIComponents() {
-        // TODO: place custom component creation code here
+            if (failedStage == null)
+                progress.setState("Complete", -1);
+            else if (failedStage instanceof VerifyStage)
+                progress.setState("Checksum Failed!", -1);
+            else
+                progress.setState(failedStage.getName() + " Failed!", -1);
+
+            updateRow(rowIndex);
+        }
     }
 
     private class MainWindowListener implements WindowListener {
@@ -395,12 +564,12 @@ public final class MainWindow extends MainWindowUI {
 
         @Override
         public void windowClosing(WindowEvent e) {
-            if (getNumActiveDownloads() > 0) {
+            if (manager.getActiveCount() > 0) {
                 int option = JOptionPane.showConfirmDialog(
                         contentPane, "There are incomplete downloads are you sure you want to exit?", "Confirm Exit", JOptionPane.YES_NO_OPTION);
 
                 if (option == JOptionPane.YES_OPTION) {
-                    stopDownloading();
+                    manager.cancelAll();
                     setDefaultCloseOperation(EXIT_ON_CLOSE);//yes
 
                 } else {
@@ -437,12 +606,14 @@ public final class MainWindow extends MainWindowUI {
         private final JPopupMenu downloadPopup;
         private final JMenuItem stopItem;
         private final JMenuItem pauseItem;
+        private final JMenuItem streamItem;
 
-        public DownloadMenuListener(JTable downloadTable, JPopupMenu downloadPopup, JMenuItem stopItem, JMenuItem pauseItem) {
+        public DownloadMenuListener(JTable downloadTable, JPopupMenu downloadPopup, JMenuItem stopItem, JMenuItem pauseItem, JMenuItem streamItem) {
             this.downloadTable = downloadTable;
             this.downloadPopup = downloadPopup;
             this.stopItem = stopItem;
             this.pauseItem = pauseItem;
+            this.streamItem = streamItem;
         }
 
         @Override
@@ -453,19 +624,21 @@ public final class MainWindow extends MainWindowUI {
                 public void run() {
                     int rowAtPoint = downloadTable.rowAtPoint(SwingUtilities.convertPoint(downloadPopup, new Point(0, 0), downloadTable));
                     if (rowAtPoint > -1) {
-                        FileDownloader dl = getDownloaderFromIndex(rowAtPoint);
+                        DownloadJob job = getJobFromIndex(rowAtPoint);
 
-                        if (dl != null) {
-                            if (dl.getDownloadStatus() == FileDownloader.RUNNING) {
+                        if (job != null) {
+                            if (job.getDownloadStatus() == FileDownloader.RUNNING || job.isWaiting()) {
                                 pauseItem.setText("Pause");
                                 stopItem.setText("Stop");
-                            } else if (dl.getDownloadStatus() == FileDownloader.PAUSED) {
+                            } else if (job.getDownloadStatus() == FileDownloader.PAUSED) {
                                 pauseItem.setText("Resume");
                                 stopItem.setText("Stop");
                             } else {
                                 pauseItem.setText("Restart");
                                 stopItem.setText("Remove");
                             }
+
+                            streamItem.setEnabled(job.getStreamUri() != null);
                         }
 
                         downloadTable.setRowSelectionInterval(rowAtPoint, rowAtPoint);
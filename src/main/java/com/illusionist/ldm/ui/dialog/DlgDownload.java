@@ -1,5 +1,10 @@
 package com.illusionist.ldm.ui.dialog;
 
+import com.illusionist.ldm.network.MetalinkParser;
+import com.illusionist.ldm.network.RangeFetcher;
+import com.illusionist.ldm.network.ValidatorStore;
+import com.illusionist.ldm.pipeline.ArchiveExtractor;
+
 import javax.swing.*;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
@@ -13,9 +18,11 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Paths;
+import java.util.List;
 
 public class DlgDownload extends DlgDownloadUI {
     private boolean dialogResult = false;
+    private boolean onlyIfModified = false;
 
     public DlgDownload() {
         setContentPane(contentPane);
@@ -86,16 +93,36 @@ public class DlgDownload extends DlgDownloadUI {
         pathField.setText(home + "\\Downloads");
 
         setTitle("Add New Download");
-        setPreferredSize(new Dimension(400, 315));
+        setPreferredSize(new Dimension(400, 360));
         setResizable(false);
     }
 
     private void onOK() {
+        try {
+            getRanges();
+        } catch (IllegalArgumentException e) {
+            JOptionPane.showMessageDialog(contentPane, "Byte ranges are written like 0-1023, 4096- or -65536.",
+                    "Byte Ranges", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
         dialogResult = true;
 
+        onlyIfModified = false;
+
         File dlFile = Paths.get(getDirectory(), getFilename()).toFile();
 
-        if (dlFile.exists()) {
+        if (dlFile.exists() && ValidatorStore.getInstance().getMatching(getUrl(), dlFile.getPath()) != null) {
+            // We fetched this exact url into this file before, the server can tell us if it changed
+            int option = JOptionPane.showConfirmDialog(
+                    contentPane, "File was already downloaded from this URL.\nOnly download again if it changed on the server?",
+                    "Confirm", JOptionPane.YES_NO_CANCEL_OPTION);
+
+            if (option == JOptionPane.YES_OPTION)
+                onlyIfModified = true;
+            else if (option != JOptionPane.NO_OPTION)
+                dialogResult = false;
+        } else if (dlFile.exists()) {
             // Prompt it here
             int option = JOptionPane.showConfirmDialog(
                     contentPane, "File already exists overwrite?", "Confirm", JOptionPane.YES_NO_OPTION);
@@ -127,8 +154,20 @@ public class DlgDownload extends DlgDownloadUI {
         return dialogResult;
     }
 
+    // The field takes several whitespace separated mirrors of the same file, the first one is the url
     public String getUrl() {
-        return urlField.getText();
+        String[] urls = getUrls();
+        return urls.length == 0 ? "" : urls[0];
+    }
+
+    public List<String> getMirrorUrls() {
+        String[] urls = getUrls();
+        return urls.length < 2 ? List.of() : List.of(urls).subList(1, urls.length);
+    }
+
+    private String[] getUrls() {
+        String text = urlField.getText().strip();
+        return text.isEmpty() ? new String[0] : text.split("\\s+");
     }
 
     public String getFilename() {
@@ -147,14 +186,43 @@ public class DlgDownload extends DlgDownloadUI {
         return useSHA1CheckBox.isSelected();
     }
 
+    // Only archives we know how to read can be unpacked on the fly
+    public boolean getExtractWhileDownloading() {
+        return extractWhileDownloadingCheckBox.isSelected() && ArchiveExtractor.isArchive(getFilename());
+    }
+
+    public boolean getStreamWhileDownloading() {
+        return streamWhileDownloadingCheckBox.isSelected();
+    }
+
+    public boolean getOffPeakOnly() {
+        return offPeakOnlyCheckBox.isSelected();
+    }
+
+    public boolean getOnlyIfModified() {
+        return onlyIfModified;
+    }
+
+    // Empty for the whole file
+    public List<RangeFetcher.ByteRange> getRanges() {
+        return RangeFetcher.parse(rangesField.getText());
+    }
+
     public String getSHA1() {
         return sha1Field.getText();
     }
 
     public static String getFileNameFromURI(String uriString) {
         try {
-            URI uri = new URI(uriString);
-            return Paths.get(uri.getPath()).getFileName().toString();
+            String[] urls = uriString.strip().split("\\s+");
+            URI uri = new URI(urls[0]);
+            String filename = Paths.get(uri.getPath()).getFileName().toString();
+
+            // file.iso.meta4 describes file.iso
+            if (MetalinkParser.isMetalink(filename) && filename.lastIndexOf('.') > 0)
+                filename = filename.substring(0, filename.lastIndexOf('.'));
+
+            return filename;
         } catch (URISyntaxException | InvalidPathException e) {
             return "";
         }
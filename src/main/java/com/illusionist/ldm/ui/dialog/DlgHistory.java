@@ -0,0 +1,225 @@
+package com.illusionist.ldm.ui.dialog;
+
+import com.illusionist.ldm.storage.HistoryEntry;
+import com.illusionist.ldm.storage.HistoryStore;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.awt.*;
+import java.awt.datatransfer.StringSelection;
+import java.awt.event.ActionEvent;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.illusionist.ldm.util.StringFormatUtil.bytesToSize;
+
+// Browses the download history. The table only ever holds the pages
+// that were looked at, so scrolling through a million entries reads
+// what is on screen and nothing else.
+public final class DlgHistory extends JDialog {
+    private static final String[] STATUS_NAMES = {"Completed", "Failed", "Stopped"};
+    private static final String[] SINCE_NAMES = {"Any Time", "Today", "Last 7 Days", "Last 30 Days"};
+    private static final long[] SINCE_MILLIS = {-1, 24L * 60 * 60 * 1000, 7L * 24 * 60 * 60 * 1000, 30L * 24 * 60 * 60 * 1000};
+
+    private final HistoryStore store = HistoryStore.getInstance();
+    private final HistoryTableModel model = new HistoryTableModel();
+
+    private final JTextField searchField = new JTextField(30);
+    private final JComboBox<String> statusBox = new JComboBox<>();
+    private final JComboBox<String> sinceBox = new JComboBox<>(SINCE_NAMES);
+    private final JLabel countLabel = new JLabel();
+    private final JTable table = new JTable(model);
+
+    public DlgHistory(Frame owner) {
+        super(owner, "Download History", false);
+
+        statusBox.addItem("Any Status");
+
+        for (String name : STATUS_NAMES)
+            statusBox.addItem(name);
+
+        JButton searchButton = new JButton("Search");
+        searchButton.addActionListener(this::search);
+        searchField.addActionListener(this::search);
+        statusBox.addActionListener(this::search);
+        sinceBox.addActionListener(this::search);
+        searchField.setToolTipText("Exact URL or SHA-1, empty for everything");
+
+        JPanel searchPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        searchPanel.add(new JLabel("URL or SHA-1:"));
+        searchPanel.add(searchField);
+        searchPanel.add(statusBox);
+        searchPanel.add(sinceBox);
+        searchPanel.add(searchButton);
+
+        table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        table.setComponentPopupMenu(getPopupMenu());
+        table.getColumnModel().getColumn(0).setPreferredWidth(130);
+        table.getColumnModel().getColumn(1).setPreferredWidth(200);
+        table.getColumnModel().getColumn(4).setPreferredWidth(300);
+
+        JPanel contentPane = new JPanel(new BorderLayout());
+        contentPane.add(searchPanel, BorderLayout.NORTH);
+        contentPane.add(new JScrollPane(table), BorderLayout.CENTER);
+        contentPane.add(countLabel, BorderLayout.SOUTH);
+
+        setContentPane(contentPane);
+        setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+        setPreferredSize(new Dimension(900, 500));
+
+        search(null);
+    }
+
+    private JPopupMenu getPopupMenu() {
+        JPopupMenu popup = new JPopupMenu();
+
+        JMenuItem copyItem = new JMenuItem("Copy URL");
+        copyItem.addActionListener((ActionEvent e) -> {
+            HistoryEntry entry = model.getEntry(table.getSelectedRow());
+
+            if (entry != null)
+                Toolkit.getDefaultToolkit().getSystemClipboard().setContents(new StringSelection(entry.getUrl()), null);
+        });
+
+        JMenuItem showItem = new JMenuItem("Show In Folder");
+        showItem.addActionListener((ActionEvent e) -> {
+            HistoryEntry entry = model.getEntry(table.getSelectedRow());
+
+            if (entry == null)
+                return;
+
+            File folder = new File(entry.getFilePath()).getParentFile();
+
+            try {
+                Desktop.getDesktop().open(folder);
+            } catch (IOException | IllegalArgumentException ex) {
+                JOptionPane.showMessageDialog(this, "Cannot open " + folder, "Download History", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+
+        popup.add(copyItem);
+        popup.add(showItem);
+        return popup;
+    }
+
+    private void search(ActionEvent e) {
+        long started = System.nanoTime();
+        String text = searchField.getText().trim();
+        int status = statusBox.getSelectedIndex() - 1;
+        long since = SINCE_MILLIS[sinceBox.getSelectedIndex()];
+        long from = since == -1 ? Long.MIN_VALUE : System.currentTimeMillis() - since;
+
+        int[] rows = null;
+
+        try {
+            if (text.matches("[0-9a-fA-F]{40}"))
+                rows = store.findByHash(text);
+            else if (!text.isEmpty())
+                rows = store.findByUrl(text);
+
+            if (rows != null || status != -1 || since != -1)
+                rows = store.filter(rows, from, Long.MAX_VALUE, status);
+        } catch (IOException ex) {
+            rows = new int[0];
+        }
+
+        model.setRows(rows);
+
+        long millis = (System.nanoTime() - started) / 1_000_000;
+        countLabel.setText(String.format(" %d of %d entries (%d ms)", model.getRowCount(), store.getCount(), millis));
+    }
+
+    // Rows are fetched a page at a time and only the last few pages are kept
+    private final class HistoryTableModel extends AbstractTableModel {
+        private static final int PAGE_SIZE = 100;
+        private static final int CACHED_PAGES = 8;
+
+        private final String[] columnNames = {"Finished", "Filename", "Status", "Size", "URL", "SHA-1"};
+        private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+
+        private final LinkedHashMap<Integer, HistoryEntry[]> pages = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, HistoryEntry[]> eldest) {
+                return size() > CACHED_PAGES;
+            }
+        };
+
+        // Entry numbers of a search, or null for everything up to newest
+        private int[] rows = null;
+        private int newest = -1;
+
+        private void setRows(int[] rows) {
+            this.rows = rows;
+            newest = store.getCount() - 1;
+            pages.clear();
+            fireTableDataChanged();
+        }
+
+        private HistoryEntry getEntry(int row) {
+            if (row < 0 || row >= getRowCount())
+                return null;
+
+            int page = row / PAGE_SIZE;
+            HistoryEntry[] entries = pages.get(page);
+
+            if (entries == null) {
+                try {
+                    if (rows == null)
+                        entries = store.getBackwards(newest - page * PAGE_SIZE, PAGE_SIZE);
+                    else
+                        entries = store.get(rows, page * PAGE_SIZE, PAGE_SIZE);
+                } catch (IOException e) {
+                    return null;
+                }
+
+                pages.put(page, entries);
+            }
+
+            int offset = row - page * PAGE_SIZE;
+            return offset < entries.length ? entries[offset] : null;
+        }
+
+        @Override
+        public int getRowCount() {
+            return rows == null ? newest + 1 : rows.length;
+        }
+
+        @Override
+        public int getColumnCount() {
+            return columnNames.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return columnNames[column];
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            HistoryEntry entry = getEntry(row);
+
+            if (entry == null)
+                return "";
+
+            switch (column) {
+                case 0:
+                    return dateFormat.format(new Date(entry.getFinishedAt()));
+                case 1:
+                    return Paths.get(entry.getFilePath()).getFileName().toString();
+                case 2:
+                    return STATUS_NAMES[entry.getStatus()];
+                case 3:
+                    return entry.getSize() > 0 ? bytesToSize(entry.getSize()) : "";
+                case 4:
+                    return entry.getUrl();
+                default:
+                    return entry.getHash() == null ? "" : entry.getHash();
+            }
+        }
+    }
+}
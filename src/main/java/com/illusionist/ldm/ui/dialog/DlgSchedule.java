@@ -0,0 +1,152 @@
+package com.illusionist.ldm.ui.dialog;
+
+import com.illusionist.ldm.manager.TransferSchedule;
+
+import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.util.ArrayList;
+
+// Edits the time of day profiles. The first row whose window holds the
+// current time applies, outside all of them nothing is limited.
+public final class DlgSchedule extends JDialog {
+    private static final String[] COLUMN_NAMES = {"Name", "From", "To", "Rate KB/s", "Max Downloads", "Off-Peak"};
+    private static final Class<?>[] COLUMN_CLASSES = {String.class, String.class, String.class, Long.class, Integer.class, Boolean.class};
+
+    private final TransferSchedule schedule = TransferSchedule.getInstance();
+    private final JTable table;
+    private final DefaultTableModel model = new DefaultTableModel(COLUMN_NAMES, 0) {
+        @Override
+        public Class<?> getColumnClass(int column) {
+            return COLUMN_CLASSES[column];
+        }
+    };
+
+    private boolean result = false;
+
+    public DlgSchedule(Frame owner) {
+        super(owner, "Transfer Schedule", true);
+
+        for (TransferSchedule.Profile profile : schedule.getProfiles()) {
+            model.addRow(new Object[] {
+                    profile.getName(),
+                    formatMinute(profile.getStartMinute()),
+                    formatMinute(profile.getEndMinute()),
+                    profile.getBytesPerSecond() / 1024,
+                    profile.getMaxActive(),
+                    profile.getOffPeak()});
+        }
+
+        table = new JTable(model);
+        table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        table.putClientProperty("terminateEditOnFocusLost", Boolean.TRUE);
+        table.getColumnModel().getColumn(0).setPreferredWidth(160);
+
+        JButton addButton = new JButton("Add");
+        addButton.addActionListener((ActionEvent e) -> model.addRow(new Object[] {"Night", "01:00", "07:00", 0L, 0, true}));
+
+        JButton removeButton = new JButton("Remove");
+        removeButton.addActionListener((ActionEvent e) -> {
+            int row = table.getSelectedRow();
+
+            if (row != -1)
+                model.removeRow(row);
+        });
+
+        JButton okButton = new JButton("OK");
+        okButton.addActionListener(this::onOK);
+
+        JButton cancelButton = new JButton("Cancel");
+        cancelButton.addActionListener((ActionEvent e) -> dispose());
+
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttonPanel.add(addButton);
+        buttonPanel.add(removeButton);
+        buttonPanel.add(okButton);
+        buttonPanel.add(cancelButton);
+
+        JLabel hint = new JLabel("Times are HH:MM, a window may run past midnight. 0 means no limit.");
+        hint.setBorder(BorderFactory.createEmptyBorder(4, 4, 4, 4));
+
+        JPanel contentPane = new JPanel(new BorderLayout());
+        contentPane.add(hint, BorderLayout.NORTH);
+        contentPane.add(new JScrollPane(table), BorderLayout.CENTER);
+        contentPane.add(buttonPanel, BorderLayout.SOUTH);
+
+        setContentPane(contentPane);
+        setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+        setPreferredSize(new Dimension(700, 300));
+        getRootPane().setDefaultButton(okButton);
+    }
+
+    // True when the profiles were saved
+    public boolean getResult() {
+        return result;
+    }
+
+    private void onOK(ActionEvent e) {
+        if (table.isEditing())
+            table.getCellEditor().stopCellEditing();
+
+        ArrayList<TransferSchedule.Profile> profiles = new ArrayList<>();
+
+        for (int row = 0; row < model.getRowCount(); row++) {
+            int start = parseMinute(model.getValueAt(row, 1));
+            int end = parseMinute(model.getValueAt(row, 2));
+
+            if (start == -1 || end == -1) {
+                JOptionPane.showMessageDialog(this, "Row " + (row + 1) + ": times must be HH:MM.", "Transfer Schedule", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+
+            Object name = model.getValueAt(row, 0);
+
+            profiles.add(new TransferSchedule.Profile(
+                    name != null && !name.toString().isBlank() ? name.toString().trim() : "Profile " + (row + 1),
+                    start,
+                    end,
+                    toLong(model.getValueAt(row, 3)) * 1024,
+                    (int) toLong(model.getValueAt(row, 4)),
+                    Boolean.TRUE.equals(model.getValueAt(row, 5))));
+        }
+
+        schedule.setProfiles(profiles);
+        result = true;
+        dispose();
+    }
+
+    //region Helpers
+    private static String formatMinute(int minute) {
+        // A whole-day window ends at 24:00
+        return String.format("%02d:%02d", minute / 60, minute % 60);
+    }
+
+    // -1 when it is not a time of day
+    private static int parseMinute(Object value) {
+        if (value == null)
+            return -1;
+
+        String[] parts = value.toString().trim().split(":");
+
+        if (parts.length != 2)
+            return -1;
+
+        try {
+            int hours = Integer.parseInt(parts[0].trim());
+            int minutes = Integer.parseInt(parts[1].trim());
+
+            if (hours < 0 || minutes < 0 || minutes > 59 || hours > 24 || (hours == 24 && minutes != 0))
+                return -1;
+
+            return hours * 60 + minutes;
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    private static long toLong(Object value) {
+        return value instanceof Number number ? Math.max(0, number.longValue()) : 0;
+    }
+    //endregion
+}
@@ -5,8 +5,7 @@ import javax.swing.table.TableCellRenderer;
 import java.awt.*;
 
 public class DownloadTableCellRenderer extends JProgressBar implements TableCellRenderer {
-    private String state;
-    private int percent;
+    private final TextLine text = new TextLine();
 
     @Override
     public Component getTableCellRendererComponent (JTable table,
@@ -16,15 +15,14 @@ public class DownloadTableCellRenderer extends JProgressBar implements TableCell
                                                     int row,
                                                     int column)
     {
-        String[] pair = ((String)value).split(":");
+        JobProgress progress = (JobProgress) value;
 
-        state = pair[0];
-        percent = Integer.parseInt(pair[1]);
-
-        if(percent == -1)
+        if(progress.getPercent() == -1)
             setValue(100);
-        else if(percent != -2)
-            setValue(percent);
+        else
+            setValue(progress.getPercent());
+
+        progress.appendStatus(text.reset());
 
         return this;
     }
@@ -33,23 +31,8 @@ public class DownloadTableCellRenderer extends JProgressBar implements TableCell
     public void paint(Graphics g) {
         super.paint(g);
 
-        String text;
-
-        if(percent == -1) {
-            text = String.format("%s", state);
-        } else {
-            text = String.format("%s %d%%", state, getValue());
-        }
-
         var rect = g.getClipBounds();
-        var font = getFont();
-
-        FontMetrics metrics = g.getFontMetrics(font);
-        int x = rect.x + (rect.width - metrics.stringWidth(text)) / 2;
-        int y = rect.y + ((rect.height - metrics.getHeight()) / 2) + metrics.getAscent();
-        g.setColor(Color.black);
-        g.setFont(font);
 
-        g.drawString(text, x, y);
+        text.paintCentered(g, getFont(), Color.black, rect.x, rect.y, rect.width, rect.height);
     }
 }
@@ -0,0 +1,34 @@
+package com.illusionist.ldm.ui.renderer;
+
+import javax.swing.*;
+import javax.swing.table.TableCellRenderer;
+import java.awt.*;
+
+// The time left, centered, written straight from the row's numbers
+public class EtaCellRenderer extends JComponent implements TableCellRenderer {
+    private final TextLine text = new TextLine();
+
+    @Override
+    public Component getTableCellRendererComponent(JTable table,
+                                                   Object value,
+                                                   boolean isSelected,
+                                                   boolean isFocus,
+                                                   int row,
+                                                   int column)
+    {
+        setFont(table.getFont());
+        setBackground(isSelected ? table.getSelectionBackground() : table.getBackground());
+        setForeground(isSelected ? table.getSelectionForeground() : table.getForeground());
+        ((JobProgress) value).appendEta(text.reset());
+
+        return this;
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        g.setColor(getBackground());
+        g.fillRect(0, 0, getWidth(), getHeight());
+
+        text.paintCentered(g, getFont(), getForeground(), 0, 0, getWidth(), getHeight());
+    }
+}
@@ -0,0 +1,96 @@
+package com.illusionist.ldm.ui.renderer;
+
+import com.illusionist.ldm.manager.ThroughputHistory;
+
+import static com.illusionist.ldm.util.StringFormatUtil.appendRate;
+import static com.illusionist.ldm.util.StringFormatUtil.appendTenths;
+import static com.illusionist.ldm.util.StringFormatUtil.appendTime;
+
+// What one row of the download table shows, as numbers. Updates only
+// change fields, the text is written by the renderers when they paint.
+// Only touched on the event dispatch thread.
+public final class JobProgress {
+    private final ThroughputHistory throughput;
+
+    private String state;
+    // -1 fills the bar and leaves the percentage out
+    private int percent = 0;
+
+    // -1 shows nothing
+    private long bytesPerSecond = 0;
+    private double compressionRatio = 0;
+
+    // -1 is unknown, -2 shows nothing
+    private long etaSeconds = -1;
+
+    public JobProgress(String state, ThroughputHistory throughput) {
+        this.state = state;
+        this.throughput = throughput;
+    }
+
+    public ThroughputHistory getThroughput() {
+        return throughput;
+    }
+
+    //region State
+    public void setState(String state) {
+        this.state = state;
+    }
+
+    public void setState(String state, int percent) {
+        this.state = state;
+        this.percent = percent;
+    }
+
+    public int getPercent() {
+        return percent;
+    }
+
+    public void setSpeed(long bytesPerSecond, double compressionRatio) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.compressionRatio = compressionRatio;
+    }
+
+    public void clearSpeed() {
+        bytesPerSecond = -1;
+    }
+
+    // Negative when it cannot be told
+    public void setEta(long seconds) {
+        etaSeconds = Math.max(-1, seconds);
+    }
+
+    public void clearEta() {
+        etaSeconds = -2;
+    }
+    //endregion
+
+    //region Text
+    public void appendStatus(StringBuilder out) {
+        out.append(state);
+
+        if (percent != -1)
+            out.append(' ').append(percent).append('%');
+    }
+
+    public void appendSpeed(StringBuilder out) {
+        if (bytesPerSecond == -1)
+            return;
+
+        appendRate(out, bytesPerSecond);
+
+        // Compressed transfers show how much the encoding saves on the wire
+        if (compressionRatio > 0) {
+            out.append(" (x");
+            appendTenths(out, Math.round(compressionRatio * 10)).append(')');
+        }
+    }
+
+    public void appendEta(StringBuilder out) {
+        if (etaSeconds == -1)
+            out.append('∞');
+        else if (etaSeconds >= 0)
+            appendTime(out, etaSeconds);
+    }
+    //endregion
+}
@@ -0,0 +1,37 @@
+package com.illusionist.ldm.ui.renderer;
+
+import java.awt.*;
+
+// A line of text a renderer fills and paints over and over. The builder
+// and the characters handed to Graphics are kept, so painting a cell
+// that shows a new value makes no strings.
+final class TextLine {
+    private final StringBuilder text = new StringBuilder(32);
+    private char[] chars = new char[32];
+
+    // Cleared, ready to be written into
+    StringBuilder reset() {
+        text.setLength(0);
+        return text;
+    }
+
+    void paintCentered(Graphics g, Font font, Color color, int x, int y, int width, int height) {
+        int length = text.length();
+
+        if (length == 0)
+            return;
+
+        if (chars.length < length)
+            chars = new char[Math.max(length, chars.length * 2)];
+
+        text.getChars(0, length, chars, 0);
+
+        FontMetrics metrics = g.getFontMetrics(font);
+
+        g.setFont(font);
+        g.setColor(color);
+        g.drawChars(chars, 0, length,
+                x + (width - metrics.charsWidth(chars, 0, length)) / 2,
+                y + (height - metrics.getHeight()) / 2 + metrics.getAscent());
+    }
+}
@@ -0,0 +1,26 @@
+package com.illusionist.ldm.ui.renderer;
+
+import javax.swing.*;
+import javax.swing.table.TableCellRenderer;
+import java.awt.*;
+
+// The speed column: the row's speed over a graph of its recent throughput
+public class ThroughputCellRenderer extends ThroughputGraph implements TableCellRenderer {
+    @Override
+    public Component getTableCellRendererComponent(JTable table,
+                                                   Object value,
+                                                   boolean isSelected,
+                                                   boolean isFocus,
+                                                   int row,
+                                                   int column)
+    {
+        JobProgress progress = (JobProgress) value;
+
+        setFont(table.getFont());
+        setBackground(isSelected ? table.getSelectionBackground() : table.getBackground());
+        setHistory(progress.getThroughput());
+        progress.appendSpeed(resetText());
+
+        return this;
+    }
+}
@@ -0,0 +1,69 @@
+package com.illusionist.ldm.ui.renderer;
+
+import com.illusionist.ldm.manager.ThroughputHistory;
+
+import javax.swing.*;
+import java.awt.*;
+
+// Bars of bytes per second over the whole history, scaled to the peak,
+// with a line of text on top. The sample array and text are reused between paints.
+public class ThroughputGraph extends JComponent {
+    private static final Color BAR_COLOR = new Color(0x9CC3E6);
+    private static final Color BASELINE_COLOR = new Color(0x5B9BD5);
+
+    private ThroughputHistory history = null;
+    private final TextLine text = new TextLine();
+    private long[] samples = new long[0];
+
+    public void setHistory(ThroughputHistory history) {
+        this.history = history;
+
+        if (history != null && samples.length != history.getCapacity())
+            samples = new long[history.getCapacity()];
+    }
+
+    // Cleared, for the caller to write the new text into
+    public StringBuilder resetText() {
+        return text.reset();
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Insets insets = getInsets();
+        int width = getWidth() - insets.left - insets.right;
+        int height = getHeight() - insets.top - insets.bottom;
+        int bottom = insets.top + height - 1;
+
+        if (getBackground() != null) {
+            g.setColor(getBackground());
+            g.fillRect(0, 0, getWidth(), getHeight());
+        }
+
+        if (history != null && width > 0 && height > 2) {
+            int length = history.copySamples(samples);
+            long peak = 1;
+
+            for (int i = 0; i < length; i++)
+                peak = Math.max(peak, samples[i]);
+
+            g.setColor(BAR_COLOR);
+
+            for (int i = 0; i < length; i++) {
+                int barHeight = (int) (samples[i] * (height - 2) / peak);
+
+                if (barHeight == 0)
+                    continue;
+
+                int x0 = insets.left + (int) ((long) i * width / length);
+                int x1 = insets.left + (int) ((long) (i + 1) * width / length);
+
+                g.fillRect(x0, bottom - barHeight, Math.max(1, x1 - x0), barHeight);
+            }
+
+            g.setColor(BASELINE_COLOR);
+            g.drawLine(insets.left, bottom, insets.left + width - 1, bottom);
+        }
+
+        text.paintCentered(g, getFont(), Color.black, insets.left, insets.top, width, height);
+    }
+}
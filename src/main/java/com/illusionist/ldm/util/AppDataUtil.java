@@ -0,0 +1,117 @@
+package com.illusionist.ldm.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.AclEntry;
+import java.nio.file.attribute.AclEntryPermission;
+import java.nio.file.attribute.AclEntryType;
+import java.nio.file.attribute.AclFileAttributeView;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Properties;
+
+public class AppDataUtil {
+    private static final String DATA_DIRECTORY_NAME = ".ldm";
+
+    // Where persistent state lives, ~/.ldm unless overridden with -Dldm.data.dir
+    public static File getDataDirectory() {
+        String override = System.getProperty("ldm.data.dir");
+
+        File directory = override != null && !override.isBlank()
+                ? new File(override)
+                : new File(System.getProperty("user.home"), DATA_DIRECTORY_NAME);
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            // Fall back to the working directory rather than failing downloads
+            return new File(".");
+        }
+
+        return directory;
+    }
+
+    public static File getDataFile(String name) {
+        return new File(getDataDirectory(), name);
+    }
+
+    // Written next to the file and renamed over it, so a crash leaves the old or the new one, never half
+    public static void writeAtomically(File file, FileContent content) throws IOException {
+        writeAtomically(file, content, new FileAttribute<?>[0]);
+    }
+
+    // The same, with the temp file created with these attributes, so it never exists without them
+    public static void writeAtomically(File file, FileContent content, FileAttribute<?>... attributes) throws IOException {
+        Path target = file.toPath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+
+        try {
+            // Left over from a crash, and maybe with other permissions
+            Files.deleteIfExists(temp);
+            Files.createFile(temp, attributes);
+
+            try (FileOutputStream out = new FileOutputStream(temp.toFile())) {
+                content.writeTo(out);
+                out.getFD().sync();
+            }
+
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    public static void storeAtomically(File file, Properties properties, String comment) throws IOException {
+        writeAtomically(file, out -> properties.store(out, comment));
+    }
+
+    // Read and write for the user running the app and nobody else, for files created in
+    // directory. Empty when its file system has neither POSIX permissions nor ACLs.
+    public static FileAttribute<?>[] getOwnerOnlyAttributes(Path directory) throws IOException {
+        FileStore store = Files.getFileStore(directory);
+
+        if (store.supportsFileAttributeView(PosixFileAttributeView.class))
+            return new FileAttribute<?>[] {PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------"))};
+
+        if (store.supportsFileAttributeView(AclFileAttributeView.class)) {
+            // Windows, an ACL of its own replaces the ones it would inherit from the directory
+            AclEntry owner = AclEntry.newBuilder()
+                    .setType(AclEntryType.ALLOW)
+                    .setPrincipal(directory.getFileSystem().getUserPrincipalLookupService()
+                            .lookupPrincipalByName(System.getProperty("user.name")))
+                    .setPermissions(EnumSet.allOf(AclEntryPermission.class))
+                    .build();
+            List<AclEntry> acl = List.of(owner);
+
+            return new FileAttribute<?>[] {new FileAttribute<List<AclEntry>>() {
+                @Override
+                public String name() {
+                    return "acl:acl";
+                }
+
+                @Override
+                public List<AclEntry> value() {
+                    return acl;
+                }
+            }};
+        }
+
+        return new FileAttribute<?>[0];
+    }
+
+    public interface FileContent {
+        void writeTo(OutputStream out) throws IOException;
+    }
+}
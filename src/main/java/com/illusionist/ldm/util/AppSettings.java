@@ -0,0 +1,71 @@
+package com.illusionist.ldm.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+
+public class AppSettings {
+    private static final String SETTINGS_FILENAME = "settings.properties";
+
+    private static final Properties settings = new Properties();
+    private static boolean loaded = false;
+
+    public static synchronized String getString(String key, String defaultValue) {
+        load();
+        return settings.getProperty(key, defaultValue);
+    }
+
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = getString(key, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+
+    public static int getInt(String key, int defaultValue) {
+        return (int) getLong(key, defaultValue);
+    }
+
+    public static long getLong(String key, long defaultValue) {
+        String value = getString(key, null);
+
+        if (value == null)
+            return defaultValue;
+
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    public static synchronized void set(String key, Object value) {
+        load();
+        settings.setProperty(key, String.valueOf(value));
+        save();
+    }
+
+    private static void load() {
+        if (loaded)
+            return;
+
+        loaded = true;
+
+        File file = AppDataUtil.getDataFile(SETTINGS_FILENAME);
+
+        if (!file.isFile())
+            return;
+
+        try (FileInputStream in = new FileInputStream(file)) {
+            settings.load(in);
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static void save() {
+        try (FileOutputStream out = new FileOutputStream(AppDataUtil.getDataFile(SETTINGS_FILENAME))) {
+            settings.store(out, "Little Download Manager - settings");
+        } catch (IOException ignored) {
+        }
+    }
+}
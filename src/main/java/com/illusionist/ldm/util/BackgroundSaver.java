@@ -0,0 +1,46 @@
+package com.illusionist.ldm.util;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Runs a store's save on one background thread instead of the caller's,
+// so a transfer finishing never waits on the disk. Changes made while a
+// save is pending ride along with it, a burst of them costs one write.
+public final class BackgroundSaver {
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ldm-save");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final CopyOnWriteArrayList<BackgroundSaver> savers = new CopyOnWriteArrayList<>();
+
+    static {
+        // The thread is a daemon, whatever it did not get to is written on the way out
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            for (BackgroundSaver saver : savers)
+                saver.flush();
+        }, "ldm-save-exit"));
+    }
+
+    private final Runnable save;
+    private final AtomicBoolean pending = new AtomicBoolean(false);
+
+    public BackgroundSaver(Runnable save) {
+        this.save = save;
+        savers.add(this);
+    }
+
+    public void request() {
+        if (pending.compareAndSet(false, true))
+            executor.execute(this::flush);
+    }
+
+    // Saves now on this thread if anything is waiting, one save at a time
+    public synchronized void flush() {
+        if (pending.compareAndSet(true, false))
+            save.run();
+    }
+}
@@ -2,35 +2,62 @@ package com.illusionist.ldm.util;
 
 public class StringFormatUtil {
     public static String secondsToTime(long totalSeconds) {
+        return appendTime(new StringBuilder(16), totalSeconds).toString();
+    }
+
+    public static String bytesToString(long bytesPerSecond) {
+        return appendRate(new StringBuilder(16), bytesPerSecond).toString();
+    }
+
+    public static String bytesToSize(long bytes) {
+        return appendSize(new StringBuilder(16), bytes).toString();
+    }
+
+    //region Appending
+    // The same text as above written into a builder the caller keeps, so
+    // repainting a row over and over does not make new strings each time
+
+    public static StringBuilder appendTime(StringBuilder out, long totalSeconds) {
         long days = (totalSeconds / 3600) / 24;
-        long hours = totalSeconds / 3600;
+        long hours = (totalSeconds / 3600) % 24;
         long minutes = (totalSeconds % 3600) / 60;
         long seconds = totalSeconds % 60;
 
-        if (days > 0) {
-            return String.format("%dd %dh %dm %ds", days, hours, minutes, seconds);
-        } else if (hours > 0) {
-            return String.format("%dh %dm %ds", hours, minutes, seconds);
-        } else if (minutes > 0) {
-            return String.format("%dm %ds", minutes, seconds);
-        } else {
-            return String.format("%ds", seconds);
-        }
+        if (days > 0)
+            out.append(days).append("d ");
+
+        if (days > 0 || hours > 0)
+            out.append(hours).append("h ");
+
+        if (days > 0 || hours > 0 || minutes > 0)
+            out.append(minutes).append("m ");
+
+        return out.append(seconds).append('s');
     }
 
-    public static String bytesToString(long bytesPerSecond) {
-        double kilobytes = (double)bytesPerSecond / 1000;
-        double megabytes = kilobytes / 1000;
-        double gigabytes = megabytes / 1000;
-
-        if (megabytes > 999) {
-            return String.format("%.1f GB/s", gigabytes);
-        } else if (kilobytes > 999) {
-            return String.format("%.1f MB/s", megabytes);
-        } else if (bytesPerSecond > 999) {
-            return String.format("%.1f KB/s", kilobytes);
-        } else {
-            return String.format("%.1f B/s", (double)bytesPerSecond);
+    public static StringBuilder appendRate(StringBuilder out, long bytesPerSecond) {
+        return appendSize(out, bytesPerSecond).append("/s");
+    }
+
+    public static StringBuilder appendSize(StringBuilder out, long bytes) {
+        // Tenths of the unit, rounded half up like %.1f
+        if (bytes > 999_000_000)
+            return appendTenths(out, (bytes + 50_000_000) / 100_000_000).append(" GB");
+        else if (bytes > 999_000)
+            return appendTenths(out, (bytes + 50_000) / 100_000).append(" MB");
+        else if (bytes > 999)
+            return appendTenths(out, (bytes + 50) / 100).append(" KB");
+        else
+            return appendTenths(out, bytes * 10).append(" B");
+    }
+
+    public static StringBuilder appendTenths(StringBuilder out, long tenths) {
+        if (tenths < 0) {
+            out.append('-');
+            tenths = -tenths;
         }
+
+        return out.append(tenths / 10).append('.').append(tenths % 10);
     }
+    //endregion
 }
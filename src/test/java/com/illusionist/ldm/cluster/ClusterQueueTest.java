@@ -0,0 +1,239 @@
+package com.illusionist.ldm.cluster;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClusterQueueTest {
+    // Only ever probed, never downloaded
+    private static final long LARGE_SIZE = 100L * 1024 * 1024;
+
+    @TempDir
+    Path dir;
+
+    private HttpServer server;
+    private ClusterQueue queue;
+
+    @BeforeEach
+    void start() throws IOException {
+        // Answers the one byte probe for /large with a size, /small without range support
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 16);
+        server.createContext("/", exchange -> {
+            if (exchange.getRequestURI().getPath().equals("/large")) {
+                exchange.getResponseHeaders().set("Content-Range", "bytes 0-0/" + LARGE_SIZE);
+                exchange.sendResponseHeaders(206, 1);
+                exchange.getResponseBody().write(0);
+            } else {
+                exchange.sendResponseHeaders(200, 1);
+                exchange.getResponseBody().write(0);
+            }
+
+            exchange.close();
+        });
+        server.start();
+
+        queue = new ClusterQueue(dir.resolve("queue"));
+    }
+
+    @AfterEach
+    void stop() {
+        server.stop(0);
+    }
+
+    @Test
+    void aLargeFileIsSplitIntoRanges() throws Exception {
+        String jobId = queue.submit(url("/large"), "/tmp/large.bin", " ABC ");
+        List<ClusterTask> tasks = queue.getTasks();
+
+        assertEquals(4, tasks.size());
+
+        long position = 0;
+
+        for (int i = 0; i < tasks.size(); i++) {
+            ClusterTask task = tasks.get(i);
+
+            assertEquals(jobId, task.getJobId());
+            assertEquals(i, task.getIndex());
+            assertEquals(4, task.getCount());
+            assertEquals(LARGE_SIZE, task.getSize());
+            assertEquals("ABC", task.getExpectedHash());
+            assertTrue(task.isRange());
+            assertEquals(position, task.getStart());
+            position = task.getEnd();
+        }
+
+        assertEquals(LARGE_SIZE, position);
+    }
+
+    @Test
+    void aFileWithoutRangesIsOneTask() throws Exception {
+        queue.submit(url("/small"), "/tmp/small.bin", null);
+        List<ClusterTask> tasks = queue.getTasks();
+
+        assertEquals(1, tasks.size());
+        assertFalse(tasks.get(0).isRange());
+        assertEquals(-1, tasks.get(0).getSize());
+        assertNull(tasks.get(0).getExpectedHash());
+    }
+
+    @Test
+    void aLiveLeaseCannotBeClaimed() throws Exception {
+        ClusterTask task = submitOne();
+
+        Lease lease = queue.claim(task, null, "a");
+
+        assertNotNull(lease);
+        assertEquals(1, lease.getGeneration());
+        assertEquals(lease.getGeneration(), queue.getLeases().get(task.getId()).getGeneration());
+        assertNull(queue.claim(task, queue.getLeases().get(task.getId()), "b"));
+    }
+
+    @Test
+    void racingClaimsHaveOneWinner() throws Exception {
+        ClusterTask task = submitOne();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+
+        try {
+            ArrayList<Future<Lease>> claims = new ArrayList<>();
+
+            for (int i = 0; i < 8; i++) {
+                String node = "node" + i;
+                claims.add(pool.submit(() -> queue.claim(task, null, node)));
+            }
+
+            int winners = 0;
+
+            for (Future<Lease> claim : claims) {
+                if (claim.get() != null)
+                    winners++;
+            }
+
+            assertEquals(1, winners);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void aReleasedTaskIsTakenOverWhereItStopped() throws Exception {
+        ClusterTask task = submitOne();
+
+        Lease first = queue.claim(task, null, "a");
+        first = queue.renew(first, 1000);
+        assertNotNull(first);
+        queue.release(first, 5000);
+
+        Lease current = queue.getLeases().get(task.getId());
+        assertTrue(current.isExpired(System.currentTimeMillis()));
+        assertEquals(5000, current.getPosition());
+
+        Lease second = queue.claim(task, current, "b");
+
+        assertNotNull(second);
+        assertEquals(2, second.getGeneration());
+        assertEquals(5000, second.getPosition());
+        assertEquals("b", queue.getLeases().get(task.getId()).getNodeId());
+
+        // The old holder finds out on its next renewal
+        assertNull(queue.renew(first, 6000));
+        assertEquals(List.of(task.getId() + ".2"), list(dir.resolve("queue/leases")));
+    }
+
+    @Test
+    void theJobFinishesOnceEveryTaskIsDone() throws Exception {
+        queue.submit(url("/large"), "/tmp/large.bin", null);
+        List<ClusterTask> tasks = queue.getTasks();
+
+        for (int i = 0; i < tasks.size(); i++) {
+            assertFalse(queue.tryFinishJob(tasks.get(i)));
+            queue.complete(queue.claim(tasks.get(i), null, "a"));
+        }
+
+        assertTrue(queue.tryFinishJob(tasks.get(0)));
+        assertFalse(queue.tryFinishJob(tasks.get(1)));
+
+        ClusterQueue.Status status = queue.getStatus();
+
+        assertEquals(1, status.getJobs());
+        assertEquals(1, status.getFinishedJobs());
+        assertEquals(4, status.getClosedTasks());
+        assertEquals(0, status.getPendingTasks());
+        assertTrue(queue.getLeases().isEmpty());
+    }
+
+    @Test
+    void statusCountsEveryKindOfTask() throws Exception {
+        queue.submit(url("/large"), "/tmp/large.bin", null);
+        List<ClusterTask> tasks = queue.getTasks();
+
+        queue.claim(tasks.get(0), null, "a");
+        queue.complete(queue.claim(tasks.get(1), null, "a"));
+        queue.failTask(tasks.get(2), "gave up");
+
+        ClusterQueue.Status status = queue.getStatus();
+
+        assertEquals(1, status.getLeasedTasks());
+        assertEquals(2, status.getClosedTasks());
+        assertEquals(1, status.getPendingTasks());
+        assertEquals(1, status.getFailures());
+        assertEquals(0, status.getFinishedJobs());
+    }
+
+    @Test
+    void nodeStatusRoundTrips() throws Exception {
+        queue.putNodeStatus(new NodeStatus("host/1", 123, 2, 3, 4, 5, 6, 7, 8, 9, 10));
+
+        List<NodeStatus> nodes = queue.getNodes();
+
+        assertEquals(1, nodes.size());
+        assertEquals("host/1", nodes.get(0).getNodeId());
+        assertEquals(5, nodes.get(0).getBytesFetched());
+        assertEquals(10, nodes.get(0).getLostLeases());
+        assertTrue(Files.exists(dir.resolve("queue/nodes/host_1.node")));
+    }
+
+    @Test
+    void damagedFilesAreSkipped() throws Exception {
+        ClusterTask task = submitOne();
+
+        Files.writeString(dir.resolve("queue/tasks/broken.task"), "job=x\nindex=notanumber\n");
+        Files.writeString(dir.resolve("queue/leases/" + task.getId() + ".1"), "garbage");
+
+        assertEquals(1, queue.getTasks().size());
+
+        // A damaged lease still counts as held until it could have run out
+        Lease lease = queue.getLeases().get(task.getId());
+        assertFalse(lease.isExpired(System.currentTimeMillis()));
+        assertNull(queue.claim(task, lease, "b"));
+    }
+
+    private ClusterTask submitOne() throws Exception {
+        queue.submit(url("/small"), "/tmp/small.bin", null);
+        return queue.getTasks().get(0);
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    private static List<String> list(Path directory) throws IOException {
+        try (var stream = Files.list(directory)) {
+            return stream.map(x -> x.getFileName().toString()).filter(x -> !x.startsWith(".")).sorted().toList();
+        }
+    }
+}
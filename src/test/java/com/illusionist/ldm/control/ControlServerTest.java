@@ -0,0 +1,78 @@
+package com.illusionist.ldm.control;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ControlServerTest {
+    private final ControlServer server = ControlServer.getInstance();
+
+    @BeforeEach
+    void start() throws IOException {
+        server.start(0);
+    }
+
+    @AfterEach
+    void stop() {
+        server.stop();
+    }
+
+    @Test
+    void theConnectionFileIsTheOwnersAlone() throws Exception {
+        Properties properties = connection();
+
+        assertEquals(Integer.toString(server.getPort()), properties.getProperty("port"));
+        assertTrue(properties.getProperty("token").matches("[0-9a-f]{32}"));
+        assertFalse(Files.exists(server.getConnectionFile().toPath().resolveSibling("control.properties.tmp")));
+
+        if (server.getConnectionFile().toPath().getFileSystem().supportedFileAttributeViews().contains("posix"))
+            assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(server.getConnectionFile().toPath())));
+
+        server.stop();
+        assertFalse(server.getConnectionFile().exists());
+    }
+
+    @Test
+    void onlyTheTokenGetsIn() throws Exception {
+        String token = connection().getProperty("token");
+
+        assertEquals(401, get("/status", null).statusCode());
+        assertEquals(401, get("/status", token.replace(token.charAt(0), token.charAt(0) == 'a' ? 'b' : 'a')).statusCode());
+
+        HttpResponse<String> response = get("/status?since=0", token);
+
+        assertEquals(200, response.statusCode());
+        assertTrue(response.body().startsWith("# "));
+    }
+
+    private Properties connection() throws IOException {
+        Properties properties = new Properties();
+
+        try (FileInputStream in = new FileInputStream(server.getConnectionFile())) {
+            properties.load(in);
+        }
+
+        return properties;
+    }
+
+    private HttpResponse<String> get(String path, String token) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + server.getPort() + path));
+
+        if (token != null)
+            request.header("X-LDM-Token", token);
+
+        return HttpClient.newHttpClient().send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+}
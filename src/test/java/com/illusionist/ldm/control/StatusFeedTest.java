@@ -0,0 +1,213 @@
+package com.illusionist.ldm.control;
+
+import com.illusionist.ldm.manager.DownloadJob;
+import com.illusionist.ldm.manager.DownloadManager;
+import com.illusionist.ldm.manager.DownloadRequest;
+import com.illusionist.ldm.manager.event.DownloadEvent;
+import com.illusionist.ldm.manager.event.JobAddedEvent;
+import com.illusionist.ldm.manager.event.JobRemovedEvent;
+import com.illusionist.ldm.manager.event.PostProcessEvent;
+import com.illusionist.ldm.manager.event.PostProcessFinishedEvent;
+import com.illusionist.ldm.manager.event.ProgressEvent;
+import com.illusionist.ldm.manager.event.QueuedEvent;
+import com.illusionist.ldm.manager.event.StateChangedEvent;
+import com.illusionist.ldm.network.FileDownloader;
+import com.illusionist.ldm.pipeline.PostProcessJob;
+import com.illusionist.ldm.pipeline.PostProcessStage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StatusFeedTest {
+    private final ArrayList<DownloadJob> jobs = new ArrayList<>();
+    private final StatusFeed feed = new StatusFeed();
+
+    @AfterEach
+    void removeJobs() {
+        for (DownloadJob job : jobs) {
+            DownloadManager.getInstance().cancel(job.getId());
+            DownloadManager.getInstance().remove(job.getId());
+        }
+    }
+
+    @Test
+    void aCursorOnlySeesLaterChanges() {
+        DownloadJob first = job();
+        DownloadJob second = job();
+
+        feed.onEvent(new JobAddedEvent(first));
+        feed.onEvent(new JobAddedEvent(second));
+
+        StringBuilder out = new StringBuilder();
+        long cursor = feed.appendChanges(out, 0);
+
+        assertEquals(2, cursor);
+        assertEquals(List.of("# 2", first.getId() + "\tpaused\t0\t0\t", second.getId() + "\tpaused\t0\t0\t"), lines(out));
+
+        feed.onEvent(new StateChangedEvent(first, FileDownloader.RUNNING));
+
+        out.setLength(0);
+        cursor = feed.appendChanges(out, cursor);
+
+        assertEquals(3, cursor);
+        assertEquals(List.of("# 3", first.getId() + "\trunning\t0\t0\t"), lines(out));
+
+        // Nothing new, only the cursor
+        out.setLength(0);
+        assertEquals(3, feed.appendChanges(out, cursor));
+        assertEquals(List.of("# 3"), lines(out));
+    }
+
+    @Test
+    void progressOverwritesTheJobsLine() {
+        DownloadJob job = job();
+        feed.onEvent(new JobAddedEvent(job));
+
+        for (int i = 1; i <= 100; i++)
+            feed.onEvent(new ProgressEvent(job, i * 10, 1000));
+
+        StringBuilder out = new StringBuilder();
+        assertEquals(101, feed.appendChanges(out, 0));
+        assertEquals(List.of("# 101", job.getId() + "\tpaused\t1000\t1000\t"), lines(out));
+    }
+
+    @Test
+    void everyKindOfChangeHasItsState() {
+        DownloadJob job = job();
+        PostProcessStage stage = new PostProcessStage() {
+            @Override
+            public String getName() {
+                return "Verify";
+            }
+
+            @Override
+            public Path process(PostProcessJob postProcessJob, Path input) {
+                return input;
+            }
+        };
+
+        assertEquals("waiting-off-peak", stateAfter(new QueuedEvent(job, true)));
+        assertEquals("queued", stateAfter(new QueuedEvent(job, false)));
+        assertEquals("stopped", stateAfter(new StateChangedEvent(job, FileDownloader.STOPPED)));
+        assertEquals("failed", stateAfter(new StateChangedEvent(job, FileDownloader.ERROR)));
+        assertEquals("post-processing\t0\t0\tVerify 40%", stateAfter(new PostProcessEvent(job, stage, 40)));
+
+        // Tabs and line breaks in a message stay on the job's line
+        assertEquals("failed\t0\t0\tVerify: bad hash now", stateAfter(new PostProcessFinishedEvent(job, stage, "bad\thash\nnow")));
+        assertEquals("complete", stateAfter(new PostProcessFinishedEvent(job, null, null)));
+    }
+
+    @Test
+    void removedJobsAreReportedAsRemoved() {
+        DownloadJob job = job();
+        feed.onEvent(new JobAddedEvent(job));
+        long cursor = feed.appendChanges(new StringBuilder(), 0);
+
+        feed.onEvent(new JobRemovedEvent(job));
+
+        StringBuilder out = new StringBuilder();
+        feed.appendChanges(out, cursor);
+        assertEquals(List.of("# 2", job.getId() + "\tremoved\t0\t0\t"), lines(out));
+
+        // A second removal of what is gone changes nothing
+        feed.onEvent(new JobRemovedEvent(job));
+        assertEquals(2, feed.getSequence());
+    }
+
+    @Test
+    void aClientBehindForgottenRemovalsStartsOver() {
+        DownloadJob kept = job();
+        DownloadJob churned = job();
+
+        feed.onEvent(new JobAddedEvent(kept));
+        long cursor = feed.appendChanges(new StringBuilder(), 0);
+
+        // More removals than are remembered, so the client cannot know it saw them all
+        for (int i = 0; i < 10_001; i++) {
+            feed.onEvent(new JobAddedEvent(churned));
+            feed.onEvent(new JobRemovedEvent(churned));
+        }
+
+        StringBuilder out = new StringBuilder();
+        long sequence = feed.appendChanges(out, cursor);
+
+        assertEquals(List.of("# reset " + sequence, kept.getId() + "\tpaused\t0\t0\t"), lines(out));
+
+        // A client that kept up is not reset
+        out.setLength(0);
+        feed.appendChanges(out, sequence - 1);
+        assertEquals(List.of("# " + sequence, churned.getId() + "\tremoved\t0\t0\t"), lines(out));
+    }
+
+    @Test
+    void seedingCatchesUpWithTheJobsThereAre() {
+        DownloadJob gone = job();
+        DownloadJob present = job();
+
+        feed.onEvent(new JobAddedEvent(gone));
+        feed.seed(List.of(present));
+
+        StringBuilder out = new StringBuilder();
+        feed.appendChanges(out, 1);
+
+        assertEquals(List.of("# 3", present.getId() + "\tpaused\t0\t0\t", gone.getId() + "\tremoved\t0\t0\t"), lines(out));
+    }
+
+    @Test
+    void awaitReturnsOnTheNextChange() throws Exception {
+        DownloadJob job = job();
+
+        // Nothing happens, the wait runs out
+        long started = System.nanoTime();
+        assertEquals(0, feed.awaitChange(0, 100));
+        assertTrue(System.nanoTime() - started >= 90_000_000L);
+
+        CompletableFuture<Long> waiting = CompletableFuture.supplyAsync(() -> {
+            try {
+                return feed.awaitChange(0, 10_000);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        Thread.sleep(50);
+        assertFalse(waiting.isDone());
+
+        feed.onEvent(new JobAddedEvent(job));
+        assertEquals(1, waiting.get(5, TimeUnit.SECONDS));
+    }
+
+    private String stateAfter(DownloadEvent event) {
+        long before = feed.getSequence();
+        feed.onEvent(event);
+
+        StringBuilder out = new StringBuilder();
+        feed.appendChanges(out, before);
+
+        String line = lines(out).get(1);
+        String rest = line.substring(line.indexOf('\t') + 1);
+
+        // Just the state when there is no detail
+        return rest.endsWith("\t0\t0\t") ? rest.substring(0, rest.length() - 5) : rest;
+    }
+
+    private DownloadJob job() {
+        DownloadRequest request = new DownloadRequest();
+        request.setStartPaused(true);
+
+        DownloadJob job = DownloadManager.getInstance().submit(request);
+        jobs.add(job);
+        return job;
+    }
+
+    private static List<String> lines(StringBuilder out) {
+        return List.of(out.toString().split("\n"));
+    }
+}
@@ -0,0 +1,235 @@
+package com.illusionist.ldm.manager;
+
+import com.illusionist.ldm.manager.event.DownloadEvent;
+import com.illusionist.ldm.manager.event.JobAddedEvent;
+import com.illusionist.ldm.manager.event.JobRemovedEvent;
+import com.illusionist.ldm.manager.event.ProgressEvent;
+import com.illusionist.ldm.manager.event.StateChangedEvent;
+import com.illusionist.ldm.manager.event.Subscription;
+import com.illusionist.ldm.network.FileDownloader;
+import com.illusionist.ldm.storage.HistoryStore;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DownloadManagerTest {
+    private static final int SIZE = 512 * 1024;
+
+    @TempDir
+    Path dir;
+
+    private final byte[] content = new byte[SIZE];
+    private final List<DownloadEvent> events = new CopyOnWriteArrayList<>();
+    private final DownloadManager manager = DownloadManager.getInstance();
+
+    private HttpServer server;
+    private Subscription subscription;
+
+    @BeforeEach
+    void start() throws IOException {
+        new Random(39).nextBytes(content);
+
+        // Whole bodies, slowly for /slow so a job can be caught while it runs,
+        // in many small chunks of no announced length for /chunked
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 16);
+        server.createContext("/", exchange -> {
+            boolean slow = exchange.getRequestURI().getPath().startsWith("/slow");
+            boolean chunked = exchange.getRequestURI().getPath().startsWith("/chunked");
+            int piece = chunked ? 8 * 1024 : 16 * 1024;
+
+            exchange.sendResponseHeaders(200, chunked ? 0 : content.length);
+
+            try (OutputStream out = exchange.getResponseBody()) {
+                for (int i = 0; i < content.length; i += piece) {
+                    out.write(content, i, Math.min(piece, content.length - i));
+                    out.flush();
+
+                    if (slow)
+                        Thread.sleep(100);
+                    else if (chunked)
+                        Thread.sleep(15);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException ignored) {
+                // Cancelled on purpose
+            }
+        });
+        server.start();
+
+        subscription = manager.subscribe(events::add);
+    }
+
+    @AfterEach
+    void stop() {
+        subscription.close();
+        server.stop(0);
+    }
+
+    @Test
+    void aFinishedJobIsRetired() throws Exception {
+        DownloadJob job = manager.submit(request("/a.bin", "a.bin"));
+
+        await(x -> x instanceof JobRemovedEvent && x.getJob() == job);
+
+        List<DownloadEvent> mine = eventsOf(job);
+
+        assertInstanceOf(JobAddedEvent.class, mine.get(0));
+        assertTrue(hasState(mine, FileDownloader.RUNNING));
+        assertTrue(hasState(mine, FileDownloader.COMPLETE));
+        assertInstanceOf(JobRemovedEvent.class, mine.get(mine.size() - 1));
+        assertNull(manager.getJob(job.getId()));
+        assertArrayEquals(content, Files.readAllBytes(dir.resolve("a.bin")));
+    }
+
+    @Test
+    void aPausedSubmissionWaitsForResume() throws Exception {
+        DownloadRequest request = request("/b.bin", "b.bin");
+        request.setStartPaused(true);
+
+        DownloadJob job = manager.submit(request);
+        Thread.sleep(200);
+
+        assertSame(job, manager.getJob(job.getId()));
+        assertFalse(job.isWaiting());
+        assertFalse(Files.exists(dir.resolve("b.bin")));
+
+        assertTrue(manager.resume(job.getId()));
+        await(x -> x instanceof JobRemovedEvent && x.getJob() == job);
+
+        assertArrayEquals(content, Files.readAllBytes(dir.resolve("b.bin")));
+    }
+
+    @Test
+    void aCancelledJobStopsAndCanBeRemoved() throws Exception {
+        DownloadJob job = manager.submit(request("/slow/c.bin", "c.bin"));
+
+        await(x -> x instanceof StateChangedEvent state && x.getJob() == job && state.getState() == FileDownloader.RUNNING);
+
+        // Still running, it stays in the registry
+        assertFalse(manager.remove(job.getId()));
+        assertTrue(manager.cancel(job.getId()));
+
+        await(x -> x instanceof StateChangedEvent state && x.getJob() == job && state.getState() == FileDownloader.STOPPED);
+
+        assertTrue(manager.remove(job.getId()));
+        assertNull(manager.getJob(job.getId()));
+        assertFalse(Files.exists(dir.resolve("c.bin")));
+    }
+
+    @Test
+    void progressWithoutALengthIsThrottled() throws Exception {
+        // Delivered on the posting thread, so nothing is merged on the way
+        List<ProgressEvent> progress = new CopyOnWriteArrayList<>();
+
+        try (Subscription direct = manager.subscribe(x -> {
+            if (x instanceof ProgressEvent event)
+                progress.add(event);
+        }, Runnable::run)) {
+            long started = System.nanoTime();
+            DownloadJob job = manager.submit(request("/chunked/d.bin", "d.bin"));
+
+            await(x -> x instanceof JobRemovedEvent && x.getJob() == job);
+            long millis = (System.nanoTime() - started) / 1_000_000;
+
+            assertArrayEquals(content, Files.readAllBytes(dir.resolve("d.bin")));
+
+            // 64 chunks over about a second, at most one event per 100ms gets out
+            assertTrue(progress.size() <= millis / 100 + 2, progress.size() + " events in " + millis + "ms");
+        }
+    }
+
+    @Test
+    void theLastChunkOfAKnownSizeIsPosted() throws Exception {
+        List<ProgressEvent> progress = new CopyOnWriteArrayList<>();
+
+        try (Subscription direct = manager.subscribe(x -> {
+            if (x instanceof ProgressEvent event)
+                progress.add(event);
+        }, Runnable::run)) {
+            DownloadJob job = manager.submit(request("/e.bin", "e.bin"));
+
+            await(x -> x instanceof JobRemovedEvent && x.getJob() == job);
+
+            ProgressEvent last = progress.get(progress.size() - 1);
+            assertEquals(SIZE, last.getBytesRecv());
+            assertEquals(SIZE, last.getBytesTotal());
+        }
+    }
+
+    @Test
+    void aBusyHistoryDoesNotHoldUpTheTransferThread() throws Exception {
+        AtomicReference<Thread> transferThread = new AtomicReference<>();
+
+        try (Subscription direct = manager.subscribe(x -> {
+            if (x instanceof StateChangedEvent state && state.getState() == FileDownloader.COMPLETE)
+                transferThread.set(Thread.currentThread());
+        }, Runnable::run)) {
+            DownloadJob job;
+
+            synchronized (HistoryStore.getInstance()) {
+                job = manager.submit(request("/f.bin", "f.bin"));
+
+                await(x -> x instanceof StateChangedEvent state && x.getJob() == job && state.getState() == FileDownloader.COMPLETE);
+                Thread.sleep(200);
+
+                assertNotEquals(Thread.State.BLOCKED, transferThread.get().getState());
+                assertNull(manager.getJob(job.getId()));
+            }
+
+            await(x -> x instanceof JobRemovedEvent && x.getJob() == job);
+        }
+    }
+
+    @Test
+    void unknownJobsAreRefused() {
+        assertFalse(manager.pause(-1));
+        assertFalse(manager.resume(-1));
+        assertFalse(manager.cancel(-1));
+        assertFalse(manager.remove(-1));
+    }
+
+    private DownloadRequest request(String path, String name) {
+        DownloadRequest request = new DownloadRequest();
+        request.setUrl("http://127.0.0.1:" + server.getAddress().getPort() + path + "?" + System.nanoTime());
+        request.setFilepath(dir.resolve(name).toString());
+        return request;
+    }
+
+    private List<DownloadEvent> eventsOf(DownloadJob job) {
+        return events.stream().filter(x -> x.getJob() == job).toList();
+    }
+
+    private static boolean hasState(List<DownloadEvent> events, int state) {
+        return events.stream().anyMatch(x -> x instanceof StateChangedEvent changed && changed.getState() == state);
+    }
+
+    private void await(Predicate<DownloadEvent> condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30_000;
+
+        while (System.currentTimeMillis() < deadline) {
+            if (events.stream().anyMatch(condition))
+                return;
+
+            Thread.sleep(10);
+        }
+
+        fail("Event did not arrive, got " + events);
+    }
+}
@@ -0,0 +1,91 @@
+package com.illusionist.ldm.manager;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ThroughputHistoryTest {
+    private static final long SECOND = 1_000_000_000L;
+
+    // Samples are recorded at times from here on, readers look at the real clock,
+    // which stays behind them so nothing moves while a test reads
+    private final long start = System.nanoTime();
+
+    @Test
+    void bytesLandInTheSecondTheyArrivedIn() {
+        ThroughputHistory history = new ThroughputHistory(10);
+
+        history.record(at(0.1), 100);
+        history.record(at(0.5), 50);
+        history.record(at(1.2), 30);
+        history.record(at(3.1), 10);
+
+        // The second still filling up is left out
+        long[] samples = new long[3];
+        assertEquals(3, history.copySamples(samples));
+        assertArrayEquals(new long[]{150, 30, 0}, samples);
+
+        assertEquals(0, history.getBytesPerSecond());
+        assertEquals(60, history.getAverage(3));
+        assertEquals(150, history.getPeak(3));
+    }
+
+    @Test
+    void secondsOlderThanTheRingAreGone() {
+        ThroughputHistory history = new ThroughputHistory(5);
+
+        for (int i = 0; i < 5; i++)
+            history.record(at(i), 1000);
+
+        history.record(at(5), 1);
+        assertEquals(1000, history.getAverage(5));
+        assertEquals(5, history.getCapacity());
+
+        // A long quiet spell clears every bucket, however far it jumps
+        history.record(at(1000), 1);
+        assertEquals(0, history.getPeak(100));
+
+        long[] samples = new long[20];
+        assertEquals(5, history.copySamples(samples));
+        assertArrayEquals(new long[20], samples);
+    }
+
+    @Test
+    void averagesAreOverWhatIsKept() {
+        ThroughputHistory history = new ThroughputHistory(4);
+
+        for (int i = 0; i < 4; i++)
+            history.record(at(i), (i + 1) * 100);
+
+        history.record(at(4), 0);
+
+        assertEquals(400, history.getBytesPerSecond());
+        assertEquals(250, history.getAverage(100));
+        assertEquals(400, history.getAverage(0));
+        assertEquals(400, history.getPeak(100));
+    }
+
+    @Test
+    void totalsRecordOnlyWhatTheyGrewBy() {
+        ThroughputHistory history = new ThroughputHistory(10);
+
+        // A resumed job starts counting where it already was
+        assertEquals(0, history.recordTotal(at(0), 5000));
+        assertEquals(1000, history.recordTotal(at(0.2), 6000));
+
+        // A report that overtook a later one adds nothing
+        assertEquals(0, history.recordTotal(at(0.3), 5500));
+        assertEquals(500, history.recordTotal(at(0.4), 6500));
+
+        history.resetTotal();
+        assertEquals(0, history.recordTotal(at(0.5), 100));
+        assertEquals(50, history.recordTotal(at(0.6), 150));
+
+        history.record(at(1.1), 0);
+        assertEquals(1550, history.getBytesPerSecond());
+    }
+
+    private long at(double seconds) {
+        return start + (long) (seconds * SECOND);
+    }
+}
@@ -0,0 +1,105 @@
+package com.illusionist.ldm.manager;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransferScheduleTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void aWindowEndingBeforeItStartsRunsPastMidnight() {
+        TransferSchedule.Profile night = new TransferSchedule.Profile("Night", 22 * 60, 6 * 60, 0, 0, true);
+
+        assertTrue(night.contains(22 * 60));
+        assertTrue(night.contains(23 * 60 + 59));
+        assertTrue(night.contains(0));
+        assertTrue(night.contains(5 * 60 + 59));
+
+        assertFalse(night.contains(6 * 60));
+        assertFalse(night.contains(12 * 60));
+        assertFalse(night.contains(22 * 60 - 1));
+    }
+
+    @Test
+    void aWindowWithinTheDayEndsBeforeItsEndMinute() {
+        TransferSchedule.Profile work = new TransferSchedule.Profile("Work", 9 * 60, 17 * 60, 100_000, 2, false);
+
+        assertTrue(work.contains(9 * 60));
+        assertTrue(work.contains(17 * 60 - 1));
+        assertFalse(work.contains(17 * 60));
+        assertFalse(work.contains(0));
+    }
+
+    @Test
+    void minutesAreBroughtIntoTheDay() {
+        // The same start and end covers the whole day, as does ending at midnight
+        assertTrue(new TransferSchedule.Profile("All", 300, 300, 0, 0, false).contains(299));
+        assertTrue(new TransferSchedule.Profile("All", 0, 24 * 60, 0, 0, false).contains(24 * 60 - 1));
+
+        TransferSchedule.Profile wrapped = new TransferSchedule.Profile("Late", -60, 24 * 60 + 60, -5, -1, false);
+
+        assertEquals(23 * 60, wrapped.getStartMinute());
+        assertEquals(60, wrapped.getEndMinute());
+        assertEquals(0, wrapped.getBytesPerSecond());
+        assertEquals(0, wrapped.getMaxActive());
+        assertTrue(wrapped.contains(30));
+        assertFalse(wrapped.contains(90));
+    }
+
+    @Test
+    void theFirstMatchingProfileApplies() {
+        TransferSchedule schedule = new TransferSchedule(dir.resolve("schedule.properties").toFile());
+        schedule.setProfiles(List.of(
+                new TransferSchedule.Profile("Night", 23 * 60, 7 * 60, 0, 4, true),
+                new TransferSchedule.Profile("Evening", 18 * 60, 24 * 60, 500_000, 2, false)));
+
+        assertEquals("Night", schedule.getActive(LocalTime.of(23, 30)).getName());
+        assertEquals("Night", schedule.getActive(LocalTime.of(0, 15)).getName());
+        assertEquals("Evening", schedule.getActive(LocalTime.of(22, 59)).getName());
+
+        // Outside every window nothing is limited and off-peak jobs wait
+        TransferSchedule.Profile none = schedule.getActive(LocalTime.of(12, 0));
+        assertEquals(0, none.getBytesPerSecond());
+        assertEquals(0, none.getMaxActive());
+        assertFalse(none.getOffPeak());
+    }
+
+    @Test
+    void profilesSurviveARestart() throws IOException {
+        Path file = dir.resolve("schedule.properties");
+        new TransferSchedule(file.toFile()).setProfiles(List.of(
+                new TransferSchedule.Profile("Night", 22 * 60, 6 * 60, 1_000_000, 3, true),
+                new TransferSchedule.Profile("Day", 6 * 60, 22 * 60, 250_000, 1, false)));
+
+        // Written beside the file and moved over it
+        assertFalse(Files.exists(dir.resolve("schedule.properties.tmp")));
+
+        List<TransferSchedule.Profile> profiles = new TransferSchedule(file.toFile()).getProfiles();
+
+        assertEquals(2, profiles.size());
+        assertEquals("Night", profiles.get(0).getName());
+        assertEquals(22 * 60, profiles.get(0).getStartMinute());
+        assertEquals(6 * 60, profiles.get(0).getEndMinute());
+        assertEquals(1_000_000, profiles.get(0).getBytesPerSecond());
+        assertEquals(3, profiles.get(0).getMaxActive());
+        assertTrue(profiles.get(0).getOffPeak());
+        assertEquals("Day", profiles.get(1).getName());
+
+        // A profile broken by hand is skipped, the others stay
+        Files.writeString(file, Files.readString(file).replace("profile.0.rate=1000000", "profile.0.rate=fast"));
+
+        profiles = new TransferSchedule(file.toFile()).getProfiles();
+
+        assertEquals(1, profiles.size());
+        assertEquals("Day", profiles.get(0).getName());
+    }
+}
@@ -0,0 +1,241 @@
+package com.illusionist.ldm.manager.event;
+
+import com.illusionist.ldm.manager.DownloadJob;
+import com.illusionist.ldm.manager.DownloadManager;
+import com.illusionist.ldm.manager.DownloadRequest;
+import com.illusionist.ldm.network.FileDownloader;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EventBusTest {
+    private final ArrayList<DownloadJob> jobs = new ArrayList<>();
+    private final List<DownloadEvent> received = new ArrayList<>();
+
+    // Runs deliveries only when the test says so, to let a backlog build up
+    private final ArrayDeque<Runnable> pendingRuns = new ArrayDeque<>();
+    private final Executor held = pendingRuns::add;
+
+    @AfterEach
+    void removeJobs() {
+        for (DownloadJob job : jobs) {
+            DownloadManager.getInstance().cancel(job.getId());
+            DownloadManager.getInstance().remove(job.getId());
+        }
+    }
+
+    @Test
+    void progressForAJobIsMergedWhileBehind() {
+        EventBus bus = new EventBus(64);
+        Subscription subscription = bus.subscribe(received::add, held);
+        DownloadJob job = job();
+
+        for (int i = 1; i <= 100; i++)
+            bus.post(new ProgressEvent(job, i, 100));
+
+        assertEquals(1, subscription.getQueuedCount());
+        assertEquals(99, subscription.getCoalescedCount());
+
+        deliver();
+
+        assertEquals(1, received.size());
+        assertEquals(100, ((ProgressEvent) received.get(0)).getBytesRecv());
+    }
+
+    @Test
+    void stateChangesAreNeverMergedAndKeepTheirOrder() {
+        EventBus bus = new EventBus(64);
+        bus.subscribe(received::add, held);
+        DownloadJob job = job();
+
+        bus.post(new ProgressEvent(job, 10, 100));
+        bus.post(new ProgressEvent(job, 20, 100));
+        bus.post(new StateChangedEvent(job, FileDownloader.PAUSED));
+        bus.post(new StateChangedEvent(job, FileDownloader.PAUSED));
+        bus.post(new ProgressEvent(job, 30, 100));
+        bus.post(new StateChangedEvent(job, FileDownloader.RUNNING));
+        bus.post(new ProgressEvent(job, 40, 100));
+
+        deliver();
+
+        assertEquals(List.of("progress 20", "state 0", "state 0", "progress 30", "state 1", "progress 40"), describe(received));
+    }
+
+    @Test
+    void jobsAreMergedSeparately() {
+        EventBus bus = new EventBus(64);
+        bus.subscribe(received::add, held);
+        DownloadJob first = job();
+        DownloadJob second = job();
+
+        bus.post(new ProgressEvent(first, 1, 100));
+        bus.post(new ProgressEvent(second, 5, 100));
+        bus.post(new ProgressEvent(first, 2, 100));
+        bus.post(new ProgressEvent(second, 6, 100));
+
+        deliver();
+
+        assertEquals(2, received.size());
+        assertSame(first, received.get(0).getJob());
+        assertEquals(2, ((ProgressEvent) received.get(0)).getBytesRecv());
+        assertEquals(6, ((ProgressEvent) received.get(1)).getBytesRecv());
+    }
+
+    @Test
+    void aFullQueueDropsProgressButNotStateChanges() {
+        EventBus bus = new EventBus(16);
+        Subscription subscription = bus.subscribe(received::add, held);
+        DownloadJob job = job();
+
+        for (int i = 0; i < 16; i++)
+            bus.post(new StateChangedEvent(job, FileDownloader.RUNNING));
+
+        bus.post(new ProgressEvent(job(), 1, 100));
+        bus.post(new StateChangedEvent(job, FileDownloader.COMPLETE));
+
+        assertEquals(1, subscription.getDroppedCount());
+        assertEquals(17, subscription.getQueuedCount());
+
+        deliver();
+
+        assertEquals(17, received.size());
+        assertEquals(FileDownloader.COMPLETE, ((StateChangedEvent) received.get(16)).getState());
+    }
+
+    @Test
+    void aSubscriberTooFarBehindIsCutOff() {
+        EventBus bus = new EventBus(16);
+        Subscription subscription = bus.subscribe(received::add, held);
+        DownloadJob job = job();
+
+        // State changes get four times the capacity before giving up
+        for (int i = 0; i < 64; i++)
+            bus.post(new StateChangedEvent(job, FileDownloader.RUNNING));
+
+        assertFalse(subscription.isClosed());
+        assertEquals(64, subscription.getQueuedCount());
+
+        bus.post(new StateChangedEvent(job, FileDownloader.COMPLETE));
+
+        assertTrue(subscription.isClosed());
+        assertEquals(0, subscription.getQueuedCount());
+        assertEquals(65, subscription.getDroppedCount());
+        assertEquals(0, bus.getSubscriberCount());
+
+        deliver();
+
+        assertTrue(received.isEmpty());
+    }
+
+    @Test
+    void mergingStillFindsJobsAfterOthersStopMerging() {
+        EventBus bus = new EventBus(16);
+        Subscription subscription = bus.subscribe(received::add, held);
+        ArrayList<DownloadJob> many = new ArrayList<>();
+
+        for (int i = 0; i < 16; i++) {
+            many.add(job());
+            bus.post(new ProgressEvent(many.get(i), 1, 100));
+        }
+
+        // Every other job leaves the merge table, the rest must still be found
+        for (int i = 0; i < 16; i += 2)
+            bus.post(new StateChangedEvent(many.get(i), FileDownloader.RUNNING));
+
+        for (int i = 0; i < 16; i++)
+            bus.post(new ProgressEvent(many.get(i), 2, 100));
+
+        assertEquals(8, subscription.getCoalescedCount());
+        assertEquals(8, subscription.getDroppedCount());
+
+        deliver();
+
+        for (DownloadEvent event : received) {
+            if (event instanceof ProgressEvent progress)
+                assertEquals(many.indexOf(event.getJob()) % 2 == 0 ? 1 : 2, progress.getBytesRecv());
+        }
+    }
+
+    @Test
+    void aSlowSubscriberDoesNotHoldUpAnother() {
+        EventBus bus = new EventBus(64);
+        ArrayList<DownloadEvent> direct = new ArrayList<>();
+
+        bus.subscribe(received::add, held);
+        bus.subscribe(direct::add, Runnable::run);
+
+        DownloadJob job = job();
+        bus.post(new StateChangedEvent(job, FileDownloader.RUNNING));
+        bus.post(new ProgressEvent(job, 1, 100));
+
+        assertEquals(2, direct.size());
+        assertTrue(received.isEmpty());
+    }
+
+    @Test
+    void aThrowingListenerStillGetsLaterEvents() {
+        EventBus bus = new EventBus(64);
+        bus.subscribe(event -> {
+            received.add(event);
+            throw new IllegalStateException("broken");
+        }, Runnable::run);
+
+        DownloadJob job = job();
+        bus.post(new StateChangedEvent(job, FileDownloader.RUNNING));
+        bus.post(new StateChangedEvent(job, FileDownloader.COMPLETE));
+
+        assertEquals(2, received.size());
+    }
+
+    @Test
+    void closingDropsWhatIsQueued() {
+        EventBus bus = new EventBus(64);
+        Subscription subscription = bus.subscribe(received::add, held);
+        DownloadJob job = job();
+
+        bus.post(new StateChangedEvent(job, FileDownloader.RUNNING));
+        subscription.close();
+        bus.post(new StateChangedEvent(job, FileDownloader.COMPLETE));
+
+        deliver();
+
+        assertTrue(received.isEmpty());
+        assertEquals(0, bus.getSubscriberCount());
+    }
+
+    private void deliver() {
+        Runnable run;
+
+        while ((run = pendingRuns.poll()) != null)
+            run.run();
+    }
+
+    // A registered job that never starts, events only need one to point at
+    private DownloadJob job() {
+        DownloadRequest request = new DownloadRequest();
+        request.setStartPaused(true);
+
+        DownloadJob job = DownloadManager.getInstance().submit(request);
+        jobs.add(job);
+        return job;
+    }
+
+    private static List<String> describe(List<DownloadEvent> events) {
+        ArrayList<String> result = new ArrayList<>();
+
+        for (DownloadEvent event : events) {
+            if (event instanceof ProgressEvent progress)
+                result.add("progress " + progress.getBytesRecv());
+            else if (event instanceof StateChangedEvent state)
+                result.add("state " + state.getState());
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,82 @@
+package com.illusionist.ldm.network;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BandwidthLimiterTest {
+    private static final int CHUNK = 16 * 1024;
+
+    @Test
+    void withoutALimitNothingWaits() throws InterruptedException {
+        BandwidthLimiter limiter = new BandwidthLimiter();
+        long started = System.nanoTime();
+
+        for (int i = 0; i < 10_000; i++)
+            limiter.consume(CHUNK);
+
+        assertTrue(System.nanoTime() - started < 500_000_000L);
+        assertEquals(0, limiter.getRate());
+    }
+
+    @Test
+    void readsAreHeldToTheRate() throws InterruptedException {
+        BandwidthLimiter limiter = new BandwidthLimiter();
+        limiter.setRate(4 * 1024 * 1024);
+
+        // 1MB at 4MB/s, nothing saved up yet
+        long started = System.nanoTime();
+
+        for (int i = 0; i < 64; i++)
+            limiter.consume(CHUNK);
+
+        long millis = (System.nanoTime() - started) / 1_000_000;
+
+        assertTrue(millis >= 200, "took " + millis + "ms");
+        assertTrue(millis < 2000, "took " + millis + "ms");
+    }
+
+    @Test
+    void theCapIsSharedByEveryReader() throws Exception {
+        BandwidthLimiter limiter = new BandwidthLimiter();
+        limiter.setRate(2 * 1024 * 1024);
+
+        // Two readers of 512KB each, 1MB together at 2MB/s
+        long started = System.nanoTime();
+        CompletableFuture<Void> first = CompletableFuture.runAsync(() -> read(limiter, 32));
+        CompletableFuture<Void> second = CompletableFuture.runAsync(() -> read(limiter, 32));
+        CompletableFuture.allOf(first, second).get(10, TimeUnit.SECONDS);
+
+        long millis = (System.nanoTime() - started) / 1_000_000;
+
+        assertTrue(millis >= 400, "took " + millis + "ms");
+    }
+
+    @Test
+    void liftingTheLimitWakesSleepers() throws Exception {
+        BandwidthLimiter limiter = new BandwidthLimiter();
+        limiter.setRate(1024);
+
+        // A minute's worth of debt at this rate
+        CompletableFuture<Void> reader = CompletableFuture.runAsync(() -> read(limiter, 4));
+        Thread.sleep(100);
+        assertFalse(reader.isDone());
+
+        limiter.setRate(-1);
+
+        reader.get(2, TimeUnit.SECONDS);
+        assertEquals(0, limiter.getRate());
+    }
+
+    private static void read(BandwidthLimiter limiter, int chunks) {
+        try {
+            for (int i = 0; i < chunks; i++)
+                limiter.consume(CHUNK);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.illusionist.ldm.network;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompressionTest {
+    @TempDir
+    Path dir;
+
+    private final byte[] content = "a line of very compressible text\n".repeat(20_000).getBytes(StandardCharsets.UTF_8);
+    private final TestServer server;
+
+    CompressionTest() throws IOException {
+        server = new TestServer();
+        server.put("/a.txt", content);
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.close();
+    }
+
+    @Test
+    void gzipBodiesAreDecoded() throws Exception {
+        assertDecoded("gzip");
+    }
+
+    @Test
+    void zlibWrappedDeflateBodiesAreDecoded() throws Exception {
+        assertDecoded("deflate");
+    }
+
+    @Test
+    void rawDeflateBodiesAreDecoded() throws Exception {
+        assertDecoded("deflate-raw");
+    }
+
+    @Test
+    void compressionIsOnlyAskedForWhenEnabled() throws Exception {
+        server.setEncoding("gzip");
+
+        FileDownloader downloader = downloader(false);
+        downloader.start();
+        SegmentedTransferTest.awaitDone(downloader);
+
+        assertEquals(FileDownloader.COMPLETE, downloader.getDownloadStatus());
+        assertFalse(downloader.getEncoded());
+        assertArrayEquals(content, Files.readAllBytes(Path.of(downloader.getFilePath())));
+    }
+
+    private void assertDecoded(String encoding) throws Exception {
+        server.setEncoding(encoding);
+
+        FileDownloader downloader = downloader(true);
+        downloader.start();
+        SegmentedTransferTest.awaitDone(downloader);
+
+        assertEquals(FileDownloader.COMPLETE, downloader.getDownloadStatus());
+        assertTrue(downloader.getEncoded());
+        assertArrayEquals(content, Files.readAllBytes(Path.of(downloader.getFilePath())));
+        assertEquals(content.length, downloader.getDecodedBytes());
+        assertTrue(downloader.getWireBytes() < content.length / 10, "wire bytes " + downloader.getWireBytes());
+    }
+
+    private FileDownloader downloader(boolean acceptCompression) {
+        FileDownloader downloader = new FileDownloader();
+        downloader.setDownloadUrl(server.url("/a.txt?" + System.nanoTime()));
+        downloader.setFilePath(dir.resolve("a" + System.nanoTime() + ".txt").toString());
+        downloader.setConditional(false);
+        downloader.setAcceptCompression(acceptCompression);
+        return downloader;
+    }
+}
@@ -0,0 +1,98 @@
+package com.illusionist.ldm.network;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeltaTransferTest {
+    private static final int SIZE = 1024 * 1024 + 999;
+    private static final int BLOCK_SIZE = 2048;
+
+    @TempDir
+    Path dir;
+
+    private final byte[] content = new byte[SIZE];
+    private final TestServer server;
+
+    DeltaTransferTest() throws IOException {
+        new Random(41).nextBytes(content);
+
+        server = new TestServer();
+        server.put("/new.bin", content);
+        server.put("/new.bin.zsync", ZsyncIndexTest.index(content, BLOCK_SIZE, 2, 2, 5, "new.bin"));
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.close();
+    }
+
+    @Test
+    void onlyChangedBlocksAreFetched() throws Exception {
+        // The old copy has a few bytes in front, so every block sits at an odd offset,
+        // and two blocks far apart that differ
+        ByteArrayOutputStream old = new ByteArrayOutputStream();
+        old.write(new byte[17]);
+        old.write(content);
+
+        byte[] basis = old.toByteArray();
+        basis[17 + 100 * BLOCK_SIZE + 5] ^= 1;
+        basis[17 + 400 * BLOCK_SIZE + 9] ^= 1;
+        Files.write(dir.resolve("old.bin"), basis);
+
+        FileDownloader downloader = downloader();
+        downloader.setDeltaBasis(dir.resolve("old.bin").toString());
+        downloader.start();
+        SegmentedTransferTest.awaitDone(downloader);
+
+        assertEquals(FileDownloader.COMPLETE, downloader.getDownloadStatus());
+        assertArrayEquals(content, Files.readAllBytes(dir.resolve("new.bin")));
+        assertEquals(SIZE, downloader.getDeltaReusedBytes() + downloader.getDeltaFetchedBytes());
+
+        // With two block matches in a row required, the block before a change is fetched as well
+        assertTrue(downloader.getDeltaFetchedBytes() <= 4 * BLOCK_SIZE, "fetched " + downloader.getDeltaFetchedBytes());
+        assertTrue(server.getRequests().stream().noneMatch(x -> x.equals("/new.bin -")));
+    }
+
+    @Test
+    void aBasisWithNothingInCommonFetchesEverything() throws Exception {
+        byte[] basis = new byte[SIZE];
+        new Random(42).nextBytes(basis);
+        Files.write(dir.resolve("old.bin"), basis);
+
+        FileDownloader downloader = downloader();
+        downloader.setDeltaBasis(dir.resolve("old.bin").toString());
+        downloader.start();
+        SegmentedTransferTest.awaitDone(downloader);
+
+        assertEquals(FileDownloader.COMPLETE, downloader.getDownloadStatus());
+        assertArrayEquals(content, Files.readAllBytes(dir.resolve("new.bin")));
+        assertEquals(0, downloader.getDeltaReusedBytes());
+    }
+
+    @Test
+    void withoutABasisTheFileIsDownloaded() throws Exception {
+        FileDownloader downloader = downloader();
+        downloader.start();
+        SegmentedTransferTest.awaitDone(downloader);
+
+        assertEquals(FileDownloader.COMPLETE, downloader.getDownloadStatus());
+        assertArrayEquals(content, Files.readAllBytes(dir.resolve("new.bin")));
+    }
+
+    private FileDownloader downloader() {
+        FileDownloader downloader = new FileDownloader();
+        downloader.setDownloadUrl(server.url("/new.bin.zsync?" + System.nanoTime()));
+        downloader.setFilePath(dir.resolve("new.bin").toString());
+        downloader.setConditional(false);
+        return downloader;
+    }
+}
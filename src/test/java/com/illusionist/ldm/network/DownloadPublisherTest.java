@@ -0,0 +1,135 @@
+package com.illusionist.ldm.network;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DownloadPublisherTest {
+    private static final int SIZE = 2 * 1024 * 1024 + 99;
+
+    @TempDir
+    Path dir;
+
+    private final byte[] content = new byte[SIZE];
+    private final TestServer server;
+
+    DownloadPublisherTest() throws IOException {
+        new Random(38).nextBytes(content);
+        server = new TestServer();
+        server.put("/a.bin", content);
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.close();
+    }
+
+    @Test
+    void aSubscriberSeesTheWholeContent() throws Exception {
+        DownloadPublisher publisher = new DownloadPublisher(server.url("/a.bin?" + System.nanoTime()));
+        Collector collector = new Collector(Long.MAX_VALUE);
+
+        publisher.subscribe(collector);
+
+        assertArrayEquals(content, collector.done.get(30, TimeUnit.SECONDS));
+        SegmentedTransferTest.awaitDone(publisher.getDownloader());
+        assertFalse(Files.exists(Path.of(publisher.getDownloader().getPartFilepath())));
+    }
+
+    @Test
+    void aTeeFileGetsTheSameContent() throws Exception {
+        DownloadPublisher publisher = new DownloadPublisher(server.url("/a.bin?" + System.nanoTime()));
+        publisher.setTeeFilepath(dir.resolve("tee.bin").toString());
+        Collector collector = new Collector(Long.MAX_VALUE);
+
+        publisher.subscribe(collector);
+
+        assertArrayEquals(content, collector.done.get(30, TimeUnit.SECONDS));
+        assertArrayEquals(content, Files.readAllBytes(dir.resolve("tee.bin")));
+    }
+
+    @Test
+    void aFailedDownloadFailsTheStream() {
+        DownloadPublisher publisher = new DownloadPublisher(server.url("/missing.bin?" + System.nanoTime()));
+        Collector collector = new Collector(Long.MAX_VALUE);
+
+        publisher.subscribe(collector);
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> collector.done.get(30, TimeUnit.SECONDS));
+        assertInstanceOf(IOException.class, e.getCause());
+    }
+
+    @Test
+    void cancellingStopsTheDownload() throws Exception {
+        server.setDelayMillisPer64k(20);
+
+        DownloadPublisher publisher = new DownloadPublisher(server.url("/a.bin?" + System.nanoTime()));
+        Collector collector = new Collector(4);
+
+        publisher.subscribe(collector);
+        collector.cancelled.get(30, TimeUnit.SECONDS);
+
+        long deadline = System.currentTimeMillis() + 10_000;
+
+        while (publisher.getDownloader().getDownloadStatus() != FileDownloader.STOPPED && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+
+        assertEquals(FileDownloader.STOPPED, publisher.getDownloader().getDownloadStatus());
+    }
+
+    // Gathers every chunk, or cancels after the given number of them
+    private static final class Collector implements Flow.Subscriber<ByteBuffer> {
+        final CompletableFuture<byte[]> done = new CompletableFuture<>();
+        final CompletableFuture<Void> cancelled = new CompletableFuture<>();
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final long cancelAfter;
+        private Flow.Subscription subscription;
+        private long chunks = 0;
+
+        Collector(long cancelAfter) {
+            this.cancelAfter = cancelAfter;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(ByteBuffer item) {
+            byte[] chunk = new byte[item.remaining()];
+            item.get(chunk);
+            bytes.writeBytes(chunk);
+
+            if (++chunks == cancelAfter) {
+                subscription.cancel();
+                cancelled.complete(null);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            done.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            done.complete(bytes.toByteArray());
+        }
+    }
+}
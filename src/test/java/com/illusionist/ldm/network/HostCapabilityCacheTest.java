@@ -0,0 +1,177 @@
+package com.illusionist.ldm.network;
+
+import org.junit.jupiter.api.Test;
+
+import javax.net.ssl.SSLSession;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HostCapabilityCacheTest {
+    private static final URI FILE = URI.create("http://example.test/files/a.bin");
+
+    @Test
+    void remembersWhatAFullResponseTold() {
+        HostCapabilityCache cache = new HostCapabilityCache(60_000);
+        cache.update(response(FILE, 200, HttpClient.Version.HTTP_1_1,
+                Map.of("Accept-Ranges", "bytes", "Content-Length", "1000", "ETag", "\"v1\"")));
+
+        assertTrue(cache.supportsRanges(FILE));
+        assertEquals(HttpClient.Version.HTTP_1_1, cache.getVersion(FILE));
+        assertEquals(1000, cache.getValidators(FILE).getContentLength());
+        assertEquals("\"v1\"", cache.getValidators(FILE).getIfRangeValue());
+    }
+
+    @Test
+    void slicesAndEncodedBodiesLeaveTheLengthUnknown() {
+        HostCapabilityCache cache = new HostCapabilityCache(60_000);
+
+        cache.update(response(FILE, 206, HttpClient.Version.HTTP_2, Map.of("Content-Length", "10", "Content-Range", "bytes 0-9/*")));
+        assertEquals(-1, cache.getValidators(FILE).getContentLength());
+
+        cache.update(response(FILE, 200, HttpClient.Version.HTTP_2, Map.of("Content-Length", "10", "Content-Encoding", "gzip")));
+        assertEquals(-1, cache.getValidators(FILE).getContentLength());
+    }
+
+    @Test
+    void aSliceTellsTheFullLengthOrKeepsTheOneKnown() {
+        HostCapabilityCache cache = new HostCapabilityCache(60_000);
+
+        cache.update(response(FILE, 206, HttpClient.Version.HTTP_1_1,
+                Map.of("Content-Length", "10", "Content-Range", "bytes 0-9/5000", "ETag", "\"v1\"")));
+        assertEquals(5000, cache.getValidators(FILE).getContentLength());
+
+        // Neither a slice without a total nor an encoded body forgets it
+        cache.update(response(FILE, 206, HttpClient.Version.HTTP_1_1, Map.of("Content-Length", "10", "ETag", "\"v1\"")));
+        assertEquals(5000, cache.getValidators(FILE).getContentLength());
+
+        cache.update(response(FILE, 200, HttpClient.Version.HTTP_1_1,
+                Map.of("Content-Length", "70", "Content-Encoding", "gzip", "ETag", "\"v1\"")));
+        assertEquals(5000, cache.getValidators(FILE).getContentLength());
+
+        // A new version of the resource is a new length
+        cache.update(response(FILE, 200, HttpClient.Version.HTTP_1_1,
+                Map.of("Content-Length", "70", "Content-Encoding", "gzip", "ETag", "\"v2\"")));
+        assertEquals(-1, cache.getValidators(FILE).getContentLength());
+    }
+
+    @Test
+    void theDefaultPortIsTheSameHost() {
+        HostCapabilityCache cache = new HostCapabilityCache(60_000);
+        cache.update(response(URI.create("https://example.test/a.bin"), 200, HttpClient.Version.HTTP_2, Map.of("Accept-Ranges", "bytes")));
+
+        assertTrue(cache.supportsRanges(URI.create("https://EXAMPLE.test:443/b.bin")));
+        assertFalse(cache.supportsRanges(URI.create("https://example.test:8443/b.bin")));
+        assertFalse(cache.supportsRanges(URI.create("http://example.test/b.bin")));
+    }
+
+    @Test
+    void keepsRangeSupportWhenAResponseSaysNothing() {
+        HostCapabilityCache cache = new HostCapabilityCache(60_000);
+        cache.update(response(FILE, 206, HttpClient.Version.HTTP_1_1, Map.of()));
+        cache.update(response(FILE, 200, HttpClient.Version.HTTP_1_1, Map.of()));
+
+        assertTrue(cache.supportsRanges(FILE));
+
+        cache.markRangesUnsupported(FILE);
+        assertFalse(cache.supportsRanges(FILE));
+    }
+
+    @Test
+    void expiredEntriesAreNotReturned() {
+        HostCapabilityCache cache = new HostCapabilityCache(-1);
+        cache.putResolvedUri("http://example.test/a", FILE);
+
+        assertNull(cache.getResolvedUri("http://example.test/a"));
+    }
+
+    @Test
+    void expiredEntriesAreSweptWithoutBeingLookedUp() {
+        HostCapabilityCache cache = new HostCapabilityCache(-1);
+
+        for (int i = 0; i < 20_000; i++)
+            cache.putResolvedUri("http://example.test/" + i, FILE);
+
+        assertTrue(cache.size() <= 4097, "size " + cache.size());
+    }
+
+    @Test
+    void liveEntriesAreCapped() {
+        HostCapabilityCache cache = new HostCapabilityCache(60_000);
+
+        for (int i = 0; i < 20_000; i++)
+            cache.putResolvedUri("http://example.test/" + i, FILE);
+
+        assertTrue(cache.size() <= 4097, "size " + cache.size());
+        assertNotNull(cache.getResolvedUri("http://example.test/19999"));
+    }
+
+    @Test
+    void invalidateDropsTheValidatorsOfWhereItLed() {
+        HostCapabilityCache cache = new HostCapabilityCache(60_000);
+        cache.putResolvedUri("http://example.test/a", FILE);
+        cache.update(response(FILE, 200, HttpClient.Version.HTTP_1_1, Map.of("Content-Length", "5")));
+
+        cache.invalidate("http://example.test/a");
+
+        assertNull(cache.getResolvedUri("http://example.test/a"));
+        assertNull(cache.getValidators(FILE));
+    }
+
+    private static HttpResponse<InputStream> response(URI uri, int status, HttpClient.Version version, Map<String, String> headers) {
+        HttpHeaders httpHeaders = HttpHeaders.of(
+                headers.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, x -> List.of(x.getValue()))),
+                (name, value) -> true);
+
+        return new HttpResponse<>() {
+            @Override
+            public int statusCode() {
+                return status;
+            }
+
+            @Override
+            public HttpRequest request() {
+                return HttpRequest.newBuilder(uri).build();
+            }
+
+            @Override
+            public Optional<HttpResponse<InputStream>> previousResponse() {
+                return Optional.empty();
+            }
+
+            @Override
+            public HttpHeaders headers() {
+                return httpHeaders;
+            }
+
+            @Override
+            public InputStream body() {
+                return InputStream.nullInputStream();
+            }
+
+            @Override
+            public Optional<SSLSession> sslSession() {
+                return Optional.empty();
+            }
+
+            @Override
+            public URI uri() {
+                return uri;
+            }
+
+            @Override
+            public HttpClient.Version version() {
+                return version;
+            }
+        };
+    }
+}
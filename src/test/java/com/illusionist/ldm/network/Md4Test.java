@@ -0,0 +1,52 @@
+package com.illusionist.ldm.network;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HexFormat;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class Md4Test {
+    private final Md4 md4 = new Md4();
+
+    // The test suite of RFC 1320, appendix A.5
+    @Test
+    void matchesTheRfcVectors() {
+        assertEquals("31d6cfe0d16ae931b73c59d7e0c089c0", hash(""));
+        assertEquals("bde52cb31de33e46245e05fbdbd6fb24", hash("a"));
+        assertEquals("a448017aaf21d8525fc10ae87aa6729d", hash("abc"));
+        assertEquals("d9130a8164549fe818874806e1c7014b", hash("message digest"));
+        assertEquals("d79e1c308aa5bbcdeea8ed63df412da9", hash("abcdefghijklmnopqrstuvwxyz"));
+        assertEquals("043f8582f241db351ce627e153e7f0e4", hash("ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789"));
+        assertEquals("e33b4ddc9c38f2199c3e7b164fcc0536", hash("1234567890".repeat(8)));
+    }
+
+    @Test
+    void hashesASliceOfALargerArray() {
+        byte[] data = "xxxxxmessage digestyyyy".getBytes(StandardCharsets.US_ASCII);
+        byte[] output = new byte[16];
+
+        md4.digest(data, 5, 14, output);
+
+        assertEquals("d9130a8164549fe818874806e1c7014b", HexFormat.of().formatHex(output));
+    }
+
+    @Test
+    void anInstanceCanBeReused() {
+        String first = hash("1234567890".repeat(8));
+
+        hash("a");
+
+        assertEquals(first, hash("1234567890".repeat(8)));
+        assertEquals("a448017aaf21d8525fc10ae87aa6729d", hash("abc"));
+    }
+
+    private String hash(String text) {
+        byte[] data = text.getBytes(StandardCharsets.US_ASCII);
+        byte[] output = new byte[16];
+
+        md4.digest(data, 0, data.length, output);
+        return HexFormat.of().formatHex(output);
+    }
+}
@@ -0,0 +1,91 @@
+package com.illusionist.ldm.network;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetalinkParserTest {
+    @Test
+    void recognisesMetalinkUrls() {
+        assertTrue(MetalinkParser.isMetalink("http://example.test/a.meta4"));
+        assertTrue(MetalinkParser.isMetalink("http://example.test/A.METALINK?x=1"));
+        assertFalse(MetalinkParser.isMetalink("http://example.test/a.iso"));
+        assertFalse(MetalinkParser.isMetalink("http://example.test/a.iso?x=.meta4"));
+    }
+
+    @Test
+    void readsAMetalink4File() throws IOException {
+        MetalinkParser.Metalink metalink = parse("""
+                <?xml version="1.0" encoding="UTF-8"?>
+                <metalink xmlns="urn:ietf:params:xml:ns:metalink">
+                  <file name="a.iso">
+                    <size>1048576</size>
+                    <hash type="sha-1">0123456789abcdef0123456789abcdef01234567</hash>
+                    <pieces length="262144" type="sha-1">
+                      <hash>ffffffffffffffffffffffffffffffffffffffff</hash>
+                    </pieces>
+                    <url priority="2">http://slow.example.test/a.iso</url>
+                    <url priority="1">https://fast.example.test/a.iso</url>
+                    <url priority="1">ftp://ftp.example.test/a.iso</url>
+                  </file>
+                </metalink>
+                """);
+
+        assertEquals("a.iso", metalink.getFilename());
+        assertEquals(1048576, metalink.getSize());
+        assertEquals("0123456789abcdef0123456789abcdef01234567", metalink.getSHA1());
+        assertEquals(List.of("https://fast.example.test/a.iso", "http://slow.example.test/a.iso"), metalink.getUrls());
+    }
+
+    @Test
+    void readsAMetalink3File() throws IOException {
+        MetalinkParser.Metalink metalink = parse("""
+                <?xml version="1.0" encoding="UTF-8"?>
+                <metalink version="3.0" xmlns="http://www.metalinker.org/">
+                  <files>
+                    <file name="b.iso">
+                      <verification>
+                        <hash type="sha1">89abcdef0123456789abcdef0123456789abcdef</hash>
+                      </verification>
+                      <resources>
+                        <url type="http" preference="10">http://low.example.test/b.iso</url>
+                        <url type="http" preference="90">http://high.example.test/b.iso</url>
+                      </resources>
+                    </file>
+                  </files>
+                </metalink>
+                """);
+
+        assertEquals("89abcdef0123456789abcdef0123456789abcdef", metalink.getSHA1());
+        assertEquals(List.of("http://high.example.test/b.iso", "http://low.example.test/b.iso"), metalink.getUrls());
+    }
+
+    @Test
+    void rejectsDocumentsWithoutHttpMirrors() {
+        assertThrows(IOException.class, () -> parse("""
+                <metalink xmlns="urn:ietf:params:xml:ns:metalink">
+                  <file name="a.iso"><url>ftp://ftp.example.test/a.iso</url></file>
+                </metalink>
+                """));
+    }
+
+    @Test
+    void rejectsDoctypes() {
+        assertThrows(IOException.class, () -> parse("""
+                <?xml version="1.0"?>
+                <!DOCTYPE metalink [<!ENTITY x SYSTEM "file:///etc/passwd">]>
+                <metalink xmlns="urn:ietf:params:xml:ns:metalink">
+                  <file name="a.iso"><url>http://example.test/&x;</url></file>
+                </metalink>
+                """));
+    }
+
+    private static MetalinkParser.Metalink parse(String xml) throws IOException {
+        return MetalinkParser.parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,93 @@
+package com.illusionist.ldm.network;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PartFileTest {
+    private static final int SIZE = 1024 * 1024;
+
+    @TempDir
+    Path dir;
+
+    private final byte[] content = new byte[SIZE];
+    private final TestServer server;
+
+    PartFileTest() throws IOException {
+        new Random(34).nextBytes(content);
+        server = new TestServer();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.close();
+    }
+
+    @Test
+    void theTargetOnlyAppearsOnceComplete() throws Exception {
+        server.put("/a.bin", content);
+        server.setDelayMillisPer64k(40);
+
+        Path target = dir.resolve("a.bin");
+        Path part = dir.resolve("a.bin.part");
+        Files.writeString(target, "previous version");
+
+        FileDownloader downloader = downloader(server.url("/a.bin?" + System.nanoTime()), target);
+        downloader.start();
+        awaitRunning(downloader);
+
+        // Staged at full size next to the old file, which is still intact
+        assertEquals(SIZE, Files.size(part));
+        assertEquals("previous version", Files.readString(target));
+
+        SegmentedTransferTest.awaitDone(downloader);
+
+        assertEquals(FileDownloader.COMPLETE, downloader.getDownloadStatus());
+        assertArrayEquals(content, Files.readAllBytes(target));
+        assertFalse(Files.exists(part));
+    }
+
+    @Test
+    void aStoppedDownloadRemovesItsPartFile() throws Exception {
+        server.put("/b.bin", content);
+        server.setDelayMillisPer64k(40);
+
+        Path target = dir.resolve("b.bin");
+
+        FileDownloader downloader = downloader(server.url("/b.bin?" + System.nanoTime()), target);
+        downloader.start();
+        awaitRunning(downloader);
+        downloader.stop();
+
+        long deadline = System.currentTimeMillis() + 10_000;
+
+        while (Files.exists(dir.resolve("b.bin.part")) && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+
+        assertFalse(Files.exists(dir.resolve("b.bin.part")));
+        assertFalse(Files.exists(target));
+    }
+
+    private FileDownloader downloader(String url, Path target) {
+        FileDownloader downloader = new FileDownloader();
+        downloader.setDownloadUrl(url);
+        downloader.setFilePath(target.toString());
+        downloader.setConditional(false);
+        downloader.setMaxConnections(1);
+        return downloader;
+    }
+
+    private static void awaitRunning(FileDownloader downloader) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+
+        while (downloader.getDownloadStatus() != FileDownloader.RUNNING && System.currentTimeMillis() < deadline)
+            Thread.sleep(5);
+    }
+}
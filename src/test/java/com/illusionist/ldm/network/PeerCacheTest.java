@@ -0,0 +1,134 @@
+package com.illusionist.ldm.network;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class PeerCacheTest {
+    private static final String URL = "http://example.test/a.bin";
+
+    @TempDir
+    Path dir;
+
+    private PeerCache sharing;
+    private PeerCache asking;
+    private String hash;
+
+    @BeforeEach
+    void start() throws IOException {
+        byte[] content = new byte[10_000];
+        new Random(44).nextBytes(content);
+        Path file = Files.write(dir.resolve("a.bin"), content);
+        hash = ZsyncIndexTest.sha1(content);
+
+        sharing = cache("sharing");
+        sharing.startServing(0);
+        sharing.advertise(URL, hash.toUpperCase(), file.toFile());
+
+        asking = cache("asking");
+        asking.setPeers(List.of(" ", "127.0.0.1:" + sharing.getPort()));
+    }
+
+    @AfterEach
+    void stop() {
+        sharing.stopServing();
+    }
+
+    @Test
+    void withoutPeersOnlyLoopbackIsServed() {
+        assertTrue(sharing.isServing());
+        assertTrue(sharing.getAddress().isLoopbackAddress());
+    }
+
+    @Test
+    void theServerListensWhereThePeersAreReached() throws IOException {
+        InetAddress local = findLanAddress();
+        assumeTrue(local != null, "no network interface besides loopback");
+
+        PeerCache cache = cache("lan");
+        cache.setPeers(List.of(local.getHostAddress() + ":" + PeerCache.DEFAULT_PORT));
+        assertEquals(local, cache.getBindAddress());
+
+        cache.startServing(0);
+
+        try {
+            assertEquals(local, cache.getAddress());
+        } finally {
+            cache.stopServing();
+        }
+    }
+
+    @Test
+    void contentIsFoundByItsHash() {
+        PeerCache.Source source = asking.find(URL, " " + hash.toUpperCase());
+
+        assertNotNull(source);
+        assertEquals(hash, source.getHash());
+        assertEquals(10_000, source.getSize());
+        assertEquals("127.0.0.1:" + sharing.getPort(), source.getPeer());
+
+        assertNull(asking.find(URL, ZsyncIndexTest.sha1(new byte[1])));
+    }
+
+    @Test
+    void aUrlIsOnlyLookedUpWhenSwitchedOn() {
+        // The peer's word for what a url holds is not taken by default
+        assertNull(asking.find(URL, null));
+
+        asking.setUrlLookup(true);
+        PeerCache.Source source = asking.find(URL, null);
+
+        assertNotNull(source);
+        assertEquals(hash, source.getHash());
+        assertNull(asking.find("http://example.test/other.bin", null));
+    }
+
+    @Test
+    void malformedPeersAreLeftOut() {
+        String good = "127.0.0.1:" + sharing.getPort();
+        asking.setPeers(List.of("not a peer", "[::1", "host:port", "127.0.0.1:1/path", "user@127.0.0.1:1", good));
+
+        assertEquals(List.of(good), asking.getPeers());
+        assertNotNull(asking.find(URL, hash));
+    }
+
+    @Test
+    void aPeerThatFailedIsSkipped() {
+        PeerCache.Source source = asking.find(URL, hash);
+        asking.reportBad(source);
+
+        assertNull(asking.find(URL, hash));
+    }
+
+    private PeerCache cache(String name) {
+        return new PeerCache(dir.resolve(name + "-content.log").toFile(), dir.resolve(name + "-urls.properties").toFile());
+    }
+
+    private static InetAddress findLanAddress() throws SocketException {
+        for (NetworkInterface network : NetworkInterface.networkInterfaces().toList()) {
+            if (!network.isUp() || network.isLoopback())
+                continue;
+
+            for (InetAddress address : network.inetAddresses().toList()) {
+                if (address instanceof Inet4Address)
+                    return address;
+            }
+        }
+
+        return null;
+    }
+}
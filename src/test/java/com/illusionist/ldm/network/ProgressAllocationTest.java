@@ -0,0 +1,83 @@
+package com.illusionist.ldm.network;
+
+import com.illusionist.ldm.manager.DownloadJob;
+import com.illusionist.ldm.manager.DownloadManager;
+import com.illusionist.ldm.manager.DownloadRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class ProgressAllocationTest {
+    private static final int CALLS = 1_000_000;
+
+    // Only the ProgressEvent posted every 100ms is left, a boxed id or an
+    // iterator per chunk would be tens of bytes each
+    private static final double MAX_BYTES_PER_CALL = 1.0;
+
+    @TempDir
+    Path dir;
+
+    private final TestServer server;
+    private DownloadJob job;
+
+    ProgressAllocationTest() throws IOException {
+        server = new TestServer();
+        server.put("/a.bin", new byte[1024 * 1024]);
+    }
+
+    @AfterEach
+    void stop() {
+        if (job != null) {
+            DownloadManager.getInstance().cancel(job.getId());
+            DownloadManager.getInstance().remove(job.getId());
+        }
+
+        server.close();
+    }
+
+    @Test
+    void reportingProgressToTheManagerAllocatesNothing() throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        // A real job from the manager, held running by a server that hardly sends anything
+        server.setDelayMillisPer64k(60_000);
+
+        DownloadRequest request = new DownloadRequest();
+        request.setUrl(server.url("/a.bin?" + System.nanoTime()));
+        request.setFilepath(dir.resolve("a.bin").toString());
+
+        job = DownloadManager.getInstance().submit(request);
+        FileDownloader downloader = job.getDownloader();
+        long deadline = System.currentTimeMillis() + 30_000;
+
+        while (downloader.getDownloadStatus() != FileDownloader.RUNNING && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+
+        assertEquals(FileDownloader.RUNNING, downloader.getDownloadStatus());
+
+        // Warm up first so the measurement is of compiled code, not of the interpreter and class loading
+        long total = Long.MAX_VALUE / 2;
+        report(downloader, 0, CALLS, total);
+
+        long before = threads.getCurrentThreadAllocatedBytes();
+        report(downloader, CALLS, CALLS, total);
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+
+        assertEquals(FileDownloader.RUNNING, downloader.getDownloadStatus());
+        assertTrue(allocated <= CALLS * MAX_BYTES_PER_CALL, allocated + " bytes for " + CALLS + " progress reports");
+    }
+
+    private static void report(FileDownloader downloader, long from, int calls, long total) {
+        for (long i = from; i < from + calls; i++)
+            downloader.reportProgress(i * 1024, total);
+    }
+}
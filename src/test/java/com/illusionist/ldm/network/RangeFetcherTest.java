@@ -0,0 +1,220 @@
+package com.illusionist.ldm.network;
+
+import com.illusionist.ldm.network.RangeFetcher.ByteRange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RangeFetcherTest {
+    private static final int SIZE = 300_000;
+
+    private final byte[] content = new byte[SIZE];
+    private final TestServer server;
+
+    RangeFetcherTest() throws IOException {
+        new Random(49).nextBytes(content);
+        server = new TestServer();
+        server.put("/a.bin", content);
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.close();
+    }
+
+    //region Parsing and merging
+    @Test
+    void parseReadsRangeHeaderSyntax() {
+        List<ByteRange> ranges = RangeFetcher.parse("0-1023, 4096-,-65536,,  10-10 ");
+
+        assertEquals(4, ranges.size());
+        assertRange(0, 1024, ranges.get(0));
+        assertRange(4096, Long.MAX_VALUE, ranges.get(1));
+        assertTrue(ranges.get(2).isSuffix());
+        assertEquals(65536, ranges.get(2).getLength());
+        assertRange(10, 11, ranges.get(3));
+
+        // And writes it back the same way
+        assertEquals("0-1023", ranges.get(0).toString());
+        assertEquals("4096-", ranges.get(1).toString());
+        assertEquals("-65536", ranges.get(2).toString());
+    }
+
+    @Test
+    void parseRejectsWhatIsNotARange() {
+        assertThrows(IllegalArgumentException.class, () -> RangeFetcher.parse("100"));
+        assertThrows(IllegalArgumentException.class, () -> RangeFetcher.parse("5-3"));
+        assertThrows(IllegalArgumentException.class, () -> RangeFetcher.parse("-0"));
+        assertThrows(IllegalArgumentException.class, () -> RangeFetcher.parse("x-10"));
+        assertThrows(IllegalArgumentException.class, () -> RangeFetcher.parse("0-10, 20-y"));
+        assertTrue(RangeFetcher.parse(" , ").isEmpty());
+    }
+
+    @Test
+    void mergeJoinsOverlappingTouchingAndCloseRanges() {
+        List<ByteRange> ranges = List.of(
+                new ByteRange(500, 600),
+                new ByteRange(0, 100),
+                new ByteRange(50, 80),
+                new ByteRange(100, 150),
+                new ByteRange(160, 200),
+                new ByteRange(300, 300));
+
+        List<ByteRange> exact = RangeFetcher.merge(ranges, 0);
+
+        assertEquals(3, exact.size());
+        assertRange(0, 150, exact.get(0));
+        assertRange(160, 200, exact.get(1));
+        assertRange(500, 600, exact.get(2));
+
+        // With a gap of 10 the 10 bytes between 150 and 160 are worth fetching
+        List<ByteRange> gapped = RangeFetcher.merge(ranges, 10);
+
+        assertEquals(2, gapped.size());
+        assertRange(0, 200, gapped.get(0));
+        assertRange(500, 600, gapped.get(1));
+
+        assertTrue(RangeFetcher.merge(List.of(), 100).isEmpty());
+    }
+
+    @Test
+    void rangesArePlacedInTheResource() {
+        assertRange(900, 1000, ByteRange.suffix(100).resolve(1000));
+        assertRange(0, 1000, ByteRange.suffix(5000).resolve(1000));
+        assertRange(200, 1000, new ByteRange(200, Long.MAX_VALUE).resolve(1000));
+        assertEquals(0, new ByteRange(2000, 3000).resolve(1000).getLength());
+        assertThrows(IllegalArgumentException.class, () -> ByteRange.suffix(0));
+    }
+    //endregion
+
+    //region Fetching
+    @Test
+    void readReturnsEachRangeInTheOrderAsked() throws Exception {
+        RangeFetcher fetcher = new RangeFetcher(URI.create(server.url("/a.bin")));
+        List<byte[]> parts = fetcher.read(RangeFetcher.parse("200000-200099, 10-19, -5, 15-24, 299990-"));
+
+        assertEquals(SIZE, fetcher.getSize());
+        assertArrayEquals(slice(200000, 200100), parts.get(0));
+        assertArrayEquals(slice(10, 20), parts.get(1));
+        assertArrayEquals(slice(SIZE - 5, SIZE), parts.get(2));
+        assertArrayEquals(slice(15, 25), parts.get(3));
+        assertArrayEquals(slice(299990, SIZE), parts.get(4));
+    }
+
+    @Test
+    void closeRangesShareARequest() throws Exception {
+        List<ByteRange> ranges = RangeFetcher.parse("0-99, 200-299, 100000-100099");
+
+        RangeFetcher apart = new RangeFetcher(URI.create(server.url("/a.bin")));
+        apart.fetch(ranges, (position, data, offset, length) -> true);
+
+        RangeFetcher together = new RangeFetcher(URI.create(server.url("/a.bin")));
+        together.setMaxGap(1000);
+        ArrayList<Long> positions = new ArrayList<>();
+        together.fetch(ranges, (position, data, offset, length) -> {
+            assertArrayEquals(slice(position, position + length), Arrays.copyOfRange(data, offset, offset + length));
+            positions.add(position);
+            return true;
+        });
+
+        assertEquals(3, apart.getRequestCount());
+        assertEquals(300, apart.getBytesFetched());
+        assertEquals(2, together.getRequestCount());
+        assertEquals(400, together.getBytesFetched());
+        assertEquals(0, positions.get(0));
+    }
+
+    @Test
+    void aServerWithoutMultipartIsAskedRangeByRange() throws Exception {
+        // The test server answers a list of ranges with the whole body
+        RangeFetcher fetcher = new RangeFetcher(URI.create(server.url("/a.bin")));
+        fetcher.setMultipart(true);
+
+        List<byte[]> parts = fetcher.read(RangeFetcher.parse("0-9, 1000-1009"));
+
+        assertFalse(fetcher.getMultipart());
+        assertArrayEquals(slice(0, 10), parts.get(0));
+        assertArrayEquals(slice(1000, 1010), parts.get(1));
+        assertEquals(List.of("/a.bin bytes=0-9,1000-1009", "/a.bin bytes=0-9", "/a.bin bytes=1000-1009"), server.getRequests());
+    }
+
+    @Test
+    void multipartPartsAreTakenInWhateverOrderTheyCome() throws Exception {
+        HttpServer multipart = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 4);
+        ArrayList<String> asked = new ArrayList<>();
+
+        // Both parts, the later one first, and nothing for a third range
+        multipart.createContext("/", exchange -> {
+            asked.add(exchange.getRequestHeaders().getFirst("Range"));
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+            if (exchange.getRequestHeaders().getFirst("Range").contains(",")) {
+                body.writeBytes(("preamble\r\n--SEP\r\nContent-Type: application/octet-stream\r\nContent-Range: bytes 5000-5099/" + SIZE + "\r\n\r\n")
+                        .getBytes(StandardCharsets.US_ASCII));
+                body.writeBytes(slice(5000, 5100));
+                body.writeBytes(("\r\n--SEP\r\ncontent-range: bytes 0-99/" + SIZE + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                body.writeBytes(slice(0, 100));
+                body.writeBytes("\r\n--SEP--\r\n".getBytes(StandardCharsets.US_ASCII));
+                exchange.getResponseHeaders().set("Content-Type", "multipart/byteranges; boundary=\"SEP\"");
+            } else {
+                body.writeBytes(slice(9000, 9100));
+                exchange.getResponseHeaders().set("Content-Range", "bytes 9000-9099/" + SIZE);
+            }
+
+            exchange.sendResponseHeaders(206, body.size());
+
+            try (OutputStream out = exchange.getResponseBody()) {
+                body.writeTo(out);
+            }
+        });
+        multipart.start();
+
+        try {
+            RangeFetcher fetcher = new RangeFetcher(URI.create("http://127.0.0.1:" + multipart.getAddress().getPort() + "/a.bin"));
+            fetcher.setMultipart(true);
+
+            List<byte[]> parts = fetcher.read(RangeFetcher.parse("0-99, 5000-5099, 9000-9099"));
+
+            assertTrue(fetcher.getMultipart());
+            assertArrayEquals(slice(0, 100), parts.get(0));
+            assertArrayEquals(slice(5000, 5100), parts.get(1));
+            assertArrayEquals(slice(9000, 9100), parts.get(2));
+            assertEquals(List.of("bytes=0-99,5000-5099,9000-9099", "bytes=9000-9099"), asked);
+        } finally {
+            multipart.stop(0);
+        }
+    }
+
+    @Test
+    void aServerWithoutRangesIsRefused() {
+        server.setRanges(false);
+        RangeFetcher fetcher = new RangeFetcher(URI.create(server.url("/a.bin")));
+
+        assertThrows(IOException.class, () -> fetcher.read(RangeFetcher.parse("0-9")));
+        assertThrows(IOException.class, () -> fetcher.read(RangeFetcher.parse("-10")));
+    }
+    //endregion
+
+    private byte[] slice(long from, long to) {
+        return Arrays.copyOfRange(content, (int) from, (int) to);
+    }
+
+    private static void assertRange(long start, long end, ByteRange range) {
+        assertEquals(start, range.getStart());
+        assertEquals(end, range.getEnd());
+    }
+}
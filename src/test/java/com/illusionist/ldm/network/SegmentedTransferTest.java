@@ -0,0 +1,200 @@
+package com.illusionist.ldm.network;
+
+import com.illusionist.ldm.storage.WriteBehindFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentedTransferTest {
+    private static final int SIZE = 3 * 1024 * 1024 + 12345;
+
+    @TempDir
+    Path dir;
+
+    private final byte[] content = new byte[SIZE];
+    private final TestServer first;
+    private final TestServer second;
+
+    SegmentedTransferTest() throws IOException {
+        new Random(30).nextBytes(content);
+        first = new TestServer();
+        second = new TestServer();
+    }
+
+    @AfterEach
+    void stopServers() {
+        first.close();
+        second.close();
+    }
+
+    @Test
+    void piecesComeFromEveryMirror() throws Exception {
+        first.put("/a.bin", content);
+        second.put("/mirror/a.bin", content);
+        first.setDelayMillisPer64k(2);
+        second.setDelayMillisPer64k(2);
+
+        FileDownloader downloader = downloader(first.url("/a.bin?" + System.nanoTime()), second.url("/mirror/a.bin"));
+        downloader.start();
+        awaitDone(downloader);
+
+        assertEquals(FileDownloader.COMPLETE, downloader.getDownloadStatus());
+        assertArrayEquals(content, Files.readAllBytes(Path.of(downloader.getFilePath())));
+        assertTrue(second.getRequests().stream().anyMatch(x -> x.startsWith("/mirror/a.bin bytes=") && !x.endsWith("=0-0")));
+    }
+
+    @Test
+    void aMirrorWithOtherContentIsDropped() throws Exception {
+        first.put("/a.bin", content);
+        second.put("/mirror/a.bin", new byte[SIZE - 1]);
+
+        FileDownloader downloader = downloader(first.url("/a.bin?" + System.nanoTime()), second.url("/mirror/a.bin"));
+        downloader.start();
+        awaitDone(downloader);
+
+        assertEquals(FileDownloader.COMPLETE, downloader.getDownloadStatus());
+        assertArrayEquals(content, Files.readAllBytes(Path.of(downloader.getFilePath())));
+
+        // Only the size probe went to the bad mirror
+        assertEquals(List.of("/mirror/a.bin bytes=0-0"), second.getRequests());
+    }
+
+    @Test
+    void theTailOfASlowPieceIsStolen() throws Exception {
+        first.put("/a.bin", content);
+        second.put("/mirror/a.bin", content);
+
+        // The first mirror would need about 2.4s for a 1MB piece on its own
+        first.setDelayMillisPer64k(150);
+
+        FileDownloader downloader = downloader(first.url("/a.bin?" + System.nanoTime()), second.url("/mirror/a.bin"));
+        long started = System.nanoTime();
+        downloader.start();
+        awaitDone(downloader);
+        long millis = (System.nanoTime() - started) / 1_000_000;
+
+        assertEquals(FileDownloader.COMPLETE, downloader.getDownloadStatus());
+        assertArrayEquals(content, Files.readAllBytes(Path.of(downloader.getFilePath())));
+        assertTrue(millis < 2000, "took " + millis + "ms");
+
+        // The fast mirror asked for a range starting inside the slow mirror's piece
+        assertTrue(second.getRequests().stream().anyMatch(x -> x.matches("/mirror/a\\.bin bytes=[1-9]\\d*-\\d+") && startOf(x) % (1024 * 1024) != 0));
+    }
+
+    @Test
+    void aRestartSkipsTheProbingRequest() throws Exception {
+        first.put("/a.bin", content);
+        second.put("/mirror/a.bin", content);
+        String url = first.url("/a.bin?" + System.nanoTime());
+
+        FileDownloader downloader = downloader(url, second.url("/mirror/a.bin"));
+        downloader.start();
+        awaitDone(downloader);
+
+        int before = first.getRequests().size();
+
+        FileDownloader again = downloader(url, second.url("/mirror/a.bin"));
+        again.start();
+        awaitDone(again);
+
+        assertEquals(FileDownloader.COMPLETE, again.getDownloadStatus());
+        assertArrayEquals(content, Files.readAllBytes(Path.of(again.getFilePath())));
+        assertTrue(first.getRequests().subList(before, first.getRequests().size()).stream().noneMatch(x -> x.endsWith(" -")));
+    }
+
+    @Test
+    void sheddingAConnectionLeavesTheOthersAlone() throws Exception {
+        first.put("/a.bin", content);
+        second.put("/held.bin", new byte[1024 * 1024]);
+
+        // The owner only has to stay running, a server that hardly sends anything keeps it there
+        second.setDelayMillisPer64k(60_000);
+        FileDownloader owner = downloader(second.url("/held.bin?" + System.nanoTime()), second.url("/held.bin"));
+        owner.start();
+
+        long deadline = System.currentTimeMillis() + 10_000;
+
+        while (owner.getDownloadStatus() != FileDownloader.RUNNING && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+
+        assertEquals(FileDownloader.RUNNING, owner.getDownloadStatus());
+
+        // Two connections on 1MB pieces that take a couple of seconds each
+        first.setDelayMillisPer64k(150);
+
+        try (WriteBehindFile target = WriteBehindFile.open(dir.resolve("shed.bin"), true)) {
+            SegmentedTransfer transfer = new SegmentedTransfer(owner, HttpClient.newHttpClient(), List.of(URI.create(first.url("/a.bin"))), SIZE, target);
+            transfer.setMaxConnections(2);
+
+            Thread runner = new Thread(() -> {
+                try {
+                    transfer.run();
+                } catch (IOException | InterruptedException ignored) {
+                }
+            });
+            runner.start();
+
+            // The probe and one range per connection
+            while (first.getRequests().size() < 3 && System.currentTimeMillis() < deadline)
+                Thread.sleep(5);
+
+            assertEquals(2, transfer.getConnectionCount());
+
+            transfer.retire(1);
+
+            while (transfer.getConnectionCount() > 1 && System.currentTimeMillis() < deadline)
+                Thread.sleep(5);
+
+            Thread.sleep(300);
+
+            // The connection left reads on from its first request instead of asking again
+            assertEquals(1, transfer.getConnectionCount());
+            assertEquals(3, first.getRequests().size(), first.getRequests().toString());
+
+            owner.stop();
+            runner.join(10_000);
+        } finally {
+            owner.stop();
+        }
+    }
+
+    private FileDownloader downloader(String url, String mirror) {
+        FileDownloader downloader = new FileDownloader();
+        downloader.setDownloadUrl(url);
+        downloader.setMirrorUrls(List.of(mirror));
+        downloader.setFilePath(dir.resolve("out" + System.nanoTime() + ".bin").toString());
+        downloader.setConditional(false);
+        downloader.setMaxConnections(4);
+        return downloader;
+    }
+
+    private static long startOf(String request) {
+        String range = request.substring(request.indexOf('=') + 1);
+        return Long.parseLong(range.substring(0, range.indexOf('-')));
+    }
+
+    static void awaitDone(FileDownloader downloader) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30_000;
+
+        while (System.currentTimeMillis() < deadline) {
+            int state = downloader.getDownloadStatus();
+
+            if (state == FileDownloader.COMPLETE || state == FileDownloader.ERROR)
+                return;
+
+            Thread.sleep(10);
+        }
+
+        fail("Download did not finish");
+    }
+}
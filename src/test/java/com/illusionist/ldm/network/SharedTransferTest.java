@@ -0,0 +1,138 @@
+package com.illusionist.ldm.network;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SharedTransferTest {
+    private static final int SIZE = 2 * 1024 * 1024;
+
+    @TempDir
+    Path dir;
+
+    private final byte[] content = new byte[SIZE];
+    private final AtomicInteger requests = new AtomicInteger();
+    private HttpServer server;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        new Random(29).nextBytes(content);
+
+        // Slow enough that the second download finds the first on the wire
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 16);
+        server.createContext("/", exchange -> {
+            requests.incrementAndGet();
+            exchange.sendResponseHeaders(200, content.length);
+
+            try (OutputStream out = exchange.getResponseBody()) {
+                for (int i = 0; i < content.length; i += 64 * 1024) {
+                    out.write(content, i, Math.min(64 * 1024, content.length - i));
+                    Thread.sleep(10);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    void identicalDownloadsShareOneTransfer() throws Exception {
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/shared.bin?" + System.nanoTime();
+
+        FileDownloader first = downloader(url, "first.bin");
+        FileDownloader second = downloader(url, "second.bin");
+
+        first.start();
+        awaitState(first, FileDownloader.RUNNING);
+        second.start();
+
+        awaitDone(first);
+        awaitDone(second);
+
+        assertEquals(FileDownloader.COMPLETE, first.getDownloadStatus());
+        assertEquals(FileDownloader.COMPLETE, second.getDownloadStatus());
+        assertFalse(second.getShared());
+        assertEquals(1, requests.get());
+        assertArrayEquals(content, Files.readAllBytes(dir.resolve("first.bin")));
+        assertArrayEquals(content, Files.readAllBytes(dir.resolve("second.bin")));
+    }
+
+    @Test
+    void followersJoiningThroughoutAllEndComplete() throws Exception {
+        // Joins spread over the whole transfer, the last ones land as the leader finishes
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/joins.bin?" + System.nanoTime();
+        FileDownloader leader = downloader(url, "leader.bin");
+        leader.start();
+
+        FileDownloader[] followers = new FileDownloader[24];
+
+        for (int i = 0; i < followers.length; i++) {
+            followers[i] = downloader(url, "follower" + i + ".bin");
+            followers[i].start();
+            Thread.sleep(20);
+        }
+
+        awaitDone(leader);
+
+        for (FileDownloader follower : followers) {
+            awaitDone(follower);
+
+            // Give a late state change the chance to show up
+            Thread.sleep(5);
+
+            assertEquals(FileDownloader.COMPLETE, follower.getDownloadStatus());
+            assertFalse(follower.getShared());
+            assertArrayEquals(content, Files.readAllBytes(Path.of(follower.getFilePath())));
+        }
+    }
+
+    private FileDownloader downloader(String url, String name) {
+        FileDownloader downloader = new FileDownloader();
+        downloader.setDownloadUrl(url);
+        downloader.setFilePath(dir.resolve(name).toString());
+        downloader.setConditional(false);
+        downloader.setMaxConnections(1);
+        return downloader;
+    }
+
+    private static void awaitState(FileDownloader downloader, int state) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+
+        while (downloader.getDownloadStatus() != state && System.currentTimeMillis() < deadline)
+            Thread.sleep(5);
+    }
+
+    private static void awaitDone(FileDownloader downloader) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30_000;
+
+        while (System.currentTimeMillis() < deadline) {
+            int state = downloader.getDownloadStatus();
+
+            if (state == FileDownloader.COMPLETE || state == FileDownloader.ERROR)
+                return;
+
+            Thread.sleep(10);
+        }
+
+        fail("Download did not finish");
+    }
+}
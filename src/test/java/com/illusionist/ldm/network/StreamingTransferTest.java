@@ -0,0 +1,73 @@
+package com.illusionist.ldm.network;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamingTransferTest {
+    private static final int SIZE = 5 * 1024 * 1024 + 4321;
+
+    @TempDir
+    Path dir;
+
+    private final byte[] content = new byte[SIZE];
+    private final TestServer server;
+
+    StreamingTransferTest() throws IOException {
+        new Random(42).nextBytes(content);
+        server = new TestServer();
+        server.put("/a.bin", content);
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.close();
+    }
+
+    @Test
+    void progressEndsOnTheExactSize() throws Exception {
+        server.setDelayMillisPer64k(3);
+
+        FileDownloader downloader = new FileDownloader();
+        downloader.setDownloadUrl(server.url("/a.bin?" + System.nanoTime()));
+        downloader.setFilePath(dir.resolve("a.bin").toString());
+        downloader.setConditional(false);
+        downloader.setSequential(true);
+        downloader.setMaxConnections(3);
+
+        AtomicLong highest = new AtomicLong();
+        AtomicLong last = new AtomicLong();
+
+        downloader.addDownloadListener(new DownloadListener() {
+            @Override
+            public void onStateChanged(FileDownloader source, int state) {
+            }
+
+            @Override
+            public void onDataReceive(FileDownloader source, long bytesRecv, long bytesTotal) {
+                highest.accumulateAndGet(bytesRecv, Math::max);
+                last.set(bytesRecv);
+            }
+        });
+
+        downloader.start();
+        SegmentedTransferTest.awaitDone(downloader);
+
+        assertEquals(FileDownloader.COMPLETE, downloader.getDownloadStatus());
+        assertArrayEquals(content, Files.readAllBytes(dir.resolve("a.bin")));
+        assertTrue(downloader.getWrittenRanges().contains(0, SIZE));
+        assertTrue(highest.get() <= SIZE, "progress went to " + highest.get());
+        assertEquals(SIZE, last.get());
+
+        // Fetched piece by piece rather than as one body
+        assertTrue(server.getRequests().stream().filter(x -> x.contains("bytes=")).count() > 1);
+    }
+}
@@ -0,0 +1,149 @@
+package com.illusionist.ldm.network;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Serves byte arrays on the loopback interface for tests, with single
+// byte ranges, an ETag and a log of the Range header of every request.
+// Can compress whole bodies for clients that accept it.
+final class TestServer implements AutoCloseable {
+    private final HttpServer server;
+    private final Map<String, byte[]> files = new ConcurrentHashMap<>();
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+
+    private volatile boolean ranges = true;
+    private volatile long delayMillisPer64k = 0;
+    private volatile String encoding = null;
+
+    TestServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 64);
+        server.setExecutor(Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "test-server");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    void put(String path, byte[] content) {
+        files.put(path, content);
+    }
+
+    void setRanges(boolean ranges) {
+        this.ranges = ranges;
+    }
+
+    void setDelayMillisPer64k(long delayMillisPer64k) {
+        this.delayMillisPer64k = delayMillisPer64k;
+    }
+
+    // "gzip", "deflate" (zlib wrapped) or "deflate-raw", sent as deflate
+    void setEncoding(String encoding) {
+        this.encoding = encoding;
+    }
+
+    String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    // "path range" per request, range is "-" when there was none
+    List<String> getRequests() {
+        return Collections.unmodifiableList(requests);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            requests.add(exchange.getRequestURI().getPath() + " " + (range == null ? "-" : range));
+
+            byte[] content = files.get(exchange.getRequestURI().getPath());
+
+            if (content == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            long from = 0;
+            long to = content.length - 1;
+            int status = 200;
+
+            exchange.getResponseHeaders().set("ETag", "\"" + content.length + "\"");
+
+            String accepted = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+
+            if (encoding != null && accepted != null && accepted.contains(encoding.replace("-raw", ""))) {
+                content = encode(content, encoding);
+                exchange.getResponseHeaders().set("Content-Encoding", encoding.replace("-raw", ""));
+                to = content.length - 1;
+            }
+
+            if (ranges && !exchange.getResponseHeaders().containsKey("Content-Encoding")) {
+                exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+
+                if (range != null && range.startsWith("bytes=") && !range.contains(",")) {
+                    String[] bounds = range.substring(6).split("-", -1);
+
+                    if (bounds[0].isEmpty()) {
+                        from = content.length - Long.parseLong(bounds[1]);
+                    } else {
+                        from = Long.parseLong(bounds[0]);
+
+                        if (!bounds[1].isEmpty())
+                            to = Math.min(to, Long.parseLong(bounds[1]));
+                    }
+
+                    status = 206;
+                    exchange.getResponseHeaders().set("Content-Range", "bytes " + from + "-" + to + "/" + content.length);
+                }
+            }
+
+            exchange.sendResponseHeaders(status, to - from + 1);
+
+            OutputStream out = exchange.getResponseBody();
+
+            for (long position = from; position <= to; position += 65536) {
+                out.write(content, (int) position, (int) Math.min(65536, to - position + 1));
+
+                if (delayMillisPer64k > 0)
+                    Thread.sleep(delayMillisPer64k);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException ignored) {
+            // The client went away, which the tests do on purpose
+        }
+    }
+
+    private static byte[] encode(byte[] content, String encoding) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (OutputStream out = encoding.equals("gzip")
+                ? new GZIPOutputStream(bytes)
+                : new DeflaterOutputStream(bytes, new Deflater(Deflater.DEFAULT_COMPRESSION, encoding.equals("deflate-raw")))) {
+            out.write(content);
+        }
+
+        return bytes.toByteArray();
+    }
+}
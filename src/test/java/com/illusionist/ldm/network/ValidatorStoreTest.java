@@ -0,0 +1,127 @@
+package com.illusionist.ldm.network;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ValidatorStoreTest {
+    private static final String URL = "http://example.test/a.bin";
+
+    @TempDir
+    Path dir;
+
+    private final ArrayList<ValidatorStore> stores = new ArrayList<>();
+
+    // Saves run in the background, they have to be done before the directory goes
+    @AfterEach
+    void flushStores() {
+        for (ValidatorStore store : stores)
+            store.flush();
+    }
+
+    @Test
+    void matchesAnUntouchedFile() throws IOException {
+        Path file = write("a.bin", "0123456789");
+        ValidatorStore store = open(dir.resolve("validators.properties").toFile());
+        store.put(URL, file.toString(), 10, "\"v1\"", null);
+
+        ValidatorStore.Entry entry = store.getMatching(URL, file.toString());
+
+        assertNotNull(entry);
+        assertEquals("\"v1\"", entry.getETag());
+        assertNull(entry.getLastModified());
+    }
+
+    @Test
+    void sameSizeEditInPlaceDoesNotMatch() throws IOException {
+        Path file = write("a.bin", "0123456789");
+        ValidatorStore store = open(dir.resolve("validators.properties").toFile());
+        store.put(URL, file.toString(), 10, "\"v1\"", null);
+
+        Files.writeString(file, "9876543210");
+        file.toFile().setLastModified(file.toFile().lastModified() + 5000);
+
+        assertNull(store.getMatching(URL, file.toString()));
+    }
+
+    @Test
+    void resizedOrMissingFileDoesNotMatch() throws IOException {
+        Path file = write("a.bin", "0123456789");
+        ValidatorStore store = open(dir.resolve("validators.properties").toFile());
+        store.put(URL, file.toString(), 10, "\"v1\"", null);
+
+        Files.writeString(file, "01234");
+        assertNull(store.getMatching(URL, file.toString()));
+
+        Files.delete(file);
+        assertNull(store.getMatching(URL, file.toString()));
+    }
+
+    @Test
+    void nothingIsStoredWithoutValidators() throws IOException {
+        Path file = write("a.bin", "0123456789");
+        ValidatorStore store = open(dir.resolve("validators.properties").toFile());
+        store.put(URL, file.toString(), 10, null, null);
+
+        assertNull(store.get(URL, file.toString()));
+    }
+
+    @Test
+    void survivesAReloadWithoutLeavingTheTempFile() throws IOException {
+        Path file = write("a.bin", "0123456789");
+        File storeFile = dir.resolve("validators.properties").toFile();
+
+        ValidatorStore store = open(storeFile);
+        store.put(URL, file.toString(), 10, "\"v1\"", "Tue, 01 Oct 2024 00:00:00 GMT");
+        store.flush();
+
+        ValidatorStore reloaded = open(storeFile);
+        ValidatorStore.Entry entry = reloaded.getMatching(URL, file.toString());
+
+        assertNotNull(entry);
+        assertEquals("Tue, 01 Oct 2024 00:00:00 GMT", entry.getLastModified());
+        assertEquals(file.toFile().lastModified(), entry.getModified());
+        assertFalse(Files.exists(dir.resolve("validators.properties.tmp")));
+    }
+
+    @Test
+    void entriesWithoutAModificationTimeAreIgnored() throws IOException {
+        Path file = write("a.bin", "0123456789");
+        Path storeFile = dir.resolve("validators.properties");
+
+        // As written before the modification time was kept
+        Properties legacy = new Properties();
+        legacy.setProperty(URL + "\t" + file, "10\t" + file + "\t\"v1\"\t");
+
+        try (OutputStream out = Files.newOutputStream(storeFile)) {
+            legacy.store(out, null);
+        }
+
+        ValidatorStore store = open(storeFile.toFile());
+
+        assertNull(store.get(URL, file.toString()));
+        assertNull(store.getMatching(URL, file.toString()));
+    }
+
+    private ValidatorStore open(File storeFile) {
+        ValidatorStore store = new ValidatorStore(storeFile);
+        stores.add(store);
+        return store;
+    }
+
+    private Path write(String name, String content) throws IOException {
+        Path file = dir.resolve(name);
+        Files.writeString(file, content);
+        return file;
+    }
+}
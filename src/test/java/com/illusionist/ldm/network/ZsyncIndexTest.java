@@ -0,0 +1,134 @@
+package com.illusionist.ldm.network;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ZsyncIndexTest {
+    @Test
+    void recognisesZsyncUrls() {
+        assertTrue(ZsyncIndex.isZsync("http://example.test/a.iso.zsync"));
+        assertTrue(ZsyncIndex.isZsync("http://example.test/a.iso.ZSYNC?x=1"));
+        assertFalse(ZsyncIndex.isZsync("http://example.test/a.iso?x=.zsync"));
+    }
+
+    @Test
+    void readsTheHeaderAndEveryBlock() throws IOException {
+        byte[] content = new byte[5000];
+        new Random(41).nextBytes(content);
+
+        ZsyncIndex index = ZsyncIndex.parse(new ByteArrayInputStream(index(content, 1024, 2, 3, 5, "a.bin")));
+
+        assertEquals("a.bin", index.getUrl());
+        assertEquals(sha1(content), index.getSHA1());
+        assertEquals(5000, index.getLength());
+        assertEquals(1024, index.getBlockSize());
+        assertEquals(5, index.getBlockCount());
+        assertEquals(2, index.getSequenceMatches());
+        assertEquals(5, index.getStrongBytes());
+        assertEquals(0xFFFFFF, index.getWeakMask());
+
+        Md4 md4 = new Md4();
+        byte[] digest = new byte[16];
+
+        for (int i = 0; i < 5; i++) {
+            byte[] block = block(content, i, 1024);
+
+            assertEquals(ZsyncIndex.weakChecksum(block, 0, 1024) & 0xFFFFFF, index.getWeak(i));
+
+            md4.digest(block, 0, 1024, digest);
+            assertTrue(index.strongMatches(i, digest));
+            assertFalse(index.strongMatches((i + 1) % 5, digest));
+        }
+    }
+
+    @Test
+    void theWeakChecksumMatchesTheReferenceDefinition() {
+        byte[] data = "zsync weak checksum".getBytes(StandardCharsets.US_ASCII);
+        int a = 0;
+        int b = 0;
+
+        for (int i = 0; i < data.length; i++) {
+            a += data[i] & 0xFF;
+            b += (data.length - i) * (data[i] & 0xFF);
+        }
+
+        assertEquals(((a & 0xFFFF) << 16) | (b & 0xFFFF), ZsyncIndex.weakChecksum(data, 0, data.length));
+    }
+
+    @Test
+    void rejectsBrokenIndexes() {
+        byte[] content = new byte[3000];
+        byte[] good = index(content, 1024, 1, 4, 16, "a.bin");
+
+        // Cut inside the block checksums
+        assertThrows(IOException.class, () -> ZsyncIndex.parse(new ByteArrayInputStream(Arrays.copyOf(good, good.length - 5))));
+
+        assertThrows(IOException.class, () -> parseHeader("Blocksize: 1000\nLength: 0\nURL: a\nSHA-1: 00\n\n"));
+        assertThrows(IOException.class, () -> parseHeader("Blocksize: 1024\nLength: 0\nSHA-1: 00\n\n"));
+        assertThrows(IOException.class, () -> parseHeader("Blocksize: 1024\nLength: 0\nZ-URL: a.gz\nSHA-1: 00\n\n"));
+        assertThrows(IOException.class, () -> parseHeader("Blocksize: 1024\nLength: 0\nURL: a\nSHA-1: 00\nHash-Lengths: 3,4,16\n\n"));
+        assertThrows(IOException.class, () -> parseHeader("Blocksize: 1024\nLength: x\nURL: a\nSHA-1: 00\n\n"));
+        assertThrows(IOException.class, () -> parseHeader("Blocksize: 1024\nLength: 0\nURL: a\nSHA-1: 00\n"));
+    }
+
+    private static void parseHeader(String header) throws IOException {
+        ZsyncIndex.parse(new ByteArrayInputStream(header.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    // A .zsync file for content the way zsyncmake lays it out
+    static byte[] index(byte[] content, int blockSize, int sequenceMatches, int weakBytes, int strongBytes, String url) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        String header = "zsync: 0.6.2\n"
+                + "Filename: " + url + "\n"
+                + "Blocksize: " + blockSize + "\n"
+                + "Length: " + content.length + "\n"
+                + "Hash-Lengths: " + sequenceMatches + "," + weakBytes + "," + strongBytes + "\n"
+                + "URL: " + url + "\n"
+                + "SHA-1: " + sha1(content) + "\n\n";
+
+        out.writeBytes(header.getBytes(StandardCharsets.US_ASCII));
+
+        Md4 md4 = new Md4();
+        byte[] digest = new byte[16];
+
+        for (int i = 0; i * (long) blockSize < content.length; i++) {
+            byte[] block = block(content, i, blockSize);
+            int weak = ZsyncIndex.weakChecksum(block, 0, blockSize);
+
+            for (int j = weakBytes - 1; j >= 0; j--)
+                out.write(weak >>> (8 * j));
+
+            md4.digest(block, 0, blockSize, digest);
+            out.write(digest, 0, strongBytes);
+        }
+
+        return out.toByteArray();
+    }
+
+    // The last block is padded with zeros to the full block size
+    private static byte[] block(byte[] content, int index, int blockSize) {
+        byte[] block = new byte[blockSize];
+        int start = index * blockSize;
+        System.arraycopy(content, start, block, 0, Math.min(blockSize, content.length - start));
+        return block;
+    }
+
+    static String sha1(byte[] content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-1").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
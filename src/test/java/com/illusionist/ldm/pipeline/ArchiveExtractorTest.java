@@ -0,0 +1,182 @@
+package com.illusionist.ldm.pipeline;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ArchiveExtractorTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void recognisesArchiveNames() {
+        assertTrue(ArchiveExtractor.isArchive("a.ZIP"));
+        assertTrue(ArchiveExtractor.isArchive("a.tar.gz"));
+        assertFalse(ArchiveExtractor.isArchive("a.gz"));
+        assertEquals("a", ArchiveExtractor.stripExtension("a.tgz"));
+        assertEquals("a.b", ArchiveExtractor.stripExtension("a.b.tar"));
+    }
+
+    @Test
+    void extractsAZip() throws IOException {
+        byte[] zip = zip("top.txt", "top", "sub/dir/inner.txt", "inner");
+
+        ArchiveExtractor.extract(new ByteArrayInputStream(zip), "a.zip", dir.resolve("out"));
+
+        assertEquals("top", Files.readString(dir.resolve("out/top.txt")));
+        assertEquals("inner", Files.readString(dir.resolve("out/sub/dir/inner.txt")));
+    }
+
+    @Test
+    void zipEntriesLeavingTheFolderAreRejected() throws IOException {
+        byte[] zip = zip("fine.txt", "fine", "../evil.txt", "evil");
+
+        IOException e = assertThrows(IOException.class, () -> ArchiveExtractor.extract(new ByteArrayInputStream(zip), "a.zip", dir.resolve("out")));
+
+        assertTrue(e.getMessage().contains("escapes"));
+        assertFalse(Files.exists(dir.resolve("evil.txt")));
+    }
+
+    @Test
+    void zipEntriesIntoASiblingFolderAreRejected() throws IOException {
+        byte[] zip = zip("../out2/evil.txt", "evil");
+
+        assertThrows(IOException.class, () -> ArchiveExtractor.extract(new ByteArrayInputStream(zip), "a.zip", dir.resolve("out")));
+        assertFalse(Files.exists(dir.resolve("out2")));
+    }
+
+    @Test
+    void absoluteEntriesAreRejected() throws IOException {
+        Path outside = dir.resolve("outside.txt").toAbsolutePath();
+        byte[] tar = tar(entry(outside.toString(), '0', "evil"));
+
+        assertThrows(IOException.class, () -> ArchiveExtractor.extract(new ByteArrayInputStream(tar), "a.tar", dir.resolve("out")));
+        assertFalse(Files.exists(outside));
+    }
+
+    @Test
+    void tarEntriesLeavingTheFolderAreRejected() throws IOException {
+        byte[] tar = tar(entry("a/../../evil.txt", '0', "evil"));
+
+        assertThrows(IOException.class, () -> ArchiveExtractor.extract(new ByteArrayInputStream(tar), "a.tar", dir.resolve("out")));
+        assertFalse(Files.exists(dir.resolve("evil.txt")));
+    }
+
+    @Test
+    void extractsAGzippedTarWithLongNames() throws IOException {
+        String longName = "deep/" + "x".repeat(150) + ".txt";
+        byte[] tar = tar(
+                entry("folder", '5', ""),
+                entry("folder/a.txt", '0', "a".repeat(1000)),
+                entry("././@LongLink", 'L', longName),
+                entry("truncated", '0', "long"),
+                entry("link", '2', ""));
+
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+
+        try (GZIPOutputStream out = new GZIPOutputStream(gzipped)) {
+            out.write(tar);
+        }
+
+        ArchiveExtractor.extract(new ByteArrayInputStream(gzipped.toByteArray()), "a.tgz", dir.resolve("out"));
+
+        assertEquals("a".repeat(1000), Files.readString(dir.resolve("out/folder/a.txt")));
+        assertEquals("long", Files.readString(dir.resolve("out").resolve(longName)));
+        assertFalse(Files.exists(dir.resolve("out/truncated")));
+        assertFalse(Files.exists(dir.resolve("out/link")));
+    }
+
+    @Test
+    void aTruncatedTarFails() throws IOException {
+        byte[] tar = tar(entry("a.txt", '0', "a".repeat(1000)));
+        byte[] cut = Arrays.copyOf(tar, 700);
+
+        assertThrows(IOException.class, () -> ArchiveExtractor.extract(new ByteArrayInputStream(cut), "a.tar", dir.resolve("out")));
+    }
+
+    @Test
+    void streamingExtractionUnpacksWhatIsWritten() throws IOException {
+        byte[] zip = zip("top.txt", "top", "sub/inner.txt", "inner".repeat(100_000));
+        StreamingExtractor extractor = new StreamingExtractor("a.zip", dir.resolve("out"));
+
+        extractor.start();
+
+        for (int i = 0; i < zip.length; i += 1000)
+            extractor.write(zip, i, Math.min(1000, zip.length - i));
+
+        extractor.complete();
+
+        assertEquals("top", Files.readString(dir.resolve("out/top.txt")));
+        assertEquals("inner".repeat(100_000), Files.readString(dir.resolve("out/sub/inner.txt")));
+    }
+
+    @Test
+    void streamingExtractionReportsARejectedEntry() throws IOException {
+        byte[] zip = zip("../evil.txt", "evil");
+        StreamingExtractor extractor = new StreamingExtractor("a.zip", dir.resolve("out"));
+
+        extractor.start();
+
+        IOException e = assertThrows(IOException.class, () -> {
+            extractor.write(zip, 0, zip.length);
+            extractor.complete();
+        });
+
+        assertTrue(e.getMessage().contains("escapes"));
+        assertFalse(Files.exists(dir.resolve("evil.txt")));
+    }
+
+    private static byte[] zip(String... namesAndContents) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            for (int i = 0; i < namesAndContents.length; i += 2) {
+                zip.putNextEntry(new ZipEntry(namesAndContents[i]));
+                zip.write(namesAndContents[i + 1].getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private static byte[] tar(byte[]... entries) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        for (byte[] entry : entries)
+            bytes.writeBytes(entry);
+
+        bytes.writeBytes(new byte[1024]);
+        return bytes.toByteArray();
+    }
+
+    // One header block in the old tar layout, then the data padded to whole blocks
+    private static byte[] entry(String name, char type, String content) {
+        byte[] data = content.getBytes(StandardCharsets.UTF_8);
+        byte[] header = new byte[512];
+
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(nameBytes, 0, header, 0, Math.min(100, nameBytes.length));
+
+        byte[] size = String.format("%011o", data.length).getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(size, 0, header, 124, size.length);
+        header[156] = (byte) type;
+
+        byte[] block = new byte[512 + (data.length + 511) / 512 * 512];
+        System.arraycopy(header, 0, block, 0, 512);
+        System.arraycopy(data, 0, block, 512, data.length);
+        return block;
+    }
+}
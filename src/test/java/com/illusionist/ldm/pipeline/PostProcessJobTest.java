@@ -0,0 +1,130 @@
+package com.illusionist.ldm.pipeline;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PostProcessJobTest {
+    // SHA-1 of "hello world"
+    private static final String HELLO_SHA1 = "2aae6c35c94fcfb415dbe95f408b9ce91ee846ed";
+
+    @TempDir
+    Path dir;
+
+    private final List<String> events = new CopyOnWriteArrayList<>();
+
+    private final PostProcessListener listener = new PostProcessListener() {
+        @Override
+        public void onStageChanged(PostProcessJob job, PostProcessStage stage, int percent) {
+            if (percent == 0)
+                events.add(stage.getName());
+        }
+
+        @Override
+        public void onCompleted(PostProcessJob job) {
+            events.add("completed");
+        }
+
+        @Override
+        public void onFailed(PostProcessJob job, PostProcessStage stage, String message) {
+            events.add("failed " + stage.getName() + ": " + message);
+        }
+    };
+
+    @Test
+    void aMatchingChecksumPasses() throws IOException {
+        Path file = write("a.txt", "hello world");
+
+        PostProcessJob job = new PostProcessJob(file, List.of(new VerifyStage(" " + HELLO_SHA1.toUpperCase() + " ")), listener, null);
+        job.run();
+
+        assertEquals(PostProcessJob.COMPLETE, job.getState());
+        assertEquals(file, job.getResult());
+        assertEquals(List.of(VerifyStage.NAME, "completed"), events);
+    }
+
+    @Test
+    void aBadChecksumStopsTheLaterStages() throws IOException {
+        Path file = write("a.txt", "hello there");
+        Path moveTo = dir.resolve("done");
+
+        PostProcessJob job = new PostProcessJob(file, List.of(new VerifyStage(HELLO_SHA1), new MoveStage(moveTo)), listener, null);
+        job.run();
+
+        assertEquals(PostProcessJob.FAILED, job.getState());
+        assertEquals("Checksum does not match", job.getFailure());
+        assertNull(job.getResult());
+        assertEquals(List.of(VerifyStage.NAME, "failed " + VerifyStage.NAME + ": Checksum does not match"), events);
+        assertTrue(Files.exists(file));
+        assertFalse(Files.exists(moveTo));
+    }
+
+    @Test
+    void eachStageWorksOnWhatTheLastProduced() throws IOException {
+        Path file = dir.resolve("a.txt.gz");
+
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file))) {
+            out.write("hello world".getBytes(StandardCharsets.UTF_8));
+        }
+
+        Path moveTo = dir.resolve("done");
+        PostProcessJob job = new PostProcessJob(file, List.of(new DecompressStage(), new VerifyStage(HELLO_SHA1), new MoveStage(moveTo)), listener, null);
+        job.run();
+
+        assertEquals(PostProcessJob.COMPLETE, job.getState());
+        assertEquals(moveTo.resolve("a.txt"), job.getResult());
+        assertEquals("hello world", Files.readString(job.getResult()));
+        assertTrue(Files.exists(file));
+        assertFalse(Files.exists(dir.resolve("a.txt")));
+        assertFalse(Files.exists(dir.resolve("a.txt.part")));
+        assertEquals(List.of(DecompressStage.NAME, VerifyStage.NAME, MoveStage.NAME, "completed"), events);
+    }
+
+    @Test
+    void decompressLeavesOtherFilesAlone() throws IOException {
+        Path file = write("a.txt", "hello world");
+
+        assertEquals(file, new DecompressStage().process(new PostProcessJob(file, List.of(), null, null), file));
+    }
+
+    @Test
+    void jobsRunOffTheSubmittingThread() throws Exception {
+        Path file = write("a.txt", "hello world");
+        CompletableFuture<String> thread = new CompletableFuture<>();
+
+        PostProcessStage stage = new PostProcessStage() {
+            @Override
+            public String getName() {
+                return "Probe";
+            }
+
+            @Override
+            public Path process(PostProcessJob job, Path input) {
+                thread.complete(Thread.currentThread().getName());
+                return input;
+            }
+        };
+
+        PostProcessor.getInstance().submit(new PostProcessJob(file, List.of(new VerifyStage(HELLO_SHA1), stage), null, null));
+
+        assertTrue(thread.get(10, TimeUnit.SECONDS).startsWith("ldm-pipeline-"));
+    }
+
+    private Path write(String name, String content) throws IOException {
+        Path file = dir.resolve(name);
+        Files.writeString(file, content);
+        return file;
+    }
+}
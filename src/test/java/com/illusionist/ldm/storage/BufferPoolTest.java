@@ -0,0 +1,103 @@
+package com.illusionist.ldm.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BufferPoolTest {
+    @Test
+    void releasedBuffersAreLentAgain() throws Exception {
+        BufferPool pool = new BufferPool(4L * BufferPool.LARGE, false);
+
+        ByteBuffer first = pool.acquireHeap(BufferPool.MEDIUM, BufferPool.MEDIUM);
+        first.put((byte) 1);
+        pool.release(first);
+
+        ByteBuffer second = pool.acquireHeap(BufferPool.MEDIUM, BufferPool.MEDIUM);
+
+        assertSame(first, second);
+        assertEquals(0, second.position());
+        assertEquals(BufferPool.MEDIUM, second.limit());
+        assertEquals(0.5, pool.getHitRate());
+        assertEquals(BufferPool.MEDIUM, pool.getBytesAllocated());
+        assertEquals(BufferPool.MEDIUM, pool.getBytesInUse());
+    }
+
+    @Test
+    void requestsAreRoundedUpToASizeClass() throws Exception {
+        BufferPool pool = new BufferPool(4L * BufferPool.LARGE, false);
+
+        assertEquals(BufferPool.SMALL, pool.acquireHeap(100, 100).capacity());
+        assertEquals(BufferPool.MEDIUM, pool.acquireHeap(BufferPool.SMALL + 1, 1).capacity());
+        assertEquals(BufferPool.LARGE, pool.acquireHeap(10 * BufferPool.LARGE, 1).capacity());
+    }
+
+    @Test
+    void aFullPoolHandsOutSmallerBuffers() throws Exception {
+        BufferPool pool = new BufferPool(BufferPool.LARGE + BufferPool.MEDIUM, false);
+
+        pool.acquireHeap(BufferPool.LARGE, BufferPool.LARGE);
+        ByteBuffer smaller = pool.acquireHeap(BufferPool.LARGE, BufferPool.SMALL);
+
+        assertEquals(BufferPool.MEDIUM, smaller.capacity());
+        assertEquals(1, pool.getDowngrades());
+        assertTrue(pool.getBytesAllocated() <= pool.getMaxBytes());
+    }
+
+    @Test
+    void idleBuffersAreDroppedToMakeRoom() throws Exception {
+        BufferPool pool = new BufferPool(BufferPool.LARGE, false);
+
+        pool.release(pool.acquireHeap(BufferPool.MEDIUM, BufferPool.MEDIUM));
+        ByteBuffer large = pool.acquireHeap(BufferPool.LARGE, BufferPool.LARGE);
+
+        assertEquals(BufferPool.LARGE, large.capacity());
+        assertEquals(BufferPool.LARGE, pool.getBytesAllocated());
+        assertEquals(0, pool.getDowngrades());
+    }
+
+    @Test
+    void anExhaustedPoolWaitsForARelease() throws Exception {
+        BufferPool pool = new BufferPool(BufferPool.LARGE, false);
+        ByteBuffer held = pool.acquireHeap(BufferPool.LARGE, BufferPool.LARGE);
+
+        CompletableFuture<ByteBuffer> waiting = CompletableFuture.supplyAsync(() -> {
+            try {
+                return pool.acquireHeap(BufferPool.LARGE, BufferPool.SMALL);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        Thread.sleep(200);
+        assertFalse(waiting.isDone());
+        assertTrue(pool.getWaits() > 0);
+
+        pool.release(held);
+
+        assertSame(held, waiting.get(5, TimeUnit.SECONDS));
+        assertEquals(BufferPool.LARGE, pool.getBytesAllocated());
+    }
+
+    @Test
+    void foreignBuffersAreIgnored() {
+        BufferPool pool = new BufferPool(BufferPool.LARGE, false);
+
+        pool.release(ByteBuffer.allocate(1000));
+        pool.release(null);
+
+        assertEquals(0, pool.getBytesInUse());
+        assertEquals(0, pool.getBytesAllocated());
+    }
+
+    @Test
+    void channelBuffersAreDirectWhenAskedFor() throws Exception {
+        assertTrue(new BufferPool(BufferPool.LARGE, true).acquireForChannel(BufferPool.SMALL, BufferPool.SMALL).isDirect());
+        assertFalse(new BufferPool(BufferPool.LARGE, false).acquireForChannel(BufferPool.SMALL, BufferPool.SMALL).isDirect());
+        assertFalse(new BufferPool(BufferPool.LARGE, true).acquireHeap(BufferPool.SMALL, BufferPool.SMALL).isDirect());
+    }
+}
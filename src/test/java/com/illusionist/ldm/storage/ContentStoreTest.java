@@ -0,0 +1,144 @@
+package com.illusionist.ldm.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContentStoreTest {
+    private static final String HASH = "0123456789abcdef0123456789abcdef01234567";
+    private static final String OTHER_HASH = "89abcdef0123456789abcdef0123456789abcdef";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void entriesSurviveAReload() throws IOException {
+        File file = write("a.bin", "content");
+        File log = dir.resolve("content-index.log").toFile();
+
+        open(log).add(HASH.toUpperCase(), file);
+
+        assertEquals(file.getAbsoluteFile(), open(log).lookup(HASH));
+    }
+
+    @Test
+    void addingAppendsInsteadOfRewriting() throws IOException {
+        File log = dir.resolve("content-index.log").toFile();
+        ContentStore store = open(log);
+
+        store.add(HASH, write("a.bin", "a"));
+        store.add(OTHER_HASH, write("b.bin", "b"));
+
+        List<String> lines = Files.readAllLines(log.toPath());
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0).startsWith("+\t" + HASH + "\t"));
+        assertTrue(lines.get(1).startsWith("+\t" + OTHER_HASH + "\t"));
+    }
+
+    @Test
+    void aReplacedFileIsDroppedAndStaysDropped() throws IOException {
+        File file = write("a.bin", "content");
+        File log = dir.resolve("content-index.log").toFile();
+        ContentStore store = open(log);
+        store.add(HASH, file);
+
+        Files.writeString(file.toPath(), "other content");
+
+        assertNull(store.lookup(HASH));
+        assertTrue(Files.readAllLines(log.toPath()).contains("-\t" + HASH));
+
+        // Even once the file looks right again, the entry is gone for good
+        Files.writeString(file.toPath(), "content");
+        assertNull(open(log).lookup(HASH));
+    }
+
+    @Test
+    void compactionKeepsOnlyLiveEntries() throws IOException {
+        File file = write("a.bin", "content");
+        File log = dir.resolve("content-index.log").toFile();
+        ContentStore store = open(log);
+
+        for (int i = 0; i < 100; i++)
+            store.add(HASH, file);
+
+        store.add(OTHER_HASH, write("b.bin", "b"));
+        store.compact();
+
+        assertEquals(2, store.getLogLines());
+        assertEquals(2, Files.readAllLines(log.toPath()).size());
+        assertNotNull(open(log).lookup(HASH));
+        assertFalse(Files.exists(dir.resolve("content-index.log.tmp")));
+    }
+
+    @Test
+    void aLongLogIsCompactedInTheBackground() throws IOException, InterruptedException {
+        File file = write("a.bin", "content");
+        ContentStore store = open(dir.resolve("content-index.log").toFile());
+
+        for (int i = 0; i < 3000; i++)
+            store.add(HASH, file);
+
+        long deadline = System.currentTimeMillis() + 10_000;
+
+        while (store.getLogLines() >= 1024 && System.currentTimeMillis() < deadline)
+            Thread.sleep(20);
+
+        assertTrue(store.getLogLines() < 1024, "lines " + store.getLogLines());
+    }
+
+    @Test
+    void aTornLastLineIsSkippedAndRepaired() throws IOException {
+        File file = write("a.bin", "content");
+        File log = dir.resolve("content-index.log").toFile();
+        open(log).add(HASH, file);
+
+        Files.write(log.toPath(), "+\t".concat(OTHER_HASH).concat("\t12").getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        ContentStore store = open(log);
+        store.add(OTHER_HASH, write("b.bin", "b"));
+
+        assertNotNull(store.lookup(HASH));
+        assertNotNull(open(log).lookup(OTHER_HASH));
+    }
+
+    @Test
+    void theOldPropertiesIndexIsMigrated() throws IOException {
+        File file = write("a.bin", "content");
+
+        Properties legacy = new Properties();
+        legacy.setProperty(HASH, file.length() + "\t" + file.lastModified() + "\t" + file.getAbsolutePath());
+
+        try (OutputStream out = Files.newOutputStream(dir.resolve("content-index.properties"))) {
+            legacy.store(out, null);
+        }
+
+        File log = dir.resolve("content-index.log").toFile();
+
+        assertNotNull(open(log).lookup(HASH));
+        assertTrue(log.isFile());
+        assertFalse(Files.exists(dir.resolve("content-index.properties")));
+    }
+
+    private static ContentStore open(File log) {
+        ContentStore store = new ContentStore(log);
+        store.setEnabled(true);
+        return store;
+    }
+
+    private File write(String name, String content) throws IOException {
+        Path file = dir.resolve(name);
+        Files.writeString(file, content);
+        return file.toFile();
+    }
+}
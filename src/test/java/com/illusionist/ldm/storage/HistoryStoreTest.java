@@ -0,0 +1,174 @@
+package com.illusionist.ldm.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HistoryStoreTest {
+    private static final String HASH = "0123456789ABCDEF0123456789abcdef01234567";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void anEntryReadsBackAsWritten() throws IOException {
+        HistoryStore store = open();
+
+        int first = store.add("http://example.test/ü.bin", "/downloads/ü.bin", HASH, 1234, 1000, HistoryStore.COMPLETED);
+        int second = store.add("http://example.test/b.bin", "/downloads/b.bin", null, -1, 2000, HistoryStore.FAILED);
+
+        assertEquals(0, first);
+        assertEquals(1, second);
+        assertEquals(2, store.getCount());
+
+        HistoryEntry entry = store.get(first);
+
+        assertEquals(0, entry.getIndex());
+        assertEquals("http://example.test/ü.bin", entry.getUrl());
+        assertEquals("/downloads/ü.bin", entry.getFilePath());
+        assertEquals(HASH.toLowerCase(), entry.getHash());
+        assertEquals(1234, entry.getSize());
+        assertEquals(1000, entry.getFinishedAt());
+        assertEquals(HistoryStore.COMPLETED, entry.getStatus());
+
+        assertNull(store.get(second).getHash());
+        assertEquals(HistoryStore.FAILED, store.get(second).getStatus());
+        assertNull(store.get(2));
+        assertNull(store.get(-1));
+    }
+
+    @Test
+    void hashesThatCannotBeKeptAreDropped() throws IOException {
+        HistoryStore store = open();
+
+        // Not a SHA-1, and one whose key would read back as none
+        store.add("a", "a", "not a hash", 0, 0, HistoryStore.COMPLETED);
+        store.add("b", "b", "0000000000000000" + HASH.substring(16), 0, 0, HistoryStore.COMPLETED);
+
+        assertNull(store.get(0).getHash());
+        assertNull(store.get(1).getHash());
+        assertEquals(0, store.findByHash("not a hash").length);
+    }
+
+    @Test
+    void urlAndHashLookupsAreNewestFirst() throws IOException {
+        HistoryStore store = open();
+
+        store.add("http://example.test/a", "/a1", HASH, 1, 1, HistoryStore.FAILED);
+        store.add("http://example.test/b", "/b", null, 1, 2, HistoryStore.COMPLETED);
+        store.add("http://example.test/a", "/a2", HASH, 1, 3, HistoryStore.COMPLETED);
+        store.add("http://example.test/c", "/c", HASH.toLowerCase(), 1, 4, HistoryStore.COMPLETED);
+
+        assertArrayEquals(new int[]{2, 0}, store.findByUrl("http://example.test/a"));
+        assertArrayEquals(new int[]{1}, store.findByUrl("http://example.test/b"));
+        assertArrayEquals(new int[0], store.findByUrl("http://example.test/missing"));
+
+        assertArrayEquals(new int[]{3, 2, 0}, store.findByHash(" " + HASH + " "));
+        assertArrayEquals(new int[0], store.findByHash(HASH.replace('0', '9')));
+    }
+
+    @Test
+    void filterNarrowsByTimeAndStatus() throws IOException {
+        HistoryStore store = open();
+
+        for (int i = 0; i < 10; i++)
+            store.add("http://example.test/" + (i % 2), "/" + i, null, i, i * 100L, i % 3 == 0 ? HistoryStore.FAILED : HistoryStore.COMPLETED);
+
+        // [from, to) with the newest first
+        assertArrayEquals(new int[]{4, 3, 2}, store.filter(null, 200, 500, -1));
+        assertArrayEquals(new int[]{6, 3}, store.filter(null, 200, 900, HistoryStore.FAILED));
+        assertArrayEquals(new int[0], store.filter(null, 5000, 6000, -1));
+
+        int[] odd = store.findByUrl("http://example.test/1");
+        assertArrayEquals(new int[]{9, 7, 5, 3, 1}, odd);
+        assertArrayEquals(new int[]{9, 3}, store.filter(odd, 0, Long.MAX_VALUE, HistoryStore.FAILED));
+    }
+
+    @Test
+    void pagesReadBackwardsFromAnyEntry() throws IOException {
+        HistoryStore store = open();
+
+        for (int i = 0; i < 50; i++)
+            store.add("http://example.test/" + i, "/" + i, null, i, i, HistoryStore.COMPLETED);
+
+        HistoryEntry[] page = store.getBackwards(store.getCount() - 1, 20);
+
+        assertEquals(20, page.length);
+        assertEquals(49, page[0].getIndex());
+        assertEquals("http://example.test/30", page[19].getUrl());
+
+        // The last page is short, and past the end starts at the newest
+        assertEquals(5, store.getBackwards(4, 20).length);
+        assertEquals(49, store.getBackwards(1000, 1)[0].getIndex());
+        assertEquals(0, store.getBackwards(-1, 20).length);
+
+        HistoryEntry[] picked = store.get(new int[]{7, 3, 40}, 1, 5);
+        assertEquals(2, picked.length);
+        assertEquals("/3", picked[0].getFilePath());
+        assertEquals("/40", picked[1].getFilePath());
+    }
+
+    @Test
+    void reopeningRebuildsTheIndexes() throws IOException {
+        HistoryStore store = open();
+
+        // Past the initial capacity, so arrays grow and tables are rebuilt
+        for (int i = 0; i < 3000; i++)
+            store.add("http://example.test/" + (i % 700), "/" + i, i % 5 == 0 ? HASH : null, i, i, i % 4 == 0 ? HistoryStore.STOPPED : HistoryStore.COMPLETED);
+
+        store.flush();
+
+        int[] byUrl = store.findByUrl("http://example.test/123");
+        int[] byHash = store.findByHash(HASH);
+        int[] stopped = store.filter(null, 1000, 2000, HistoryStore.STOPPED);
+
+        HistoryStore reopened = open();
+
+        assertEquals(3000, reopened.getCount());
+        assertArrayEquals(byUrl, reopened.findByUrl("http://example.test/123"));
+        assertArrayEquals(new int[]{2923, 2223, 1523, 823, 123}, byUrl);
+        assertArrayEquals(byHash, reopened.findByHash(HASH));
+        assertEquals(600, byHash.length);
+        assertArrayEquals(stopped, reopened.filter(null, 1000, 2000, HistoryStore.STOPPED));
+        assertEquals("/2999", reopened.get(2999).getFilePath());
+
+        // Still appends after what was there
+        assertEquals(3000, reopened.add("http://example.test/123", "/new", null, 0, 5000, HistoryStore.COMPLETED));
+        assertEquals(3000, reopened.findByUrl("http://example.test/123")[0]);
+    }
+
+    @Test
+    void aTornWriteIsDroppedOnOpen() throws IOException {
+        HistoryStore store = open();
+
+        store.add("http://example.test/a", "/a", null, 1, 1, HistoryStore.COMPLETED);
+        store.add("http://example.test/b", "/b", null, 1, 2, HistoryStore.COMPLETED);
+        store.add("http://example.test/c", "/c", null, 1, 3, HistoryStore.COMPLETED);
+        store.flush();
+
+        // The last record's strings never reached the disk, and half a record follows it
+        try (FileChannel strings = FileChannel.open(dir.resolve("history.str"), StandardOpenOption.WRITE);
+             FileChannel records = FileChannel.open(dir.resolve("history.dat"), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            strings.truncate(strings.size() - 3);
+            records.write(ByteBuffer.allocate(30));
+        }
+
+        HistoryStore reopened = open();
+
+        assertEquals(2, reopened.getCount());
+        assertEquals("/b", reopened.get(1).getFilePath());
+        assertEquals(0, reopened.findByUrl("http://example.test/c").length);
+        assertEquals(2L * 64, dir.resolve("history.dat").toFile().length());
+    }
+
+    private HistoryStore open() throws IOException {
+        return new HistoryStore(dir.resolve("history.dat").toFile(), dir.resolve("history.str").toFile());
+    }
+}
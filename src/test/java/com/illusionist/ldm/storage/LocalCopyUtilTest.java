@@ -0,0 +1,63 @@
+package com.illusionist.ldm.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocalCopyUtilTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void replacesTheTarget() throws IOException {
+        Path source = write("source.bin", "new content");
+        Path target = write("target.bin", "old");
+
+        LocalCopyUtil.copy(source, target, false);
+
+        assertEquals("new content", Files.readString(target));
+        assertEquals("new content", Files.readString(source));
+        assertFalse(Files.exists(dir.resolve("target.bin.copy")));
+    }
+
+    @Test
+    void aFailedCopyKeepsTheTarget() throws IOException {
+        Path target = write("target.bin", "keep me");
+
+        assertThrows(IOException.class, () -> LocalCopyUtil.copy(dir.resolve("missing.bin"), target, false));
+
+        assertEquals("keep me", Files.readString(target));
+        assertFalse(Files.exists(dir.resolve("target.bin.copy")));
+    }
+
+    @Test
+    void aLeftoverTempFileIsReplaced() throws IOException {
+        Path source = write("source.bin", "content");
+        write("target.bin.copy", "from a crash");
+
+        LocalCopyUtil.copy(source, dir.resolve("target.bin"), true);
+
+        assertEquals("content", Files.readString(dir.resolve("target.bin")));
+        assertFalse(Files.exists(dir.resolve("target.bin.copy")));
+    }
+
+    @Test
+    void copyingOntoItselfChangesNothing() throws IOException {
+        Path source = write("source.bin", "content");
+
+        LocalCopyUtil.copy(source, source, false);
+
+        assertEquals("content", Files.readString(source));
+    }
+
+    private Path write(String name, String content) throws IOException {
+        Path file = dir.resolve(name);
+        Files.writeString(file, content);
+        return file;
+    }
+}
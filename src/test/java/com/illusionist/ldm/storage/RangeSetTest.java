@@ -0,0 +1,115 @@
+package com.illusionist.ldm.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RangeSetTest {
+    @Test
+    void overlappingAndTouchingRunsAreMerged() {
+        RangeSet ranges = new RangeSet();
+
+        ranges.add(0, 10);
+        ranges.add(20, 30);
+        ranges.add(10, 15);
+        ranges.add(25, 40);
+
+        assertEquals(2, ranges.getRunCount());
+        assertEquals(15 + 20, ranges.getTotalBytes());
+
+        ranges.add(5, 22);
+
+        assertEquals(1, ranges.getRunCount());
+        assertEquals(40, ranges.getTotalBytes());
+        assertTrue(ranges.contains(0, 40));
+    }
+
+    @Test
+    void aRunSpanningSeveralSwallowsThemAll() {
+        RangeSet ranges = new RangeSet();
+
+        for (int i = 0; i < 10; i++)
+            ranges.add(i * 10 + 2, i * 10 + 5);
+
+        ranges.add(0, 100);
+
+        assertEquals(1, ranges.getRunCount());
+        assertEquals(100, ranges.getTotalBytes());
+    }
+
+    @Test
+    void emptyAndDuplicateRunsChangeNothing() {
+        RangeSet ranges = new RangeSet();
+
+        ranges.add(10, 10);
+        ranges.add(10, 5);
+        assertEquals(0, ranges.getRunCount());
+
+        ranges.add(10, 20);
+        ranges.add(12, 18);
+        ranges.add(10, 20);
+
+        assertEquals(1, ranges.getRunCount());
+        assertEquals(10, ranges.getTotalBytes());
+    }
+
+    @Test
+    void contiguousEndFollowsTheRunHoldingAPosition() {
+        RangeSet ranges = new RangeSet();
+        ranges.add(100, 200);
+
+        assertEquals(200, ranges.getContiguousEnd(100));
+        assertEquals(200, ranges.getContiguousEnd(150));
+        assertEquals(200, ranges.getContiguousEnd(200));
+        assertEquals(50, ranges.getContiguousEnd(50));
+
+        assertTrue(ranges.contains(120, 200));
+        assertFalse(ranges.contains(120, 201));
+        assertFalse(ranges.contains(99, 150));
+    }
+
+    @Test
+    void clearEmptiesTheSet() {
+        RangeSet ranges = new RangeSet();
+        ranges.add(0, 100);
+        ranges.clear();
+
+        assertEquals(0, ranges.getTotalBytes());
+        assertEquals(0, ranges.getRunCount());
+        assertFalse(ranges.contains(0, 1));
+    }
+
+    @Test
+    void awaitReturnsOnceThePositionArrives() throws Exception {
+        RangeSet ranges = new RangeSet();
+
+        CompletableFuture<Long> end = CompletableFuture.supplyAsync(() -> {
+            try {
+                return ranges.await(100, 10_000);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        Thread.sleep(50);
+        ranges.add(0, 50);
+        Thread.sleep(50);
+        assertFalse(end.isDone());
+
+        ranges.add(50, 150);
+
+        assertEquals(150, end.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void awaitGivesUpAfterItsTimeout() throws InterruptedException {
+        RangeSet ranges = new RangeSet();
+        long started = System.nanoTime();
+
+        assertEquals(10, ranges.await(10, 100));
+        assertTrue(System.nanoTime() - started >= 90_000_000L);
+    }
+}
@@ -0,0 +1,166 @@
+package com.illusionist.ldm.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteBehindFileTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void appendersAtDifferentOffsetsFillTheFile() throws Exception {
+        byte[] content = random(3 * 1024 * 1024 + 777, 32);
+        Path path = dir.resolve("a.bin");
+        int half = content.length / 2 + 1234;
+
+        try (WriteBehindFile file = WriteBehindFile.open(path, true)) {
+            Thread second = new Thread(() -> {
+                try {
+                    appendInChunks(file.appender(half), content, half, content.length, 7001);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            second.start();
+
+            appendInChunks(file.appender(0), content, 0, half, 5003);
+            second.join();
+
+            file.drain();
+            assertEquals(content.length, file.getBytesWritten());
+        }
+
+        assertArrayEquals(content, Files.readAllBytes(path));
+    }
+
+    @Test
+    void writtenRangesFollowWhatReachedTheFile() throws IOException {
+        byte[] content = random(200_000, 33);
+        RangeSet ranges = new RangeSet();
+
+        try (WriteBehindFile file = WriteBehindFile.open(dir.resolve("b.bin"), true)) {
+            file.setWrittenRanges(ranges);
+
+            WriteBehindFile.Appender appender = file.appender(100_000);
+            appender.append(content, 100_000, 50_000);
+            appender.flush();
+            file.drain();
+
+            assertTrue(ranges.contains(100_000, 150_000));
+            assertFalse(ranges.contains(0, 1));
+            assertEquals(50_000, ranges.getTotalBytes());
+            assertEquals(150_000, appender.getPosition());
+        }
+    }
+
+    @Test
+    void unflushedDataIsNotWritten() throws IOException {
+        Path path = dir.resolve("c.bin");
+
+        try (WriteBehindFile file = WriteBehindFile.open(path, true)) {
+            WriteBehindFile.Appender appender = file.appender(0);
+            appender.append(new byte[1000], 0, 1000);
+            appender.discard();
+            file.drain();
+
+            assertEquals(0, file.getBytesWritten());
+        }
+
+        assertEquals(0, Files.size(path));
+    }
+
+    @Test
+    void truncateToZeroClearsWrittenRanges() throws IOException {
+        Path path = dir.resolve("d.bin");
+        RangeSet ranges = new RangeSet();
+
+        try (WriteBehindFile file = WriteBehindFile.open(path, true)) {
+            file.setWrittenRanges(ranges);
+
+            WriteBehindFile.Appender appender = file.appender(0);
+            appender.append(random(10_000, 34), 0, 10_000);
+            appender.flush();
+
+            file.truncate(0);
+
+            assertEquals(0, ranges.getTotalBytes());
+            assertEquals(0, Files.size(path));
+        }
+    }
+
+    @Test
+    void openingWithoutTruncateKeepsTheContent() throws IOException {
+        Path path = dir.resolve("e.bin");
+        Files.write(path, new byte[] { 1, 2, 3, 4 });
+
+        try (WriteBehindFile file = WriteBehindFile.open(path, false)) {
+            WriteBehindFile.Appender appender = file.appender(4);
+            appender.append(new byte[] { 5, 6 }, 0, 2);
+            appender.flush();
+        }
+
+        assertArrayEquals(new byte[] { 1, 2, 3, 4, 5, 6 }, Files.readAllBytes(path));
+    }
+
+    @Test
+    void preallocateSizesTheFileAndHoldsTheSpace() throws IOException {
+        Path path = dir.resolve("f.bin");
+        long before = DiskSpace.getReservedBytes(dir);
+
+        try (WriteBehindFile file = WriteBehindFile.open(path, true)) {
+            file.preallocate(1_000_000);
+
+            assertEquals(1_000_000, Files.size(path));
+            assertEquals(before + 1_000_000, DiskSpace.getReservedBytes(dir));
+
+            // Once sized the file needs no more room, a second call gives the reservation back
+            file.preallocate(1_000_000);
+            assertEquals(before, DiskSpace.getReservedBytes(dir));
+        }
+
+        assertEquals(before, DiskSpace.getReservedBytes(dir));
+    }
+
+    @Test
+    void preallocateFailsWhenTheDeviceIsTooFull() throws IOException {
+        try (WriteBehindFile file = WriteBehindFile.open(dir.resolve("g.bin"), true)) {
+            assertThrows(IOException.class, () -> file.preallocate(Long.MAX_VALUE / 2));
+        }
+
+        assertEquals(0, Files.size(dir.resolve("g.bin")));
+    }
+
+    @Test
+    void bytesAlreadyOnDiskAreNotReservedAgain() throws IOException {
+        Path path = dir.resolve("h.bin");
+        Files.write(path, new byte[4096]);
+        long before = DiskSpace.getReservedBytes(dir);
+
+        try (DiskSpace.Reservation reservation = DiskSpace.reserve(path, 10_000)) {
+            assertEquals(10_000 - 4096, reservation.getBytes());
+            assertEquals(before + 10_000 - 4096, DiskSpace.getReservedBytes(dir));
+        }
+
+        assertEquals(before, DiskSpace.getReservedBytes(dir));
+    }
+
+    private static void appendInChunks(WriteBehindFile.Appender appender, byte[] content, int from, int to, int chunk) throws IOException {
+        for (int position = from; position < to; position += chunk)
+            appender.append(content, position, Math.min(chunk, to - position));
+
+        appender.flush();
+    }
+
+    static byte[] random(int size, long seed) {
+        byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,65 @@
+package com.illusionist.ldm.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class AppDataUtilTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void theNewContentReplacesTheOld() throws IOException {
+        File file = dir.resolve("a.properties").toFile();
+        Files.writeString(file.toPath(), "old");
+
+        AppDataUtil.writeAtomically(file, out -> out.write("new".getBytes(StandardCharsets.US_ASCII)));
+
+        assertEquals("new", Files.readString(file.toPath()));
+        assertFalse(Files.exists(dir.resolve("a.properties.tmp")));
+    }
+
+    @Test
+    void aFailedWriteLeavesTheOldFile() throws IOException {
+        File file = dir.resolve("a.properties").toFile();
+        Files.writeString(file.toPath(), "old");
+
+        assertThrows(IOException.class, () -> AppDataUtil.writeAtomically(file, out -> {
+            out.write('x');
+            throw new IOException("disk full");
+        }));
+
+        assertEquals("old", Files.readString(file.toPath()));
+        assertFalse(Files.exists(dir.resolve("a.properties.tmp")));
+    }
+
+    @Test
+    void anOwnerOnlyFileIsNeverReadableByOthers() throws IOException {
+        assumeTrue(dir.getFileSystem().supportedFileAttributeViews().contains("posix"));
+
+        File file = dir.resolve("secret.properties").toFile();
+
+        // A temp file left by a crash, open to everyone
+        Path stale = Files.writeString(dir.resolve("secret.properties.tmp"), "stale");
+        Files.setPosixFilePermissions(stale, PosixFilePermissions.fromString("rw-rw-rw-"));
+
+        AppDataUtil.writeAtomically(file, out -> {
+            // Already owner only while the content is written
+            assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(stale)));
+            out.write("token=1".getBytes(StandardCharsets.US_ASCII));
+        }, AppDataUtil.getOwnerOnlyAttributes(dir));
+
+        assertEquals("token=1", Files.readString(file.toPath()));
+        assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(file.toPath())));
+        assertFalse(Files.exists(stale));
+    }
+}
@@ -0,0 +1,86 @@
+package com.illusionist.ldm.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class StringFormatUtilTest {
+    private static final int CALLS = 1_000_000;
+
+    @Test
+    void sizesRoundLikeOneDecimalPlace() {
+        long[] values = {0, 7, 999, 1000, 1049, 1050, 999_499, 999_500, 12_345_678, 999_000_001, 5_550_000_000L};
+
+        for (long value : values)
+            assertEquals(formatted(value), StringFormatUtil.bytesToSize(value), "for " + value);
+
+        assertEquals("1.5 KB/s", StringFormatUtil.bytesToString(1500));
+    }
+
+    @Test
+    void timesLeaveOutEmptyLeadingUnits() {
+        assertEquals("0s", StringFormatUtil.secondsToTime(0));
+        assertEquals("59s", StringFormatUtil.secondsToTime(59));
+        assertEquals("1m 0s", StringFormatUtil.secondsToTime(60));
+        assertEquals("1h 0m 5s", StringFormatUtil.secondsToTime(3605));
+        assertEquals("1d 1h 0m 0s", StringFormatUtil.secondsToTime(25 * 3600));
+        assertEquals("2d 0h 0m 1s", StringFormatUtil.secondsToTime(48 * 3600 + 1));
+    }
+
+    @Test
+    void tenthsKeepTheirSign() {
+        assertEquals("-1.5", StringFormatUtil.appendTenths(new StringBuilder(), -15).toString());
+        assertEquals("0.0", StringFormatUtil.appendTenths(new StringBuilder(), 0).toString());
+    }
+
+    @Test
+    void appendingIntoAKeptBuilderAllocatesNothing() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        StringBuilder out = new StringBuilder(64);
+
+        // Warm up first so the measurement is of compiled code
+        append(out, 0);
+
+        long before = threads.getCurrentThreadAllocatedBytes();
+        long length = append(out, CALLS);
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+
+        assertTrue(length > 0);
+        assertTrue(allocated < 1024, allocated + " bytes for " + CALLS + " rows");
+    }
+
+    // What a table row paints: a size, a rate, a time left and a percentage
+    private static long append(StringBuilder out, long from) {
+        long length = 0;
+
+        for (long i = from; i < from + CALLS; i++) {
+            out.setLength(0);
+            StringFormatUtil.appendSize(out, i * 7919);
+            StringFormatUtil.appendRate(out, i * 131);
+            StringFormatUtil.appendTime(out, i);
+            StringFormatUtil.appendTenths(out, i % 1001);
+            length += out.length();
+        }
+
+        return length;
+    }
+
+    // The String.format text the helpers replaced
+    private static String formatted(long bytes) {
+        if (bytes > 999_000_000)
+            return String.format(Locale.ROOT, "%.1f GB", bytes / 1e9);
+        else if (bytes > 999_000)
+            return String.format(Locale.ROOT, "%.1f MB", bytes / 1e6);
+        else if (bytes > 999)
+            return String.format(Locale.ROOT, "%.1f KB", bytes / 1e3);
+        else
+            return String.format(Locale.ROOT, "%.1f B", (double) bytes);
+    }
+}